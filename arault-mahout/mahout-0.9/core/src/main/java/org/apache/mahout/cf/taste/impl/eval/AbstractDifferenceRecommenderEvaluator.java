@@ -47,6 +47,7 @@ import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.Preference;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.apache.mahout.cf.taste.recommender.UserBasedRecommender;
 import org.apache.mahout.common.RandomUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -226,6 +227,37 @@ public abstract class AbstractDifferenceRecommenderEvaluator implements Recommen
     return wrapped;
   }
   
+  /**
+   * Estimate the test preferences of a user, NaN standing for no estimate. The estimates of a
+   * {@link UserBasedRecommender} are computed at once, resolving the user's neighborhood a single time.
+   */
+  protected static float[] estimatePreferences(Recommender recommender, long testUserID, PreferenceArray prefs)
+    throws TasteException {
+    if (recommender instanceof UserBasedRecommender) {
+      try {
+        return ((UserBasedRecommender) recommender).estimatePreferences(testUserID, prefs.getIDs());
+      } catch (NoSuchUserException nsue) {
+        // Estimated item by item below, logging as usual
+      } catch (NoSuchItemException nsie) {
+        // Estimated item by item below, logging as usual
+      }
+    }
+    float[] estimatedPreferences = new float[prefs.length()];
+    for (int i = 0; i < estimatedPreferences.length; i++) {
+      estimatedPreferences[i] = Float.NaN;
+      try {
+        estimatedPreferences[i] = recommender.estimatePreference(testUserID, prefs.getItemID(i));
+      } catch (NoSuchUserException nsue) {
+        // It's possible that an item exists in the test data but not training data in which case
+        // NSEE will be thrown. Just ignore it and move on.
+        log.info("User exists in test data but not training data: {}", testUserID);
+      } catch (NoSuchItemException nsie) {
+        log.info("Item exists in test data but not training data: {}", prefs.getItemID(i));
+      }
+    }
+    return estimatedPreferences;
+  }
+
   protected abstract void reset();
   
   protected abstract void processOneEstimate(float estimatedPreference, Preference realPref);
@@ -251,22 +283,12 @@ public abstract class AbstractDifferenceRecommenderEvaluator implements Recommen
 
     @Override
     public Void call() throws TasteException {
-      for (Preference realPref : prefs) {
-        float estimatedPreference = Float.NaN;
-        try {
-          estimatedPreference = recommender.estimatePreference(testUserID, realPref.getItemID());
-        } catch (NoSuchUserException nsue) {
-          // It's possible that an item exists in the test data but not training data in which case
-          // NSEE will be thrown. Just ignore it and move on.
-          log.info("User exists in test data but not training data: {}", testUserID);
-        } catch (NoSuchItemException nsie) {
-          log.info("Item exists in test data but not training data: {}", realPref.getItemID());
-        }
-        if (Float.isNaN(estimatedPreference)) {
+      float[] estimatedPreferences = estimatePreferences(recommender, testUserID, prefs);
+      for (int i = 0; i < estimatedPreferences.length; i++) {
+        if (Float.isNaN(estimatedPreferences[i])) {
           noEstimateCounter.incrementAndGet();
         } else {
-          estimatedPreference = capEstimatedPreference(estimatedPreference);
-          processOneEstimate(estimatedPreference, realPref);
+          processOneEstimate(capEstimatedPreference(estimatedPreferences[i]), prefs.get(i));
         }
       }
       return null;
@@ -13,8 +13,6 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.common.collect.Lists;
-import org.apache.mahout.cf.taste.common.NoSuchItemException;
-import org.apache.mahout.cf.taste.common.NoSuchUserException;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.eval.DataModelBuilder;
 import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
@@ -143,7 +141,7 @@ public abstract class AbstractDifferenceRecommenderSequentialEvaluator implement
     }
   }
 
-  private float capEstimatedPreference(float estimate) {
+  protected float capEstimatedPreference(float estimate) {
     if (estimate > maxPreference) {
       return maxPreference;
     }
@@ -234,22 +232,12 @@ public abstract class AbstractDifferenceRecommenderSequentialEvaluator implement
 
     @Override
     public Void call() throws TasteException {
-      for (Preference realPref : prefs) {
-        float estimatedPreference = Float.NaN;
-        try {
-          estimatedPreference = recommender.estimatePreference(testUserID, realPref.getItemID());
-        } catch (NoSuchUserException nsue) {
-          // It's possible that an item exists in the test data but not training data in which case
-          // NSEE will be thrown. Just ignore it and move on.
-          log.info("User exists in test data but not training data: {}", testUserID);
-        } catch (NoSuchItemException nsie) {
-          log.info("Item exists in test data but not training data: {}", realPref.getItemID());
-        }
-        if (Float.isNaN(estimatedPreference)) {
+      float[] estimatedPreferences = AbstractDifferenceRecommenderEvaluator.estimatePreferences(recommender, testUserID, prefs);
+      for (int i = 0; i < estimatedPreferences.length; i++) {
+        if (Float.isNaN(estimatedPreferences[i])) {
           noEstimateCounter.incrementAndGet();
         } else {
-          estimatedPreference = capEstimatedPreference(estimatedPreference);
-          processOneEstimate(estimatedPreference, realPref);
+          processOneEstimate(capEstimatedPreference(estimatedPreferences[i]), prefs.get(i));
         }
       }
       return null;
@@ -1,10 +1,7 @@
 package org.apache.mahout.cf.taste.impl.eval;
 
-import java.util.Collection;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.Collections;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.Callable;
@@ -12,21 +9,15 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.common.collect.Lists;
-import org.apache.mahout.cf.taste.common.NoSuchItemException;
-import org.apache.mahout.cf.taste.common.NoSuchUserException;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.eval.DataModelBuilder;
 import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
 import org.apache.mahout.cf.taste.eval.RecommenderEvaluator;
 import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
-import org.apache.mahout.cf.taste.impl.common.FullRunningAverageAndStdDev;
-import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
-import org.apache.mahout.cf.taste.impl.common.RunningAverageAndStdDev;
-import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
 import org.apache.mahout.cf.taste.impl.model.GenericPreference;
 import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
 import org.apache.mahout.cf.taste.model.DataModel;
@@ -42,6 +33,7 @@ import com.google.common.base.Preconditions;
 public abstract class AbstractKFoldRecommenderEvaluator extends AbstractDifferenceRecommenderSequentialEvaluator {
 
 private final Random random;
+private final int numThreads;
 public double noEstimateCounterAverage = 0.0;
 public double totalEstimateCount = 0.0;
 public double totalEstimateCountAverage = 0.0;
@@ -50,8 +42,17 @@ private static final Logger log = LoggerFactory
         .getLogger(AbstractKFoldRecommenderEvaluator.class);
 
 public AbstractKFoldRecommenderEvaluator() {
+    this(Runtime.getRuntime().availableProcessors());
+}
+
+/**
+ * @param numThreads maximum number of folds evaluated at the same time
+ */
+public AbstractKFoldRecommenderEvaluator(int numThreads) {
     super();
+    Preconditions.checkArgument(numThreads >= 1, "Invalid numThreads: " + numThreads);
     random = RandomUtils.getRandom();
+    this.numThreads = numThreads;
 }
 
 public double getNoEstimateCounterAverage(){
@@ -70,6 +71,19 @@ public double getTotalEstimateCountAverage(){
  * We use the same evaluate function from the RecommenderEvaluator interface
  * the trainingPercentage is used as the number of folds, so it can have
  * values bigger than 0 to the number of folds.
+ *
+ * The preferences are split once into a {@link KFoldPreferenceStore}, whose
+ * training models filter out the test fold instead of merging copies of the
+ * other ones.
+ * Recommenders are built one after the other in the calling thread, in the
+ * order of the folds, since RecommenderBuilders are usually not thread-safe;
+ * each fold is evaluated on a pool of numThreads threads as soon as its
+ * recommender is built. The next recommender is only built once fewer than
+ * numThreads folds are being evaluated, so that at most numThreads
+ * recommenders and training models are held at once. The estimates are then
+ * processed fold by fold, so that reset(), processOneEstimate() and
+ * computeFinalEvaluation() are never called concurrently and see the same
+ * estimates in the same order as if the folds were evaluated sequentially.
  */
 @Override
 public double evaluate(RecommenderBuilder recommenderBuilder,
@@ -88,26 +102,15 @@ public double evaluate(RecommenderBuilder recommenderBuilder,
     log.info("Beginning evaluation using {} of {}", trainingPercentage,
             dataModel);
 
-    int numUsers = dataModel.getNumUsers();
-
     // Get the number of folds
     int noFolds = (int) trainingPercentage;
 
-    // Initialize buckets for the number of folds
-    List<FastByIDMap<PreferenceArray>> folds = new ArrayList<FastByIDMap<PreferenceArray>>();
-    for (int i = 0; i < noFolds; i++) {
-        folds.add(new FastByIDMap<PreferenceArray>(
-                1 + (int) (i / noFolds * numUsers)));
-    }
-
     // Split the dataModel into K folds per user
-    LongPrimitiveIterator it = dataModel.getUserIDs();
-    while (it.hasNext()) {
-        long userID = it.nextLong();
-        if (random.nextDouble() < evaluationPercentage) {
-            splitOneUsersPrefs2(noFolds, folds, userID, dataModel);
-        }
-    }
+    KFoldPreferenceStore store = new KFoldPreferenceStore(dataModel, noFolds,
+            evaluationPercentage, random);
+
+    List<FoldEstimates> foldEstimates = evaluateFolds(recommenderBuilder,
+            dataModelBuilder, store);
 
     double result = Double.NaN;
     List<Double> intermediateResults = new ArrayList<Double>();
@@ -119,55 +122,8 @@ public double evaluate(RecommenderBuilder recommenderBuilder,
     totalEstimateCountAverage = 0.0;
     int totalEstimateCounter = 0;
 
-    // Rotate the folds. Each time only one is used for testing and the rest
-    // k-1 folds are used for training
     for (int k = 0; k < noFolds; k++) {
-        FastByIDMap<PreferenceArray> trainingPrefs = new FastByIDMap<PreferenceArray>(
-                1 + (int) (evaluationPercentage * numUsers));
-        FastByIDMap<PreferenceArray> testPrefs = new FastByIDMap<PreferenceArray>(
-                1 + (int) (evaluationPercentage * numUsers));
-
-        for (int i = 0; i < folds.size(); i++) {
-
-            // The testing fold
-            testPrefs = folds.get(k);
-
-            // Build the training set from the remaining folds
-            if (i != k) {
-                for (Map.Entry<Long, PreferenceArray> entry : folds.get(i)
-                        .entrySet()) {
-                    if (!trainingPrefs.containsKey(entry.getKey())) {
-                        trainingPrefs.put(entry.getKey(), entry.getValue());
-                    } else {
-                        List<Preference> userPreferences = new ArrayList<Preference>();
-                        PreferenceArray existingPrefs = trainingPrefs
-                                .get(entry.getKey());
-                        for (int j = 0; j < existingPrefs.length(); j++) {
-                            userPreferences.add(existingPrefs.get(j));
-                        }
-
-                        PreferenceArray newPrefs = entry.getValue();
-                        for (int j = 0; j < newPrefs.length(); j++) {
-                            userPreferences.add(newPrefs.get(j));
-                        }
-                        trainingPrefs.remove(entry.getKey());
-                        trainingPrefs.put(entry.getKey(),
-                                new GenericUserPreferenceArray(
-                                        userPreferences));
-
-                    }
-                }
-            }
-        }
-
-        DataModel trainingModel = dataModelBuilder == null ? new GenericDataModel(
-                trainingPrefs) : dataModelBuilder
-                .buildDataModel(trainingPrefs);
-
-        Recommender recommender = recommenderBuilder
-                .buildRecommender(trainingModel);
-
-        Double[] retVal = getEvaluation(testPrefs, recommender);
+        Double[] retVal = getEvaluation(foldEstimates.get(k));
         double intermediate = retVal[0];
         int noEstimateCounter = ((Double)retVal[1]).intValue();
         totalEstimateCounter += ((Double)retVal[2]).intValue();
@@ -272,77 +228,106 @@ private void splitOneUsersPrefs(int k,
 }
 
 /**
- * Split the preference values for one user into K folds, by shuffling.
- * First Shuffle the Preference array for the user. Then distribute the item-preference pairs
- * starting from the first buckets to the k-th bucket, and then start from the beggining.
- * 
- * @param k
- * @param folds
- * @param userID
- * @param dataModel
- * @throws TasteException
+ * Build the recommender of each fold in turn and estimate its test preferences
+ * on the pool, returning the estimates in the order of the folds. A fold holds
+ * one of numThreads permits from before its recommender is built until its
+ * estimates are computed.
  */
-private void splitOneUsersPrefs2(int k, List<FastByIDMap<PreferenceArray>> folds, long userID, DataModel dataModel) throws TasteException {
-
-    List<List<Preference>> oneUserPrefs = Lists.newArrayListWithCapacity(k + 1);
-    for (int i = 0; i < k; i++) {
-        oneUserPrefs.add(null);
-    }
-
-    PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
-    int size = prefs.length();
-
-
-    List<Preference> userPrefs = new ArrayList<Preference>();
-    Iterator<Preference> it = prefs.iterator();
-    while (it.hasNext()) {
-        userPrefs.add(it.next());
-    }
-
-    // Shuffle the items
-    Collections.shuffle(userPrefs);
-
-    int currentBucket = 0;
-    for (int i = 0; i < size; i++) {
-        if (currentBucket == k) {
-            currentBucket = 0;
+private List<FoldEstimates> evaluateFolds(RecommenderBuilder recommenderBuilder,
+        DataModelBuilder dataModelBuilder, final KFoldPreferenceStore store)
+        throws TasteException {
+    int noFolds = store.getNumFolds();
+    int nbFoldsInFlight = Math.min(numThreads, noFolds);
+    ExecutorService executor = Executors.newFixedThreadPool(nbFoldsInFlight);
+    final Semaphore foldsInFlight = new Semaphore(nbFoldsInFlight);
+    try {
+        List<Future<FoldEstimates>> futures = new ArrayList<Future<FoldEstimates>>(noFolds);
+        for (int k = 0; k < noFolds; k++) {
+            foldsInFlight.acquire();
+            // Each time only one fold is used for testing and the rest k-1 folds are used for training
+            DataModel trainingModel = dataModelBuilder == null ? store
+                    .getTrainingModel(k) : dataModelBuilder
+                    .buildDataModel(store.getTrainingPrefs(k));
+
+            final Recommender recommender = recommenderBuilder
+                    .buildRecommender(trainingModel);
+
+            final int fold = k;
+            futures.add(executor.submit(new Callable<FoldEstimates>() {
+                @Override
+                public FoldEstimates call() throws TasteException {
+                    try {
+                        return estimateFold(store.getTestPrefs(fold), recommender);
+                    } finally {
+                        foldsInFlight.release();
+                    }
+                }
+            }));
         }
 
-        Preference newPref = new GenericPreference(userID, userPrefs.get(i).getItemID(), userPrefs.get(i).getValue());
-
-        if (oneUserPrefs.get(currentBucket) == null) {
-            oneUserPrefs.set(currentBucket, new ArrayList<Preference>());
+        List<FoldEstimates> foldEstimates = new ArrayList<FoldEstimates>(noFolds);
+        for (Future<FoldEstimates> future : futures) {
+            foldEstimates.add(future.get());
         }
-        oneUserPrefs.get(currentBucket).add(newPref);
-        currentBucket++;
-    }
-
-    for (int i = 0; i < k; i++) {
-        if (oneUserPrefs.get(i) != null) {
-            folds.get(i).put(userID, new GenericUserPreferenceArray(oneUserPrefs.get(i)));
+        return foldEstimates;
+    } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+        Throwable cause = ee.getCause();
+        if (cause instanceof TasteException) {
+            throw (TasteException) cause;
         }
+        throw new TasteException(cause);
+    } finally {
+        executor.shutdown();
     }
-
 }
 
-private Double[] getEvaluation(FastByIDMap<PreferenceArray> testPrefs, Recommender recommender) throws TasteException {
-    reset();
-    Collection<Callable<Void>> estimateCallables = Lists.newArrayList();
-    AtomicInteger noEstimateCounter = new AtomicInteger();
-    AtomicInteger totalEstimateCounter = new AtomicInteger();
+private FoldEstimates estimateFold(FastByIDMap<PreferenceArray> testPrefs, Recommender recommender) throws TasteException {
+    log.info("Beginning evaluation of {} users", testPrefs.size());
+    FoldEstimates foldEstimates = new FoldEstimates(testPrefs.size());
     for (Map.Entry<Long, PreferenceArray> entry : testPrefs.entrySet()) {
-        estimateCallables.add(new PreferenceEstimateCallable(recommender, entry.getKey(), entry.getValue(), noEstimateCounter));
+        foldEstimates.testPrefs.add(entry.getValue());
+        foldEstimates.estimates.add(AbstractDifferenceRecommenderEvaluator.estimatePreferences(recommender,
+                entry.getKey(), entry.getValue()));
     }
-    log.info("Beginning evaluation of {} users", estimateCallables.size());
-    RunningAverageAndStdDev timing = new FullRunningAverageAndStdDev();
-    execute(estimateCallables, noEstimateCounter, timing);
+    return foldEstimates;
+}
 
+private Double[] getEvaluation(FoldEstimates foldEstimates) {
+    reset();
+    int noEstimateCounter = 0;
+    int totalEstimateCounter = 0;
+    for (int i = 0; i < foldEstimates.testPrefs.size(); i++) {
+        PreferenceArray prefs = foldEstimates.testPrefs.get(i);
+        float[] estimatedPreferences = foldEstimates.estimates.get(i);
+        for (int j = 0; j < estimatedPreferences.length; j++) {
+            if (Float.isNaN(estimatedPreferences[j])) {
+                noEstimateCounter++;
+            } else {
+                processOneEstimate(capEstimatedPreference(estimatedPreferences[j]), prefs.get(j));
+            }
+        }
+    }
 
     Double[] retVal = new Double[3];
     retVal[0] = computeFinalEvaluation();
-    retVal[1] = (double) noEstimateCounter.get();
-    retVal[2] = (double) totalEstimateCounter.get();
-    //retVal.put(computeFinalEvaluation(), noEstimateCounter.get());
-    //return computeFinalEvaluation();
+    retVal[1] = (double) noEstimateCounter;
+    retVal[2] = (double) totalEstimateCounter;
     return retVal;
+}
+
+/**
+ * Test preferences of one fold, user by user, with their estimates.
+ */
+private static final class FoldEstimates {
+
+    private final List<PreferenceArray> testPrefs;
+    private final List<float[]> estimates;
+
+    private FoldEstimates(int numUsers) {
+        testPrefs = new ArrayList<PreferenceArray>(numUsers);
+        estimates = new ArrayList<float[]>(numUsers);
+    }
 }}
@@ -17,8 +17,14 @@
 
 package org.apache.mahout.cf.taste.impl.eval;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.mahout.cf.taste.common.NoSuchUserException;
 import org.apache.mahout.cf.taste.common.TasteException;
@@ -45,6 +51,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 
 /**
  * <p>
@@ -70,15 +77,25 @@ public final class GenericRecommenderIRStatsEvaluator implements RecommenderIRSt
 
   private final Random random;
   private final RelevantItemsDataSplitter dataSplitter;
+  private final int numThreads;
 
   public GenericRecommenderIRStatsEvaluator() {
     this(new GenericRelevantItemsDataSplitter());
   }
 
   public GenericRecommenderIRStatsEvaluator(RelevantItemsDataSplitter dataSplitter) {
+    this(dataSplitter, 1);
+  }
+
+  /**
+   * @param numThreads maximum number of users evaluated at the same time
+   */
+  public GenericRecommenderIRStatsEvaluator(RelevantItemsDataSplitter dataSplitter, int numThreads) {
     Preconditions.checkNotNull(dataSplitter);
+    Preconditions.checkArgument(numThreads >= 1, "Invalid numThreads: " + numThreads);
     random = RandomUtils.getRandom();
     this.dataSplitter = dataSplitter;
+    this.numThreads = numThreads;
   }
 
   @Override
@@ -90,21 +107,53 @@ public final class GenericRecommenderIRStatsEvaluator implements RecommenderIRSt
                                int r,
                                double relevanceThreshold,
                                double evaluationPercentage) throws TasteException {
+    return evaluate(recommenderBuilder, dataModelBuilder, dataModel, rescorer, at, new int[] {r},
+        relevanceThreshold, evaluationPercentage)[0];
+  }
+
+  /**
+   * <p>
+   * Like {@link #evaluate(RecommenderBuilder, DataModelBuilder, DataModel, IDRescorer, int, int, double, double)}
+   * for several numbers of recommendations at once. The relevant items of each evaluated user are removed and a
+   * recommender is built only once, then asked once for the largest number of recommendations: the statistics
+   * for {@code rs[i]} are computed from the first {@code rs[i]} items of that list. They only differ from
+   * those of separate evaluations when items with the same estimated preference straddle the cut.
+   * </p>
+   *
+   * <p>
+   * Users are evaluated on up to {@code numThreads} threads, so the {@link RecommenderBuilder} and the
+   * {@link DataModelBuilder} must support concurrent calls when more than one thread is used.
+   * </p>
+   *
+   * @param rs numbers of recommendations to evaluate
+   * @return {@link IRStatistics} for each element of {@code rs}, in the same order
+   */
+  public IRStatistics[] evaluate(RecommenderBuilder recommenderBuilder,
+                                 DataModelBuilder dataModelBuilder,
+                                 DataModel dataModel,
+                                 IDRescorer rescorer,
+                                 int at,
+                                 int[] rs,
+                                 double relevanceThreshold,
+                                 double evaluationPercentage) throws TasteException {
 
     Preconditions.checkArgument(recommenderBuilder != null, "recommenderBuilder is null");
     Preconditions.checkArgument(dataModel != null, "dataModel is null");
     Preconditions.checkArgument(at >= 1, "at must be at least 1");
+    Preconditions.checkArgument(rs != null && rs.length > 0, "rs is null or empty");
     Preconditions.checkArgument(evaluationPercentage > 0.0 && evaluationPercentage <= 1.0,
         "Invalid evaluationPercentage: " + evaluationPercentage + ". Must be: 0.0 < evaluationPercentage <= 1.0");
+    int maxR = 0;
+    for (int r : rs) {
+      Preconditions.checkArgument(r >= 1, "Invalid number of recommendations: " + r);
+      maxR = Math.max(maxR, r);
+    }
 
-    int numItems = dataModel.getNumItems();
-    RunningAverage precision = new FullRunningAverage();
-    RunningAverage recall = new FullRunningAverage();
-    RunningAverage fallOut = new FullRunningAverage();
-    RunningAverage nDCG = new FullRunningAverage();
-    int numUsersRecommendedFor = 0;
-    int numUsersWithRecommendations = 0;
-
+    // List some most-preferred items that would count as (most) "relevant" results, for all users first:
+    // the splitter may reorder the preferences of the data model, which must be done before the training
+    // models are built from them concurrently
+    List<Long> userIDs = Lists.newArrayList();
+    List<FastIDSet> relevantItemIDs = Lists.newArrayList();
     LongPrimitiveIterator it = dataModel.getUserIDs();
     while (it.hasNext()) {
 
@@ -115,107 +164,202 @@ public final class GenericRecommenderIRStatsEvaluator implements RecommenderIRSt
         continue;
       }
 
-      long start = System.currentTimeMillis();
-
       PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
-
-      // List some most-preferred items that would count as (most) "relevant" results
       double theRelevanceThreshold = Double.isNaN(relevanceThreshold) ? computeThreshold(prefs) : relevanceThreshold;
-      FastIDSet relevantItemIDs = dataSplitter.getRelevantItemsIDs(userID, at, theRelevanceThreshold, dataModel);
+      FastIDSet userRelevantItemIDs = dataSplitter.getRelevantItemsIDs(userID, at, theRelevanceThreshold, dataModel);
+      // GenericRelevantItemsDataSplitter sorts them by value, put them back as the data model keeps them
+      dataModel.getPreferencesFromUser(userID).sortByItem();
 
-      int numRelevantItems = relevantItemIDs.size();
-      if (numRelevantItems <= 0) {
-        continue;
+      if (!userRelevantItemIDs.isEmpty()) {
+        userIDs.add(userID);
+        relevantItemIDs.add(userRelevantItemIDs);
       }
+    }
 
-      FastByIDMap<PreferenceArray> trainingUsers = new FastByIDMap<PreferenceArray>(dataModel.getNumUsers());
-      LongPrimitiveIterator it2 = dataModel.getUserIDs();
-      while (it2.hasNext()) {
-        dataSplitter.processOtherUser(userID, relevantItemIDs, trainingUsers, it2.nextLong(), dataModel);
+    List<UserStatistics> userStatistics =
+        evaluateUsers(recommenderBuilder, dataModelBuilder, dataModel, rescorer, at, rs, maxR, userIDs, relevantItemIDs);
+
+    IRStatistics[] result = new IRStatistics[rs.length];
+    for (int i = 0; i < rs.length; i++) {
+      RunningAverage precision = new FullRunningAverage();
+      RunningAverage recall = new FullRunningAverage();
+      RunningAverage fallOut = new FullRunningAverage();
+      RunningAverage nDCG = new FullRunningAverage();
+      int numUsersRecommendedFor = 0;
+      int numUsersWithRecommendations = 0;
+      for (UserStatistics stats : userStatistics) {
+        if (stats == null) {
+          continue;
+        }
+        addDatum(precision, stats.precision[i]);
+        addDatum(recall, stats.recall[i]);
+        addDatum(fallOut, stats.fallOut[i]);
+        addDatum(nDCG, stats.nDCG[i]);
+        numUsersRecommendedFor++;
+        if (stats.numRecommendedItems[i] > 0) {
+          numUsersWithRecommendations++;
+        }
       }
+      result[i] = new IRStatisticsImpl(
+          precision.getAverage(),
+          recall.getAverage(),
+          fallOut.getAverage(),
+          nDCG.getAverage(),
+          (double) numUsersWithRecommendations / (double) numUsersRecommendedFor);
+      log.info("Precision/recall/fall-out/nDCG/reach at {}: {} / {} / {} / {} / {}",
+               rs[i], result[i].getPrecision(), result[i].getRecall(), result[i].getFallOut(),
+               result[i].getNormalizedDiscountedCumulativeGain(), result[i].getReach());
+    }
+    return result;
+  }
 
-      DataModel trainingModel = dataModelBuilder == null ? new GenericDataModel(trainingUsers)
-          : dataModelBuilder.buildDataModel(trainingUsers);
-      try {
-        trainingModel.getPreferencesFromUser(userID);
-      } catch (NoSuchUserException nsee) {
-        continue; // Oops we excluded all prefs for the user -- just move on
+  /**
+   * Evaluate each user of userIDs on up to numThreads threads, and return their statistics in the same order,
+   * null for the users that could not be evaluated.
+   */
+  private List<UserStatistics> evaluateUsers(final RecommenderBuilder recommenderBuilder,
+                                             final DataModelBuilder dataModelBuilder,
+                                             final DataModel dataModel,
+                                             final IDRescorer rescorer,
+                                             final int at,
+                                             final int[] rs,
+                                             final int maxR,
+                                             List<Long> userIDs,
+                                             List<FastIDSet> relevantItemIDs) throws TasteException {
+    int numUsers = userIDs.size();
+    List<UserStatistics> result = Lists.newArrayListWithCapacity(numUsers);
+    if (numUsers == 0) {
+      return result;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, numUsers));
+    try {
+      List<Future<UserStatistics>> futures = Lists.newArrayListWithCapacity(numUsers);
+      for (int u = 0; u < numUsers; u++) {
+        final long userID = userIDs.get(u);
+        final FastIDSet userRelevantItemIDs = relevantItemIDs.get(u);
+        futures.add(executor.submit(new Callable<UserStatistics>() {
+          @Override
+          public UserStatistics call() throws TasteException {
+            return evaluateUser(recommenderBuilder, dataModelBuilder, dataModel, rescorer, at, rs, maxR,
+                userID, userRelevantItemIDs);
+          }
+        }));
       }
-
-      int size = numRelevantItems + trainingModel.getItemIDsFromUser(userID).size();
-      if (size < 2 * at) {
-        // Really not enough prefs to meaningfully evaluate this user
-        continue;
+      for (Future<UserStatistics> future : futures) {
+        result.add(future.get());
       }
+      return result;
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof TasteException) {
+        throw (TasteException) cause;
+      }
+      throw new TasteException(cause);
+    } finally {
+      executor.shutdown();
+    }
+  }
 
-      Recommender recommender = recommenderBuilder.buildRecommender(trainingModel);
+  private UserStatistics evaluateUser(RecommenderBuilder recommenderBuilder,
+                                      DataModelBuilder dataModelBuilder,
+                                      DataModel dataModel,
+                                      IDRescorer rescorer,
+                                      int at,
+                                      int[] rs,
+                                      int maxR,
+                                      long userID,
+                                      FastIDSet relevantItemIDs) throws TasteException {
 
-      int intersectionSize = 0;
-      List<RecommendedItem> recommendedItems = recommender.recommend(userID, r, rescorer);
-      for (RecommendedItem recommendedItem : recommendedItems) {
-        if (relevantItemIDs.contains(recommendedItem.getItemID())) {
-          intersectionSize++;
-        }
+    long start = System.currentTimeMillis();
+
+    int numRelevantItems = relevantItemIDs.size();
+
+    FastByIDMap<PreferenceArray> trainingUsers = new FastByIDMap<PreferenceArray>(dataModel.getNumUsers());
+    LongPrimitiveIterator it = dataModel.getUserIDs();
+    while (it.hasNext()) {
+      dataSplitter.processOtherUser(userID, relevantItemIDs, trainingUsers, it.nextLong(), dataModel);
+    }
+
+    DataModel trainingModel = dataModelBuilder == null ? new GenericDataModel(trainingUsers)
+        : dataModelBuilder.buildDataModel(trainingUsers);
+    try {
+      trainingModel.getPreferencesFromUser(userID);
+    } catch (NoSuchUserException nsee) {
+      return null; // Oops we excluded all prefs for the user -- just move on
+    }
+
+    int size = numRelevantItems + trainingModel.getItemIDsFromUser(userID).size();
+    if (size < 2 * at) {
+      // Really not enough prefs to meaningfully evaluate this user
+      return null;
+    }
+
+    Recommender recommender = recommenderBuilder.buildRecommender(trainingModel);
+    List<RecommendedItem> recommendedItems = recommender.recommend(userID, maxR, rescorer);
+
+    // Number of relevant items and gains within the first i recommended items
+    int numItems = recommendedItems.size();
+    int[] intersectionSizes = new int[numItems + 1];
+    double[] cumulativeGains = new double[numItems + 1];
+    double[] idealizedGains = new double[numItems + 1];
+    for (int i = 0; i < numItems; i++) {
+      RecommendedItem item = recommendedItems.get(i);
+      double discount = 1.0 / log2(i + 2.0); // Classical formulation says log(i+1), but i is 0-based here
+      intersectionSizes[i + 1] = intersectionSizes[i];
+      cumulativeGains[i + 1] = cumulativeGains[i];
+      idealizedGains[i + 1] = idealizedGains[i];
+      // In computing nDCG, assume relevant IDs have relevance 1 and others 0
+      if (relevantItemIDs.contains(item.getItemID())) {
+        intersectionSizes[i + 1]++;
+        cumulativeGains[i + 1] += discount;
       }
+      // Ideally results would be ordered with all relevant ones first, so this theoretical
+      // ideal list starts with number of relevant items equal to the total number of relevant items
+      if (i < numRelevantItems) {
+        idealizedGains[i + 1] += discount;
+      }
+    }
 
-      int numRecommendedItems = recommendedItems.size();
+    int numAllItems = dataModel.getNumItems();
+    UserStatistics stats = new UserStatistics(rs.length);
+    for (int i = 0; i < rs.length; i++) {
+      int numRecommendedItems = Math.min(rs[i], numItems);
+      int intersectionSize = intersectionSizes[numRecommendedItems];
+      stats.numRecommendedItems[i] = numRecommendedItems;
 
       // Precision
       if (numRecommendedItems > 0) {
-        precision.addDatum((double) intersectionSize / (double) numRecommendedItems);
+        stats.precision[i] = (double) intersectionSize / (double) numRecommendedItems;
       }
 
       // Recall
-      recall.addDatum((double) intersectionSize / (double) numRelevantItems);
+      stats.recall[i] = (double) intersectionSize / (double) numRelevantItems;
 
       // Fall-out
       if (numRelevantItems < size) {
-        fallOut.addDatum((double) (numRecommendedItems - intersectionSize)
-                         / (double) (numItems - numRelevantItems));
+        stats.fallOut[i] = (double) (numRecommendedItems - intersectionSize)
+                           / (double) (numAllItems - numRelevantItems);
       }
 
       // nDCG
-      // In computing, assume relevant IDs have relevance 1 and others 0
-      double cumulativeGain = 0.0;
-      double idealizedGain = 0.0;
-      for (int i = 0; i < numRecommendedItems; i++) {
-        RecommendedItem item = recommendedItems.get(i);
-        double discount = 1.0 / log2(i + 2.0); // Classical formulation says log(i+1), but i is 0-based here
-        if (relevantItemIDs.contains(item.getItemID())) {
-          cumulativeGain += discount;
-        }
-        // otherwise we're multiplying discount by relevance 0 so it doesn't do anything
-
-        // Ideally results would be ordered with all relevant ones first, so this theoretical
-        // ideal list starts with number of relevant items equal to the total number of relevant items
-        if (i < numRelevantItems) {
-          idealizedGain += discount;
-        }
-      }
-      if (idealizedGain > 0.0) {
-        nDCG.addDatum(cumulativeGain / idealizedGain);
+      if (idealizedGains[numRecommendedItems] > 0.0) {
+        stats.nDCG[i] = cumulativeGains[numRecommendedItems] / idealizedGains[numRecommendedItems];
       }
+    }
 
-      // Reach
-      numUsersRecommendedFor++;
-      if (numRecommendedItems > 0) {
-        numUsersWithRecommendations++;
-      }
+    long end = System.currentTimeMillis();
 
-      long end = System.currentTimeMillis();
+    log.info("Evaluated with user {} in {}ms", userID, end - start);
+    return stats;
+  }
 
-      log.info("Evaluated with user {} in {}ms", userID, end - start);
-      log.info("Precision/recall/fall-out/nDCG/reach: {} / {} / {} / {} / {}",
-               precision.getAverage(), recall.getAverage(), fallOut.getAverage(), nDCG.getAverage(),
-               (double) numUsersWithRecommendations / (double) numUsersRecommendedFor);
+  private static void addDatum(RunningAverage average, double datum) {
+    if (!Double.isNaN(datum)) {
+      average.addDatum(datum);
     }
-
-    return new IRStatisticsImpl(
-        precision.getAverage(),
-        recall.getAverage(),
-        fallOut.getAverage(),
-        nDCG.getAverage(),
-        (double) numUsersWithRecommendations / (double) numUsersRecommendedFor);
   }
 
   private static double computeThreshold(PreferenceArray prefs) {
@@ -235,4 +379,30 @@ public final class GenericRecommenderIRStatsEvaluator implements RecommenderIRSt
     return Math.log(value) / LOG2;
   }
 
+  /**
+   * Statistics of one user at each number of recommendations, NaN where the user does not count.
+   */
+  private static final class UserStatistics {
+
+    private final int[] numRecommendedItems;
+    private final double[] precision;
+    private final double[] recall;
+    private final double[] fallOut;
+    private final double[] nDCG;
+
+    private UserStatistics(int numCutoffs) {
+      numRecommendedItems = new int[numCutoffs];
+      precision = newNaNArray(numCutoffs);
+      recall = newNaNArray(numCutoffs);
+      fallOut = newNaNArray(numCutoffs);
+      nDCG = newNaNArray(numCutoffs);
+    }
+
+    private static double[] newNaNArray(int length) {
+      double[] array = new double[length];
+      Arrays.fill(array, Double.NaN);
+      return array;
+    }
+  }
+
 }
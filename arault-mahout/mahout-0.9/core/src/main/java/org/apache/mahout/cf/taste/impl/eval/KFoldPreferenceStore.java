@@ -0,0 +1,523 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Ints;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.AbstractDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericItemPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/**
+ * <p>
+ * The preferences of the users taking part in a K-fold cross validation, split once into K folds and held in two
+ * sorted structures, one by user and one by item, in which each preference is tagged with the id of its fold.
+ * </p>
+ *
+ * <p>
+ * {@link #getTrainingModel(int)} returns a {@link DataModel} filtering out the preferences of one fold: the K
+ * training models share this store and its sorted rows instead of each merging and sorting K-1 folds up front. A
+ * training model only copies the rows it reads, the first time it reads them, so that it is cheap to create and its
+ * copies are made by the threads using it. It exposes the same users, items, preferences and bounds as a
+ * {@link org.apache.mahout.cf.taste.impl.model.GenericDataModel} built from the K-1 other folds, and can be used
+ * concurrently.
+ * </p>
+ */
+final class KFoldPreferenceStore {
+
+  private final int numFolds;
+
+  // Rows by user, users in the order they were selected, each row sorted by item ID
+  private final long[] userIDs;
+  private final int[] userOffsets;
+  private final long[] userRowItemIDs;
+  private final float[] userRowValues;
+  private final byte[] userRowFolds;
+  // Positions in each row, relative to its start, in the order they were dealt to the folds
+  private final int[] userRowDealOrder;
+
+  // Sorted user IDs and the matching rows
+  private final long[] sortedUserIDs;
+  private final int[] sortedUserRows;
+
+  // Rows by item, items sorted by ID, each row sorted by user ID
+  private final long[] itemIDs;
+  private final int[] itemOffsets;
+  private final long[] itemRowUserIDs;
+  private final float[] itemRowValues;
+  private final byte[] itemRowFolds;
+
+  /**
+   * Selects each user of the model with probability evaluationPercentage, shuffles his preferences and deals them
+   * to the folds in turn, starting from the first one.
+   */
+  KFoldPreferenceStore(DataModel dataModel, int numFolds, double evaluationPercentage, Random random)
+    throws TasteException {
+    Preconditions.checkArgument(numFolds >= 1 && numFolds <= Byte.MAX_VALUE, "Invalid numFolds: " + numFolds);
+    this.numFolds = numFolds;
+
+    List<PreferenceArray> rows = Lists.newArrayList();
+    int numPrefs = 0;
+    LongPrimitiveIterator it = dataModel.getUserIDs();
+    while (it.hasNext()) {
+      long userID = it.nextLong();
+      if (random.nextDouble() < evaluationPercentage) {
+        PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
+        if (prefs.length() > 0) {
+          rows.add(prefs);
+          numPrefs += prefs.length();
+        }
+      }
+    }
+
+    int numUsers = rows.size();
+    userIDs = new long[numUsers];
+    userOffsets = new int[numUsers + 1];
+    userRowItemIDs = new long[numPrefs];
+    userRowValues = new float[numPrefs];
+    userRowFolds = new byte[numPrefs];
+    userRowDealOrder = new int[numPrefs];
+    int offset = 0;
+    for (int u = 0; u < numUsers; u++) {
+      PreferenceArray prefs = rows.get(u);
+      int length = prefs.length();
+      userIDs[u] = prefs.getUserID(0);
+      userOffsets[u] = offset;
+      addUserRow(prefs, offset, length);
+      offset += length;
+    }
+    userOffsets[numUsers] = offset;
+    rows = null; // Might help GC
+
+    sortedUserIDs = userIDs.clone();
+    Arrays.sort(sortedUserIDs);
+    sortedUserRows = new int[numUsers];
+    for (int u = 0; u < numUsers; u++) {
+      sortedUserRows[Arrays.binarySearch(sortedUserIDs, userIDs[u])] = u;
+    }
+
+    long[] allItemIDs = userRowItemIDs.clone();
+    Arrays.sort(allItemIDs);
+    int numItems = 0;
+    for (int i = 0; i < allItemIDs.length; i++) {
+      if (i == 0 || allItemIDs[i] != allItemIDs[i - 1]) {
+        allItemIDs[numItems++] = allItemIDs[i];
+      }
+    }
+    itemIDs = Arrays.copyOf(allItemIDs, numItems);
+    itemOffsets = new int[numItems + 1];
+    for (long itemID : userRowItemIDs) {
+      itemOffsets[Arrays.binarySearch(itemIDs, itemID) + 1]++;
+    }
+    for (int i = 0; i < numItems; i++) {
+      itemOffsets[i + 1] += itemOffsets[i];
+    }
+    itemRowUserIDs = new long[numPrefs];
+    itemRowValues = new float[numPrefs];
+    itemRowFolds = new byte[numPrefs];
+    // Going through users by ascending ID leaves the rows by item sorted by user ID
+    int[] nextPositions = Arrays.copyOf(itemOffsets, numItems);
+    for (int row : sortedUserRows) {
+      for (int p = userOffsets[row]; p < userOffsets[row + 1]; p++) {
+        int position = nextPositions[Arrays.binarySearch(itemIDs, userRowItemIDs[p])]++;
+        itemRowUserIDs[position] = userIDs[row];
+        itemRowValues[position] = userRowValues[p];
+        itemRowFolds[position] = userRowFolds[p];
+      }
+    }
+  }
+
+  private void addUserRow(PreferenceArray prefs, int offset, int length) {
+    // Shuffling the positions permutes them exactly as shuffling a list of the preferences would
+    int[] dealOrder = new int[length];
+    for (int i = 0; i < length; i++) {
+      dealOrder[i] = i;
+    }
+    Collections.shuffle(Ints.asList(dealOrder));
+
+    long[] rowItemIDs = prefs.getIDs();
+    int[] sortedPositions = null;
+    for (int i = 1; i < length; i++) {
+      if (rowItemIDs[i - 1] > rowItemIDs[i]) {
+        long[] sortedItemIDs = rowItemIDs.clone();
+        Arrays.sort(sortedItemIDs);
+        sortedPositions = new int[length];
+        for (int j = 0; j < length; j++) {
+          sortedPositions[j] = Arrays.binarySearch(sortedItemIDs, rowItemIDs[j]);
+        }
+        break;
+      }
+    }
+    for (int i = 0; i < length; i++) {
+      int position = sortedPositions == null ? i : sortedPositions[i];
+      userRowItemIDs[offset + position] = rowItemIDs[i];
+      userRowValues[offset + position] = prefs.getValue(i);
+    }
+    for (int i = 0; i < length; i++) {
+      int position = sortedPositions == null ? dealOrder[i] : sortedPositions[dealOrder[i]];
+      userRowDealOrder[offset + i] = position;
+      userRowFolds[offset + position] = (byte) (i % numFolds);
+    }
+  }
+
+  int getNumFolds() {
+    return numFolds;
+  }
+
+  /**
+   * @return the preferences of the fold, users in the order they were selected and their preferences in the order
+   *  they were dealt
+   */
+  FastByIDMap<PreferenceArray> getTestPrefs(int fold) {
+    // Grown from the same initial capacity as the former per-fold maps, so that users are iterated in the same order
+    FastByIDMap<PreferenceArray> testPrefs = new FastByIDMap<PreferenceArray>(1);
+    for (int u = 0; u < userIDs.length; u++) {
+      int start = userOffsets[u];
+      int length = userOffsets[u + 1] - start;
+      if (fold >= length) {
+        continue;
+      }
+      PreferenceArray prefs = new GenericUserPreferenceArray((length - fold - 1) / numFolds + 1);
+      prefs.setUserID(0, userIDs[u]);
+      int i = 0;
+      for (int dealt = fold; dealt < length; dealt += numFolds) {
+        int p = start + userRowDealOrder[start + dealt];
+        prefs.setItemID(i, userRowItemIDs[p]);
+        prefs.setValue(i, userRowValues[p]);
+        i++;
+      }
+      testPrefs.put(userIDs[u], prefs);
+    }
+    return testPrefs;
+  }
+
+  /**
+   * @return a copy of the preferences of all folds but the given one, e.g. for a
+   *  {@link org.apache.mahout.cf.taste.eval.DataModelBuilder}
+   */
+  FastByIDMap<PreferenceArray> getTrainingPrefs(int fold) {
+    FastByIDMap<PreferenceArray> trainingPrefs = new FastByIDMap<PreferenceArray>(userIDs.length);
+    for (int row : sortedUserRows) {
+      PreferenceArray prefs = copyUserRow(row, fold);
+      if (prefs.length() > 0) {
+        trainingPrefs.put(userIDs[row], prefs);
+      }
+    }
+    return trainingPrefs;
+  }
+
+  /**
+   * @return a model of the preferences of all folds but the given one
+   */
+  DataModel getTrainingModel(int fold) {
+    return new TrainingDataModel(fold);
+  }
+
+  private PreferenceArray copyUserRow(int row, int excludedFold) {
+    int start = userOffsets[row];
+    int end = userOffsets[row + 1];
+    PreferenceArray prefs = new GenericUserPreferenceArray(countOtherFolds(userRowFolds, start, end, excludedFold));
+    if (prefs.length() > 0) {
+      prefs.setUserID(0, userIDs[row]);
+    }
+    int i = 0;
+    for (int p = start; p < end; p++) {
+      if (userRowFolds[p] != excludedFold) {
+        prefs.setItemID(i, userRowItemIDs[p]);
+        prefs.setValue(i, userRowValues[p]);
+        i++;
+      }
+    }
+    return prefs;
+  }
+
+  private PreferenceArray copyItemRow(int row, int excludedFold) {
+    int start = itemOffsets[row];
+    int end = itemOffsets[row + 1];
+    PreferenceArray prefs = new GenericItemPreferenceArray(countOtherFolds(itemRowFolds, start, end, excludedFold));
+    if (prefs.length() > 0) {
+      prefs.setItemID(0, itemIDs[row]);
+    }
+    int i = 0;
+    for (int p = start; p < end; p++) {
+      if (itemRowFolds[p] != excludedFold) {
+        prefs.setUserID(i, itemRowUserIDs[p]);
+        prefs.setValue(i, itemRowValues[p]);
+        i++;
+      }
+    }
+    return prefs;
+  }
+
+  private static int countOtherFolds(byte[] folds, int start, int end, int excludedFold) {
+    int count = 0;
+    for (int p = start; p < end; p++) {
+      if (folds[p] != excludedFold) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * The preferences of all folds but one. Users and items without any such preference are left out. The row of a
+   * user or item is copied out of the store the first time it is read, then kept for the next reads.
+   */
+  private final class TrainingDataModel extends AbstractDataModel {
+
+    private final byte excludedFold;
+    private final long[] trainingUserIDs;
+    private final int[] trainingUserRows;
+    private final int[] trainingUserLengths;
+    private final AtomicReferenceArray<PreferenceArray> trainingUserPrefs;
+    private final long[] trainingItemIDs;
+    private final int[] trainingItemRows;
+    private final int[] trainingItemLengths;
+    private final AtomicReferenceArray<PreferenceArray> trainingItemPrefs;
+
+    private TrainingDataModel(int excludedFold) {
+      this.excludedFold = (byte) excludedFold;
+
+      float maxPrefValue = Float.NEGATIVE_INFINITY;
+      float minPrefValue = Float.POSITIVE_INFINITY;
+      for (int p = 0; p < userRowValues.length; p++) {
+        if (userRowFolds[p] != excludedFold) {
+          float value = userRowValues[p];
+          if (value > maxPrefValue) {
+            maxPrefValue = value;
+          }
+          if (value < minPrefValue) {
+            minPrefValue = value;
+          }
+        }
+      }
+      setMinPreference(minPrefValue);
+      setMaxPreference(maxPrefValue);
+
+      int numUsers = 0;
+      int[] userRows = new int[sortedUserRows.length];
+      int[] userLengths = new int[sortedUserRows.length];
+      for (int row : sortedUserRows) {
+        int length = countOtherFolds(userRowFolds, userOffsets[row], userOffsets[row + 1], excludedFold);
+        if (length > 0) {
+          userRows[numUsers] = row;
+          userLengths[numUsers++] = length;
+        }
+      }
+      trainingUserRows = Arrays.copyOf(userRows, numUsers);
+      trainingUserLengths = Arrays.copyOf(userLengths, numUsers);
+      trainingUserIDs = new long[numUsers];
+      for (int u = 0; u < numUsers; u++) {
+        trainingUserIDs[u] = userIDs[trainingUserRows[u]];
+      }
+      trainingUserPrefs = new AtomicReferenceArray<PreferenceArray>(numUsers);
+
+      int numItems = 0;
+      int[] itemRows = new int[itemIDs.length];
+      int[] itemLengths = new int[itemIDs.length];
+      for (int row = 0; row < itemIDs.length; row++) {
+        int length = countOtherFolds(itemRowFolds, itemOffsets[row], itemOffsets[row + 1], excludedFold);
+        if (length > 0) {
+          itemRows[numItems] = row;
+          itemLengths[numItems++] = length;
+        }
+      }
+      trainingItemRows = Arrays.copyOf(itemRows, numItems);
+      trainingItemLengths = Arrays.copyOf(itemLengths, numItems);
+      trainingItemIDs = new long[numItems];
+      for (int i = 0; i < numItems; i++) {
+        trainingItemIDs[i] = itemIDs[trainingItemRows[i]];
+      }
+      trainingItemPrefs = new AtomicReferenceArray<PreferenceArray>(numItems);
+    }
+
+    private int checkUserIndex(long userID) throws NoSuchUserException {
+      int index = Arrays.binarySearch(trainingUserIDs, userID);
+      if (index < 0) {
+        throw new NoSuchUserException(userID);
+      }
+      return index;
+    }
+
+    private int getItemRow(long itemID) {
+      int index = Arrays.binarySearch(trainingItemIDs, itemID);
+      return index < 0 ? -1 : trainingItemRows[index];
+    }
+
+    @Override
+    public LongPrimitiveIterator getUserIDs() {
+      return new LongPrimitiveArrayIterator(trainingUserIDs);
+    }
+
+    /**
+     * @throws NoSuchUserException
+     *           if there is no such user
+     */
+    @Override
+    public PreferenceArray getPreferencesFromUser(long userID) throws NoSuchUserException {
+      int index = checkUserIndex(userID);
+      PreferenceArray prefs = trainingUserPrefs.get(index);
+      if (prefs == null) {
+        // Threads reading the same row at the same time may each copy it, but they get equal copies
+        prefs = copyUserRow(trainingUserRows[index], excludedFold);
+        trainingUserPrefs.set(index, prefs);
+      }
+      return prefs;
+    }
+
+    @Override
+    public FastIDSet getItemIDsFromUser(long userID) throws TasteException {
+      int index = checkUserIndex(userID);
+      int row = trainingUserRows[index];
+      FastIDSet result = new FastIDSet(trainingUserLengths[index]);
+      for (int p = userOffsets[row]; p < userOffsets[row + 1]; p++) {
+        if (userRowFolds[p] != excludedFold) {
+          result.add(userRowItemIDs[p]);
+        }
+      }
+      return result;
+    }
+
+    @Override
+    public LongPrimitiveIterator getItemIDs() {
+      return new LongPrimitiveArrayIterator(trainingItemIDs);
+    }
+
+    /**
+     * @throws NoSuchItemException
+     *           if there is no such item
+     */
+    @Override
+    public PreferenceArray getPreferencesForItem(long itemID) throws NoSuchItemException {
+      int index = Arrays.binarySearch(trainingItemIDs, itemID);
+      if (index < 0) {
+        throw new NoSuchItemException(itemID);
+      }
+      PreferenceArray prefs = trainingItemPrefs.get(index);
+      if (prefs == null) {
+        prefs = copyItemRow(trainingItemRows[index], excludedFold);
+        trainingItemPrefs.set(index, prefs);
+      }
+      return prefs;
+    }
+
+    @Override
+    public Float getPreferenceValue(long userID, long itemID) throws TasteException {
+      int row = trainingUserRows[checkUserIndex(userID)];
+      int p = Arrays.binarySearch(userRowItemIDs, userOffsets[row], userOffsets[row + 1], itemID);
+      return p < 0 || userRowFolds[p] == excludedFold ? null : userRowValues[p];
+    }
+
+    @Override
+    public Long getPreferenceTime(long userID, long itemID) {
+      return null;
+    }
+
+    @Override
+    public int getNumItems() {
+      return trainingItemIDs.length;
+    }
+
+    @Override
+    public int getNumUsers() {
+      return trainingUserIDs.length;
+    }
+
+    @Override
+    public int getNumUsersWithPreferenceFor(long itemID) {
+      int index = Arrays.binarySearch(trainingItemIDs, itemID);
+      return index < 0 ? 0 : trainingItemLengths[index];
+    }
+
+    @Override
+    public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) {
+      int row1 = getItemRow(itemID1);
+      int row2 = getItemRow(itemID2);
+      if (row1 < 0 || row2 < 0) {
+        return 0;
+      }
+      int i = itemOffsets[row1];
+      int end1 = itemOffsets[row1 + 1];
+      int j = itemOffsets[row2];
+      int end2 = itemOffsets[row2 + 1];
+      int count = 0;
+      while (i < end1 && j < end2) {
+        long userID1 = itemRowUserIDs[i];
+        long userID2 = itemRowUserIDs[j];
+        if (userID1 < userID2) {
+          i++;
+        } else if (userID1 > userID2) {
+          j++;
+        } else {
+          // The user counts only if neither of his two preferences is in the excluded fold
+          if (itemRowFolds[i] != excludedFold && itemRowFolds[j] != excludedFold) {
+            count++;
+          }
+          i++;
+          j++;
+        }
+      }
+      return count;
+    }
+
+    @Override
+    public void setPreference(long userID, long itemID, float value) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void removePreference(long userID, long itemID) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void refresh(Collection<Refreshable> alreadyRefreshed) {
+      // Does nothing
+    }
+
+    @Override
+    public boolean hasPreferenceValues() {
+      return true;
+    }
+
+    @Override
+    public String toString() {
+      return "KFoldTrainingDataModel[fold:" + excludedFold + ", users:" + trainingUserIDs.length + ", items:"
+          + trainingItemIDs.length + ']';
+    }
+  }
+
+}
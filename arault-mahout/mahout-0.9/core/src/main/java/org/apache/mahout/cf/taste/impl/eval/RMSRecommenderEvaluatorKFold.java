@@ -8,6 +8,16 @@ public class RMSRecommenderEvaluatorKFold extends AbstractKFoldRecommenderEvalua
 
 private LongRunningAverage average;
 
+public RMSRecommenderEvaluatorKFold() {
+    super();
+}
+
+/**
+ * @param numThreads maximum number of folds evaluated at the same time
+ */
+public RMSRecommenderEvaluatorKFold(int numThreads) {
+    super(numThreads);
+}
 
 @Override
 protected void reset() {
@@ -0,0 +1,690 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.NoSuchElementException;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.AbstractLongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.Closeables;
+
+/**
+ * <p>
+ * A read-only, in-memory {@link DataModel} holding preferences in two compressed sparse row (CSR) structures, one
+ * by user and one by item. User and item IDs are remapped to dense indices, their positions in the sorted arrays of
+ * IDs, so that each preference only costs an int index and a value in each structure. Values are stored on one
+ * byte each when they are all multiples of 0.5 between -64 and 63.5 (e.g. 1 to 5 stars), as floats otherwise.
+ * </p>
+ *
+ * <p>
+ * The {@link PreferenceArray}s returned by {@link #getPreferencesFromUser(long)} and
+ * {@link #getPreferencesForItem(long)} are built on each call and may be modified freely. Code iterating over many
+ * profiles, e.g. similarity kernels, can instead read the rows through the index-based accessors:
+ * </p>
+ *
+ * <pre>
+ * int userIndex = model.getUserIndex(userID);
+ * for (int i = model.getUserRowStart(userIndex); i &lt; model.getUserRowEnd(userIndex); i++) {
+ *   long itemID = model.getItemID(model.getItemIndexAt(i));
+ *   float value = model.getUserValueAt(i);
+ * }
+ * </pre>
+ *
+ * <p>
+ * Rows of users are sorted by item index, hence by item ID, and rows of items by user index. Timestamps are not
+ * kept and the model cannot be modified.
+ * </p>
+ *
+ * <p>
+ * {@link #write(File)} saves these structures in a binary file, which {@link #map(File)} maps in memory: the model
+ * is then served from the mapped file without parsing nor copying it, and JVMs mapping the same file share it
+ * through the page cache. The file starts with a header of 8 ints: a magic number, the version of the format, the
+ * numbers of users, items and preferences, the number of bytes per value (1 or 4), and the minimum and maximum
+ * preferences as floats. Then come the user and item IDs as longs, the offsets and item indices of the rows by user,
+ * the offsets and user indices of the rows by item as ints, then the values of the rows by user and by item, all
+ * big-endian. This file replaces Java serialization, which this model does not support.
+ * </p>
+ */
+public final class CompactDataModel extends AbstractDataModel {
+
+  private static final Logger log = LoggerFactory.getLogger(CompactDataModel.class);
+
+  private static final float MIN_QUANTIZED_VALUE = Byte.MIN_VALUE / 2.0f;
+  private static final float MAX_QUANTIZED_VALUE = Byte.MAX_VALUE / 2.0f;
+
+  private static final int MAGIC_NUMBER = 0x52435352; // "RCSR"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 8 * 4;
+
+  // Buffers wrap arrays when the model is built in memory, or views of the file when mapped
+  private final LongBuffer userIDs;
+  private final LongBuffer itemIDs;
+
+  private final IntBuffer userOffsets;
+  private final IntBuffer userRowItemIndices;
+  private final IntBuffer itemOffsets;
+  private final IntBuffer itemRowUserIndices;
+
+  // Either the float values or the doubled values as bytes are set
+  private final FloatBuffer userRowValues;
+  private final FloatBuffer itemRowValues;
+  private final ByteBuffer userRowHalfValues;
+  private final ByteBuffer itemRowHalfValues;
+
+  /**
+   * @param userData users to include, see also {@link GenericDataModel#toDataMap(DataModel)}
+   */
+  public CompactDataModel(FastByIDMap<PreferenceArray> userData) {
+    Preconditions.checkArgument(userData != null, "userData is null");
+
+    long[] users = new long[userData.size()];
+    int i = 0;
+    LongPrimitiveIterator it = userData.keySetIterator();
+    while (it.hasNext()) {
+      users[i++] = it.nextLong();
+    }
+    Arrays.sort(users);
+
+    FastIDSet itemIDSet = new FastIDSet();
+    int numPreferences = 0;
+    boolean quantizable = true;
+    float maxPrefValue = Float.NEGATIVE_INFINITY;
+    float minPrefValue = Float.POSITIVE_INFINITY;
+    for (long userID : users) {
+      PreferenceArray prefs = userData.get(userID);
+      int length = prefs.length();
+      for (int j = 0; j < length; j++) {
+        itemIDSet.add(prefs.getItemID(j));
+        float value = prefs.getValue(j);
+        quantizable &= isQuantizable(value);
+        maxPrefValue = Math.max(maxPrefValue, value);
+        minPrefValue = Math.min(minPrefValue, value);
+      }
+      numPreferences += length;
+    }
+    setMinPreference(minPrefValue);
+    setMaxPreference(maxPrefValue);
+    long[] items = itemIDSet.toArray();
+    itemIDSet = null; // Might help GC -- this is big
+    Arrays.sort(items);
+
+    // Rows by user, sorted by item index
+    int[] userRowStarts = new int[users.length + 1];
+    int[] rowItemIndices = new int[numPreferences];
+    float[] values = new float[numPreferences];
+    int[] itemCounts = new int[items.length];
+    int position = 0;
+    for (int userIndex = 0; userIndex < users.length; userIndex++) {
+      userRowStarts[userIndex] = position;
+      PreferenceArray prefs = userData.get(users[userIndex]);
+      int length = prefs.length();
+      long[] sortKeys = new long[length];
+      for (int j = 0; j < length; j++) {
+        sortKeys[j] = ((long) Arrays.binarySearch(items, prefs.getItemID(j)) << 32) | j;
+      }
+      Arrays.sort(sortKeys);
+      for (long sortKey : sortKeys) {
+        int itemIndex = (int) (sortKey >>> 32);
+        rowItemIndices[position] = itemIndex;
+        values[position] = prefs.getValue((int) sortKey);
+        itemCounts[itemIndex]++;
+        position++;
+      }
+      if ((userIndex + 1) % 10000 == 0) {
+        log.info("Processed {} users", userIndex + 1);
+      }
+    }
+    userRowStarts[users.length] = position;
+    log.info("Processed {} users", users.length);
+
+    // Rows by item, filled in user order so sorted by user index
+    int[] itemRowStarts = new int[items.length + 1];
+    for (int itemIndex = 0; itemIndex < items.length; itemIndex++) {
+      itemRowStarts[itemIndex + 1] = itemRowStarts[itemIndex] + itemCounts[itemIndex];
+    }
+    int[] rowUserIndices = new int[numPreferences];
+    float[] itemValues = new float[numPreferences];
+    int[] nextPositions = Arrays.copyOf(itemRowStarts, items.length);
+    for (int userIndex = 0; userIndex < users.length; userIndex++) {
+      for (int j = userRowStarts[userIndex]; j < userRowStarts[userIndex + 1]; j++) {
+        int itemPosition = nextPositions[rowItemIndices[j]]++;
+        rowUserIndices[itemPosition] = userIndex;
+        itemValues[itemPosition] = values[j];
+      }
+    }
+
+    userIDs = LongBuffer.wrap(users);
+    itemIDs = LongBuffer.wrap(items);
+    userOffsets = IntBuffer.wrap(userRowStarts);
+    userRowItemIndices = IntBuffer.wrap(rowItemIndices);
+    itemOffsets = IntBuffer.wrap(itemRowStarts);
+    itemRowUserIndices = IntBuffer.wrap(rowUserIndices);
+    if (quantizable) {
+      userRowHalfValues = ByteBuffer.wrap(quantize(values));
+      itemRowHalfValues = ByteBuffer.wrap(quantize(itemValues));
+      userRowValues = null;
+      itemRowValues = null;
+    } else {
+      userRowHalfValues = null;
+      itemRowHalfValues = null;
+      userRowValues = FloatBuffer.wrap(values);
+      itemRowValues = FloatBuffer.wrap(itemValues);
+    }
+    log.info("Stored {} preferences on {} bytes each", numPreferences, quantizable ? 1 : 4);
+  }
+
+  /**
+   * Creates a {@link CompactDataModel} holding a copy of the preferences of another given {@link DataModel}.
+   *
+   * @throws TasteException if an error occurs while retrieving the other {@link DataModel}'s users
+   */
+  public CompactDataModel(DataModel dataModel) throws TasteException {
+    this(GenericDataModel.toDataMap(dataModel));
+  }
+
+  private CompactDataModel(LongBuffer userIDs, LongBuffer itemIDs, IntBuffer userOffsets,
+      IntBuffer userRowItemIndices, IntBuffer itemOffsets, IntBuffer itemRowUserIndices, FloatBuffer userRowValues,
+      FloatBuffer itemRowValues, ByteBuffer userRowHalfValues, ByteBuffer itemRowHalfValues) {
+    this.userIDs = userIDs;
+    this.itemIDs = itemIDs;
+    this.userOffsets = userOffsets;
+    this.userRowItemIndices = userRowItemIndices;
+    this.itemOffsets = itemOffsets;
+    this.itemRowUserIndices = itemRowUserIndices;
+    this.userRowValues = userRowValues;
+    this.itemRowValues = itemRowValues;
+    this.userRowHalfValues = userRowHalfValues;
+    this.itemRowHalfValues = itemRowHalfValues;
+  }
+
+  /**
+   * Maps a file written by {@link #write(File)} in memory, read-only.
+   *
+   * @throws IOException if the file cannot be read or is not a model of this version
+   */
+  public static CompactDataModel map(File file) throws IOException {
+    FileInputStream in = new FileInputStream(file);
+    try {
+      FileChannel channel = in.getChannel();
+      if (channel.size() < HEADER_SIZE) {
+        throw new IOException("Not a CompactDataModel file: " + file);
+      }
+      ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+      if (header.getInt() != MAGIC_NUMBER) {
+        throw new IOException("Not a CompactDataModel file: " + file);
+      }
+      int version = header.getInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported CompactDataModel version " + version + " in " + file);
+      }
+      int numUsers = header.getInt();
+      int numItems = header.getInt();
+      int numPreferences = header.getInt();
+      int valueBytes = header.getInt();
+      float minPreference = header.getFloat();
+      float maxPreference = header.getFloat();
+
+      long expectedSize = HEADER_SIZE + 8L * (numUsers + numItems) + 4L * (numUsers + numItems + 2)
+          + (8L + 2L * valueBytes) * numPreferences;
+      if ((valueBytes != 1 && valueBytes != 4) || channel.size() != expectedSize) {
+        throw new IOException("Corrupted CompactDataModel file: " + file);
+      }
+
+      // Each section is mapped on its own, so that only sections must be smaller than 2 GB
+      long position = HEADER_SIZE;
+      LongBuffer userIDs = mapSection(channel, position, 8L * numUsers).asLongBuffer();
+      position += 8L * numUsers;
+      LongBuffer itemIDs = mapSection(channel, position, 8L * numItems).asLongBuffer();
+      position += 8L * numItems;
+      IntBuffer userOffsets = mapSection(channel, position, 4L * (numUsers + 1)).asIntBuffer();
+      position += 4L * (numUsers + 1);
+      IntBuffer userRowItemIndices = mapSection(channel, position, 4L * numPreferences).asIntBuffer();
+      position += 4L * numPreferences;
+      IntBuffer itemOffsets = mapSection(channel, position, 4L * (numItems + 1)).asIntBuffer();
+      position += 4L * (numItems + 1);
+      IntBuffer itemRowUserIndices = mapSection(channel, position, 4L * numPreferences).asIntBuffer();
+      position += 4L * numPreferences;
+      ByteBuffer userRowValues = mapSection(channel, position, (long) valueBytes * numPreferences);
+      position += (long) valueBytes * numPreferences;
+      ByteBuffer itemRowValues = mapSection(channel, position, (long) valueBytes * numPreferences);
+
+      CompactDataModel model;
+      if (valueBytes == 1) {
+        model = new CompactDataModel(userIDs, itemIDs, userOffsets, userRowItemIndices, itemOffsets,
+            itemRowUserIndices, null, null, userRowValues, itemRowValues);
+      } else {
+        model = new CompactDataModel(userIDs, itemIDs, userOffsets, userRowItemIndices, itemOffsets,
+            itemRowUserIndices, userRowValues.asFloatBuffer(), itemRowValues.asFloatBuffer(), null, null);
+      }
+      model.setMinPreference(minPreference);
+      model.setMaxPreference(maxPreference);
+      log.info("Mapped {} preferences of {} users on {} items", new Object[] {numPreferences, numUsers, numItems});
+      return model;
+    } finally {
+      // The mappings stay valid once the channel is closed
+      Closeables.close(in, true);
+    }
+  }
+
+  private static ByteBuffer mapSection(FileChannel channel, long position, long size) throws IOException {
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Section of " + size + " bytes is too large to be mapped");
+    }
+    return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+  }
+
+  /**
+   * Writes the preferences of this model in a binary file, to be mapped by {@link #map(File)}.
+   */
+  public void write(File file) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    try {
+      int numPreferences = userRowItemIndices.limit();
+      boolean quantized = userRowHalfValues != null;
+      out.writeInt(MAGIC_NUMBER);
+      out.writeInt(VERSION);
+      out.writeInt(getNumUsers());
+      out.writeInt(getNumItems());
+      out.writeInt(numPreferences);
+      out.writeInt(quantized ? 1 : 4);
+      out.writeFloat(getMinPreference());
+      out.writeFloat(getMaxPreference());
+      for (int i = 0; i < userIDs.limit(); i++) {
+        out.writeLong(userIDs.get(i));
+      }
+      for (int i = 0; i < itemIDs.limit(); i++) {
+        out.writeLong(itemIDs.get(i));
+      }
+      writeInts(out, userOffsets);
+      writeInts(out, userRowItemIndices);
+      writeInts(out, itemOffsets);
+      writeInts(out, itemRowUserIndices);
+      for (int i = 0; i < numPreferences; i++) {
+        if (quantized) {
+          out.writeByte(userRowHalfValues.get(i));
+        } else {
+          out.writeFloat(userRowValues.get(i));
+        }
+      }
+      for (int i = 0; i < numPreferences; i++) {
+        if (quantized) {
+          out.writeByte(itemRowHalfValues.get(i));
+        } else {
+          out.writeFloat(itemRowValues.get(i));
+        }
+      }
+    } finally {
+      Closeables.close(out, false);
+    }
+  }
+
+  private static void writeInts(DataOutputStream out, IntBuffer values) throws IOException {
+    for (int i = 0; i < values.limit(); i++) {
+      out.writeInt(values.get(i));
+    }
+  }
+
+  private static int binarySearch(LongBuffer sorted, long key) {
+    int low = 0;
+    int high = sorted.limit() - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      long value = sorted.get(middle);
+      if (value < key) {
+        low = middle + 1;
+      } else if (value > key) {
+        high = middle - 1;
+      } else {
+        return middle;
+      }
+    }
+    return -(low + 1);
+  }
+
+  private static int binarySearch(IntBuffer sorted, int from, int to, int key) {
+    int low = from;
+    int high = to - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int value = sorted.get(middle);
+      if (value < key) {
+        low = middle + 1;
+      } else if (value > key) {
+        high = middle - 1;
+      } else {
+        return middle;
+      }
+    }
+    return -(low + 1);
+  }
+
+  private static boolean isQuantizable(float value) {
+    return value >= MIN_QUANTIZED_VALUE && value <= MAX_QUANTIZED_VALUE && value * 2.0f == Math.rint(value * 2.0f);
+  }
+
+  private static byte[] quantize(float[] values) {
+    byte[] halfValues = new byte[values.length];
+    for (int i = 0; i < values.length; i++) {
+      halfValues[i] = (byte) (values[i] * 2.0f);
+    }
+    return halfValues;
+  }
+
+  /**
+   * @return index of the user, between 0 and {@link #getNumUsers()} excluded, or a negative value if there is no
+   *  such user
+   */
+  public int getUserIndex(long userID) {
+    return Math.max(-1, binarySearch(userIDs, userID));
+  }
+
+  /**
+   * @return index of the item, between 0 and {@link #getNumItems()} excluded, or a negative value if there is no
+   *  such item
+   */
+  public int getItemIndex(long itemID) {
+    return Math.max(-1, binarySearch(itemIDs, itemID));
+  }
+
+  public long getUserID(int userIndex) {
+    return userIDs.get(userIndex);
+  }
+
+  public long getItemID(int itemIndex) {
+    return itemIDs.get(itemIndex);
+  }
+
+  /** @return position of the first preference of the user in the rows by user */
+  public int getUserRowStart(int userIndex) {
+    return userOffsets.get(userIndex);
+  }
+
+  /** @return position after the last preference of the user in the rows by user */
+  public int getUserRowEnd(int userIndex) {
+    return userOffsets.get(userIndex + 1);
+  }
+
+  /** @return index of the item of the preference at this position in the rows by user */
+  public int getItemIndexAt(int position) {
+    return userRowItemIndices.get(position);
+  }
+
+  /** @return value of the preference at this position in the rows by user */
+  public float getUserValueAt(int position) {
+    return userRowValues == null ? userRowHalfValues.get(position) * 0.5f : userRowValues.get(position);
+  }
+
+  /** @return position of the first preference for the item in the rows by item */
+  public int getItemRowStart(int itemIndex) {
+    return itemOffsets.get(itemIndex);
+  }
+
+  /** @return position after the last preference for the item in the rows by item */
+  public int getItemRowEnd(int itemIndex) {
+    return itemOffsets.get(itemIndex + 1);
+  }
+
+  /** @return index of the user of the preference at this position in the rows by item */
+  public int getUserIndexAt(int position) {
+    return itemRowUserIndices.get(position);
+  }
+
+  /** @return value of the preference at this position in the rows by item */
+  public float getItemValueAt(int position) {
+    return itemRowValues == null ? itemRowHalfValues.get(position) * 0.5f : itemRowValues.get(position);
+  }
+
+  private int checkUserIndex(long userID) throws NoSuchUserException {
+    int userIndex = getUserIndex(userID);
+    if (userIndex < 0) {
+      throw new NoSuchUserException(userID);
+    }
+    return userIndex;
+  }
+
+  private int checkItemIndex(long itemID) throws NoSuchItemException {
+    int itemIndex = getItemIndex(itemID);
+    if (itemIndex < 0) {
+      throw new NoSuchItemException(itemID);
+    }
+    return itemIndex;
+  }
+
+  @Override
+  public LongPrimitiveIterator getUserIDs() {
+    return new LongBufferIterator(userIDs);
+  }
+
+  /**
+   * @throws NoSuchUserException
+   *           if there is no such user
+   */
+  @Override
+  public PreferenceArray getPreferencesFromUser(long userID) throws NoSuchUserException {
+    int userIndex = checkUserIndex(userID);
+    int start = userOffsets.get(userIndex);
+    PreferenceArray prefs = new GenericUserPreferenceArray(userOffsets.get(userIndex + 1) - start);
+    prefs.setUserID(0, userID);
+    for (int i = 0; i < prefs.length(); i++) {
+      prefs.setItemID(i, itemIDs.get(userRowItemIndices.get(start + i)));
+      prefs.setValue(i, getUserValueAt(start + i));
+    }
+    return prefs;
+  }
+
+  @Override
+  public FastIDSet getItemIDsFromUser(long userID) throws TasteException {
+    int userIndex = checkUserIndex(userID);
+    int start = userOffsets.get(userIndex);
+    int end = userOffsets.get(userIndex + 1);
+    FastIDSet result = new FastIDSet(end - start);
+    for (int i = start; i < end; i++) {
+      result.add(itemIDs.get(userRowItemIndices.get(i)));
+    }
+    return result;
+  }
+
+  @Override
+  public LongPrimitiveIterator getItemIDs() {
+    return new LongBufferIterator(itemIDs);
+  }
+
+  /**
+   * @throws NoSuchItemException
+   *           if there is no such item
+   */
+  @Override
+  public PreferenceArray getPreferencesForItem(long itemID) throws NoSuchItemException {
+    int itemIndex = checkItemIndex(itemID);
+    int start = itemOffsets.get(itemIndex);
+    PreferenceArray prefs = new GenericItemPreferenceArray(itemOffsets.get(itemIndex + 1) - start);
+    prefs.setItemID(0, itemID);
+    for (int i = 0; i < prefs.length(); i++) {
+      prefs.setUserID(i, userIDs.get(itemRowUserIndices.get(start + i)));
+      prefs.setValue(i, getItemValueAt(start + i));
+    }
+    return prefs;
+  }
+
+  @Override
+  public Float getPreferenceValue(long userID, long itemID) throws TasteException {
+    int userIndex = checkUserIndex(userID);
+    int itemIndex = getItemIndex(itemID);
+    if (itemIndex < 0) {
+      return null;
+    }
+    int position = binarySearch(userRowItemIndices, userOffsets.get(userIndex), userOffsets.get(userIndex + 1),
+        itemIndex);
+    return position < 0 ? null : getUserValueAt(position);
+  }
+
+  @Override
+  public Long getPreferenceTime(long userID, long itemID) {
+    return null;
+  }
+
+  @Override
+  public int getNumItems() {
+    return itemIDs.limit();
+  }
+
+  @Override
+  public int getNumUsers() {
+    return userIDs.limit();
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID) {
+    int itemIndex = getItemIndex(itemID);
+    return itemIndex < 0 ? 0 : itemOffsets.get(itemIndex + 1) - itemOffsets.get(itemIndex);
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) {
+    int itemIndex1 = getItemIndex(itemID1);
+    int itemIndex2 = getItemIndex(itemID2);
+    if (itemIndex1 < 0 || itemIndex2 < 0) {
+      return 0;
+    }
+    int i = itemOffsets.get(itemIndex1);
+    int end1 = itemOffsets.get(itemIndex1 + 1);
+    int j = itemOffsets.get(itemIndex2);
+    int end2 = itemOffsets.get(itemIndex2 + 1);
+    int count = 0;
+    while (i < end1 && j < end2) {
+      int userIndex1 = itemRowUserIndices.get(i);
+      int userIndex2 = itemRowUserIndices.get(j);
+      if (userIndex1 < userIndex2) {
+        i++;
+      } else if (userIndex1 > userIndex2) {
+        j++;
+      } else {
+        count++;
+        i++;
+        j++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    // Does nothing
+  }
+
+  @Override
+  public boolean hasPreferenceValues() {
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder(200);
+    result.append("CompactDataModel[users:");
+    for (int i = 0; i < Math.min(3, userIDs.limit()); i++) {
+      if (i > 0) {
+        result.append(',');
+      }
+      result.append(userIDs.get(i));
+    }
+    if (userIDs.limit() > 3) {
+      result.append("...");
+    }
+    result.append(']');
+    return result.toString();
+  }
+
+  private static final class LongBufferIterator extends AbstractLongPrimitiveIterator {
+
+    private final LongBuffer values;
+    private int position;
+
+    LongBufferIterator(LongBuffer values) {
+      this.values = values;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return position < values.limit();
+    }
+
+    @Override
+    public long nextLong() {
+      if (position >= values.limit()) {
+        throw new NoSuchElementException();
+      }
+      return values.get(position++);
+    }
+
+    @Override
+    public long peek() {
+      if (position >= values.limit()) {
+        throw new NoSuchElementException();
+      }
+      return values.get(position);
+    }
+
+    @Override
+    public void skip(int n) {
+      if (n > 0) {
+        position += n;
+      }
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+}
@@ -379,6 +379,8 @@ public final class GenericDataModel extends AbstractDataModel {
 
   /**
    * Update or add the rating of ID in profile with pref.
+   * profile is left unchanged: an updated copy replaces it in map, as it may be shared with the data this model
+   * was built from.
    * If isUserID is false, ID is considered to be an itemID.
    */
   private void updateOrAddIDsRating(long ID, Preference pref, PreferenceArray profile, boolean isUserProfile, FastByIDMap<PreferenceArray> map) {
@@ -389,7 +391,10 @@ public final class GenericDataModel extends AbstractDataModel {
       hasRatingForID = profile.hasPrefWithUserID(ID);
     }
 
+    PreferenceArray newProfile;
     if(hasRatingForID) { // profile already had a rating for ID
+      newProfile = profile.clone();
+
       // Find ID's index in profile
       long[] IDs = profile.getIDs();
       int indexOfID = -1;
@@ -401,10 +406,9 @@ public final class GenericDataModel extends AbstractDataModel {
 	i++;
       }
 
-      profile.set(indexOfID, pref);
+      newProfile.set(indexOfID, pref);
     } else {
       // Copy profile
-      PreferenceArray newProfile;
       if(isUserProfile) {
 	newProfile = new GenericUserPreferenceArray(profile.length()+1);
       } else {
@@ -417,15 +421,20 @@ public final class GenericDataModel extends AbstractDataModel {
       // Add rating for ID in newProfile
       newProfile.set(newProfile.length()-1, pref);
 
-      // Sort newProfile and replace profile with newProfile in map
+      // Sort newProfile
       if(isUserProfile) {
 	newProfile.sortByItem();
-	map.put(pref.getUserID(), newProfile);
       } else {
 	newProfile.sortByUser();
-	map.put(pref.getItemID(), newProfile);
       }
     }
+
+    // Replace profile with newProfile in map
+    if(isUserProfile) {
+      map.put(pref.getUserID(), newProfile);
+    } else {
+      map.put(pref.getItemID(), newProfile);
+    }
   }
     
   @Override
@@ -0,0 +1,541 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.math.Sorting;
+import org.apache.mahout.math.Swapper;
+import org.apache.mahout.math.function.IntComparator;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * An in-memory {@link DataModel} built for streams of preference insertions, e.g. users adding items to their
+ * profile round after round. It serves the same sorted {@link PreferenceArray}s as {@link GenericDataModel}, but
+ * {@link #setPreference(long, long, float)} and {@link #setPreferences(PreferenceArray)} only append the new
+ * preferences to per-user and per-item buffers, whose capacity doubles when full: adding N preferences costs O(N).
+ * </p>
+ *
+ * <p>
+ * The buffers are merged into the profiles, and new users and items into the sorted arrays of IDs, on the first
+ * read that follows insertions. The merge costs the size of the changed profiles plus the number of users or items
+ * when new ones appeared, once per batch of insertions instead of once per preference as with
+ * {@link GenericDataModel#setPreference(long, long, float)}. When the same preference is set several times, the
+ * last value wins. Merged profiles are new arrays: the arrays previously returned, and those shared with the
+ * {@link GenericDataModel} this model was built from, are never modified.
+ * </p>
+ *
+ * <p>
+ * Reads may run concurrently, but not concurrently with insertions or removals. As with {@link GenericDataModel},
+ * the minimum and maximum preferences are those of the initial data. Timestamps are not kept.
+ * </p>
+ */
+public final class MutableDataModel extends AbstractDataModel {
+
+  private long[] userIDs;
+  private final FastByIDMap<PreferenceArray> preferenceFromUsers;
+  private long[] itemIDs;
+  private final FastByIDMap<PreferenceArray> preferenceForItems;
+
+  // Preferences set since the last merge, by user and by item
+  private final FastByIDMap<PendingPreferences> pendingFromUsers;
+  private final FastByIDMap<PendingPreferences> pendingForItems;
+  private volatile boolean hasPending;
+
+  /**
+   * @param userData users to include, see also {@link GenericDataModel#toDataMap(DataModel)}. Their
+   *  {@link PreferenceArray}s are sorted in place and shared with this model, as by
+   *  {@link GenericDataModel#GenericDataModel(FastByIDMap)}
+   */
+  public MutableDataModel(FastByIDMap<PreferenceArray> userData) {
+    this(new GenericDataModel(userData));
+  }
+
+  /**
+   * Creates a model holding the preferences of dataModel. When dataModel is a {@link GenericDataModel}, both
+   * models share their {@link PreferenceArray}s, so that this costs the number of users and items instead of the
+   * number of preferences.
+   */
+  public MutableDataModel(DataModel dataModel) throws TasteException {
+    this(dataModel instanceof GenericDataModel
+         ? (GenericDataModel) dataModel
+         : new GenericDataModel(GenericDataModel.toDataMap(dataModel)));
+  }
+
+  private MutableDataModel(GenericDataModel dataModel) {
+    Preconditions.checkArgument(dataModel != null, "dataModel is null");
+    this.preferenceFromUsers = dataModel.getRawUserData().clone();
+    this.preferenceForItems = dataModel.getRawItemData().clone();
+    this.userIDs = toArray(dataModel.getUserIDs(), dataModel.getNumUsers());
+    this.itemIDs = toArray(dataModel.getItemIDs(), dataModel.getNumItems());
+    this.pendingFromUsers = new FastByIDMap<PendingPreferences>();
+    this.pendingForItems = new FastByIDMap<PendingPreferences>();
+    setMinPreference(dataModel.getMinPreference());
+    setMaxPreference(dataModel.getMaxPreference());
+  }
+
+  private static long[] toArray(LongPrimitiveIterator it, int size) {
+    long[] result = new long[size];
+    int i = 0;
+    while (it.hasNext()) {
+      result[i++] = it.nextLong();
+    }
+    return result;
+  }
+
+  @Override
+  public LongPrimitiveArrayIterator getUserIDs() {
+    mergePending();
+    return new LongPrimitiveArrayIterator(userIDs);
+  }
+
+  /**
+   * @throws NoSuchUserException
+   *           if there is no such user
+   */
+  @Override
+  public PreferenceArray getPreferencesFromUser(long userID) throws NoSuchUserException {
+    mergePending();
+    PreferenceArray prefs = preferenceFromUsers.get(userID);
+    if (prefs == null) {
+      throw new NoSuchUserException(userID);
+    }
+    return prefs;
+  }
+
+  @Override
+  public FastIDSet getItemIDsFromUser(long userID) throws TasteException {
+    PreferenceArray prefs = getPreferencesFromUser(userID);
+    int size = prefs.length();
+    FastIDSet result = new FastIDSet(size);
+    for (int i = 0; i < size; i++) {
+      result.add(prefs.getItemID(i));
+    }
+    return result;
+  }
+
+  @Override
+  public LongPrimitiveArrayIterator getItemIDs() {
+    mergePending();
+    return new LongPrimitiveArrayIterator(itemIDs);
+  }
+
+  @Override
+  public PreferenceArray getPreferencesForItem(long itemID) throws NoSuchItemException {
+    mergePending();
+    PreferenceArray prefs = preferenceForItems.get(itemID);
+    if (prefs == null) {
+      throw new NoSuchItemException(itemID);
+    }
+    return prefs;
+  }
+
+  @Override
+  public Float getPreferenceValue(long userID, long itemID) throws TasteException {
+    PreferenceArray prefs = getPreferencesFromUser(userID);
+    int size = prefs.length();
+    for (int i = 0; i < size; i++) {
+      if (prefs.getItemID(i) == itemID) {
+        return prefs.getValue(i);
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public Long getPreferenceTime(long userID, long itemID) {
+    return null;
+  }
+
+  @Override
+  public int getNumItems() {
+    mergePending();
+    return itemIDs.length;
+  }
+
+  @Override
+  public int getNumUsers() {
+    mergePending();
+    return userIDs.length;
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID) {
+    mergePending();
+    PreferenceArray prefs = preferenceForItems.get(itemID);
+    return prefs == null ? 0 : prefs.length();
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) {
+    mergePending();
+    PreferenceArray prefs1 = preferenceForItems.get(itemID1);
+    if (prefs1 == null) {
+      return 0;
+    }
+    PreferenceArray prefs2 = preferenceForItems.get(itemID2);
+    if (prefs2 == null) {
+      return 0;
+    }
+
+    int size1 = prefs1.length();
+    int size2 = prefs2.length();
+    int count = 0;
+    int i = 0;
+    int j = 0;
+    long userID1 = prefs1.getUserID(0);
+    long userID2 = prefs2.getUserID(0);
+    while (true) {
+      if (userID1 < userID2) {
+        if (++i == size1) {
+          break;
+        }
+        userID1 = prefs1.getUserID(i);
+      } else if (userID1 > userID2) {
+        if (++j == size2) {
+          break;
+        }
+        userID2 = prefs2.getUserID(j);
+      } else {
+        count++;
+        if (++i == size1 || ++j == size2) {
+          break;
+        }
+        userID1 = prefs1.getUserID(i);
+        userID2 = prefs2.getUserID(j);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Sets a preference in O(1) amortized time, see the class documentation. Users and items may be new.
+   */
+  @Override
+  public synchronized void setPreference(long userID, long itemID, float value) {
+    addPending(userID, itemID, value);
+    hasPending = true;
+  }
+
+  /**
+   * Sets all the preferences of prefs, in the order of prefs, as {@link #setPreference(long, long, float)} would.
+   * prefs may hold the preferences of one user, of one item, or any other {@link PreferenceArray}.
+   */
+  public synchronized void setPreferences(PreferenceArray prefs) {
+    int size = prefs.length();
+    for (int i = 0; i < size; i++) {
+      addPending(prefs.getUserID(i), prefs.getItemID(i), prefs.getValue(i));
+    }
+    if (size > 0) {
+      hasPending = true;
+    }
+  }
+
+  private void addPending(long userID, long itemID, float value) {
+    PendingPreferences fromUser = pendingFromUsers.get(userID);
+    if (fromUser == null) {
+      fromUser = new PendingPreferences();
+      pendingFromUsers.put(userID, fromUser);
+    }
+    fromUser.add(itemID, value);
+    PendingPreferences forItem = pendingForItems.get(itemID);
+    if (forItem == null) {
+      forItem = new PendingPreferences();
+      pendingForItems.put(itemID, forItem);
+    }
+    forItem.add(userID, value);
+  }
+
+  /**
+   * Removes a preference. Users and items left without preferences are removed from the model. This costs the
+   * size of the two profiles, plus the number of users or items when one of them is removed.
+   */
+  @Override
+  public synchronized void removePreference(long userID, long itemID) {
+    mergePending();
+    PreferenceArray userPrefs = preferenceFromUsers.get(userID);
+    int userIndex = userPrefs == null ? -1 : indexOf(userPrefs, itemID, true);
+    if (userIndex < 0) {
+      return;
+    }
+    PreferenceArray itemPrefs = preferenceForItems.get(itemID);
+    int itemIndex = indexOf(itemPrefs, userID, false);
+    if (userPrefs.length() == 1) {
+      preferenceFromUsers.remove(userID);
+      userIDs = removeID(userIDs, userID);
+    } else {
+      preferenceFromUsers.put(userID, without(userPrefs, userIndex, true));
+    }
+    if (itemPrefs.length() == 1) {
+      preferenceForItems.remove(itemID);
+      itemIDs = removeID(itemIDs, itemID);
+    } else {
+      preferenceForItems.put(itemID, without(itemPrefs, itemIndex, false));
+    }
+  }
+
+  private static int indexOf(PreferenceArray prefs, long id, boolean byItem) {
+    int size = prefs.length();
+    for (int i = 0; i < size; i++) {
+      if ((byItem ? prefs.getItemID(i) : prefs.getUserID(i)) == id) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static PreferenceArray without(PreferenceArray prefs, int index, boolean isUserProfile) {
+    int size = prefs.length();
+    PreferenceArray result = isUserProfile
+        ? new GenericUserPreferenceArray(size - 1)
+        : new GenericItemPreferenceArray(size - 1);
+    int j = 0;
+    for (int i = 0; i < size; i++) {
+      if (i != index) {
+        result.set(j++, prefs.get(i));
+      }
+    }
+    return result;
+  }
+
+  private static long[] removeID(long[] ids, long id) {
+    int index = Arrays.binarySearch(ids, id);
+    long[] result = new long[ids.length - 1];
+    System.arraycopy(ids, 0, result, 0, index);
+    System.arraycopy(ids, index + 1, result, index, result.length - index);
+    return result;
+  }
+
+  /**
+   * Merges the preferences set since the last call into the profiles and the arrays of IDs.
+   */
+  private void mergePending() {
+    if (hasPending) {
+      doMergePending();
+    }
+  }
+
+  private synchronized void doMergePending() {
+    if (!hasPending) {
+      return;
+    }
+    userIDs = mergePending(pendingFromUsers, preferenceFromUsers, userIDs, true);
+    itemIDs = mergePending(pendingForItems, preferenceForItems, itemIDs, false);
+    pendingFromUsers.clear();
+    pendingForItems.clear();
+    hasPending = false;
+  }
+
+  /**
+   * Merges pending into the profiles of profiles and returns ids extended with the IDs of new profiles.
+   */
+  private static long[] mergePending(FastByIDMap<PendingPreferences> pending,
+                                     FastByIDMap<PreferenceArray> profiles,
+                                     long[] ids,
+                                     boolean isUserProfile) {
+    long[] newIDs = new long[pending.size()];
+    int numNewIDs = 0;
+    for (Map.Entry<Long, PendingPreferences> entry : pending.entrySet()) {
+      long id = entry.getKey();
+      PreferenceArray profile = profiles.get(id);
+      if (profile == null) {
+        newIDs[numNewIDs++] = id;
+      }
+      profiles.put(id, merge(id, profile, entry.getValue(), isUserProfile));
+    }
+    if (numNewIDs == 0) {
+      return ids;
+    }
+
+    Arrays.sort(newIDs, 0, numNewIDs);
+    long[] result = new long[ids.length + numNewIDs];
+    int i = 0;
+    int j = 0;
+    int k = 0;
+    while (i < ids.length && j < numNewIDs) {
+      result[k++] = ids[i] < newIDs[j] ? ids[i++] : newIDs[j++];
+    }
+    System.arraycopy(ids, i, result, k, ids.length - i);
+    System.arraycopy(newIDs, j, result, k + ids.length - i, numNewIDs - j);
+    return result;
+  }
+
+  /**
+   * Returns a new profile of id holding the preferences of profile (possibly null) and of pending, sorted by
+   * item ID for a user profile, by user ID for an item profile. Pending values replace those of profile.
+   */
+  private static PreferenceArray merge(long id, PreferenceArray profile, PendingPreferences pending,
+                                       boolean isUserProfile) {
+    pending.sortAndDeduplicate();
+    if (profile != null && !isSorted(profile, isUserProfile)) {
+      // Callers may have reordered the array they were given, which is shared with this model
+      profile = profile.clone();
+      if (isUserProfile) {
+        profile.sortByItem();
+      } else {
+        profile.sortByUser();
+      }
+    }
+
+    int oldSize = profile == null ? 0 : profile.length();
+    long[] otherIDs = new long[oldSize + pending.size];
+    float[] values = new float[otherIDs.length];
+    int i = 0;
+    int j = 0;
+    int k = 0;
+    while (i < oldSize || j < pending.size) {
+      long oldID = i < oldSize ? otherID(profile, i, isUserProfile) : Long.MAX_VALUE;
+      if (j < pending.size && (i == oldSize || pending.ids[j] <= oldID)) {
+        if (i < oldSize && pending.ids[j] == oldID) {
+          i++;
+        }
+        otherIDs[k] = pending.ids[j];
+        values[k++] = pending.values[j++];
+      } else {
+        otherIDs[k] = oldID;
+        values[k++] = profile.getValue(i++);
+      }
+    }
+
+    PreferenceArray result;
+    if (isUserProfile) {
+      result = new GenericUserPreferenceArray(k);
+      result.setUserID(0, id);
+      for (int m = 0; m < k; m++) {
+        result.setItemID(m, otherIDs[m]);
+        result.setValue(m, values[m]);
+      }
+    } else {
+      result = new GenericItemPreferenceArray(k);
+      result.setItemID(0, id);
+      for (int m = 0; m < k; m++) {
+        result.setUserID(m, otherIDs[m]);
+        result.setValue(m, values[m]);
+      }
+    }
+    return result;
+  }
+
+  private static long otherID(PreferenceArray profile, int i, boolean isUserProfile) {
+    return isUserProfile ? profile.getItemID(i) : profile.getUserID(i);
+  }
+
+  private static boolean isSorted(PreferenceArray profile, boolean isUserProfile) {
+    for (int i = 1; i < profile.length(); i++) {
+      if (otherID(profile, i - 1, isUserProfile) >= otherID(profile, i, isUserProfile)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    // Does nothing
+  }
+
+  @Override
+  public boolean hasPreferenceValues() {
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    mergePending();
+    StringBuilder result = new StringBuilder(200);
+    result.append("MutableDataModel[users:");
+    for (int i = 0; i < Math.min(3, userIDs.length); i++) {
+      if (i > 0) {
+        result.append(',');
+      }
+      result.append(userIDs[i]);
+    }
+    if (userIDs.length > 3) {
+      result.append("...");
+    }
+    result.append(']');
+    return result.toString();
+  }
+
+  /**
+   * Growable buffer of (ID, value) pairs in insertion order, the IDs being those of items for a user or of users
+   * for an item.
+   */
+  private static final class PendingPreferences implements IntComparator, Swapper {
+
+    private long[] ids = new long[4];
+    private float[] values = new float[4];
+    private int size;
+
+    void add(long id, float value) {
+      if (size == ids.length) {
+        ids = Arrays.copyOf(ids, 2 * size);
+        values = Arrays.copyOf(values, 2 * size);
+      }
+      ids[size] = id;
+      values[size++] = value;
+    }
+
+    /**
+     * Sorts the pairs by ID, keeping the last value set for each ID.
+     */
+    void sortAndDeduplicate() {
+      // Merge sort is stable: pairs of a same ID stay in insertion order
+      Sorting.mergeSort(0, size, this, this);
+      int k = 0;
+      for (int i = 0; i < size; i++) {
+        if (i + 1 < size && ids[i + 1] == ids[i]) {
+          continue;
+        }
+        ids[k] = ids[i];
+        values[k++] = values[i];
+      }
+      size = k;
+    }
+
+    @Override
+    public int compare(int a, int b) {
+      return ids[a] < ids[b] ? -1 : ids[a] > ids[b] ? 1 : 0;
+    }
+
+    @Override
+    public void swap(int a, int b) {
+      long id = ids[a];
+      ids[a] = ids[b];
+      ids[b] = id;
+      float value = values[a];
+      values[a] = values[b];
+      values[b] = value;
+    }
+  }
+
+}
@@ -17,13 +17,22 @@
 
 package org.apache.mahout.cf.taste.impl.neighborhood;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Random;
+import java.util.concurrent.Callable;
 
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.impl.similarity.AbstractSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.BoundedCachingUserSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.TanimotoCoefficientSimilarity;
 import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
 import org.apache.mahout.cf.taste.similarity.UserSimilarity;
 
@@ -48,7 +57,13 @@ abstract class AbstractUserNeighborhood implements UserNeighborhood {
     this.userSimilarity = userSimilarity;
     this.dataModel = dataModel;
     this.samplingRate = samplingRate;
-    this.refreshHelper = new RefreshHelper(null);
+    this.refreshHelper = new RefreshHelper(new Callable<Void>() {
+      @Override
+      public Void call() {
+        clearPrecomputed();
+        return null;
+      }
+    });
     this.refreshHelper.addDependency(this.dataModel);
     this.refreshHelper.addDependency(this.userSimilarity);
   }
@@ -65,6 +80,54 @@ abstract class AbstractUserNeighborhood implements UserNeighborhood {
     return samplingRate;
   }
   
+  /**
+   * Users to score as neighbors of userID, by ascending ID. When the similarity of users who rated no item in
+   * common is undefined, only the users who rated one of userID's items are returned, instead of all users.
+   * userID itself may be returned.
+   */
+  final LongPrimitiveIterator getCandidateUserIDs(long userID) throws TasteException {
+    if (!isUndefinedForDisjointUsers(userSimilarity)) {
+      return dataModel.getUserIDs();
+    }
+    return new LongPrimitiveArrayIterator(usersSharingItems(dataModel, userID));
+  }
+
+  /**
+   * @return whether the similarity of two users with preferences but no item in common is undefined (NaN)
+   */
+  static boolean isUndefinedForDisjointUsers(UserSimilarity similarity) {
+    if (similarity instanceof BoundedCachingUserSimilarity) {
+      return isUndefinedForDisjointUsers(((BoundedCachingUserSimilarity) similarity).getSimilarity());
+    }
+    if (similarity instanceof AbstractSimilarity) {
+      return ((AbstractSimilarity) similarity).isUndefinedForDisjointUsers();
+    }
+    return similarity instanceof TanimotoCoefficientSimilarity;
+  }
+
+  /**
+   * @return the users who rated at least one of the items rated by userID, sorted by ascending ID
+   */
+  static long[] usersSharingItems(DataModel dataModel, long userID) throws TasteException {
+    PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
+    FastIDSet candidates = new FastIDSet();
+    for (int i = 0; i < prefs.length(); i++) {
+      PreferenceArray raters = dataModel.getPreferencesForItem(prefs.getItemID(i));
+      for (int j = 0; j < raters.length(); j++) {
+        candidates.add(raters.getUserID(j));
+      }
+    }
+    long[] result = candidates.toArray();
+    Arrays.sort(result);
+    return result;
+  }
+
+  /**
+   * Drops whatever was precomputed from the data model and similarity, called on refresh.
+   */
+  void clearPrecomputed() {
+  }
+  
   @Override
   public final void refresh(Collection<Refreshable> alreadyRefreshed) {
     refreshHelper.refresh(alreadyRefreshed);
@@ -0,0 +1,240 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.neighborhood;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.recommender.TopItems;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.apache.mahout.math.SequentialAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.WeightedVector;
+import org.apache.mahout.math.neighborhood.UpdatableSearcher;
+import org.apache.mahout.math.random.WeightedThing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * Computes a neighborhood consisting of approximately the nearest n users to a given user. The rating vectors
+ * of all users, over the items of the data model, are indexed once in an {@link UpdatableSearcher}, such as a
+ * {@link org.apache.mahout.math.neighborhood.LocalitySensitiveHashSearch} or a
+ * {@link org.apache.mahout.math.neighborhood.ProjectionSearch} with a
+ * {@link org.apache.mahout.common.distance.CosineDistanceMeasure}. The searcher returns the
+ * {@code numCandidates} users closest to a given user, which are then ranked by the {@link UserSimilarity}
+ * as {@link NearestNUserNeighborhood} ranks all users.
+ * </p>
+ *
+ * <p>
+ * The index is built on the first query, in a new searcher, and dropped when this neighborhood is refreshed.
+ * Queries still running on a dropped index keep searching its own searcher.
+ * </p>
+ */
+public final class ApproximateNearestNUserNeighborhood extends AbstractUserNeighborhood {
+
+  private static final Logger log = LoggerFactory.getLogger(ApproximateNearestNUserNeighborhood.class);
+
+  private final int n;
+  private final int numCandidates;
+  private final SearcherFactory searcherFactory;
+  private volatile Index index;
+
+  /**
+   * Creates the searchers the users' rating vectors are indexed in.
+   */
+  public interface SearcherFactory {
+
+    /**
+     * @return a new empty searcher, owned by the caller
+     */
+    UpdatableSearcher newSearcher();
+  }
+
+  /**
+   * @param n neighborhood size; capped at the number of users in the data model
+   * @param numCandidates number of users to get from a searcher for each query, at least n
+   * @param searcherFactory creates the searcher of each index, the first one and those rebuilt after a refresh
+   * @throws IllegalArgumentException if {@code n < 1} or {@code numCandidates < n}, or userSimilarity,
+   *  dataModel or searcherFactory are {@code null}
+   */
+  public ApproximateNearestNUserNeighborhood(int n,
+                                             int numCandidates,
+                                             SearcherFactory searcherFactory,
+                                             UserSimilarity userSimilarity,
+                                             DataModel dataModel) throws TasteException {
+    super(userSimilarity, dataModel, 1.0);
+    Preconditions.checkArgument(n >= 1, "n must be at least 1");
+    Preconditions.checkArgument(numCandidates >= n, "numCandidates must be at least n");
+    Preconditions.checkArgument(searcherFactory != null, "searcherFactory is null");
+    int numUsers = dataModel.getNumUsers();
+    this.n = n > numUsers ? numUsers : n;
+    this.numCandidates = numCandidates;
+    this.searcherFactory = searcherFactory;
+  }
+
+  @Override
+  public long[] getUserNeighborhood(long userID) throws TasteException {
+    return TopItems.getTopUsers(n, getCandidates(userID), null, new Estimator(getUserSimilarity(), userID));
+  }
+
+  @Override
+  public long[] getUserNeighborhood(long userID, String choiceBehavior, Random rand) throws TasteException {
+    TopItems.LongToDoubleEstimator estimator = new Estimator(getUserSimilarity(), userID);
+    if (choiceBehavior.equals("lower")) {
+      return getUserNeighborhood(userID);
+    } else if (choiceBehavior.equals("higher")) {
+      return TopItems.getTopUsersHigher(n, getCandidates(userID), null, estimator);
+    } else if (choiceBehavior.equals("random")) {
+      return TopItems.getTopUsersRandom(n, getCandidates(userID), null, estimator, rand);
+    }
+    log.warn("choiceBehavior string has an incorrect value: {}", choiceBehavior);
+    return null;
+  }
+
+  /**
+   * @return the users closest to userID according to the searcher, other than userID, by ascending ID
+   */
+  private LongPrimitiveIterator getCandidates(long userID) throws TasteException {
+    Index theIndex = getIndex();
+    Vector query = theIndex.getVector(userID, getDataModel());
+    List<WeightedThing<Vector>> neighbors = theIndex.searcher.search(query, numCandidates + 1);
+    long[] candidates = new long[neighbors.size()];
+    int numCandidatesFound = 0;
+    for (WeightedThing<Vector> neighbor : neighbors) {
+      long candidateID = theIndex.userIDs[((WeightedVector) neighbor.getValue()).getIndex()];
+      if (candidateID != userID) {
+        candidates[numCandidatesFound++] = candidateID;
+      }
+    }
+    candidates = Arrays.copyOf(candidates, Math.min(numCandidatesFound, numCandidates));
+    Arrays.sort(candidates);
+    return new LongPrimitiveArrayIterator(candidates);
+  }
+
+  private Index getIndex() throws TasteException {
+    Index theIndex = index;
+    if (theIndex == null) {
+      synchronized (this) {
+        theIndex = index;
+        if (theIndex == null) {
+          long start = System.currentTimeMillis();
+          theIndex = new Index(getDataModel(), searcherFactory.newSearcher());
+          log.info("Indexed {} users in {}ms", theIndex.userIDs.length, System.currentTimeMillis() - start);
+          index = theIndex;
+        }
+      }
+    }
+    return theIndex;
+  }
+
+  @Override
+  void clearPrecomputed() {
+    index = null;
+  }
+
+  @Override
+  public String toString() {
+    return "ApproximateNearestNUserNeighborhood[searcherFactory:" + searcherFactory + ']';
+  }
+
+  /**
+   * Users and items of the data model in ascending ID order, the users' rating vectors being indexed by their
+   * position in a searcher of their own.
+   */
+  private static final class Index {
+
+    private final long[] userIDs;
+    private final long[] itemIDs;
+    private final Vector[] vectors;
+    private final UpdatableSearcher searcher;
+
+    private Index(DataModel dataModel, UpdatableSearcher searcher) throws TasteException {
+      userIDs = toSortedArray(dataModel.getUserIDs(), dataModel.getNumUsers());
+      itemIDs = toSortedArray(dataModel.getItemIDs(), dataModel.getNumItems());
+      vectors = new Vector[userIDs.length];
+      this.searcher = searcher;
+      for (int i = 0; i < userIDs.length; i++) {
+        vectors[i] = new WeightedVector(toVector(dataModel.getPreferencesFromUser(userIDs[i])), 1.0, i);
+        // Cached, so that concurrent queries only read it
+        vectors[i].getLengthSquared();
+        searcher.add(vectors[i]);
+      }
+      if (vectors.length > 0) {
+        // Searchers which index lazily do it now rather than during concurrent queries
+        searcher.search(vectors[0], 1);
+      }
+    }
+
+    /**
+     * @return the indexed vector of userID, or a new one for a user who was not in the data model
+     */
+    private Vector getVector(long userID, DataModel dataModel) throws TasteException {
+      int i = Arrays.binarySearch(userIDs, userID);
+      return i >= 0 ? vectors[i] : toVector(dataModel.getPreferencesFromUser(userID));
+    }
+
+    private Vector toVector(PreferenceArray prefs) {
+      Vector vector = new SequentialAccessSparseVector(itemIDs.length, prefs.length());
+      for (int j = 0; j < prefs.length(); j++) {
+        int item = Arrays.binarySearch(itemIDs, prefs.getItemID(j));
+        if (item >= 0) {
+          vector.setQuick(item, prefs.getValue(j));
+        }
+      }
+      return vector;
+    }
+
+    private static long[] toSortedArray(LongPrimitiveIterator it, int size) {
+      long[] result = new long[size];
+      int i = 0;
+      while (it.hasNext()) {
+        result[i++] = it.nextLong();
+      }
+      Arrays.sort(result);
+      return result;
+    }
+  }
+
+  private static final class Estimator implements TopItems.LongToDoubleEstimator {
+
+    private final UserSimilarity userSimilarityImpl;
+    private final long theUserID;
+
+    private Estimator(UserSimilarity userSimilarityImpl, long theUserID) {
+      this.userSimilarityImpl = userSimilarityImpl;
+      this.theUserID = theUserID;
+    }
+
+    @Override
+    public double estimate(long userID) throws TasteException {
+      if (userID == theUserID) {
+        return Double.NaN;
+      }
+      return userSimilarityImpl.userSimilarity(theUserID, userID);
+    }
+  }
+}
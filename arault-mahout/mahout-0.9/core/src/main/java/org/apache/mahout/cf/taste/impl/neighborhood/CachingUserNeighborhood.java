@@ -23,52 +23,155 @@ import java.util.Random;
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.Cache;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
 import org.apache.mahout.cf.taste.impl.common.Retriever;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
 
-/** A caching wrapper around an underlying {@link UserNeighborhood} implementation. */
+/**
+ * <p>A caching wrapper around an underlying {@link UserNeighborhood} implementation.</p>
+ *
+ * <p>
+ * When the underlying neighborhood is a {@link NearestNUserNeighborhood}, the cache holds, for each user, the
+ * n most similar users plus every user tied with the n-th one, as a precomputed {@link UserNeighborhoodGraph}
+ * row does. The "lower", "higher" and "random" choice behaviors are then all answered from the cache, with the
+ * same result as the underlying neighborhood. Otherwise only the "lower" neighborhoods are cached, other
+ * behaviors being delegated to the underlying neighborhood.
+ * </p>
+ */
 public final class CachingUserNeighborhood implements UserNeighborhood {
-  
+
+  private static final Logger log = LoggerFactory.getLogger(CachingUserNeighborhood.class);
+
   private final UserNeighborhood neighborhood;
+  private final DataModel dataModel;
   private final Cache<Long,long[]> neighborhoodCache;
-  
+  private final Cache<Long,UserNeighborhoodGraph> rowCache;
+
   public CachingUserNeighborhood(UserNeighborhood neighborhood, DataModel dataModel) throws TasteException {
     Preconditions.checkArgument(neighborhood != null, "neighborhood is null");
     this.neighborhood = neighborhood;
+    this.dataModel = dataModel;
     int maxCacheSize = dataModel.getNumUsers(); // just a dumb heuristic for sizing
-    this.neighborhoodCache = new Cache<Long,long[]>(new NeighborhoodRetriever(neighborhood), maxCacheSize);
+    if (neighborhood instanceof NearestNUserNeighborhood) {
+      this.neighborhoodCache = null;
+      this.rowCache = new Cache<Long,UserNeighborhoodGraph>(
+          new RowRetriever((NearestNUserNeighborhood) neighborhood), maxCacheSize);
+    } else {
+      this.neighborhoodCache = new Cache<Long,long[]>(new NeighborhoodRetriever(neighborhood), maxCacheSize);
+      this.rowCache = null;
+    }
   }
-  
+
   @Override
   public long[] getUserNeighborhood(long userID) throws TasteException {
+    if (rowCache != null) {
+      return getUserNeighborhood(userID, "lower", null);
+    }
     return neighborhoodCache.get(userID);
   }
-  
+
+  @Override
   public long[] getUserNeighborhood(long userID, String choiceBehavior, Random r) throws TasteException {
-	  return getUserNeighborhood(userID);
+    if (rowCache != null) {
+      UserNeighborhoodGraph row = rowCache.get(userID);
+      // Users who are not in the data model have no row
+      return row.hasUser(userID) ? row.getUserNeighborhood(userID, choiceBehavior, r)
+          : neighborhood.getUserNeighborhood(userID, choiceBehavior, r);
+    }
+    if (choiceBehavior.equals("lower")) {
+      return neighborhoodCache.get(userID);
+    }
+    return neighborhood.getUserNeighborhood(userID, choiceBehavior, r);
+  }
+
+  /**
+   * Drops the cached neighborhood of userID.
+   */
+  public void clear(long userID) {
+    log.debug("Clearing neighborhood for user ID '{}'", userID);
+    if (rowCache != null) {
+      rowCache.remove(userID);
+    } else {
+      neighborhoodCache.remove(userID);
+    }
+  }
+
+  /**
+   * Drops the cached neighborhoods which can change once the preferences of changedUserIDs were added or updated
+   * in the data model. Like {@link NearestNUserNeighborhood#precomputeNeighborhoods(int, NearestNUserNeighborhood,
+   * long[])}, only the changed users and the users who rated one of their items are affected when the similarity
+   * of two users who rated no item in common does not depend on their preferences; all neighborhoods are dropped
+   * otherwise.
+   */
+  public void clear(long[] changedUserIDs) throws TasteException {
+    if (rowCache == null
+        || !NearestNUserNeighborhood.isConstantForDisjointUsers(
+            ((NearestNUserNeighborhood) neighborhood).getUserSimilarity())) {
+      clear();
+      return;
+    }
+    FastIDSet usersToClear = UserNeighborhoodGraph.usersToUpdate(dataModel, changedUserIDs);
+    log.debug("Clearing neighborhoods of {} users", usersToClear.size());
+    LongPrimitiveIterator it = usersToClear.iterator();
+    while (it.hasNext()) {
+      rowCache.remove(it.nextLong());
+    }
+  }
+
+  /**
+   * Drops all cached neighborhoods.
+   */
+  public void clear() {
+    log.debug("Clearing all neighborhoods...");
+    if (rowCache != null) {
+      rowCache.clear();
+    } else {
+      neighborhoodCache.clear();
+    }
   }
 
   @Override
   public void refresh(Collection<Refreshable> alreadyRefreshed) {
-    neighborhoodCache.clear();
+    clear();
     Collection<Refreshable> refreshed = RefreshHelper.buildRefreshed(alreadyRefreshed);
     RefreshHelper.maybeRefresh(refreshed, neighborhood);
   }
-  
+
+  @Override
+  public String toString() {
+    return "CachingUserNeighborhood[neighborhood:" + neighborhood + ']';
+  }
+
   private static final class NeighborhoodRetriever implements Retriever<Long,long[]> {
     private final UserNeighborhood neighborhood;
-    
+
     private NeighborhoodRetriever(UserNeighborhood neighborhood) {
       this.neighborhood = neighborhood;
     }
-    
+
     @Override
     public long[] get(Long key) throws TasteException {
       return neighborhood.getUserNeighborhood(key);
     }
   }
+
+  private static final class RowRetriever implements Retriever<Long,UserNeighborhoodGraph> {
+    private final NearestNUserNeighborhood neighborhood;
+
+    private RowRetriever(NearestNUserNeighborhood neighborhood) {
+      this.neighborhood = neighborhood;
+    }
+
+    @Override
+    public UserNeighborhoodGraph get(Long key) throws TasteException {
+      return neighborhood.computeNeighborhoodRow(key);
+    }
+  }
 }
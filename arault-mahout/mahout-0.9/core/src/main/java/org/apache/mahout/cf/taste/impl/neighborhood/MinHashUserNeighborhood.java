@@ -0,0 +1,343 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.neighborhood;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.recommender.TopItems;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.apache.mahout.common.RandomUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * <p>
+ * Computes a neighborhood consisting of approximately the nearest n users to a given user, for a set-based
+ * similarity such as {@link org.apache.mahout.cf.taste.impl.similarity.TanimotoCoefficientSimilarity}. Each
+ * user's set of items is summarized by a MinHash signature, the minimum over its items of each of
+ * {@code numHashFunctions} random hash functions: two users get the same value for a hash function with a
+ * probability equal to the Jaccard index of their item sets. Signatures are cut into {@code numBands} bands,
+ * and the candidate neighbors of a user are the users with the same values as them over all the hash functions
+ * of at least one band. Candidates are then ranked by the {@link UserSimilarity} as
+ * {@link NearestNUserNeighborhood} ranks all users.
+ * </p>
+ *
+ * <p>
+ * More bands of fewer hash functions find more candidates, hence more exact neighborhoods, at the cost of more
+ * similarity computations. The index is built on the first query, in {@code numThreads} threads, and dropped
+ * when this neighborhood is refreshed.
+ * </p>
+ */
+public final class MinHashUserNeighborhood extends AbstractUserNeighborhood {
+
+  private static final Logger log = LoggerFactory.getLogger(MinHashUserNeighborhood.class);
+
+  /** Mersenne prime 2^31 - 1, modulus of the hash functions. */
+  private static final long PRIME = Integer.MAX_VALUE;
+  private static final int CHUNK_SIZE = 64;
+
+  private final int n;
+  private final int numBands;
+  private final int rowsPerBand;
+  private final int numThreads;
+  private final long[] hashA;
+  private final long[] hashB;
+  private volatile Index index;
+
+  /**
+   * @param n neighborhood size; capped at the number of users in the data model
+   * @param numHashFunctions length of the MinHash signatures
+   * @param numBands number of bands the signatures are cut into; must divide numHashFunctions
+   * @param numThreads number of threads computing the signatures
+   * @throws IllegalArgumentException if {@code n < 1}, {@code numBands < 1}, numBands does not divide
+   *  numHashFunctions, {@code numThreads < 1}, or userSimilarity or dataModel are {@code null}
+   */
+  public MinHashUserNeighborhood(int n,
+                                 int numHashFunctions,
+                                 int numBands,
+                                 int numThreads,
+                                 UserSimilarity userSimilarity,
+                                 DataModel dataModel) throws TasteException {
+    this(n, numHashFunctions, numBands, numThreads, userSimilarity, dataModel, RandomUtils.getRandom().nextLong());
+  }
+
+  /**
+   * @param n neighborhood size; capped at the number of users in the data model
+   * @param numHashFunctions length of the MinHash signatures
+   * @param numBands number of bands the signatures are cut into; must divide numHashFunctions
+   * @param numThreads number of threads computing the signatures
+   * @param seed seed of the draw of the hash functions
+   * @throws IllegalArgumentException if {@code n < 1}, {@code numBands < 1}, numBands does not divide
+   *  numHashFunctions, {@code numThreads < 1}, or userSimilarity or dataModel are {@code null}
+   */
+  public MinHashUserNeighborhood(int n,
+                                 int numHashFunctions,
+                                 int numBands,
+                                 int numThreads,
+                                 UserSimilarity userSimilarity,
+                                 DataModel dataModel,
+                                 long seed) throws TasteException {
+    super(userSimilarity, dataModel, 1.0);
+    Preconditions.checkArgument(n >= 1, "n must be at least 1");
+    Preconditions.checkArgument(numBands >= 1 && numHashFunctions >= numBands && numHashFunctions % numBands == 0,
+        "numBands must divide numHashFunctions");
+    Preconditions.checkArgument(numThreads >= 1, "numThreads must be at least 1");
+    int numUsers = dataModel.getNumUsers();
+    this.n = n > numUsers ? numUsers : n;
+    this.numBands = numBands;
+    this.rowsPerBand = numHashFunctions / numBands;
+    this.numThreads = numThreads;
+    Random random = new Random(seed);
+    hashA = new long[numHashFunctions];
+    hashB = new long[numHashFunctions];
+    for (int h = 0; h < numHashFunctions; h++) {
+      hashA[h] = 1 + random.nextInt((int) PRIME - 1);
+      hashB[h] = random.nextInt((int) PRIME);
+    }
+  }
+
+  @Override
+  public long[] getUserNeighborhood(long userID) throws TasteException {
+    return TopItems.getTopUsers(n, getCandidates(userID), null, new Estimator(getUserSimilarity(), userID));
+  }
+
+  @Override
+  public long[] getUserNeighborhood(long userID, String choiceBehavior, Random rand) throws TasteException {
+    TopItems.LongToDoubleEstimator estimator = new Estimator(getUserSimilarity(), userID);
+    if (choiceBehavior.equals("lower")) {
+      return getUserNeighborhood(userID);
+    } else if (choiceBehavior.equals("higher")) {
+      return TopItems.getTopUsersHigher(n, getCandidates(userID), null, estimator);
+    } else if (choiceBehavior.equals("random")) {
+      return TopItems.getTopUsersRandom(n, getCandidates(userID), null, estimator, rand);
+    }
+    log.warn("choiceBehavior string has an incorrect value: {}", choiceBehavior);
+    return null;
+  }
+
+  /**
+   * @return the users sharing a band with userID, other than userID, by ascending ID
+   */
+  private LongPrimitiveIterator getCandidates(long userID) throws TasteException {
+    Index theIndex = getIndex();
+    int row = Arrays.binarySearch(theIndex.userIDs, userID);
+    int[] signature;
+    int offset;
+    if (row >= 0) {
+      signature = theIndex.signatures;
+      offset = row * hashA.length;
+    } else {
+      signature = new int[hashA.length];
+      offset = 0;
+      computeSignature(getDataModel().getPreferencesFromUser(userID), signature, offset);
+    }
+
+    int[] candidateRows = new int[16];
+    int numCandidateRows = 0;
+    for (int band = 0; band < numBands; band++) {
+      int key = bandKey(signature, offset, band);
+      long[] bucket = theIndex.buckets[band];
+      int i = Arrays.binarySearch(bucket, (long) key << 32);
+      for (i = i < 0 ? -i - 1 : i; i < bucket.length && (int) (bucket[i] >> 32) == key; i++) {
+        if (numCandidateRows == candidateRows.length) {
+          candidateRows = Arrays.copyOf(candidateRows, 2 * numCandidateRows);
+        }
+        candidateRows[numCandidateRows++] = (int) bucket[i];
+      }
+    }
+
+    // Rows are sorted like user IDs, so that deduplicated rows give IDs by ascending order
+    Arrays.sort(candidateRows, 0, numCandidateRows);
+    long[] candidates = new long[numCandidateRows];
+    int numCandidates = 0;
+    for (int i = 0; i < numCandidateRows; i++) {
+      if (candidateRows[i] != row && (i == 0 || candidateRows[i] != candidateRows[i - 1])) {
+        candidates[numCandidates++] = theIndex.userIDs[candidateRows[i]];
+      }
+    }
+    return new LongPrimitiveArrayIterator(Arrays.copyOf(candidates, numCandidates));
+  }
+
+  /**
+   * Writes the MinHash signature of prefs' items in signatures, from offset.
+   */
+  private void computeSignature(PreferenceArray prefs, int[] signatures, int offset) {
+    Arrays.fill(signatures, offset, offset + hashA.length, Integer.MAX_VALUE);
+    for (int i = 0; i < prefs.length(); i++) {
+      long itemID = prefs.getItemID(i);
+      long x = ((int) (itemID ^ (itemID >>> 32)) & 0x7FFFFFFFL) % PRIME;
+      for (int h = 0; h < hashA.length; h++) {
+        int value = (int) ((hashA[h] * x + hashB[h]) % PRIME);
+        if (value < signatures[offset + h]) {
+          signatures[offset + h] = value;
+        }
+      }
+    }
+  }
+
+  private int bandKey(int[] signatures, int offset, int band) {
+    int key = band;
+    int from = offset + band * rowsPerBand;
+    for (int h = from; h < from + rowsPerBand; h++) {
+      key = 31 * key + signatures[h];
+    }
+    return key;
+  }
+
+  private Index getIndex() throws TasteException {
+    Index theIndex = index;
+    if (theIndex == null) {
+      synchronized (this) {
+        theIndex = index;
+        if (theIndex == null) {
+          long start = System.currentTimeMillis();
+          theIndex = buildIndex();
+          log.info("Computed MinHash signatures of {} users in {}ms", theIndex.userIDs.length,
+              System.currentTimeMillis() - start);
+          index = theIndex;
+        }
+      }
+    }
+    return theIndex;
+  }
+
+  private Index buildIndex() throws TasteException {
+    final DataModel dataModel = getDataModel();
+    final long[] userIDs = new long[dataModel.getNumUsers()];
+    int numUsers = 0;
+    LongPrimitiveIterator it = dataModel.getUserIDs();
+    while (it.hasNext()) {
+      userIDs[numUsers++] = it.nextLong();
+    }
+    Arrays.sort(userIDs);
+
+    final int[] signatures = new int[userIDs.length * hashA.length];
+    final int numChunks = (userIDs.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    final AtomicInteger nextChunk = new AtomicInteger();
+    Callable<Void> signer = new Callable<Void>() {
+      @Override
+      public Void call() throws TasteException {
+        int chunk;
+        while ((chunk = nextChunk.getAndIncrement()) < numChunks) {
+          int end = Math.min((chunk + 1) * CHUNK_SIZE, userIDs.length);
+          for (int row = chunk * CHUNK_SIZE; row < end; row++) {
+            computeSignature(dataModel.getPreferencesFromUser(userIDs[row]), signatures, row * hashA.length);
+          }
+        }
+        return null;
+      }
+    };
+    int threads = Math.min(numThreads, numChunks);
+    if (threads <= 1) {
+      try {
+        signer.call();
+      } catch (TasteException te) {
+        throw te;
+      } catch (Exception e) {
+        throw new TasteException(e);
+      }
+    } else {
+      Collection<Callable<Void>> signers = Lists.newArrayListWithCapacity(threads);
+      for (int t = 0; t < threads; t++) {
+        signers.add(signer);
+      }
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try {
+        for (Future<Void> future : executor.invokeAll(signers)) {
+          future.get();
+        }
+      } catch (InterruptedException ie) {
+        throw new TasteException(ie);
+      } catch (ExecutionException ee) {
+        throw new TasteException(ee.getCause());
+      } finally {
+        executor.shutdown();
+      }
+    }
+
+    // Each bucket entry holds the band key in its high bits and the user's row in its low bits
+    long[][] buckets = new long[numBands][userIDs.length];
+    for (int band = 0; band < numBands; band++) {
+      for (int row = 0; row < userIDs.length; row++) {
+        buckets[band][row] = (long) bandKey(signatures, row * hashA.length, band) << 32 | row;
+      }
+      Arrays.sort(buckets[band]);
+    }
+    return new Index(userIDs, signatures, buckets);
+  }
+
+  @Override
+  void clearPrecomputed() {
+    index = null;
+  }
+
+  @Override
+  public String toString() {
+    return "MinHashUserNeighborhood[bands:" + numBands + ", rowsPerBand:" + rowsPerBand + ']';
+  }
+
+  private static final class Index {
+
+    private final long[] userIDs;
+    /** Signature of userIDs[row] from row * numHashFunctions. */
+    private final int[] signatures;
+    /** Per band, entries band key << 32 | row, sorted. */
+    private final long[][] buckets;
+
+    private Index(long[] userIDs, int[] signatures, long[][] buckets) {
+      this.userIDs = userIDs;
+      this.signatures = signatures;
+      this.buckets = buckets;
+    }
+  }
+
+  private static final class Estimator implements TopItems.LongToDoubleEstimator {
+
+    private final UserSimilarity userSimilarityImpl;
+    private final long theUserID;
+
+    private Estimator(UserSimilarity userSimilarityImpl, long theUserID) {
+      this.userSimilarityImpl = userSimilarityImpl;
+      this.theUserID = theUserID;
+    }
+
+    @Override
+    public double estimate(long userID) throws TasteException {
+      if (userID == theUserID) {
+        return Double.NaN;
+      }
+      return userSimilarityImpl.userSimilarity(theUserID, userID);
+    }
+  }
+}
@@ -19,19 +19,25 @@ package org.apache.mahout.cf.taste.impl.neighborhood;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.HashMap;
 import java.util.Random;
 
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.impl.common.SamplingLongPrimitiveIterator;
 import org.apache.mahout.cf.taste.impl.recommender.TopItems;
+import org.apache.mahout.cf.taste.impl.similarity.AbstractSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.BoundedCachingUserSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.TanimotoCoefficientSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.SimilarityHistogram;
 import org.apache.mahout.cf.taste.impl.similarity.TwoStepUncenteredCosineSimilarity;
 import org.apache.mahout.cf.taste.impl.similarity.UncenteredCosineSimilarity;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
 
@@ -43,11 +49,12 @@ import com.google.common.base.Preconditions;
  */
 public final class NearestNUserNeighborhood extends AbstractUserNeighborhood {
 
+	private static final Logger log = LoggerFactory.getLogger(NearestNUserNeighborhood.class);
+
 	private final int n;
 	private final double minSimilarity;
-	private HashSet<Double> similarityDistro = new HashSet<Double>();
 	private boolean perUserDistro;
-	private HashMap<Long, Double> hashMap;
+	private volatile UserNeighborhoodGraph graph;
 
 	/**
 	 * @param n
@@ -60,8 +67,6 @@ public final class NearestNUserNeighborhood extends AbstractUserNeighborhood {
 	public NearestNUserNeighborhood(int n, UserSimilarity userSimilarity,
 			DataModel dataModel) throws TasteException {
 		this(n, Double.NEGATIVE_INFINITY, userSimilarity, dataModel, 1.0);
-		int nbUsers = dataModel.getNumUsers();
-		this.hashMap = new HashMap<Long, Double>(nbUsers);
 	}
 
 	/**
@@ -78,8 +83,6 @@ public final class NearestNUserNeighborhood extends AbstractUserNeighborhood {
 			UserSimilarity userSimilarity, DataModel dataModel)
 			throws TasteException {
 		this(n, minSimilarity, userSimilarity, dataModel, 1.0);
-		int nbUsers = dataModel.getNumUsers();
-		this.hashMap = new HashMap<Long, Double>(nbUsers);
 	}
 
 	/**
@@ -103,34 +106,146 @@ public final class NearestNUserNeighborhood extends AbstractUserNeighborhood {
 		int numUsers = dataModel.getNumUsers();
 		this.n = n > numUsers ? numUsers : n;
 		this.minSimilarity = minSimilarity;
-		int nbUsers = dataModel.getNumUsers();
-		this.hashMap = new HashMap<Long, Double>(nbUsers);
+	}
+
+	/**
+	 * Computes the neighborhood of every user once, in parallel, and answers
+	 * subsequent queries from the resulting {@link UserNeighborhoodGraph}. The
+	 * graph is dropped when this neighborhood is refreshed.
+	 *
+	 * @param nbThreads
+	 *            number of threads used to compute the graph
+	 */
+	public void precomputeNeighborhoods(int nbThreads) throws TasteException {
+		Preconditions.checkArgument(nbThreads >= 1, "nbThreads must be at least 1");
+		graph = UserNeighborhoodGraph.build(n, minSimilarity,
+				getUserSimilarity(), getDataModel(), getSamplingRate(), nbThreads);
+	}
+
+	/**
+	 * Same as {@link #precomputeNeighborhoods(int)}, starting from the graph
+	 * of previous: a neighborhood of the same size over the same users, before
+	 * the preferences of changedUserIDs were added or updated (e.g. Sybil
+	 * users rating the items they were recommended). Only the neighborhoods
+	 * of the changed users and of the users who rated one of their items are
+	 * computed again, the others staying the same as long as the similarity of
+	 * two users who rated no item in common does not depend on their
+	 * preferences. All neighborhoods are computed when this cannot be
+	 * guaranteed or previous has no graph.
+	 *
+	 * @param previous
+	 *            neighborhood built with the same kind of similarity on the
+	 *            model before the change
+	 * @param changedUserIDs
+	 *            users whose preferences changed since previous was computed
+	 */
+	public void precomputeNeighborhoods(int nbThreads,
+			NearestNUserNeighborhood previous, long[] changedUserIDs)
+			throws TasteException {
+		Preconditions.checkArgument(nbThreads >= 1, "nbThreads must be at least 1");
+		UserNeighborhoodGraph previousGraph = previous == null ? null : previous.graph;
+		UserSimilarity similarity = getUserSimilarity();
+		if (previousGraph == null || previous.n != n
+				|| previous.minSimilarity != minSimilarity
+				|| getSamplingRate() < 1.0 || previous.getSamplingRate() < 1.0
+				|| uncached(previous.getUserSimilarity()).getClass() != uncached(similarity).getClass()
+				|| !isConstantForDisjointUsers(similarity)) {
+			log.info("Cannot reuse the previous neighborhoods of {}, computing all of them", similarity);
+			precomputeNeighborhoods(nbThreads);
+			return;
+		}
+
+		DataModel dataModel = getDataModel();
+		FastIDSet usersToUpdate = UserNeighborhoodGraph.usersToUpdate(dataModel, changedUserIDs);
+		if (similarity instanceof TwoStepUncenteredCosineSimilarity) {
+			// The similarity distribution, hence the threshold, of the other users is unchanged
+			TwoStepUncenteredCosineSimilarity twoStep = (TwoStepUncenteredCosineSimilarity) similarity;
+			TwoStepUncenteredCosineSimilarity previousTwoStep = (TwoStepUncenteredCosineSimilarity) previous.getUserSimilarity();
+			if (twoStep.isPerUserDistro()) {
+				LongPrimitiveIterator it = dataModel.getUserIDs();
+				while (it.hasNext()) {
+					long userID = it.nextLong();
+					if (!usersToUpdate.contains(userID)
+							&& !twoStep.hasSimilarityThresholdForUser(userID)
+							&& previousTwoStep.hasSimilarityThresholdForUser(userID)) {
+						twoStep.setSimilarityThresholdForUser(userID,
+								previousTwoStep.getSimilarityThresholdForUser(userID));
+					}
+				}
+			}
+		}
+		graph = UserNeighborhoodGraph.update(previousGraph, usersToUpdate, n,
+				minSimilarity, similarity, dataModel, getSamplingRate(), nbThreads);
+	}
+
+	/**
+	 * @return the neighborhood of userID alone, stored as
+	 *         {@link #precomputeNeighborhoods(int)} stores it: the n most
+	 *         similar users plus all the users tied with the n-th one
+	 */
+	UserNeighborhoodGraph computeNeighborhoodRow(long userID) throws TasteException {
+		return UserNeighborhoodGraph.buildRow(n, minSimilarity, getUserSimilarity(),
+				getDataModel(), getSamplingRate(), userID);
+	}
+
+	private static UserSimilarity uncached(UserSimilarity similarity) {
+		return similarity instanceof BoundedCachingUserSimilarity
+				? ((BoundedCachingUserSimilarity) similarity).getSimilarity() : similarity;
+	}
+
+	static boolean isConstantForDisjointUsers(UserSimilarity similarity) {
+		if (similarity instanceof BoundedCachingUserSimilarity) {
+			return isConstantForDisjointUsers(((BoundedCachingUserSimilarity) similarity).getSimilarity());
+		}
+		if (similarity instanceof AbstractSimilarity) {
+			return ((AbstractSimilarity) similarity).isConstantForDisjointUsers();
+		}
+		// Disjoint profiles have no intersection, hence a 0 coefficient
+		return similarity instanceof TanimotoCoefficientSimilarity;
+	}
+
+	/**
+	 * @return the precomputed neighborhoods, or {@code null} if
+	 *         {@link #precomputeNeighborhoods(int)} was not called since the
+	 *         last refresh
+	 */
+	public UserNeighborhoodGraph getNeighborhoodGraph() {
+		return graph;
+	}
+
+	@Override
+	void clearPrecomputed() {
+		graph = null;
 	}
 
 	@Override
 	public long[] getUserNeighborhood(long userID) throws TasteException {
-		DataModel dataModel = getDataModel();
+		UserNeighborhoodGraph graph = this.graph;
+		if (graph != null && graph.hasUser(userID)) {
+			return graph.getUserNeighborhood(userID, "lower", null);
+		}
+
 		UserSimilarity userSimilarityImpl = getUserSimilarity();
 
-		TopItems.Estimator<Long> estimator = new Estimator(userSimilarityImpl,
+		TopItems.LongToDoubleEstimator estimator = new Estimator(userSimilarityImpl,
 				userID, minSimilarity);
 
 		LongPrimitiveIterator userIDs = SamplingLongPrimitiveIterator
-				.maybeWrapIterator(dataModel.getUserIDs(), getSamplingRate());
+				.maybeWrapIterator(getCandidateUserIDs(userID), getSamplingRate());
 		return TopItems.getTopUsers(n, userIDs, null, estimator);
 	}
 
 
 	/**
-	 * Compute the set of (standard) cosine similarity values between userID and all the other users.
+	 * Compute the histogram of (standard) cosine similarity values between userID and all the other users, rounded to 2 decimals.
 	 * Assumptions: this method is called only within recopriv's KNNRecommenderBuilder.buildSimilarityDistribution(), and only once per userID.
 	 */
-	public HashSet<Double> getSimilarityDistributionForUser(long userID)
+	public SimilarityHistogram getSimilarityDistributionForUser(long userID)
 			throws TasteException {
 		DataModel dataModel = getDataModel();
 
 		UserSimilarity userSimilarityImpl = getUserSimilarity();
-		TopItems.Estimator<Long> estimator = new Estimator(userSimilarityImpl,
+		TopItems.LongToDoubleEstimator estimator = new Estimator(userSimilarityImpl,
 				userID, minSimilarity);
 
 		LongPrimitiveIterator userIDs = SamplingLongPrimitiveIterator
@@ -145,16 +260,13 @@ public final class NearestNUserNeighborhood extends AbstractUserNeighborhood {
 //				HashSet<Double> simValues = TopItems.computeSimilarityValues(
 //						userIDs, estimator, twoStep.getPercentileThreshold());
 
-				HashSet<Double> simValues = new HashSet<Double>();
+				SimilarityHistogram simValues = new SimilarityHistogram();
 				while (userIDs.hasNext()) {
 					long otherUserID = userIDs.next();
 
 					double similarity;
 					try {
 						similarity = userSimilarityImpl.userSimilarity(userID, otherUserID);
-						similarity *=100;
-						similarity=Math.round(similarity);
-						similarity /=100;
 						simValues.add(similarity);
 					} catch (NoSuchUserException nsue) {
 						System.err.println("No such user "+otherUserID);
@@ -183,15 +295,20 @@ public final class NearestNUserNeighborhood extends AbstractUserNeighborhood {
 		if (choiceBehavior.equals("lower")) {
 			return getUserNeighborhood(userID);
 		}
+		UserNeighborhoodGraph graph = this.graph;
+		if (graph != null && graph.hasUser(userID)
+				&& (choiceBehavior.equals("higher") || choiceBehavior.equals("random"))) {
+			return graph.getUserNeighborhood(userID, choiceBehavior, rand);
+		}
 
 		DataModel dataModel = getDataModel();
 		UserSimilarity userSimilarityImpl = getUserSimilarity();
 
-		TopItems.Estimator<Long> estimator = new Estimator(userSimilarityImpl,
+		TopItems.LongToDoubleEstimator estimator = new Estimator(userSimilarityImpl,
 				userID, minSimilarity);
 
 		LongPrimitiveIterator userIDs = SamplingLongPrimitiveIterator
-				.maybeWrapIterator(dataModel.getUserIDs(), getSamplingRate());
+				.maybeWrapIterator(getCandidateUserIDs(userID), getSamplingRate());
 //		System.out.println("[DAVIDE] in NearestNUserNeigh for uid="+userID+" with similarity "+userSimilarityImpl.getClass().getCanonicalName()+" before if that will call getTopUsersRandom with obtained iterator samplingoriginal userIds "+dataModel.getNumUsers()+" and sampling rate "+getSamplingRate());
 		if (choiceBehavior.equals("higher")) {
 			return TopItems.getTopUsersHigher(n, userIDs, null, estimator);
@@ -199,10 +316,13 @@ public final class NearestNUserNeighborhood extends AbstractUserNeighborhood {
 			if (userSimilarityImpl instanceof TwoStepUncenteredCosineSimilarity) {
 				TwoStepUncenteredCosineSimilarity twoStep = (TwoStepUncenteredCosineSimilarity) userSimilarityImpl;
 				if (!twoStep.hasSimilarityThresholdForUser(userID) && twoStep.isPerUserDistro()) {
-					hashMap.clear();
+					// Per-call scratch map so that concurrent callers do not share state
+					HashMap<Long, Double> firstRound = new HashMap<Long, Double>(dataModel.getNumUsers());
+					// The similarity distribution, hence the threshold, is over all users
+					userIDs = SamplingLongPrimitiveIterator.maybeWrapIterator(dataModel.getUserIDs(), getSamplingRate());
 					//return TopItems.getTopUsersRandom(n, userIDs, null, estimator, rand);
 					
-					return TopItems.getTwoStepTopUsersRandom(n, userIDs, null, estimator, twoStep, rand, userID, hashMap);
+					return TopItems.getTwoStepTopUsersRandom(n, userIDs, null, estimator, twoStep, rand, userID, firstRound);
 				} else {
 					return TopItems.getTopUsersRandom(n, userIDs, null, estimator, rand);
 				}
@@ -226,7 +346,7 @@ public final class NearestNUserNeighborhood extends AbstractUserNeighborhood {
 	 * A wrapper around a UserSimilarity.userSimilarity() where the first user is fixed.
 	 * The main method is estimate(userID), which is equivalent to userSimilarity(fixedUser, userID).
 	 */
-	private static final class Estimator implements TopItems.Estimator<Long> {
+	private static final class Estimator implements TopItems.LongToDoubleEstimator {
 		private final UserSimilarity userSimilarityImpl;
 		private final long theUserID;
 		private final double minSim;
@@ -239,7 +359,7 @@ public final class NearestNUserNeighborhood extends AbstractUserNeighborhood {
 		}
 
 		@Override
-		public double estimate(Long userID) throws TasteException {
+		public double estimate(long userID) throws TasteException {
 			if (userID == theUserID) {
 				return Double.NaN;
 			}
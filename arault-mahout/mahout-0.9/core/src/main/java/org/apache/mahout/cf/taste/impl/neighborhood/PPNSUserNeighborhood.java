@@ -2,10 +2,7 @@ package org.apache.mahout.cf.taste.impl.neighborhood;
 
 import java.lang.Math;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Random;
 
 import org.apache.mahout.cf.taste.impl.neighborhood.AbstractUserNeighborhood;
@@ -14,10 +11,13 @@ import org.apache.mahout.cf.taste.common.NoSuchUserException;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.impl.common.SamplingLongPrimitiveIterator;
 import org.apache.mahout.cf.taste.impl.recommender.TopItems;
+import org.apache.mahout.cf.taste.impl.similarity.SimilarityHistogram;
 import org.apache.mahout.cf.taste.impl.similarity.TwoStepUncenteredCosineSimilarity;
-import org.apache.mahout.cf.taste.impl.similarity.UncenteredCosineSimilarity;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.apache.mahout.common.RandomUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
 
@@ -27,16 +27,27 @@ import com.google.common.base.Preconditions;
  * Accuracy-maximised Privacy Preserving Collaborative Filtering Recommendation
  * Algorithm" Zhigang Lu, Hong Shen
  * </p>
+ *
+ * <p>
+ * The k = beta * n most similar users are computed along with their similarities, then the first n - 1 of them
+ * are kept and the last neighbor is drawn from the last block of n with probabilities given by the exponential of
+ * their cumulated similarities. Draws use the {@link Random} given to
+ * {@link #getUserNeighborhood(long, String, Random)}, or else a {@link Random} derived from the seed of this
+ * neighborhood and the ID of the user, so that runs are reproducible whichever thread queries which user. The candidates of all users can be precomputed in
+ * parallel with {@link #precomputeNeighborhoods(int)}.
+ * </p>
  */
 public final class PPNSUserNeighborhood extends AbstractUserNeighborhood {
 
+	private static final Logger log = LoggerFactory.getLogger(PPNSUserNeighborhood.class);
+
 	private final int n;
 	private final double minSimilarity;
-	private HashSet<Double> similarityDistro = new HashSet<Double>();
-	private boolean perUserDistro;
-	private HashMap<Long, Double> hashMap;
-	private int beta;
-	private int k;
+	private final int beta;
+	private final int k;
+	private final long seed;
+	/** The k most similar users of every user, with their ties, or null if not precomputed */
+	private volatile UserNeighborhoodGraph graph;
 
 	/**
 	 * @param n
@@ -51,9 +62,6 @@ public final class PPNSUserNeighborhood extends AbstractUserNeighborhood {
 	public PPNSUserNeighborhood(int n, UserSimilarity userSimilarity, DataModel dataModel, int beta)
 			throws TasteException {
 		this(n, Double.NEGATIVE_INFINITY, userSimilarity, dataModel, 1.0, beta);
-		int nbUsers = dataModel.getNumUsers();
-		this.hashMap = new HashMap<Long, Double>(nbUsers);
-		this.beta = beta;
 	}
 
 	/**
@@ -71,9 +79,6 @@ public final class PPNSUserNeighborhood extends AbstractUserNeighborhood {
 	public PPNSUserNeighborhood(int n, double minSimilarity, UserSimilarity userSimilarity, DataModel dataModel,
 			int beta) throws TasteException {
 		this(n, minSimilarity, userSimilarity, dataModel, 1.0, beta);
-		int nbUsers = dataModel.getNumUsers();
-		this.hashMap = new HashMap<Long, Double>(nbUsers);
-		this.beta = beta;
 	}
 
 	/**
@@ -93,44 +98,86 @@ public final class PPNSUserNeighborhood extends AbstractUserNeighborhood {
 	 */
 	public PPNSUserNeighborhood(int n, double minSimilarity, UserSimilarity userSimilarity, DataModel dataModel,
 			double samplingRate, int beta) throws TasteException {
+		this(n, minSimilarity, userSimilarity, dataModel, samplingRate, beta, RandomUtils.getRandom().nextLong());
+	}
+
+	/**
+	 * @param n
+	 *            neighborhood size; capped at the number of users in the data
+	 *            model
+	 * @param minSimilarity
+	 *            minimal similarity required for neighbors
+	 * @param samplingRate
+	 *            percentage of users to consider when building neighborhood --
+	 *            decrease to trade quality for performance
+	 * @param beta
+	 *            security metric in PPNS method
+	 * @param seed
+	 *            seed of the random draws made when no {@link Random} is
+	 *            given, each query for a user drawing from a {@link Random}
+	 *            seeded from seed and the ID of the user
+	 * @throws IllegalArgumentException
+	 *             if {@code n < 1} or {@code beta < 1} or samplingRate is NaN
+	 *             or not in (0,1], or userSimilarity or dataModel are
+	 *             {@code null}
+	 */
+	public PPNSUserNeighborhood(int n, double minSimilarity, UserSimilarity userSimilarity, DataModel dataModel,
+			double samplingRate, int beta, long seed) throws TasteException {
 		super(userSimilarity, dataModel, samplingRate);
 		Preconditions.checkArgument(n >= 1, "n must be at least 1");
+		Preconditions.checkArgument(beta >= 1, "beta must be at least 1");
 		int numUsers = dataModel.getNumUsers();
 		this.n = n;
 		this.k = (beta * n) > numUsers ? numUsers : (beta * n);
 		this.minSimilarity = minSimilarity;
-		int nbUsers = dataModel.getNumUsers();
-		this.hashMap = new HashMap<Long, Double>(nbUsers);
 		this.beta = beta;
+		this.seed = seed;
 	}
 
-	@Override
-	public long[] getUserNeighborhood(long userID) throws TasteException {
-		DataModel dataModel = getDataModel();
-		UserSimilarity userSimilarityImpl = getUserSimilarity();
-
-		TopItems.Estimator<Long> estimator = new Estimator(userSimilarityImpl, userID, minSimilarity);
+	/**
+	 * Computes the k = beta * n most similar users of every user once, in
+	 * parallel, and draws the neighborhoods of subsequent queries from them.
+	 * They are dropped when this neighborhood is refreshed.
+	 *
+	 * @param nbThreads
+	 *            number of threads computing the candidates
+	 */
+	public void precomputeNeighborhoods(int nbThreads) throws TasteException {
+		Preconditions.checkArgument(nbThreads >= 1, "nbThreads must be at least 1");
+		graph = UserNeighborhoodGraph.build(k, minSimilarity, getUserSimilarity(), getDataModel(), getSamplingRate(),
+				nbThreads, false);
+	}
 
-		LongPrimitiveIterator userIDs = SamplingLongPrimitiveIterator.maybeWrapIterator(dataModel.getUserIDs(),
-				getSamplingRate());
+	/**
+	 * @return the precomputed candidates, or {@code null} if
+	 *         {@link #precomputeNeighborhoods(int)} was not called since the
+	 *         last refresh
+	 */
+	public UserNeighborhoodGraph getNeighborhoodGraph() {
+		return graph;
+	}
 
-    long[] neighbors = TopItems.getTopUsers(k, userIDs, null, estimator);
-    Random rand = new Random();
+	@Override
+	void clearPrecomputed() {
+		graph = null;
+	}
 
-		return PPNS(userID, neighbors, rand);
+	@Override
+	public long[] getUserNeighborhood(long userID) throws TasteException {
+		return getUserNeighborhood(userID, "lower", null);
 	}
 
 	/**
-	 * Compute the set of (standard) cosine similarity values between userID and
-	 * all the other users. Assumptions: this method is called only within
+	 * Compute the histogram of (standard) cosine similarity values between
+	 * userID and all the other users, rounded to 2 decimals. Assumptions: this method is called only within
 	 * recopriv's KNNRecommenderBuilder.buildSimilarityDistribution(), and only
 	 * once per userID.
 	 */
-	public HashSet<Double> getSimilarityDistributionForUser(long userID) throws TasteException {
+	public SimilarityHistogram getSimilarityDistributionForUser(long userID) throws TasteException {
 		DataModel dataModel = getDataModel();
 
 		UserSimilarity userSimilarityImpl = getUserSimilarity();
-		TopItems.Estimator<Long> estimator = new Estimator(userSimilarityImpl, userID, minSimilarity);
+		TopItems.LongToDoubleEstimator estimator = new Estimator(userSimilarityImpl, userID, minSimilarity);
 
 		LongPrimitiveIterator userIDs = SamplingLongPrimitiveIterator.maybeWrapIterator(dataModel.getUserIDs(),
 				getSamplingRate());
@@ -144,16 +191,13 @@ public final class PPNSUserNeighborhood extends AbstractUserNeighborhood {
 				// HashSet<Double> simValues = TopItems.computeSimilarityValues(
 				// userIDs, estimator, twoStep.getPercentileThreshold());
 
-				HashSet<Double> simValues = new HashSet<Double>();
+				SimilarityHistogram simValues = new SimilarityHistogram();
 				while (userIDs.hasNext()) {
 					long otherUserID = userIDs.next();
 
 					double similarity;
 					try {
 						similarity = userSimilarityImpl.userSimilarity(userID, otherUserID);
-						similarity *= 100;
-						similarity = Math.round(similarity);
-						similarity /= 100;
 						simValues.add(similarity);
 					} catch (NoSuchUserException nsue) {
 						System.err.println("No such user " + otherUserID);
@@ -178,71 +222,73 @@ public final class PPNSUserNeighborhood extends AbstractUserNeighborhood {
 
 	@Override
 	public long[] getUserNeighborhood(long userID, String choiceBehavior, Random rand) throws TasteException {
-		if (choiceBehavior.equals("lower")) {
-			return getUserNeighborhood(userID);
+		if (rand == null) {
+			rand = new Random(seed ^ (userID * 0x9E3779B97F4A7C15L));
+		}
+		UserNeighborhoodGraph theGraph = graph;
+		if (theGraph == null || !theGraph.hasUser(userID)) {
+			theGraph = UserNeighborhoodGraph.buildRow(k, minSimilarity, getUserSimilarity(), getDataModel(),
+					getSamplingRate(), userID, false);
+			if (!theGraph.hasUser(userID)) {
+				// No candidate for a user who is not in the data model
+				return new long[0];
+			}
 		}
 
-		DataModel dataModel = getDataModel();
-		UserSimilarity userSimilarityImpl = getUserSimilarity();
-
-		TopItems.Estimator<Long> estimator = new Estimator(userSimilarityImpl, userID, minSimilarity);
-
-		LongPrimitiveIterator userIDs = SamplingLongPrimitiveIterator.maybeWrapIterator(dataModel.getUserIDs(),
-				getSamplingRate());
-
-		long[] neighbors = null;
-//		System.out.println(
-//				"[DAVIDE] in PPNS before if that will call getTopUsersRandom with obtained iterator samplingoriginal userIds "
-//						+ dataModel.getNumUsers() + " and sampling rate " + getSamplingRate());
-
-		if (choiceBehavior.equals("higher")) {
-			neighbors = TopItems.getTopUsersHigher(k, userIDs, null, estimator);
-		} else if (choiceBehavior.equals("random")) {
-			neighbors = TopItems.getTopUsersRandom(k, userIDs, null, estimator, rand);
-		} else {
-			System.out.println("WARNING: choiceBehavior string has an incorrect value: " + choiceBehavior);
+		double[] similarities = new double[k];
+		long[] candidates = theGraph.getUserNeighborhood(userID, choiceBehavior, rand, similarities);
+		if (candidates == null) {
+			log.warn("choiceBehavior string has an incorrect value: {}", choiceBehavior);
 			return null;
 		}
-
-    return PPNS(userID, neighbors, rand);
+		return PPNS(candidates, similarities, rand);
 	}
 
-  private long[] PPNS(long userID, long[] candidates, Random rand) {
-    
-    DataModel dataModel = getDataModel();
-    UserSimilarity userSimilarityImpl = getUserSimilarity();
+	/**
+	 * @param candidates
+	 *            the k most similar users, from the most similar one
+	 * @param similarities
+	 *            their similarities, NaN for the unfilled slots of the
+	 *            "random" choice behavior
+	 */
+	private long[] PPNS(long[] candidates, double[] similarities, Random rand) {
+		int size = candidates.length;
+		while (size > 0 && Double.isNaN(similarities[size - 1])) {
+			size--;
+		}
+		int blockStart = (beta - 1) * n;
+		int blockSize = Math.min(n, size - blockStart);
+		if (blockSize <= 0 || size < n - 1) {
+			// Too few candidates for the last block, keep the most similar ones
+			return Arrays.copyOf(candidates, Math.min(n, size));
+		}
 
 		long[] neighbors = new long[n];
-
-		for (int i = 0; i < n - 1; i++) {
-			neighbors[i] = candidates[i];
+		System.arraycopy(candidates, 0, neighbors, 0, n - 1);
+
+		double[] cumulativeSimilarities = new double[blockSize];
+		/* Create cumulative similarities vector */
+		for (int i = 0; i < blockSize; i++) {
+			cumulativeSimilarities[i] = similarities[blockStart + i];
+			if (i != 0) {
+				cumulativeSimilarities[i] += cumulativeSimilarities[i - 1];
+			}
+		}
+		/* Take exponential */
+		for (int i = 0; i < blockSize; i++) {
+			cumulativeSimilarities[i] = Math.exp(cumulativeSimilarities[i]);
 		}
-    
-    double[] cumulativeSimilarities = new double[n];
-    /* Create cumulative similarities vector */
-    try {
-      for (int i = 0; i < n; i++) {
-        cumulativeSimilarities[i] = userSimilarityImpl.userSimilarity(userID, candidates[(beta - 1) * n + i]);
-        if (i != 0) {
-          cumulativeSimilarities[i] += cumulativeSimilarities[i - 1];
-        }
-      }
-    } catch (TasteException ex) {}
-    /* Take exponential */
-    for (int i = 0; i < n; i++) {
-      cumulativeSimilarities[i] = Math.exp(cumulativeSimilarities[i]);
-    }
-    /* Normalize to have vector ending with 1 */
-    for (int i = 0; i < n; i++) {
-      cumulativeSimilarities[i] /= cumulativeSimilarities[n-1];
-    }
-    double choice = rand.nextDouble();
-    int j = 0;
-    while (cumulativeSimilarities[j] < choice) {
-      j++;
-    }
-    
-		neighbors[n-1] = candidates[(beta - 1) * n + j];
+		/* Normalize to have vector ending with 1 */
+		for (int i = 0; i < blockSize; i++) {
+			cumulativeSimilarities[i] /= cumulativeSimilarities[blockSize - 1];
+		}
+		double choice = rand.nextDouble();
+		int j = 0;
+		while (j < blockSize - 1 && cumulativeSimilarities[j] < choice) {
+			j++;
+		}
+
+		neighbors[n - 1] = candidates[blockStart + j];
 
 		return neighbors;
 	}
@@ -257,7 +303,7 @@ public final class PPNSUserNeighborhood extends AbstractUserNeighborhood {
 	 * is fixed. The main method is estimate(userID), which is equivalent to
 	 * userSimilarity(fixedUser, userID).
 	 */
-	private static final class Estimator implements TopItems.Estimator<Long> {
+	private static final class Estimator implements TopItems.LongToDoubleEstimator {
 		private final UserSimilarity userSimilarityImpl;
 		private final long theUserID;
 		private final double minSim;
@@ -269,7 +315,7 @@ public final class PPNSUserNeighborhood extends AbstractUserNeighborhood {
 		}
 
 		@Override
-		public double estimate(Long userID) throws TasteException {
+		public double estimate(long userID) throws TasteException {
 			if (userID == theUserID) {
 				return Double.NaN;
 			}
@@ -0,0 +1,622 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.neighborhood;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.SamplingLongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.similarity.SimilarityHistogram;
+import org.apache.mahout.cf.taste.impl.similarity.TwoStepUncenteredCosineSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+
+/**
+ * <p>
+ * The nearest n users of every user of a {@link DataModel}, computed once and stored in flat primitive arrays
+ * (one row per user, rows laid out back to back).
+ * </p>
+ *
+ * <p>
+ * A row is sorted from the most to the least similar neighbor, equally similar neighbors being ordered by
+ * ascending user ID. It holds the n most similar users plus every user tied with the n-th one, so that ties can
+ * still be broken on each query according to the "lower", "higher" or "random" choice behavior, exactly as
+ * {@link org.apache.mahout.cf.taste.impl.recommender.TopItems} does when scanning all users.
+ * </p>
+ */
+public final class UserNeighborhoodGraph {
+
+	private static final Logger log = LoggerFactory.getLogger(UserNeighborhoodGraph.class);
+
+	private static final long[] NO_IDS = new long[0];
+
+	private final int n;
+	/** Sorted user IDs, row i belonging to userIDs[i]. */
+	private final long[] userIDs;
+	/** Row i spans [offsets[i], offsets[i+1]) in neighbors and similarities. */
+	private final int[] offsets;
+	private final long[] neighbors;
+	private final double[] similarities;
+
+	private UserNeighborhoodGraph(int n, long[] userIDs, int[] offsets,
+			long[] neighbors, double[] similarities) {
+		this.n = n;
+		this.userIDs = userIDs;
+		this.offsets = offsets;
+		this.neighbors = neighbors;
+		this.similarities = similarities;
+	}
+
+	/**
+	 * @param n
+	 *            neighborhood size
+	 * @param minSimilarity
+	 *            minimal similarity required for neighbors
+	 * @param samplingRate
+	 *            percentage of users to consider when building each row
+	 * @param nbThreads
+	 *            number of threads computing rows
+	 */
+	static UserNeighborhoodGraph build(int n, double minSimilarity,
+			UserSimilarity similarity, DataModel dataModel,
+			double samplingRate, int nbThreads) throws TasteException {
+		return build(n, minSimilarity, similarity, dataModel, samplingRate, nbThreads, true);
+	}
+
+	/**
+	 * Same as {@link #build(int, double, UserSimilarity, DataModel, double, int)}, the similarity being used as
+	 * is when perUserThresholds is false: the rows of a per-user two-step similarity are then not computed from
+	 * the first round of {@link org.apache.mahout.cf.taste.impl.recommender.TopItems#getTwoStepTopUsersRandom}.
+	 */
+	static UserNeighborhoodGraph build(int n, double minSimilarity,
+			UserSimilarity similarity, DataModel dataModel,
+			double samplingRate, int nbThreads, boolean perUserThresholds) throws TasteException {
+		return build(n, minSimilarity, similarity, dataModel, samplingRate, nbThreads, null, null,
+				perUserThresholds);
+	}
+
+	/**
+	 * Same as {@link #build(int, double, UserSimilarity, DataModel, double, int)}, but the rows of the users
+	 * which are not in usersToUpdate are copied from previous when it has them instead of being computed again.
+	 */
+	static UserNeighborhoodGraph update(UserNeighborhoodGraph previous, FastIDSet usersToUpdate,
+			int n, double minSimilarity, UserSimilarity similarity, DataModel dataModel,
+			double samplingRate, int nbThreads) throws TasteException {
+		return build(n, minSimilarity, similarity, dataModel, samplingRate, nbThreads, previous, usersToUpdate,
+				true);
+	}
+
+	/**
+	 * @return a graph holding only the row of userID, computed as
+	 *         {@link #build(int, double, UserSimilarity, DataModel, double, int)} computes it, or no row if
+	 *         userID is not in dataModel
+	 */
+	static UserNeighborhoodGraph buildRow(int n, double minSimilarity,
+			UserSimilarity similarity, DataModel dataModel,
+			double samplingRate, long userID) throws TasteException {
+		return buildRow(n, minSimilarity, similarity, dataModel, samplingRate, userID, true);
+	}
+
+	/**
+	 * @return a graph holding only the row of userID, computed as
+	 *         {@link #build(int, double, UserSimilarity, DataModel, double, int, boolean)} computes it, or no row
+	 *         if userID is not in dataModel
+	 */
+	static UserNeighborhoodGraph buildRow(int n, double minSimilarity,
+			UserSimilarity similarity, DataModel dataModel,
+			double samplingRate, long userID, boolean perUserThresholds) throws TasteException {
+		long[] userIDs = new long[dataModel.getNumUsers()];
+		int numUsers = 0;
+		int row = -1;
+		LongPrimitiveIterator it = dataModel.getUserIDs();
+		while (it.hasNext()) {
+			long otherUserID = it.nextLong();
+			if (otherUserID == userID) {
+				row = numUsers;
+			}
+			userIDs[numUsers++] = otherUserID;
+		}
+		if (row < 0) {
+			return new UserNeighborhoodGraph(n, NO_IDS, new int[] {0}, NO_IDS, new double[0]);
+		}
+		long[][] rowNeighbors = new long[numUsers][];
+		double[][] rowSimilarities = new double[numUsers][];
+		new RowBuilder(n, minSimilarity, similarity, dataModel, userIDs, samplingRate, perUserThresholds,
+				rowNeighbors, rowSimilarities, new int[] {row}, 1, new AtomicInteger()).call();
+		return new UserNeighborhoodGraph(n, new long[] {userID},
+				new int[] {0, rowNeighbors[row].length}, rowNeighbors[row], rowSimilarities[row]);
+	}
+
+	/**
+	 * @return the users whose row can change when the preferences of changedUserIDs change, as long as the
+	 *         similarity of two users who rated no item in common does not depend on their preferences: the
+	 *         changed users, and the users who rated one of the items they now rate. Preferences are only
+	 *         expected to be added or updated, not removed.
+	 */
+	static FastIDSet usersToUpdate(DataModel dataModel, long[] changedUserIDs) throws TasteException {
+		FastIDSet items = new FastIDSet();
+		FastIDSet result = new FastIDSet();
+		for (long userID : changedUserIDs) {
+			result.add(userID);
+			PreferenceArray prefs;
+			try {
+				prefs = dataModel.getPreferencesFromUser(userID);
+			} catch (NoSuchUserException nsue) {
+				continue;
+			}
+			for (int i = 0; i < prefs.length(); i++) {
+				long itemID = prefs.getItemID(i);
+				if (items.add(itemID)) {
+					for (long raterID : dataModel.getPreferencesForItem(itemID).getIDs()) {
+						result.add(raterID);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	private static UserNeighborhoodGraph build(int n, double minSimilarity,
+			UserSimilarity similarity, DataModel dataModel,
+			double samplingRate, int nbThreads, UserNeighborhoodGraph previous,
+			FastIDSet usersToUpdate, boolean perUserThresholds) throws TasteException {
+		long[] userIDs = new long[dataModel.getNumUsers()];
+		int numUsers = 0;
+		LongPrimitiveIterator it = dataModel.getUserIDs();
+		while (it.hasNext()) {
+			userIDs[numUsers++] = it.nextLong();
+		}
+		Arrays.sort(userIDs, 0, numUsers);
+
+		long[][] rowNeighbors = new long[numUsers][];
+		double[][] rowSimilarities = new double[numUsers][];
+		int[] rows = new int[numUsers];
+		int nbRows = 0;
+		for (int i = 0; i < numUsers; i++) {
+			int previousRow = previous == null || usersToUpdate.contains(userIDs[i]) ? -1
+					: Arrays.binarySearch(previous.userIDs, userIDs[i]);
+			if (previousRow >= 0) {
+				int from = previous.offsets[previousRow];
+				int to = previous.offsets[previousRow + 1];
+				rowNeighbors[i] = Arrays.copyOfRange(previous.neighbors, from, to);
+				rowSimilarities[i] = Arrays.copyOfRange(previous.similarities, from, to);
+			} else {
+				rows[nbRows++] = i;
+			}
+		}
+		log.info("Computing the {} nearest neighbors of {} of {} users in {} threads", n, nbRows, numUsers, nbThreads);
+
+		AtomicInteger nextRow = new AtomicInteger();
+		if (nbThreads <= 1) {
+			new RowBuilder(n, minSimilarity, similarity, dataModel, userIDs, samplingRate, perUserThresholds,
+					rowNeighbors, rowSimilarities, rows, nbRows, nextRow).call();
+		} else {
+			Collection<Callable<Void>> builders = Lists.newArrayListWithCapacity(nbThreads);
+			for (int t = 0; t < nbThreads; t++) {
+				builders.add(new RowBuilder(n, minSimilarity, similarity, dataModel, userIDs, samplingRate,
+						perUserThresholds, rowNeighbors, rowSimilarities, rows, nbRows, nextRow));
+			}
+			ExecutorService executor = Executors.newFixedThreadPool(nbThreads);
+			try {
+				for (Future<Void> future : executor.invokeAll(builders)) {
+					future.get();
+				}
+			} catch (InterruptedException ie) {
+				throw new TasteException(ie);
+			} catch (ExecutionException ee) {
+				throw new TasteException(ee.getCause());
+			} finally {
+				executor.shutdown();
+			}
+		}
+
+		return fromRows(n, numUsers == userIDs.length ? userIDs : Arrays.copyOf(userIDs, numUsers),
+				rowNeighbors, rowSimilarities);
+	}
+
+	/**
+	 * @param userIDs
+	 *            sorted user IDs
+	 * @param rowNeighbors
+	 *            row of each user, sorted from the most to the least similar neighbor, then by ascending ID
+	 * @param rowSimilarities
+	 *            similarities of the neighbors of rowNeighbors
+	 * @return the graph made of these rows laid out back to back
+	 */
+	static UserNeighborhoodGraph fromRows(int n, long[] userIDs, long[][] rowNeighbors,
+			double[][] rowSimilarities) {
+		int numUsers = userIDs.length;
+		int[] offsets = new int[numUsers + 1];
+		for (int i = 0; i < numUsers; i++) {
+			offsets[i + 1] = offsets[i] + rowNeighbors[i].length;
+		}
+		long[] neighbors = new long[offsets[numUsers]];
+		double[] similarities = new double[offsets[numUsers]];
+		for (int i = 0; i < numUsers; i++) {
+			System.arraycopy(rowNeighbors[i], 0, neighbors, offsets[i], rowNeighbors[i].length);
+			System.arraycopy(rowSimilarities[i], 0, similarities, offsets[i], rowSimilarities[i].length);
+		}
+		return new UserNeighborhoodGraph(n, userIDs, offsets, neighbors, similarities);
+	}
+
+	public int getNumUsers() {
+		return userIDs.length;
+	}
+
+	public int getNeighborhoodSize() {
+		return n;
+	}
+
+	public boolean hasUser(long userID) {
+		return Arrays.binarySearch(userIDs, userID) >= 0;
+	}
+
+	/**
+	 * @return the n nearest neighbors of userID, ties being broken as
+	 *         {@link org.apache.mahout.cf.taste.impl.recommender.TopItems}
+	 *         does for the given choice behavior, or {@code null} if userID
+	 *         is not in the graph or choiceBehavior is unknown
+	 */
+	public long[] getUserNeighborhood(long userID, String choiceBehavior,
+			Random rand) {
+		int row = Arrays.binarySearch(userIDs, userID);
+		if (row < 0) {
+			return null;
+		}
+		return select(n, neighbors, similarities, offsets[row], offsets[row + 1], choiceBehavior, rand);
+	}
+
+	/**
+	 * Same as {@link #getUserNeighborhood(long, String, Random)}, also writing the similarities of the
+	 * selected users in selectedSimilarities, which must hold at least n values.
+	 */
+	long[] getUserNeighborhood(long userID, String choiceBehavior, Random rand,
+			double[] selectedSimilarities) {
+		int row = Arrays.binarySearch(userIDs, userID);
+		if (row < 0) {
+			return null;
+		}
+		return select(n, neighbors, similarities, offsets[row], offsets[row + 1], choiceBehavior, rand,
+				selectedSimilarities);
+	}
+
+	/**
+	 * @return the similarity stored between userID and one of its neighbors,
+	 *         or NaN if neighborID is not in userID's row
+	 */
+	public double getSimilarity(long userID, long neighborID) {
+		int row = Arrays.binarySearch(userIDs, userID);
+		if (row >= 0) {
+			for (int j = offsets[row]; j < offsets[row + 1]; j++) {
+				if (neighbors[j] == neighborID) {
+					return similarities[j];
+				}
+			}
+		}
+		return Double.NaN;
+	}
+
+	/**
+	 * @return the at most n users of neighbors[from..to), a row sorted like the rows of a graph, chosen as
+	 *         {@link org.apache.mahout.cf.taste.impl.recommender.TopItems} does for the given choice behavior,
+	 *         or {@code null} if choiceBehavior is unknown
+	 */
+	static long[] select(int n, long[] neighbors, double[] similarities, int from, int to,
+			String choiceBehavior, Random rand) {
+		return select(n, neighbors, similarities, from, to, choiceBehavior, rand, null);
+	}
+
+	/**
+	 * Same as {@link #select(int, long[], double[], int, int, String, Random)}, also writing the similarity of
+	 * each selected user at the same index in selectedSimilarities when it is not {@code null}, NaN for the
+	 * unfilled slots of the "random" choice behavior.
+	 */
+	static long[] select(int n, long[] neighbors, double[] similarities, int from, int to,
+			String choiceBehavior, Random rand, double[] selectedSimilarities) {
+		if (choiceBehavior.equals("lower")) {
+			return getLower(n, neighbors, similarities, from, to, selectedSimilarities);
+		} else if (choiceBehavior.equals("higher")) {
+			return getHigher(n, neighbors, similarities, from, to, selectedSimilarities);
+		} else if (choiceBehavior.equals("random")) {
+			return getRandom(n, neighbors, similarities, from, to, rand, selectedSimilarities);
+		}
+		return null;
+	}
+
+	// Same result as TopItems.getTopUsers(): at most n users, ties broken with lower IDs first
+	private static long[] getLower(int n, long[] neighbors, double[] similarities, int from, int to,
+			double[] selectedSimilarities) {
+		int size = Math.min(n, to - from);
+		if (selectedSimilarities != null) {
+			System.arraycopy(similarities, from, selectedSimilarities, 0, size);
+		}
+		return size == 0 ? NO_IDS : Arrays.copyOfRange(neighbors, from, from + size);
+	}
+
+	// Same result as TopItems.getTopUsersHigher(): ties broken with higher IDs first
+	private static long[] getHigher(int n, long[] neighbors, double[] similarities, int from, int to,
+			double[] selectedSimilarities) {
+		int size = Math.min(n, to - from);
+		if (size == 0) {
+			return NO_IDS;
+		}
+		long[] result = new long[size];
+		int i = 0;
+		int first = from;
+		while (i < size) {
+			int last = lastSameSimilarity(similarities, first, to);
+			for (int j = last; j >= first && i < size; j--) {
+				if (selectedSimilarities != null) {
+					selectedSimilarities[i] = similarities[j];
+				}
+				result[i++] = neighbors[j];
+			}
+			first = last + 1;
+		}
+		return result;
+	}
+
+	// Same result as TopItems.getTopUsersRandom(): n slots, ties broken by drawing uniformly among
+	// the tied users with the same rejection sampling, unfilled slots being left to 0
+	private static long[] getRandom(int n, long[] neighbors, double[] similarities, int from, int to,
+			Random rand, double[] selectedSimilarities) {
+		if (from == to) {
+			return NO_IDS;
+		}
+		long[] result = new long[n];
+		if (selectedSimilarities != null) {
+			Arrays.fill(selectedSimilarities, 0, n, Double.NaN);
+		}
+		HashSet<Integer> selectedIndices = new HashSet<Integer>(n);
+		int i = 0;
+		int first = 0;
+		int last = lastSameSimilarity(similarities, from, to) - from;
+		while (i < n && first < to - from) {
+			if (i == last + 1) {
+				first = i;
+				if (first == to - from) {
+					break;
+				}
+				last = lastSameSimilarity(similarities, from + first, to) - from;
+			}
+			int index;
+			do {
+				index = rand.nextInt(last + 1);
+			} while (index < first || selectedIndices.contains(index));
+			selectedIndices.add(index);
+			if (selectedSimilarities != null) {
+				selectedSimilarities[i] = similarities[from + index];
+			}
+			result[i++] = neighbors[from + index];
+		}
+		return result;
+	}
+
+	private static int lastSameSimilarity(double[] similarities, int first, int to) {
+		int last = first;
+		while (last + 1 < to && similarities[last + 1] == similarities[first]) {
+			last++;
+		}
+		return last;
+	}
+
+	/**
+	 * Computes the given rows one at a time, taking the next row to compute
+	 * from a shared counter. Each builder owns its scratch arrays.
+	 */
+	private static final class RowBuilder implements Callable<Void> {
+
+		private final int n;
+		private final double minSimilarity;
+		private final UserSimilarity similarity;
+		private final DataModel dataModel;
+		/** Only score the users sharing an item with the row's user, the others having an undefined similarity */
+		private final boolean pruneCandidates;
+		private final long[] userIDs;
+		private final double samplingRate;
+		/** Compute the threshold of a per-user two-step similarity from the row's first round */
+		private final boolean perUserThresholds;
+		private final long[][] rowNeighbors;
+		private final double[][] rowSimilarities;
+		private final int[] rows;
+		private final int nbRows;
+		private final AtomicInteger nextRow;
+		private final long[] candidateIDs;
+		private final double[] candidateSims;
+		private final double[] sortedSims;
+
+		private RowBuilder(int n, double minSimilarity,
+				UserSimilarity similarity, DataModel dataModel, long[] userIDs, double samplingRate,
+				boolean perUserThresholds, long[][] rowNeighbors, double[][] rowSimilarities,
+				int[] rows, int nbRows, AtomicInteger nextRow) {
+			this.n = n;
+			this.minSimilarity = minSimilarity;
+			this.similarity = similarity;
+			this.dataModel = dataModel;
+			this.pruneCandidates = AbstractUserNeighborhood.isUndefinedForDisjointUsers(similarity);
+			this.userIDs = userIDs;
+			this.samplingRate = samplingRate;
+			this.perUserThresholds = perUserThresholds;
+			this.rowNeighbors = rowNeighbors;
+			this.rowSimilarities = rowSimilarities;
+			this.rows = rows;
+			this.nbRows = nbRows;
+			this.nextRow = nextRow;
+			this.candidateIDs = new long[userIDs.length];
+			this.candidateSims = new double[userIDs.length];
+			this.sortedSims = new double[userIDs.length];
+		}
+
+		@Override
+		public Void call() throws TasteException {
+			int next;
+			while ((next = nextRow.getAndIncrement()) < nbRows) {
+				computeRow(rows[next]);
+			}
+			return null;
+		}
+
+		private void computeRow(int row) throws TasteException {
+			long userID = userIDs[row];
+			TwoStepUncenteredCosineSimilarity twoStep = null;
+			if (perUserThresholds && similarity instanceof TwoStepUncenteredCosineSimilarity) {
+				twoStep = (TwoStepUncenteredCosineSimilarity) similarity;
+				if (!twoStep.isPerUserDistro()
+						|| twoStep.hasSimilarityThresholdForUser(userID)) {
+					twoStep = null;
+				}
+			}
+			// Same first round as TopItems.getTwoStepTopUsersRandom(): rounded
+			// similarity values, including the NaN ones, which round to 0
+			SimilarityHistogram simValues = twoStep == null ? null : new SimilarityHistogram();
+
+			long[] candidates = userIDs;
+			if (pruneCandidates) {
+				candidates = AbstractUserNeighborhood.usersSharingItems(dataModel, userID);
+				if (simValues != null) {
+					// The users left out, like the row's user itself, have an undefined similarity
+					simValues.add(0.0);
+				}
+			}
+			int count = 0;
+			LongPrimitiveIterator it = SamplingLongPrimitiveIterator.maybeWrapIterator(
+					new LongPrimitiveArrayIterator(candidates), samplingRate);
+			while (it.hasNext()) {
+				long otherUserID = it.nextLong();
+				double sim = Double.NaN;
+				if (otherUserID != userID) {
+					try {
+						sim = similarity.userSimilarity(userID, otherUserID);
+					} catch (NoSuchUserException nsue) {
+						continue;
+					}
+					if (!(sim >= minSimilarity)) {
+						sim = Double.NaN;
+					}
+				}
+				if (simValues != null) {
+					simValues.add(sim);
+				}
+				if (!Double.isNaN(sim)) {
+					candidateIDs[count] = otherUserID;
+					candidateSims[count] = sim;
+					count++;
+				}
+			}
+
+			if (twoStep != null) {
+				int position = (int) ((simValues.getNumDistinctValues() - 1) * twoStep.getPercentileThreshold());
+				double threshold = simValues.getDistinctValue(position);
+				twoStep.setSimilarityThresholdForUser(userID, threshold);
+				for (int j = 0; j < count; j++) {
+					if (candidateSims[j] >= threshold) {
+						candidateSims[j] = threshold
+								+ twoStep.computeSecondStep(threshold, userID, candidateIDs[j]);
+					}
+				}
+			}
+
+			int size = count;
+			if (count > n) {
+				// Keep everything at least as similar as the n-th most similar user
+				System.arraycopy(candidateSims, 0, sortedSims, 0, count);
+				Arrays.sort(sortedSims, 0, count);
+				double lowestTopValue = sortedSims[count - n];
+				size = 0;
+				for (int j = 0; j < count; j++) {
+					if (candidateSims[j] >= lowestTopValue) {
+						candidateIDs[size] = candidateIDs[j];
+						candidateSims[size] = candidateSims[j];
+						size++;
+					}
+				}
+			}
+			sortBySimilarity(candidateIDs, candidateSims, 0, size - 1);
+			rowNeighbors[row] = Arrays.copyOf(candidateIDs, size);
+			rowSimilarities[row] = Arrays.copyOf(candidateSims, size);
+		}
+	}
+
+	/**
+	 * Sorts ids[lo..hi] and sims[lo..hi] together, by decreasing similarity
+	 * then increasing ID.
+	 */
+	static void sortBySimilarity(long[] ids, double[] sims, int lo, int hi) {
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			long pivotID = ids[mid];
+			double pivotSim = sims[mid];
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (comesBefore(ids[i], sims[i], pivotID, pivotSim)) {
+					i++;
+				}
+				while (comesBefore(pivotID, pivotSim, ids[j], sims[j])) {
+					j--;
+				}
+				if (i <= j) {
+					long id = ids[i];
+					ids[i] = ids[j];
+					ids[j] = id;
+					double sim = sims[i];
+					sims[i] = sims[j];
+					sims[j] = sim;
+					i++;
+					j--;
+				}
+			}
+			// Recurse on the smaller part, loop on the larger one
+			if (j - lo < hi - i) {
+				sortBySimilarity(ids, sims, lo, j);
+				lo = i;
+			} else {
+				sortBySimilarity(ids, sims, i, hi);
+				hi = j;
+			}
+		}
+	}
+
+	private static boolean comesBefore(long id1, double sim1, long id2, double sim2) {
+		return sim1 > sim2 || (sim1 == sim2 && id1 < id2);
+	}
+
+	@Override
+	public String toString() {
+		return "UserNeighborhoodGraph[users:" + userIDs.length + ", n:" + n
+				+ ", edges:" + neighbors.length + ']';
+	}
+}
@@ -60,6 +60,11 @@ public final class GenericBooleanPrefUserBasedRecommender extends GenericUserBas
     return foundAPref ? totalSimilarity : Float.NaN;
   }
   
+  @Override
+  protected TopItems.LongToDoubleEstimator buildEstimator(long theUserID, long[] theNeighborhood) {
+    return new Estimator(theUserID, theNeighborhood);
+  }
+  
   @Override
   protected FastIDSet getAllOtherItems(long[] theNeighborhood, long theUserID) throws TasteException {
     DataModel dataModel = getDataModel();
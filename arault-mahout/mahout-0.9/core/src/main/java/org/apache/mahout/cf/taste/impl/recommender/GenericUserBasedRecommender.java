@@ -27,7 +27,11 @@ import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.impl.neighborhood.NearestNUserNeighborhood;
+import org.apache.mahout.cf.taste.impl.neighborhood.UserNeighborhoodGraph;
+import org.apache.mahout.cf.taste.impl.similarity.TwoStepUncenteredCosineSimilarity;
 import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
 import org.apache.mahout.cf.taste.recommender.IDRescorer;
 import org.apache.mahout.cf.taste.recommender.RecommendedItem;
@@ -93,7 +97,7 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
 
     FastIDSet allItemIDs = getAllOtherItems(theNeighborhood, userID);
 
-    TopItems.Estimator<Long> estimator = new Estimator(userID, theNeighborhood);
+    TopItems.LongToDoubleEstimator estimator = buildEstimator(userID, theNeighborhood);
 
     List<RecommendedItem> topItems = TopItems
         .getTopItems(howMany, allItemIDs.iterator(), rescorer, estimator);
@@ -130,7 +134,7 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
     // Debug
     //System.out.println("allItemIDs' size = "+allItemIDs.size());
 
-    TopItems.Estimator<Long> estimator = new Estimator(userID, theNeighborhood);
+    TopItems.LongToDoubleEstimator estimator = buildEstimator(userID, theNeighborhood);
 
     List<RecommendedItem> topItems = TopItems
         .getTopItems(howMany, allItemIDs.iterator(), null, estimator);
@@ -149,6 +153,25 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
     long[] theNeighborhood = neighborhood.getUserNeighborhood(userID);
     return doEstimatePreference(userID, theNeighborhood, itemID);
   }
+
+  @Override
+  public float[] estimatePreferences(long userID, long[] itemIDs) throws TasteException {
+    DataModel model = getDataModel();
+    float[] estimates = new float[itemIDs.length];
+    TopItems.LongToDoubleEstimator estimator = null;
+    for (int i = 0; i < itemIDs.length; i++) {
+      Float actualPref = model.getPreferenceValue(userID, itemIDs[i]);
+      if (actualPref != null) {
+        estimates[i] = actualPref;
+      } else {
+        if (estimator == null) {
+          estimator = buildEstimator(userID, neighborhood.getUserNeighborhood(userID));
+        }
+        estimates[i] = (float) estimator.estimate(itemIDs[i]);
+      }
+    }
+    return estimates;
+  }
   
   @Override
   public long[] mostSimilarUserIDs(long userID, int howMany) throws TasteException {
@@ -157,11 +180,11 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
   
   @Override
   public long[] mostSimilarUserIDs(long userID, int howMany, Rescorer<LongPair> rescorer) throws TasteException {
-    TopItems.Estimator<Long> estimator = new MostSimilarEstimator(userID, similarity, rescorer);
+    TopItems.LongToDoubleEstimator estimator = new MostSimilarEstimator(userID, similarity, rescorer);
     return doMostSimilarUsers(howMany, estimator);
   }
   
-  private long[] doMostSimilarUsers(int howMany, TopItems.Estimator<Long> estimator) throws TasteException {
+  private long[] doMostSimilarUsers(int howMany, TopItems.LongToDoubleEstimator estimator) throws TasteException {
     DataModel model = getDataModel();
     return TopItems.getTopUsers(howMany, model.getUserIDs(), null, estimator);
   }
@@ -171,6 +194,7 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
       return Float.NaN;
     }
     DataModel dataModel = getDataModel();
+    UserNeighborhoodGraph graph = getReusableNeighborhoodGraph();
     double preference = 0.0;
     double totalSimilarity = 0.0;
     int count = 0;
@@ -179,7 +203,7 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
         // See GenericItemBasedRecommender.doEstimatePreference() too
         Float pref = dataModel.getPreferenceValue(userID, itemID);
         if (pref != null) {
-          double theSimilarity = similarity.userSimilarity(theUserID, userID);
+          double theSimilarity = neighborSimilarity(graph, theUserID, userID);
           if (!Double.isNaN(theSimilarity)) {
             preference += theSimilarity * pref;
             totalSimilarity += theSimilarity;
@@ -199,11 +223,67 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
       //System.out.println("Discarded item "+itemID+"'s estimate because based on 0 or 1 ratings");
       return Float.NaN;
     }
-    float estimate = (float) (preference / totalSimilarity);
-    if (capper != null) {
-      estimate = capper.capEstimate(estimate);
+    return capEstimate((float) (preference / totalSimilarity));
+  }
+
+  /**
+   * <p>
+   * Estimator of the candidate items of {@link #recommend(long, int, IDRescorer)}. By default, the preferences of
+   * each neighbor are walked once and their similarity computed once, accumulating the similarity-weighted
+   * preferences and the similarities per item; estimates are then read from these sums, and equal those of
+   * {@link #doEstimatePreference(long, long[], long)} as long as the similarity returns the same value each time
+   * it is asked for the same two users (a randomized {@link TwoStepUncenteredCosineSimilarity} draws its weights
+   * per pair of users, from its seed). Subclasses overriding the latter must override this method too, e.g. to
+   * return an {@link Estimator} calling it item by item.
+   * </p>
+   */
+  protected TopItems.LongToDoubleEstimator buildEstimator(long theUserID, long[] theNeighborhood)
+    throws TasteException {
+    DataModel dataModel = getDataModel();
+    UserNeighborhoodGraph graph = getReusableNeighborhoodGraph();
+    ItemPreferenceAccumulator accumulator = new ItemPreferenceAccumulator(theNeighborhood.length * 16);
+    for (long userID : theNeighborhood) {
+      if (userID != theUserID) {
+        PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
+        int length = prefs.length();
+        if (length == 0) {
+          continue;
+        }
+        double theSimilarity = neighborSimilarity(graph, theUserID, userID);
+        if (!Double.isNaN(theSimilarity)) {
+          for (int i = 0; i < length; i++) {
+            accumulator.add(prefs.getItemID(i), prefs.getValue(i), theSimilarity);
+          }
+        }
+      }
+    }
+    return new AccumulatedEstimator(accumulator);
+  }
+
+  /**
+   * Reuse the similarities stored with precomputed neighborhoods instead of recomputing them.
+   * Not for the two-step similarity: its graph similarities may come from computeSecondStep().
+   */
+  private UserNeighborhoodGraph getReusableNeighborhoodGraph() {
+    if (neighborhood instanceof NearestNUserNeighborhood
+        && ((NearestNUserNeighborhood) neighborhood).getUserSimilarity() == similarity
+        && !(similarity instanceof TwoStepUncenteredCosineSimilarity)) {
+      return ((NearestNUserNeighborhood) neighborhood).getNeighborhoodGraph();
     }
-    return estimate;
+    return null;
+  }
+
+  private double neighborSimilarity(UserNeighborhoodGraph graph, long theUserID, long userID)
+    throws TasteException {
+    double theSimilarity = graph == null ? Double.NaN : graph.getSimilarity(theUserID, userID);
+    if (Double.isNaN(theSimilarity)) {
+      theSimilarity = similarity.userSimilarity(theUserID, userID);
+    }
+    return theSimilarity;
+  }
+
+  private float capEstimate(float estimate) {
+    return capper == null ? estimate : capper.capEstimate(estimate);
   }
   
   protected FastIDSet getAllOtherItems(long[] theNeighborhood, long theUserID) throws TasteException {
@@ -235,7 +315,7 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
     }
   }
   
-  private static final class MostSimilarEstimator implements TopItems.Estimator<Long> {
+  private static final class MostSimilarEstimator implements TopItems.LongToDoubleEstimator {
     
     private final long toUserID;
     private final UserSimilarity similarity;
@@ -248,7 +328,7 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
     }
     
     @Override
-    public double estimate(Long userID) throws TasteException {
+    public double estimate(long userID) throws TasteException {
       // Don't consider the user itself as a possible most similar user
       if (userID == toUserID) {
         return Double.NaN;
@@ -266,7 +346,8 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
     }
   }
   
-  private final class Estimator implements TopItems.Estimator<Long> {
+  /** Estimates each item with {@link #doEstimatePreference(long, long[], long)} */
+  final class Estimator implements TopItems.LongToDoubleEstimator {
     
     private final long theUserID;
     private final long[] theNeighborhood;
@@ -277,8 +358,26 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
     }
     
     @Override
-    public double estimate(Long itemID) throws TasteException {
+    public double estimate(long itemID) throws TasteException {
       return doEstimatePreference(theUserID, theNeighborhood, itemID);
     }
   }
+
+  private final class AccumulatedEstimator implements TopItems.LongToDoubleEstimator {
+
+    private final ItemPreferenceAccumulator accumulator;
+
+    AccumulatedEstimator(ItemPreferenceAccumulator accumulator) {
+      this.accumulator = accumulator;
+    }
+
+    @Override
+    public double estimate(long itemID) {
+      int index = accumulator.find(itemID);
+      if (index < 0) {
+        return Float.NaN;
+      }
+      return capEstimate((float) (accumulator.getPreferenceSum(index) / accumulator.getSimilaritySum(index)));
+    }
+  }
 }
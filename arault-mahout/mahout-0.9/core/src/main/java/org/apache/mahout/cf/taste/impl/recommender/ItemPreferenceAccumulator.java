@@ -0,0 +1,119 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+/**
+ * <p>
+ * Open-addressed map from item IDs to the sums of similarity-weighted preferences and of similarities of the
+ * neighbors having rated them, held in primitive arrays. It is filled by walking each neighbor's preferences once,
+ * see {@link GenericUserBasedRecommender}. Sums are accumulated in the order the neighbors are added, which is the
+ * order of the per-item loop of {@code doEstimatePreference()}, so the estimates are the same to the bit.
+ * </p>
+ */
+final class ItemPreferenceAccumulator {
+
+  private static final int NOT_FOUND = -1;
+
+  private long[] keys;
+  private boolean[] used;
+  private double[] preferenceSums;
+  private double[] similaritySums;
+  private int size;
+  private int mask;
+
+  ItemPreferenceAccumulator(int expectedSize) {
+    allocate(Integer.highestOneBit(Math.max(8, expectedSize) * 2 - 1) << 1);
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    used = new boolean[capacity];
+    preferenceSums = new double[capacity];
+    similaritySums = new double[capacity];
+    mask = capacity - 1;
+  }
+
+  int size() {
+    return size;
+  }
+
+  void add(long itemID, float preference, double similarity) {
+    int index = slot(itemID);
+    if (!used[index]) {
+      if (size >= (keys.length >> 1)) {
+        grow();
+        index = slot(itemID);
+      }
+      used[index] = true;
+      keys[index] = itemID;
+      size++;
+    }
+    preferenceSums[index] += similarity * preference;
+    similaritySums[index] += similarity;
+  }
+
+  /**
+   * @return the index of itemID, to read its sums, or a negative value if no neighbor with a defined similarity
+   *  rated it
+   */
+  int find(long itemID) {
+    int index = slot(itemID);
+    return used[index] ? index : NOT_FOUND;
+  }
+
+  double getPreferenceSum(int index) {
+    return preferenceSums[index];
+  }
+
+  double getSimilaritySum(int index) {
+    return similaritySums[index];
+  }
+
+  /** Slot holding itemID, or the free slot where to insert it */
+  private int slot(long itemID) {
+    int index = hash(itemID) & mask;
+    while (used[index] && keys[index] != itemID) {
+      index = (index + 1) & mask;
+    }
+    return index;
+  }
+
+  private void grow() {
+    long[] oldKeys = keys;
+    boolean[] oldUsed = used;
+    double[] oldPreferenceSums = preferenceSums;
+    double[] oldSimilaritySums = similaritySums;
+    allocate(oldKeys.length << 1);
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldUsed[i]) {
+        int index = slot(oldKeys[i]);
+        used[index] = true;
+        keys[index] = oldKeys[i];
+        preferenceSums[index] = oldPreferenceSums[i];
+        similaritySums[index] = oldSimilaritySums[i];
+      }
+    }
+  }
+
+  private static int hash(long key) {
+    // Spread the bits of sequential IDs over the table
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+}
@@ -0,0 +1,174 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import java.util.Arrays;
+
+import org.apache.mahout.math.Sorting;
+import org.apache.mahout.math.Swapper;
+import org.apache.mahout.math.function.IntComparator;
+
+/**
+ * <p>
+ * Binary min-heap of (ID, value) pairs held in parallel primitive arrays, the worst pair being at the head. Pairs
+ * are ordered by value, then by ID according to the tie-breaking mode. Pairs are sifted exactly as
+ * {@link java.util.PriorityQueue} does, so that the heap keeps and orders the same pairs as the queues of
+ * {@link SimilarUser}, {@link SimilarUserAlt} or {@link GenericRecommendedItem} it replaces in {@link TopItems}.
+ * The arrays only grow when more pairs than the initial capacity are kept.
+ * </p>
+ */
+final class LongDoubleHeap implements IntComparator, Swapper {
+
+  /** Pairs of equal values are not ordered, as with {@link ByValueRecommendedItemComparator} */
+  static final int TIES_UNORDERED = 0;
+  /** Among pairs of equal values, the lower ID is the better, as with {@link SimilarUser} */
+  static final int TIES_LOWER_IDS_FIRST = 1;
+  /** Among pairs of equal values, the higher ID is the better, as with {@link SimilarUserAlt} */
+  static final int TIES_HIGHER_IDS_FIRST = 2;
+
+  private long[] ids;
+  private double[] values;
+  private int size;
+  private final int ties;
+
+  LongDoubleHeap(int initialCapacity, int ties) {
+    ids = new long[Math.max(1, initialCapacity)];
+    values = new double[ids.length];
+    this.ties = ties;
+  }
+
+  int size() {
+    return size;
+  }
+
+  long getID(int index) {
+    return ids[index];
+  }
+
+  double getValue(int index) {
+    return values[index];
+  }
+
+  /**
+   * @return value of the worst pair
+   */
+  double peekValue() {
+    return values[0];
+  }
+
+  void add(long id, double value) {
+    if (size == ids.length) {
+      ids = Arrays.copyOf(ids, 2 * size);
+      values = Arrays.copyOf(values, 2 * size);
+    }
+    int k = size++;
+    while (k > 0) {
+      int parent = (k - 1) >>> 1;
+      if (!isWorse(id, value, ids[parent], values[parent])) {
+        break;
+      }
+      ids[k] = ids[parent];
+      values[k] = values[parent];
+      k = parent;
+    }
+    ids[k] = id;
+    values[k] = value;
+  }
+
+  /**
+   * Removes the worst pair.
+   */
+  void poll() {
+    int last = --size;
+    if (last == 0) {
+      return;
+    }
+    long id = ids[last];
+    double value = values[last];
+    int k = 0;
+    int half = size >>> 1;
+    while (k < half) {
+      int child = 2 * k + 1;
+      int right = child + 1;
+      if (right < size && isWorse(ids[right], values[right], ids[child], values[child])) {
+        child = right;
+      }
+      if (!isWorse(ids[child], values[child], id, value)) {
+        break;
+      }
+      ids[k] = ids[child];
+      values[k] = values[child];
+      k = child;
+    }
+    ids[k] = id;
+    values[k] = value;
+  }
+
+  /**
+   * Sorts the pairs from the best to the worst, without reordering pairs which compare equally. Like sorting the
+   * elements of the replaced queue, in iteration order, with {@link java.util.Collections#sort(java.util.List)}. The
+   * heap cannot be added to or polled afterwards.
+   */
+  void sortBestFirst() {
+    Sorting.mergeSort(0, size, this, this);
+  }
+
+  /**
+   * @return the IDs of the first howMany pairs, or of all pairs if there are fewer
+   */
+  long[] getIDs(int howMany) {
+    return Arrays.copyOf(ids, Math.min(howMany, size));
+  }
+
+  private boolean isWorse(long id1, double value1, long id2, double value2) {
+    if (value1 < value2) {
+      return true;
+    }
+    if (value1 > value2) {
+      return false;
+    }
+    switch (ties) {
+      case TIES_LOWER_IDS_FIRST:
+        return id1 > id2;
+      case TIES_HIGHER_IDS_FIRST:
+        return id1 < id2;
+      default:
+        return false;
+    }
+  }
+
+  /** Orders indices from the best pair to the worst one. */
+  @Override
+  public int compare(int a, int b) {
+    if (isWorse(ids[b], values[b], ids[a], values[a])) {
+      return -1;
+    }
+    return isWorse(ids[a], values[a], ids[b], values[b]) ? 1 : 0;
+  }
+
+  @Override
+  public void swap(int a, int b) {
+    long id = ids[a];
+    ids[a] = ids[b];
+    ids[b] = id;
+    double value = values[a];
+    values[a] = values[b];
+    values[b] = value;
+  }
+
+}
@@ -27,7 +27,6 @@ import java.util.List;
 import java.util.PriorityQueue;
 import java.util.Queue;
 import java.util.Random;
-import java.util.Set;
 
 import com.google.common.collect.Lists;
 
@@ -37,6 +36,7 @@ import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.impl.similarity.GenericItemSimilarity;
 import org.apache.mahout.cf.taste.impl.similarity.GenericUserSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.SimilarityHistogram;
 import org.apache.mahout.cf.taste.impl.similarity.TwoStepUncenteredCosineSimilarity;
 import org.apache.mahout.cf.taste.recommender.IDRescorer;
 import org.apache.mahout.cf.taste.recommender.RecommendedItem;
@@ -66,18 +66,24 @@ public final class TopItems {
 	public static List<RecommendedItem> getTopItems(int howMany,
 			LongPrimitiveIterator possibleItemIDs, IDRescorer rescorer,
 			Estimator<Long> estimator) throws TasteException {
+		Preconditions.checkArgument(estimator != null, "estimator is null");
+		return getTopItems(howMany, possibleItemIDs, rescorer,
+				new BoxingEstimator(estimator));
+	}
+
+	public static List<RecommendedItem> getTopItems(int howMany,
+			LongPrimitiveIterator possibleItemIDs, IDRescorer rescorer,
+			LongToDoubleEstimator estimator) throws TasteException {
 		Preconditions.checkArgument(possibleItemIDs != null,
 				"possibleItemIDs is null");
 		Preconditions.checkArgument(estimator != null, "estimator is null");
 
-		Queue<RecommendedItem> topItems = new PriorityQueue<RecommendedItem>(
-				howMany + 1,
-				Collections.reverseOrder(ByValueRecommendedItemComparator
-						.getInstance()));
+		LongDoubleHeap topItems = new LongDoubleHeap(howMany + 1,
+				LongDoubleHeap.TIES_UNORDERED);
 		boolean full = false;
 		double lowestTopValue = Double.NEGATIVE_INFINITY;
 		while (possibleItemIDs.hasNext()) {
-			long itemID = possibleItemIDs.next();
+			long itemID = possibleItemIDs.nextLong();
 			if (rescorer == null || !rescorer.isFiltered(itemID)) {
 				double preference;
 				try {
@@ -89,15 +95,15 @@ public final class TopItems {
 						.rescore(itemID, preference);
 				if (!Double.isNaN(rescoredPref)
 						&& (!full || rescoredPref > lowestTopValue)) {
-					topItems.add(new GenericRecommendedItem(itemID,
-							(float) rescoredPref));
+					// Values are kept as the floats of the recommended items
+					topItems.add(itemID, (float) rescoredPref);
 					if (full) {
 						topItems.poll();
 					} else if (topItems.size() > howMany) {
 						full = true;
 						topItems.poll();
 					}
-					lowestTopValue = topItems.peek().getValue();
+					lowestTopValue = topItems.peekValue();
 				}
 			}
 		}
@@ -105,10 +111,12 @@ public final class TopItems {
 		if (size == 0) {
 			return Collections.emptyList();
 		}
+		topItems.sortBestFirst();
 		List<RecommendedItem> result = Lists.newArrayListWithCapacity(size);
-		result.addAll(topItems);
-		Collections
-				.sort(result, ByValueRecommendedItemComparator.getInstance());
+		for (int i = 0; i < size; i++) {
+			result.add(new GenericRecommendedItem(topItems.getID(i),
+					(float) topItems.getValue(i)));
+		}
 		return result;
 	}
 
@@ -116,12 +124,20 @@ public final class TopItems {
 	public static long[] getTopUsers(int howMany,
 			LongPrimitiveIterator allUserIDs, IDRescorer rescorer,
 			Estimator<Long> estimator) throws TasteException {
-		Queue<SimilarUser> topUsers = new PriorityQueue<SimilarUser>(
-				howMany + 1, Collections.reverseOrder());
+		return getTopUsers(howMany, allUserIDs, rescorer,
+				new BoxingEstimator(estimator));
+	}
+
+	// Original function, similarity ties broken with lower IDs first
+	public static long[] getTopUsers(int howMany,
+			LongPrimitiveIterator allUserIDs, IDRescorer rescorer,
+			LongToDoubleEstimator estimator) throws TasteException {
+		LongDoubleHeap topUsers = new LongDoubleHeap(howMany + 1,
+				LongDoubleHeap.TIES_LOWER_IDS_FIRST);
 		boolean full = false;
 		double lowestTopValue = Double.NEGATIVE_INFINITY;
 		while (allUserIDs.hasNext()) {
-			long userID = allUserIDs.next();
+			long userID = allUserIDs.nextLong();
 			if (rescorer != null && rescorer.isFiltered(userID)) {
 				continue;
 			}
@@ -140,28 +156,22 @@ public final class TopItems {
 						+ (userID < firstSybilID ? "NO " : "YES"));
 			if (!Double.isNaN(rescoredSimilarity)
 					&& (!full || rescoredSimilarity > lowestTopValue)) {
-				topUsers.add(new SimilarUser(userID, rescoredSimilarity));
+				topUsers.add(userID, rescoredSimilarity);
 				if (full) {
 					topUsers.poll();
 				} else if (topUsers.size() > howMany) {
 					full = true;
 					topUsers.poll();
 				}
-				lowestTopValue = topUsers.peek().getSimilarity();
+				lowestTopValue = topUsers.peekValue();
 			}
 		}
 		int size = topUsers.size();
 		if (size == 0) {
 			return NO_IDS;
 		}
-		List<SimilarUser> sorted = Lists.newArrayListWithCapacity(size);
-		sorted.addAll(topUsers);
-		Collections.sort(sorted);
-		long[] result = new long[size];
-		int i = 0;
-		for (SimilarUser similarUser : sorted) {
-			result[i++] = similarUser.getUserID();
-		}
+		topUsers.sortBestFirst();
+		long[] result = topUsers.getIDs(size);
 		if (davideDebug)
 			System.out.println("User : " + estimator.toString() + " computed "
 					+ result.length + " topUsers. LowestTopValue="
@@ -174,15 +184,21 @@ public final class TopItems {
 	public static long[] getTopUsersHigher(int howMany,
 			LongPrimitiveIterator allUserIDs, IDRescorer rescorer,
 			Estimator<Long> estimator) throws TasteException {
-		// Queue<SimilarUserAlt> topUsers = new
-		// PriorityQueue<SimilarUserAlt>(howMany + 1,
-		// Collections.reverseOrder());
-		List<SimilarUserAlt> topUsers = Lists
-				.newArrayListWithCapacity(howMany + 1);
-		boolean full = false;
-		double lowestTopValue = Double.NEGATIVE_INFINITY;
+		return getTopUsersHigher(howMany, allUserIDs, rescorer,
+				new BoxingEstimator(estimator));
+	}
+
+	// Similarity ties broken with higher IDs first. Returns fewer than
+	// howMany users when fewer have a similarity.
+	public static long[] getTopUsersHigher(int howMany,
+			LongPrimitiveIterator allUserIDs, IDRescorer rescorer,
+			LongToDoubleEstimator estimator) throws TasteException {
+		// The howMany best users by decreasing similarity then decreasing ID,
+		// which is what keeping a sorted list of them used to select
+		LongDoubleHeap topUsers = new LongDoubleHeap(howMany + 1,
+				LongDoubleHeap.TIES_HIGHER_IDS_FIRST);
 		while (allUserIDs.hasNext()) {
-			long userID = allUserIDs.next();
+			long userID = allUserIDs.nextLong();
 			if (rescorer != null && rescorer.isFiltered(userID)) {
 				continue;
 			}
@@ -200,54 +216,22 @@ public final class TopItems {
 						+ rescoredSimilarity + "  neigh=" + userID + " syb: "
 						+ (userID < firstSybilID ? "NO " : "YES"));
 
-			if (!Double.isNaN(rescoredSimilarity)
-					&& (!full || rescoredSimilarity > lowestTopValue)) {
-				// topUsers.add(new SimilarUserAlt(userID, rescoredSimilarity));
-				// if (full) {
-				// topUsers.poll();
-				// } else if (topUsers.size() > howMany) {
-				// full = true;
-				// topUsers.poll();
-				// }
-				// lowestTopValue = topUsers.peek().getSimilarity();
-				topUsers.add(new SimilarUserAlt(userID, rescoredSimilarity));
-				Collections.sort(topUsers);
-				if (full) {
-					topUsers.remove(topUsers.size() - 1);
-				} else if (topUsers.size() > howMany) {
-					full = true;
-					topUsers.remove(topUsers.size() - 1);
+			if (!Double.isNaN(rescoredSimilarity)) {
+				topUsers.add(userID, rescoredSimilarity);
+				if (topUsers.size() > howMany) {
+					topUsers.poll();
 				}
-				lowestTopValue = topUsers.get(topUsers.size() - 1)
-						.getSimilarity();
-			} else if (!Double.isNaN(rescoredSimilarity)
-					&& rescoredSimilarity == lowestTopValue
-					&& userID > topUsers.get(topUsers.size() - 1).getUserID()) {
-				// topUsers.poll();
-				topUsers.add(new SimilarUserAlt(userID, rescoredSimilarity));
-				Collections.sort(topUsers);
-				// topUsers.remove(topUsers.size()-1);
 			}
 		}
 		int size = topUsers.size();
-		// System.out.println("topUsers.size() = " + size);
-		// System.out.println("topUsers = " + topUsers);
 		if (size == 0) {
 			return NO_IDS;
 		}
-		/* List<SimilarUserAlt> sorted = Lists.newArrayListWithCapacity(size); */
-		// sorted.addAll(topUsers);
-		/* Collections.sort(sorted); */
-		long[] result = new long[howMany];
-		// int i = 0;
-		for (int i = 0; i < howMany; i++) {
-			result[i] = topUsers.get(i).getUserID();
-			// System.out.println("Neighor "+topUsers.get(i).getUserID()+", simil = "+topUsers.get(i).getSimilarity());
-		}
+		topUsers.sortBestFirst();
+		long[] result = topUsers.getIDs(howMany);
 		if (davideDebug)
 			System.out.println("User : " + estimator.toString() + " computed "
-					+ result.length + " topUsers. LowestTopValue="
-					+ lowestTopValue);
+					+ result.length + " topUsers.");
 
 		return result;
 	}
@@ -256,117 +240,57 @@ public final class TopItems {
 	public static long[] getTopUsersRandom(int howMany,
 			LongPrimitiveIterator allUserIDs, IDRescorer rescorer,
 			Estimator<Long> estimator, Random rand) throws TasteException {
-		//System.out.println("[DAVIDE] entering getTopUsersRandom with howMany="+howMany);
+		return getTopUsersRandom(howMany, allUserIDs, rescorer,
+				new BoxingEstimator(estimator), rand);
+	}
+
+	// Similarity ties broken randomly
+	public static long[] getTopUsersRandom(int howMany,
+			LongPrimitiveIterator allUserIDs, IDRescorer rescorer,
+			LongToDoubleEstimator estimator, Random rand) throws TasteException {
 		if (davideDebug)
 			System.out.println("in getTopUsersRandom");
 		
 		// The head of topUsers contains the user with the lowest similarity
-		// value, ties being broken arbitrarily (says the documentation).
-		Queue<SimilarUser> topUsers = new PriorityQueue<SimilarUser>(
-				howMany + 1, Collections.reverseOrder());
-		boolean full = false;
-		double lowestTopValue = Double.NEGATIVE_INFINITY;
+		// value, and the highest ID among them.
+		LongDoubleHeap topUsers = new LongDoubleHeap(howMany + 1,
+				LongDoubleHeap.TIES_LOWER_IDS_FIRST);
 		// Evaluate the similarity of all users and keep at least the howMany
 		// most similar in topUsers.
 		// topUsers will contain more than howMany users if several users have a
-		// similarity equal to lowestTopValue.
+		// similarity equal to the howMany-th one.
 		while (allUserIDs.hasNext()) {
-			long userID = allUserIDs.next();
+			long userID = allUserIDs.nextLong();
 			if (rescorer != null && rescorer.isFiltered(userID)) {
-				//System.out.println("[DAVIDE] filtered user "+userID+": skipping");
 				continue;
 			}
 			double similarity;
 			try {
 				similarity = estimator.estimate(userID);
 			} catch (NoSuchUserException nsue) {
-				//System.out.println("[DAVIDE] no such user exception with uid "+userID+": skipping");
 				continue;
 			}
-//			System.out.println("[DAVIDE] before rescoring uid= "+userID+" with rescorer="+rescorer+" of class "+ (rescorer == null ? "null" : rescorer.getClass().getCanonicalName())+" and similarity="+similarity);
 			double rescoredSimilarity = rescorer == null ? similarity
 					: rescorer.rescore(userID, similarity);
-//			System.out.println("[DAVIDE] after rescoring got rescoredSimilarity="+rescoredSimilarity);
 			if (davideDebug)
 				System.out.println("TopR user=" + estimator.toString()
 						+ " similarity=" + similarity + " rescored="
 						+ rescoredSimilarity + "  neigh=" + userID + " syb: "
 						+ (userID < firstSybilID ? "NO " : "YES"));
-//			System.out.println("[DAVIDE] before if  at end of loop: rescored="+rescoredSimilarity+" isNaN="+Double.isNaN(rescoredSimilarity)+" full="+full+" lowestTopValue="+lowestTopValue);
-			if (!Double.isNaN(rescoredSimilarity)
-					&& (!full || rescoredSimilarity >= lowestTopValue)) {
-//				System.out.println("[DAVIDE] adding to topUsers ");
-				topUsers.add(new SimilarUser(userID, rescoredSimilarity));
-				if (rescoredSimilarity > lowestTopValue) {
-					if (topUsers.size() > howMany) {
-						topUsers.poll();
-					}
-					lowestTopValue = topUsers.peek().getSimilarity();
-				}
-//			} else {
-//				System.out.println("[DAVIDE] not adding to topUsers ");
+			if (!Double.isNaN(rescoredSimilarity)) {
+				addKeepingTies(topUsers, howMany, userID, rescoredSimilarity);
 			}
 		}
-		int size = topUsers.size();
-		if (size == 0) {
+		if (topUsers.size() == 0) {
 			return NO_IDS;
 		}
-		// System.out.println("topUsers ("+size+" users) = "+topUsers);
-		// System.out.println("topUsers size = "+size);
-
-		List<SimilarUser> sorted = Lists.newArrayListWithCapacity(size);
-		sorted.addAll(topUsers);
-		Collections.sort(sorted); // Sort from most similar to least similar,
-									// w/o reordering equally similar users
-//		System.out.println("[DAVIDE] before loop sorted  of size "+sorted.size());
-
-		// Choose the howMany most similar users in sorted, with random
-		// selection among users of equal similarity.
-		int firstSameSimilarityIndex = 0;
-		int lastSameSimilarityIndex = getLastSameSimilarityIndex(sorted,
-				firstSameSimilarityIndex);
-		int nbSameSimilarity = lastSameSimilarityIndex + 1
-				- firstSameSimilarityIndex;
-		Set<Integer> selectedIndices = new HashSet<Integer>(howMany);
-//		System.out.println("[DAVIDE] initial firstSameSI="+firstSameSimilarityIndex+" lastSameSI="+lastSameSimilarityIndex+" nbSameSim="+nbSameSimilarity);
-		
-		// long[] result = new long[size];
-		long[] result = new long[howMany];
-		int i = 0;
-		/* for (SimilarUser similarUser : sorted) { */
-		// result[i++] = similarUser.getUserID();
-		/* } */
-		while (i < howMany && lastSameSimilarityIndex>=0) {
-//			System.out.println("[DAVIDE] i="+i+" howMany="+howMany);
-			if (i == (firstSameSimilarityIndex + nbSameSimilarity)) {
-				firstSameSimilarityIndex = i;
-				lastSameSimilarityIndex = getLastSameSimilarityIndex(sorted,
-						firstSameSimilarityIndex);
-				nbSameSimilarity = lastSameSimilarityIndex + 1
-						- firstSameSimilarityIndex;
-				if (lastSameSimilarityIndex<0){
-					continue;
-				}
-//				System.out.println("[DAVIDE] new firstSameSI="+firstSameSimilarityIndex+" lastSameSI="+lastSameSimilarityIndex+" nbSameSim="+nbSameSimilarity);
-			}
-			if (davideDebug)
-				System.out.println("nbSameSimilarity = " + nbSameSimilarity
-						+ " similarity=?");
-//			System.out.println("[DAVIDE] getting random Index from sorted of size "+sorted.size()+
-//					" with firstSameSI="+firstSameSimilarityIndex+" lastSameSI="+lastSameSimilarityIndex+" "+selectedIndices.size());
-			int index = getRandomIndex(sorted, firstSameSimilarityIndex,
-					lastSameSimilarityIndex, selectedIndices, rand);
-//			System.out.println("[DAVIDE] got random Index= "+index+ " from sorted of size "+sorted.size()+
-//					" with firstSameSI="+firstSameSimilarityIndex+" lastSameSI="+lastSameSimilarityIndex+" "+selectedIndices.size());
-			
-			selectedIndices.add(index);
-			result[i++] = sorted.get(index).getUserID();
-		}
+		// Sort from most similar to least similar
+		topUsers.sortBestFirst();
+		long[] result = getRandomTopUsers(howMany, topUsers, rand);
 		if (davideDebug)
 			System.out.println("User : " + estimator.toString() + " computed "
 					+ result.length + " topUsers. LowestTopValue="
-					+ lowestTopValue);
-//		System.out.println("[DAVIDE] returning result of length "+result.length);
+					+ topUsers.getValue(topUsers.size() - 1));
 
 		return result;
 	}
@@ -374,24 +298,22 @@ public final class TopItems {
 
 	public static long[] getTwoStepTopUsersRandom(int howMany,
 			LongPrimitiveIterator allUserIDs, IDRescorer rescorer,
-			Estimator<Long> estimator, TwoStepUncenteredCosineSimilarity twoStep,
+			LongToDoubleEstimator estimator, TwoStepUncenteredCosineSimilarity twoStep,
 			Random rand, long currentUser, HashMap<Long, Double> firstRoundComputations) throws TasteException {
 		if (davideDebug)
 			System.out.println("in getTopUsersRandom");
 		// The head of topUsers contains the user with the lowest similarity
-		// value, ties being broken arbitrarily (says the documentation).
-		Queue<SimilarUser> topUsers = new PriorityQueue<SimilarUser>(
-				howMany + 1, Collections.reverseOrder());
-		boolean full = false;
-		double lowestTopValue = Double.NEGATIVE_INFINITY;
+		// value, and the highest ID among them.
+		LongDoubleHeap topUsers = new LongDoubleHeap(howMany + 1,
+				LongDoubleHeap.TIES_LOWER_IDS_FIRST);
 
-		HashSet<Double> simValues = new HashSet<Double>();
+		SimilarityHistogram simValues = new SimilarityHistogram();
 
 		// First round computations: compute all cosine similarities
 		// and keep them in a HashMap
 
 		while (allUserIDs.hasNext()) {
-			long userID = allUserIDs.next();
+			long userID = allUserIDs.nextLong();
 			if (rescorer != null && rescorer.isFiltered(userID)) {
 				continue;
 			}
@@ -403,27 +325,20 @@ public final class TopItems {
 			}
 
 			firstRoundComputations.put(userID, similarity);
-
-			similarity *=100;
-			similarity=Math.round(similarity);
-			similarity /=100;
 			simValues.add(similarity);
 
 		}
 
-		// Computing threshold for user
-		ArrayList<Double> sortedValues = new ArrayList<Double>(simValues);
-		Collections.sort(sortedValues);
-		int maxPos = sortedValues.size() - 1;
+		// Computing threshold for user, among the distinct rounded similarities
+		int maxPos = simValues.getNumDistinctValues() - 1;
 		double percentile = twoStep.getPercentileThreshold();
 		int position = (int) (maxPos * percentile);
-		double threshold = sortedValues.get(position);
+		double threshold = simValues.getDistinctValue(position);
 		twoStep.setSimilarityThresholdForUser(currentUser, threshold);
 		log.debug("User {}: {} percentile is at position {} among {} in similarity array, threshold={}", currentUser, percentile, position, maxPos, threshold);
 
 		// Iterating through HashMap to adapt similarities above the threshold
 		// Return then the nearest neighbors with a priority queue
-		lowestTopValue = Double.NEGATIVE_INFINITY;
 		for (Map.Entry<Long, Double> entry : firstRoundComputations.entrySet()) {
     	long userID = entry.getKey();
     	double similarity = entry.getValue();
@@ -435,88 +350,103 @@ public final class TopItems {
 			double rescoredSimilarity = rescorer == null ? similarity
 					: rescorer.rescore(userID, similarity);
 
-			if (!Double.isNaN(rescoredSimilarity)
-					&& (!full || rescoredSimilarity >= lowestTopValue)) {
-				topUsers.add(new SimilarUser(userID, rescoredSimilarity));
-				if (rescoredSimilarity > lowestTopValue) {
-					if (topUsers.size() > howMany) {
-						topUsers.poll();
-					}
-					lowestTopValue = topUsers.peek().getSimilarity();
-				}
+			if (!Double.isNaN(rescoredSimilarity)) {
+				addKeepingTies(topUsers, howMany, userID, rescoredSimilarity);
 			}
 		}
 
-		int size = topUsers.size();
-		if (size == 0) {
+		if (topUsers.size() == 0) {
 			return NO_IDS;
 		}
-		// System.out.println("topUsers ("+size+" users) = "+topUsers);
-		// System.out.println("topUsers size = "+size);
+		// Sort from most similar to least similar
+		topUsers.sortBestFirst();
+		long[] result = getRandomTopUsers(howMany, topUsers, rand);
+		if (davideDebug)
+			System.out.println("User : " + estimator.toString() + " computed "
+					+ result.length + " topUsers. LowestTopValue="
+					+ topUsers.getValue(topUsers.size() - 1));
+		return result;
+	}
 
-		List<SimilarUser> sorted = Lists.newArrayListWithCapacity(size);
-		sorted.addAll(topUsers);
-		Collections.sort(sorted); // Sort from most similar to least similar,
-									// w/o reordering equally similar users
-		// System.out.println("sorted = "+sorted);
+	/**
+	 * Add a user to topUsers, which keeps the howMany most similar users added
+	 * so far plus every user tied with the howMany-th one, whatever the order
+	 * in which they are added.
+	 */
+	private static void addKeepingTies(LongDoubleHeap topUsers, int howMany,
+			long userID, double similarity) {
+		int size = topUsers.size();
+		if (size == 0) {
+			topUsers.add(userID, similarity);
+			return;
+		}
+		double lowestTopValue = topUsers.peekValue();
+		if (size >= howMany && similarity < lowestTopValue) {
+			return;
+		}
+		topUsers.add(userID, similarity);
+		if (size >= howMany && similarity > lowestTopValue) {
+			// The users tied at lowestTopValue are dropped together, once
+			// howMany more similar users are kept without them
+			int maxTied = size + 1 - howMany;
+			int tied = 0;
+			for (int i = 0; i <= size && tied <= maxTied; i++) {
+				if (topUsers.getValue(i) == lowestTopValue) {
+					tied++;
+				}
+			}
+			if (tied <= maxTied) {
+				for (int i = 0; i < tied; i++) {
+					topUsers.poll();
+				}
+			}
+		}
+	}
 
-		// Choose the howMany most similar users in sorted, with random
-		// selection among users of equal similarity.
+	/**
+	 * Choose the howMany most similar users in sorted, with random selection
+	 * among users of equal similarity. Slots left when sorted holds fewer
+	 * users are set to 0.
+	 */
+	private static long[] getRandomTopUsers(int howMany, LongDoubleHeap sorted,
+			Random rand) {
 		int firstSameSimilarityIndex = 0;
 		int lastSameSimilarityIndex = getLastSameSimilarityIndex(sorted,
 				firstSameSimilarityIndex);
-		int nbSameSimilarity = lastSameSimilarityIndex + 1
-				- firstSameSimilarityIndex;
-		Set<Integer> selectedIndices = new HashSet<Integer>(howMany);
+		boolean[] selectedIndices = new boolean[sorted.size()];
 
-		// long[] result = new long[size];
 		long[] result = new long[howMany];
 		int i = 0;
-		/* for (SimilarUser similarUser : sorted) { */
-		// result[i++] = similarUser.getUserID();
-		/* } */
 		while (i < howMany && lastSameSimilarityIndex >= 0) {
-			if (i == (firstSameSimilarityIndex + nbSameSimilarity)) {
+			if (i == lastSameSimilarityIndex + 1) {
 				firstSameSimilarityIndex = i;
 				lastSameSimilarityIndex = getLastSameSimilarityIndex(sorted,
 						firstSameSimilarityIndex);
-				nbSameSimilarity = lastSameSimilarityIndex + 1
-						- firstSameSimilarityIndex;
-				if (lastSameSimilarityIndex<0){
+				if (lastSameSimilarityIndex < 0) {
 					continue;
 				}
 			}
-			if (davideDebug)
-				System.out.println("nbSameSimilarity = " + nbSameSimilarity
-						+ " similarity=?");
-			int index = getRandomIndex(sorted, firstSameSimilarityIndex,
+			int index = getRandomIndex(firstSameSimilarityIndex,
 					lastSameSimilarityIndex, selectedIndices, rand);
-			selectedIndices.add(index);
-			result[i++] = sorted.get(index).getUserID();
+			selectedIndices[index] = true;
+			result[i++] = sorted.getID(index);
 		}
-		if (davideDebug)
-			System.out.println("User : " + estimator.toString() + " computed "
-					+ result.length + " topUsers. LowestTopValue="
-					+ lowestTopValue);
 		return result;
 	}
 
 	/**
-	 * Return the index in sortedList of the last user with the same similarity
-	 * as sortedList.get(firstIndex). firstIndex must be within
-	 * [0,sortedList.size()[, otherwise return -1.
+	 * Return the index in sorted of the last user with the same similarity
+	 * as the one at firstIndex. firstIndex must be within
+	 * [0,sorted.size()[, otherwise return -1.
 	 */
-	private static int getLastSameSimilarityIndex(List<SimilarUser> sortedList,
+	private static int getLastSameSimilarityIndex(LongDoubleHeap sorted,
 			int firstIndex) {
 		int result = -1;
-		if (firstIndex >= 0 && firstIndex < sortedList.size()) {
-			SimilarUser referenceUser = sortedList.get(firstIndex);
+		if (firstIndex >= 0 && firstIndex < sorted.size()) {
+			double referenceSimilarity = sorted.getValue(firstIndex);
 			int i = firstIndex;
-			// System.out.println("compareTo value = " +
-			// referenceUser.compareTo(sortedList.get(i+1)));
-			while (i < sortedList.size()
-					&& referenceUser.getSimilarity() == sortedList.get(i)
-							.getSimilarity()) {
+			while (i < sorted.size()
+					&& referenceSimilarity == sorted.getValue(i)) {
 				i++;
 			}
 			result = i - 1;
@@ -525,24 +455,19 @@ public final class TopItems {
 	}
 
 	/**
-	 * Randomly select an index from sortedList, within [firstIndex,lastIndex],
-	 * which is not included in excludedIndices. firstIndex and lastIndex must
-	 * be within [0,sortedList.size()[, and firstIndex must be lesser or equal
-	 * to lastIndex. Otherwise return -1.
+	 * Randomly select an index within [firstIndex,lastIndex] which is not
+	 * excluded. Indices are drawn within [0,lastIndex] until one fits, so that
+	 * the same Random draws the same users as the former list-based selection.
 	 */
-	private static int getRandomIndex(List<SimilarUser> sortedList,
-			int firstIndex, int lastIndex, Set<Integer> excludedIndices,
-			Random rand) {
+	private static int getRandomIndex(int firstIndex, int lastIndex,
+			boolean[] excludedIndices, Random rand) {
 		int result = -1;
-		if (firstIndex >= 0 && firstIndex < sortedList.size() && lastIndex >= 0
-				&& lastIndex < sortedList.size() && firstIndex <= lastIndex) {
-			do {
-				int index = rand.nextInt(lastIndex + 1);
-				if (index >= firstIndex && !excludedIndices.contains(index)) {
-					result = index;
-				}
-			} while (result == -1);
-		}
+		do {
+			int index = rand.nextInt(lastIndex + 1);
+			if (index >= firstIndex && !excludedIndices[index]) {
+				result = index;
+			}
+		} while (result == -1);
 		return result;
 	}
 
@@ -628,6 +553,31 @@ public final class TopItems {
 		double estimate(T thing) throws TasteException;
 	}
 
+	/**
+	 * An {@link Estimator} of IDs which does not box them.
+	 */
+	public interface LongToDoubleEstimator {
+		double estimate(long id) throws TasteException;
+	}
+
+	private static final class BoxingEstimator implements LongToDoubleEstimator {
+		private final Estimator<Long> estimator;
+
+		private BoxingEstimator(Estimator<Long> estimator) {
+			this.estimator = estimator;
+		}
+
+		@Override
+		public double estimate(long id) throws TasteException {
+			return estimator.estimate(id);
+		}
+
+		@Override
+		public String toString() {
+			return estimator.toString();
+		}
+	}
+
 	/**
 	 * @param allUserIDs
 	 * @param estimator
@@ -34,6 +34,12 @@ import com.google.common.base.Preconditions;
 /**
  * Abstract superclass encapsulating functionality that is common to most
  * implementations in this package.
+ *
+ * <p>
+ * Everything computed while comparing two users lives in local variables of
+ * {@link #userSimilarity(long, long)}, so one instance can be shared by
+ * concurrent callers.
+ * </p>
  */
 public abstract class AbstractSimilarity extends AbstractItemSimilarity
 		implements UserSimilarity {
@@ -45,18 +51,8 @@ public abstract class AbstractSimilarity extends AbstractItemSimilarity
 	protected final boolean centerData;
 	protected int cachedNumItems;
 	private int cachedNumUsers;
+	private volatile UserStatistics userStatistics;
 	private final RefreshHelper refreshHelper;
-	// the following code is super dirty, but it does the trick
-	protected int itemsInXNotInY = 0;
-	protected int itemsInYNotInX = 0;
-	protected int itemsInX = 0;
-	protected int itemsInY = 0;
-	protected double totScoresInX = 0;
-	protected double totScoresInY = 0;
-	protected double totX2NotInY = 0;
-	protected double totY2NotInX = 0;
-	protected double totScoresInXNotInY = 0;
-	protected double totScoresInYNotInX = 0;
 
 	/**
 	 * <p>
@@ -75,6 +71,10 @@ public abstract class AbstractSimilarity extends AbstractItemSimilarity
 			public Object call() throws TasteException {
 				cachedNumItems = dataModel.getNumItems();
 				cachedNumUsers = dataModel.getNumUsers();
+				UserStatistics previous = userStatistics;
+				if (previous != null) {
+					userStatistics = new UserStatistics(dataModel, previous);
+				}
 				return null;
 			}
 		});
@@ -104,6 +104,90 @@ public abstract class AbstractSimilarity extends AbstractItemSimilarity
 		return weighted;
 	}
 
+	/**
+	 * @return the statistics of the users of the data model, built on the
+	 *         first call and rebuilt when this similarity is refreshed
+	 */
+	public final UserStatistics getUserStatistics() throws TasteException {
+		UserStatistics stats = userStatistics;
+		if (stats == null) {
+			synchronized (this) {
+				stats = userStatistics;
+				if (stats == null) {
+					stats = new UserStatistics(getDataModel());
+					userStatistics = stats;
+				}
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * <p>
+	 * Tells whether computeResult() reads sumXYdiff2, which is only tallied
+	 * by the full merge of the two profiles, not from the
+	 * {@link UserStatistics} of the users.
+	 * </p>
+	 */
+	boolean usesSumXYdiff2() {
+		return false;
+	}
+
+	/**
+	 * <p>
+	 * Tells whether the sums of userSimilarity() can be read from the
+	 * {@link UserStatistics} of the users: when every item of both profiles
+	 * is tallied, missing preferences being inferred as 0.
+	 * </p>
+	 */
+	final boolean isZeroFilled() {
+		return inferrer instanceof ZeroingPreferenceInferrer
+				&& !(enableXInferrer ^ enableYInferrer);
+	}
+
+	/**
+	 * @return the index of userID in stats if its profile has the given
+	 *         length, -1 otherwise, e.g. when the model changed since stats
+	 *         was built
+	 */
+	static int indexOf(UserStatistics stats, long userID, int profileSize) {
+		int index = stats.indexOf(userID);
+		return index >= 0 && stats.getProfileSize(index) == profileSize ? index : -1;
+	}
+
+	/**
+	 * <p>
+	 * Tells whether the similarity of two users who rated no item in common
+	 * is undefined (NaN), so that neighbors only need to be searched among the
+	 * users sharing an item. This is the case without an inferrer, as only
+	 * common items are then tallied.
+	 * </p>
+	 */
+	public boolean isUndefinedForDisjointUsers() {
+		return inferrer == null;
+	}
+
+	/**
+	 * <p>
+	 * Tells whether the similarity of two users who rated no item in common
+	 * is the same whatever their preferences, e.g. because it is undefined;
+	 * subclasses may accept some inferrers as well.
+	 * </p>
+	 */
+	public boolean isConstantForDisjointUsers() {
+		return isUndefinedForDisjointUsers();
+	}
+
+	/**
+	 * <p>
+	 * Tells whether userSimilarity(x, y) always equals userSimilarity(y, x),
+	 * which is not the case when the inferrer is only enabled for one side.
+	 * </p>
+	 */
+	public boolean isSymmetric() {
+		return inferrer == null || enableXInferrer == enableYInferrer;
+	}
+
 	/**
 	 * <p>
 	 * Several subclasses in this package implement this method to actually
@@ -143,22 +227,40 @@ public abstract class AbstractSimilarity extends AbstractItemSimilarity
 		DataModel dataModel = getDataModel();
 		PreferenceArray xPrefs = dataModel.getPreferencesFromUser(userID1);
 		PreferenceArray yPrefs = dataModel.getPreferencesFromUser(userID2);
-		itemsInXNotInY = 0;
-		itemsInYNotInX = 0;
-		totScoresInXNotInY = 0;
-		totScoresInYNotInX = 0;
-		totScoresInX=0;
-		totScoresInY=0;
-		totX2NotInY=0;
-		totY2NotInX=0;
-		itemsInX=0;
-		itemsInY=0;
 		int xLength = xPrefs.length();
 		int yLength = yPrefs.length();
 
 		if (xLength == 0 || yLength == 0) {
 			return Double.NaN;
 		}
+		if (isZeroFilled() && !usesSumXYdiff2()) {
+			// Only the common items add to sumXY; the other sums cover both
+			// whole profiles, as the inferred preferences are 0
+			UserStatistics stats = getUserStatistics();
+			int x = indexOf(stats, userID1, xLength);
+			int y = indexOf(stats, userID2, yLength);
+			if (x >= 0 && y >= 0) {
+				int common = 0;
+				double sumXY = 0.0;
+				int xPrefIndex = 0;
+				int yPrefIndex = 0;
+				while (xPrefIndex < xLength && yPrefIndex < yLength) {
+					long xIndex = xPrefs.getItemID(xPrefIndex);
+					long yIndex = yPrefs.getItemID(yPrefIndex);
+					if (xIndex < yIndex) {
+						xPrefIndex++;
+					} else if (xIndex > yIndex) {
+						yPrefIndex++;
+					} else {
+						sumXY += (double) xPrefs.getValue(xPrefIndex++) * yPrefs.getValue(yPrefIndex++);
+						common++;
+					}
+				}
+				return finishResult(xLength + yLength - common, stats.getSum(x), stats.getSquaredNorm(x),
+						stats.getSum(y), stats.getSquaredNorm(y), sumXY, Double.NaN);
+			}
+		}
+
 		// Y is the neighbor. X is the current node
 		long xIndex = xPrefs.getItemID(0);
 		long yIndex = yPrefs.getItemID(0);
@@ -226,13 +328,6 @@ public abstract class AbstractSimilarity extends AbstractItemSimilarity
 				count++;
 			}
 			if (compare <= 0) {// X has a value
-				double x = xPrefs.getValue(xPrefIndex);
-				itemsInX++;
-				totScoresInX += x;
-				totX2NotInY += x * x;
-				itemsInXNotInY++;
-				totScoresInXNotInY += x;
-				
 				if (++xPrefIndex >= xLength) {
 					if (hasInferrer || hasXInferrer) {// We use the inferrer for X to count the remaining Ys
 						// Must count other Ys; pretend next X is far away
@@ -249,12 +344,6 @@ public abstract class AbstractSimilarity extends AbstractItemSimilarity
 				}
 			}
 			if (compare >= 0) { // Y has a value
-				double y = yPrefs.getValue(yPrefIndex);
-				itemsInY++;
-				totScoresInY += y;
-				totY2NotInX+= y * y;
-				itemsInYNotInX++;
-				totScoresInYNotInX += y;
 				if (++yPrefIndex >= yLength) {
 					if (hasInferrer || hasYInferrer) {// We use the inferrer for Y to count the remaining Xs
 						// Must count other Xs; pretend next Y is far away
@@ -272,6 +361,11 @@ public abstract class AbstractSimilarity extends AbstractItemSimilarity
 			}
 		}
 
+		return finishResult(count, sumX, sumX2, sumY, sumY2, sumXY, sumXYdiff2);
+	}
+
+	private double finishResult(int count, double sumX, double sumX2,
+			double sumY, double sumY2, double sumXY, double sumXYdiff2) {
 		// "Center" the data. If my math is correct, this'll do it.
 		double result;
 		if (centerData) {
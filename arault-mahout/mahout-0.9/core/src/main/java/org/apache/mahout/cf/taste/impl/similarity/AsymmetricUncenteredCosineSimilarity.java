@@ -71,6 +71,11 @@ public final class AsymmetricUncenteredCosineSimilarity extends
 		
 	}
 
+	@Override
+	public boolean isSymmetric() {
+		return divideByX == divideByY && super.isSymmetric();
+	}
+
 	@Override
 	double computeResult(int n, double sumXY, double sumX2, double sumY2,
 			double sumXYdiff2) {
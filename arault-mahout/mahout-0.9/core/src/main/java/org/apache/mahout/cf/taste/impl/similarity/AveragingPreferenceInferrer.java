@@ -21,13 +21,15 @@ import java.util.Collection;
 
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
-import org.apache.mahout.cf.taste.impl.common.Cache;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.common.FullRunningAverage;
-import org.apache.mahout.cf.taste.impl.common.Retriever;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.impl.common.RunningAverage;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * <p>
@@ -38,43 +40,54 @@ import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
  */
 public final class AveragingPreferenceInferrer implements PreferenceInferrer {
   
-  private static final Float ZERO = 0.0f;
+  private static final Logger log = LoggerFactory.getLogger(AveragingPreferenceInferrer.class);
   
   private final DataModel dataModel;
-  private final Cache<Long,Float> averagePreferenceValue;
+  // Read without locking by concurrent similarity computations; replaced as a whole on refresh
+  private volatile FastByIDMap<Float> averagePreferenceValue;
   
   public AveragingPreferenceInferrer(DataModel dataModel) throws TasteException {
     this.dataModel = dataModel;
-    Retriever<Long,Float> retriever = new PrefRetriever();
-    averagePreferenceValue = new Cache<Long,Float>(retriever, dataModel.getNumUsers());
-    refresh(null);
+    averagePreferenceValue = computeAverages();
   }
   
   @Override
   public float inferPreference(long userID, long itemID) throws TasteException {
-    return averagePreferenceValue.get(userID);
+    Float average = averagePreferenceValue.get(userID);
+    return average == null ? computeAverage(userID) : average;
   }
   
   @Override
   public void refresh(Collection<Refreshable> alreadyRefreshed) {
-    averagePreferenceValue.clear();
+    try {
+      averagePreferenceValue = computeAverages();
+    } catch (TasteException te) {
+      log.warn("Unable to refresh average preference values", te);
+      averagePreferenceValue = new FastByIDMap<Float>();
+    }
   }
   
-  private final class PrefRetriever implements Retriever<Long,Float> {
-    
-    @Override
-    public Float get(Long key) throws TasteException {
-      PreferenceArray prefs = dataModel.getPreferencesFromUser(key);
-      int size = prefs.length();
-      if (size == 0) {
-        return ZERO;
-      }
-      RunningAverage average = new FullRunningAverage();
-      for (int i = 0; i < size; i++) {
-        average.addDatum(prefs.getValue(i));
-      }
-      return (float) average.getAverage();
+  private FastByIDMap<Float> computeAverages() throws TasteException {
+    FastByIDMap<Float> averages = new FastByIDMap<Float>(dataModel.getNumUsers());
+    LongPrimitiveIterator it = dataModel.getUserIDs();
+    while (it.hasNext()) {
+      long userID = it.nextLong();
+      averages.put(userID, computeAverage(userID));
+    }
+    return averages;
+  }
+  
+  private float computeAverage(long userID) throws TasteException {
+    PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
+    int size = prefs.length();
+    if (size == 0) {
+      return 0.0f;
+    }
+    RunningAverage average = new FullRunningAverage();
+    for (int i = 0; i < size; i++) {
+      average.addDatum(prefs.getValue(i));
     }
+    return (float) average.getAverage();
   }
   
   @Override
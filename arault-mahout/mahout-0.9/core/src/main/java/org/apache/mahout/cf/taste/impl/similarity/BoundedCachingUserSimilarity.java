@@ -0,0 +1,287 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.similarity;
+
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * Caches the results from an underlying {@link UserSimilarity} implementation within a fixed memory budget.
+ * Unlike {@link CachingUserSimilarity}, user pairs are stored as primitives in a set-associative table: each pair
+ * maps to a set of a few entries, and the oldest entry of a full set is evicted. The pair of a symmetric similarity
+ * is stored once for both orders.
+ * </p>
+ *
+ * <p>
+ * The table can be carried over to a similarity on an updated {@link org.apache.mahout.cf.taste.model.DataModel}:
+ * only the entries of the users whose preferences changed are then dropped. This class is thread-safe.
+ * </p>
+ */
+public final class BoundedCachingUserSimilarity implements UserSimilarity {
+
+  /** Entries per set */
+  private static final int WAYS = 8;
+  /** Two user IDs, a similarity and a flag */
+  static final int BYTES_PER_ENTRY = 2 * 8 + 8 + 1;
+  private static final int MAX_LOCKS = 64;
+
+  private final UserSimilarity similarity;
+  private final boolean symmetric;
+  private final Table table;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final RefreshHelper refreshHelper;
+
+  /**
+   * Creates this on top of the given {@link UserSimilarity}.
+   *
+   * @param symmetric
+   *          whether similarity(x, y) always equals similarity(y, x)
+   * @param maxMemoryBytes
+   *          memory budget of the cached entries
+   * @throws IllegalArgumentException
+   *           if similarity is {@code null} or maxMemoryBytes cannot hold a set of entries
+   */
+  public BoundedCachingUserSimilarity(UserSimilarity similarity, boolean symmetric, long maxMemoryBytes) {
+    this(similarity, symmetric, new Table(maxMemoryBytes));
+  }
+
+  /**
+   * Creates this on top of the given {@link UserSimilarity}, taking over the cached entries of previous except those
+   * of the changed users. similarity must compute the same values as the one of previous for all the other users,
+   * and previous must no longer be used.
+   *
+   * @param changedUserIDs
+   *          users whose preferences changed since previous was created
+   */
+  public BoundedCachingUserSimilarity(UserSimilarity similarity, BoundedCachingUserSimilarity previous,
+                                      long[] changedUserIDs) {
+    this(similarity, previous.symmetric, previous.table);
+    FastIDSet changed = new FastIDSet(changedUserIDs.length);
+    for (long userID : changedUserIDs) {
+      changed.add(userID);
+    }
+    table.removeUsers(changed);
+  }
+
+  private BoundedCachingUserSimilarity(UserSimilarity similarity, boolean symmetric, Table table) {
+    Preconditions.checkArgument(similarity != null, "similarity is null");
+    this.similarity = similarity;
+    this.symmetric = symmetric;
+    this.table = table;
+    this.refreshHelper = new RefreshHelper(new Callable<Void>() {
+      @Override
+      public Void call() {
+        BoundedCachingUserSimilarity.this.table.clear();
+        return null;
+      }
+    });
+    refreshHelper.addDependency(similarity);
+  }
+
+  @Override
+  public double userSimilarity(long userID1, long userID2) throws TasteException {
+    long first = userID1;
+    long second = userID2;
+    if (symmetric && userID2 < userID1) {
+      first = userID2;
+      second = userID1;
+    }
+    int set = table.setOf(first, second);
+    synchronized (table.lockOf(set)) {
+      int entry = table.find(set, first, second);
+      if (entry >= 0) {
+        hits.incrementAndGet();
+        return table.values[entry];
+      }
+    }
+    misses.incrementAndGet();
+    double result = similarity.userSimilarity(first, second);
+    synchronized (table.lockOf(set)) {
+      table.put(set, first, second, result);
+    }
+    return result;
+  }
+
+  @Override
+  public void setPreferenceInferrer(PreferenceInferrer inferrer) {
+    table.clear();
+    similarity.setPreferenceInferrer(inferrer);
+  }
+
+  public void clearCacheForUser(long userID) {
+    FastIDSet userIDs = new FastIDSet(1);
+    userIDs.add(userID);
+    table.removeUsers(userIDs);
+  }
+
+  /**
+   * Drops the cached similarities of all the given users in a single pass over the table.
+   */
+  public void clearCacheForUsers(FastIDSet userIDs) {
+    table.removeUsers(userIDs);
+  }
+
+  public UserSimilarity getSimilarity() {
+    return similarity;
+  }
+
+  public boolean isSymmetric() {
+    return symmetric;
+  }
+
+  /**
+   * @return number of similarities answered from the cache by this instance
+   */
+  public long getNumHits() {
+    return hits.get();
+  }
+
+  /**
+   * @return number of similarities computed by the underlying similarity for this instance
+   */
+  public long getNumMisses() {
+    return misses.get();
+  }
+
+  /**
+   * @return maximum number of cached similarities
+   */
+  public int getCapacity() {
+    return table.values.length;
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    refreshHelper.refresh(alreadyRefreshed);
+  }
+
+  @Override
+  public String toString() {
+    return "BoundedCachingUserSimilarity[similarity:" + similarity + ", capacity:" + getCapacity()
+        + ", hits:" + hits + ", misses:" + misses + ']';
+  }
+
+  /**
+   * Entries of set s are at indices [s * WAYS, (s + 1) * WAYS). Each set is guarded by one of a few locks.
+   */
+  private static final class Table {
+
+    private final long[] firstIDs;
+    private final long[] secondIDs;
+    private final double[] values;
+    private final boolean[] used;
+    /** Next entry to evict in each set, which is the oldest one once the set is full */
+    private final byte[] nextVictims;
+    private final int setMask;
+    private final Object[] locks;
+
+    private Table(long maxMemoryBytes) {
+      long maxSets = maxMemoryBytes / ((long) BYTES_PER_ENTRY * WAYS);
+      Preconditions.checkArgument(maxSets >= 1, "maxMemoryBytes is too small: " + maxMemoryBytes);
+      int nbSets = Integer.highestOneBit((int) Math.min(maxSets, Integer.MAX_VALUE / WAYS));
+      firstIDs = new long[nbSets * WAYS];
+      secondIDs = new long[nbSets * WAYS];
+      values = new double[nbSets * WAYS];
+      used = new boolean[nbSets * WAYS];
+      nextVictims = new byte[nbSets];
+      setMask = nbSets - 1;
+      locks = new Object[Math.min(nbSets, MAX_LOCKS)];
+      for (int i = 0; i < locks.length; i++) {
+        locks[i] = new Object();
+      }
+    }
+
+    int setOf(long first, long second) {
+      long hash = (first * 0x9E3779B97F4A7C15L) ^ second;
+      hash *= 0xC2B2AE3D27D4EB4FL;
+      return (int) (hash ^ (hash >>> 32)) & setMask;
+    }
+
+    Object lockOf(int set) {
+      return locks[set % locks.length];
+    }
+
+    int find(int set, long first, long second) {
+      int end = (set + 1) * WAYS;
+      for (int entry = set * WAYS; entry < end; entry++) {
+        if (used[entry] && firstIDs[entry] == first && secondIDs[entry] == second) {
+          return entry;
+        }
+      }
+      return -1;
+    }
+
+    void put(int set, long first, long second, double value) {
+      int entry = find(set, first, second);
+      if (entry < 0) {
+        int start = set * WAYS;
+        for (int i = start; i < start + WAYS; i++) {
+          if (!used[i]) {
+            entry = i;
+            break;
+          }
+        }
+        if (entry < 0) {
+          entry = start + nextVictims[set];
+          nextVictims[set] = (byte) ((nextVictims[set] + 1) % WAYS);
+        }
+      }
+      firstIDs[entry] = first;
+      secondIDs[entry] = second;
+      values[entry] = value;
+      used[entry] = true;
+    }
+
+    void removeUsers(FastIDSet userIDs) {
+      for (int set = 0; set <= setMask; set++) {
+        synchronized (lockOf(set)) {
+          int end = (set + 1) * WAYS;
+          for (int entry = set * WAYS; entry < end; entry++) {
+            if (used[entry] && (userIDs.contains(firstIDs[entry]) || userIDs.contains(secondIDs[entry]))) {
+              used[entry] = false;
+            }
+          }
+        }
+      }
+    }
+
+    void clear() {
+      for (int set = 0; set <= setMask; set++) {
+        synchronized (lockOf(set)) {
+          int end = (set + 1) * WAYS;
+          for (int entry = set * WAYS; entry < end; entry++) {
+            used[entry] = false;
+          }
+        }
+      }
+    }
+  }
+
+}
@@ -59,6 +59,11 @@ public final class EuclideanDistanceSimilarity extends AbstractSimilarity {
     Preconditions.checkArgument(dataModel.hasPreferenceValues(), "DataModel doesn't have preference values");
   }
   
+  @Override
+  boolean usesSumXYdiff2() {
+    return true;
+  }
+
   @Override
   double computeResult(int n, double sumXY, double sumX2, double sumY2, double sumXYdiff2) {
     return 1.0 / (1.0 + Math.sqrt(sumXYdiff2) / Math.sqrt(n));
@@ -54,6 +54,16 @@ public final class ScalarProductSimilarity extends AbstractSimilarity {
     Preconditions.checkArgument(dataModel.hasPreferenceValues(), "DataModel doesn't have preference values");
   }
 
+  /**
+   * Also true with a {@link ZeroingPreferenceInferrer} on unweighted data, as the scalar product of disjoint
+   * profiles is then 0.
+   */
+  @Override
+  public boolean isConstantForDisjointUsers() {
+    return super.isConstantForDisjointUsers()
+        || (getPreferenceInferrer() instanceof ZeroingPreferenceInferrer && !isWeighted());
+  }
+
   @Override
   double computeResult(int n, double sumXY, double sumX2, double sumY2, double sumXYdiff2) {
     if (n == 0) {
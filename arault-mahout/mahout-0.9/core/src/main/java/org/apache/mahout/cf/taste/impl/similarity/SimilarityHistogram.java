@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.similarity;
+
+import java.util.Arrays;
+
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * Histogram of similarity values rounded to 2 decimals, from which
+ * {@link TwoStepUncenteredCosineSimilarity} thresholds are picked among the distinct values. Values in [-1, 1] fall
+ * into one of 201 buckets; the others, e.g. those of unnormalized similarities, are kept aside as distinct values.
+ * Adding a value within [-1, 1] takes constant time and no allocation, and histograms can be merged, e.g. to get the
+ * distribution of all users from per-thread histograms.
+ * </p>
+ *
+ * <p>
+ * NaN rounds to 0, as {@link Math#round(double)} does. This class is not thread-safe.
+ * </p>
+ */
+public final class SimilarityHistogram {
+
+  /** Rounded values from -1.00 to 1.00 */
+  private static final int MAX_BUCKET = 100;
+
+  private final long[] counts = new long[2 * MAX_BUCKET + 1];
+  private int nbDistinctInBuckets;
+  /** Distinct rounded values times 100 outside of the buckets, except the extreme longs FastIDSet cannot hold */
+  private final FastIDSet outliers = new FastIDSet();
+  private boolean hasMinLong;
+  private boolean hasMaxLong;
+
+  /**
+   * Adds a similarity value, rounded to 2 decimals.
+   */
+  public void add(double similarity) {
+    addRounded(Math.round(similarity * 100));
+  }
+
+  private void addRounded(long rounded) {
+    if (rounded >= -MAX_BUCKET && rounded <= MAX_BUCKET) {
+      if (counts[(int) rounded + MAX_BUCKET]++ == 0) {
+        nbDistinctInBuckets++;
+      }
+    } else if (rounded == Long.MIN_VALUE) {
+      hasMinLong = true;
+    } else if (rounded == Long.MAX_VALUE) {
+      hasMaxLong = true;
+    } else {
+      outliers.add(rounded);
+    }
+  }
+
+  /**
+   * Adds the values of other to this histogram.
+   */
+  public void merge(SimilarityHistogram other) {
+    for (int i = 0; i < counts.length; i++) {
+      if (other.counts[i] > 0) {
+        if (counts[i] == 0) {
+          nbDistinctInBuckets++;
+        }
+        counts[i] += other.counts[i];
+      }
+    }
+    outliers.addAll(other.outliers);
+    hasMinLong |= other.hasMinLong;
+    hasMaxLong |= other.hasMaxLong;
+  }
+
+  /**
+   * @return number of distinct rounded values
+   */
+  public int getNumDistinctValues() {
+    return nbDistinctInBuckets + outliers.size() + (hasMinLong ? 1 : 0) + (hasMaxLong ? 1 : 0);
+  }
+
+  /**
+   * @param position
+   *          index of the value among the distinct rounded values, sorted in ascending order
+   * @return the value at position, as the double nearest to the rounded value
+   * @throws IllegalArgumentException
+   *           if position is not in [0, {@link #getNumDistinctValues()})
+   */
+  public double getDistinctValue(int position) {
+    Preconditions.checkArgument(position >= 0 && position < getNumDistinctValues(),
+        "position out of range: " + position);
+    if (outliers.isEmpty() && !hasMinLong && !hasMaxLong) {
+      return bucketValue(position);
+    }
+    long[] sortedOutliers = outliers.toArray();
+    Arrays.sort(sortedOutliers);
+    int nbBelow = 0;
+    while (nbBelow < sortedOutliers.length && sortedOutliers[nbBelow] < -MAX_BUCKET) {
+      nbBelow++;
+    }
+    int index = position;
+    if (hasMinLong) {
+      if (index == 0) {
+        return Long.MIN_VALUE / 100.0;
+      }
+      index--;
+    }
+    if (index < nbBelow) {
+      return sortedOutliers[index] / 100.0;
+    }
+    index -= nbBelow;
+    if (index < nbDistinctInBuckets) {
+      return bucketValue(index);
+    }
+    index -= nbDistinctInBuckets;
+    if (nbBelow + index < sortedOutliers.length) {
+      return sortedOutliers[nbBelow + index] / 100.0;
+    }
+    return Long.MAX_VALUE / 100.0;
+  }
+
+  private double bucketValue(int index) {
+    int remaining = index;
+    for (int i = 0; i < counts.length; i++) {
+      if (counts[i] > 0 && remaining-- == 0) {
+        return (i - MAX_BUCKET) / 100.0;
+      }
+    }
+    throw new IllegalStateException();
+  }
+
+  @Override
+  public String toString() {
+    return "SimilarityHistogram[distinct values:" + getNumDistinctValues() + ']';
+  }
+
+}
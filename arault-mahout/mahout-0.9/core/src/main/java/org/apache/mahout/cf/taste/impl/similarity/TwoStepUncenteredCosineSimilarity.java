@@ -17,15 +17,14 @@
 
 package org.apache.mahout.cf.taste.impl.similarity;
 
-import java.util.HashMap;
-import java.util.Random;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-import org.apache.commons.collections.map.HashedMap;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.common.Weighting;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
-import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.common.RandomUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,7 +47,8 @@ public final class TwoStepUncenteredCosineSimilarity extends AbstractSimilarity
 
   	private static final Logger log = LoggerFactory.getLogger(TwoStepUncenteredCosineSimilarity.class);
 
-	private HashMap<Long, Double> similarityThresholds = new HashMap<Long, Double>();
+	/** Thresholds of the users who are not in the {@link UserStatistics} of the data model, which holds the others */
+	private final Map<Long, Double> similarityThresholds = new ConcurrentHashMap<Long, Double>();
 	private double percentileThreshold;
 	private double globalSimilarityThreshold = -1;
 	private boolean perUserDistro;
@@ -60,7 +60,8 @@ public final class TwoStepUncenteredCosineSimilarity extends AbstractSimilarity
 	private double percentIdealNbItems = 1.5;
 	private boolean randomizeIdealNbItems = false;
 	private String variantIdealNbItems = "u";
-	private Random rand;
+	/** Seed of the random weights of the ideal number of items */
+	private long seed = RandomUtils.getRandom().nextLong();
 
 
 	/**
@@ -102,26 +103,52 @@ public final class TwoStepUncenteredCosineSimilarity extends AbstractSimilarity
 	@Override
 	public double userSimilarity(long userID1, long userID2)
 			throws TasteException {
-		log.trace("computing similarity between {} and {}", userID1, userID2);
+		if (log.isTraceEnabled()) {
+			log.trace("computing similarity between {} and {}", userID1, userID2);
+		}
 		DataModel dataModel = getDataModel();
 		PreferenceArray xPrefs = dataModel.getPreferencesFromUser(userID1);
 		PreferenceArray yPrefs = dataModel.getPreferencesFromUser(userID2);
-		itemsInXNotInY = 0;
-		itemsInYNotInX = 0;
-		totScoresInXNotInY = 0;
-		totScoresInYNotInX = 0;
-		totScoresInX = 0;
-		totScoresInY = 0;
-		totX2NotInY = 0;
-		totY2NotInX = 0;
-		itemsInX = 0;
-		itemsInY = 0;
+		// Items of the neighbor Y that X does not have, used by the richness measure
+		int itemsInYNotInX = 0;
 		int xLength = xPrefs.length();
 		int yLength = yPrefs.length();
 
 		if (xLength == 0 || yLength == 0) {
 			return Double.NaN;
 		}
+		if (isZeroFilled()) {
+			// Only the common items add to sumXY; sumX2 and sumY2 cover both
+			// whole profiles, as the inferred preferences are 0
+			UserStatistics stats = getUserStatistics();
+			int x = indexOf(stats, userID1, xLength);
+			int y = indexOf(stats, userID2, yLength);
+			if (x >= 0 && y >= 0) {
+				int common = 0;
+				double sumXY = 0.0;
+				int xPrefIndex = 0;
+				int yPrefIndex = 0;
+				while (xPrefIndex < xLength && yPrefIndex < yLength) {
+					long xIndex = xPrefs.getItemID(xPrefIndex);
+					long yIndex = yPrefs.getItemID(yPrefIndex);
+					if (xIndex < yIndex) {
+						xPrefIndex++;
+					} else if (xIndex > yIndex) {
+						yPrefIndex++;
+					} else {
+						sumXY += (double) xPrefs.getValue(xPrefIndex++) * yPrefs.getValue(yPrefIndex++);
+						common++;
+					}
+				}
+				int count = xLength + yLength - common;
+				double result = computeResult(count, sumXY, stats.getSquaredNorm(x), stats.getSquaredNorm(y),
+						userID1, userID2, yLength - common, xLength, yLength);
+				if (!Double.isNaN(result)) {
+					result = normalizeWeightResult(result, count, cachedNumItems);
+				}
+				return result;
+			}
+		}
 		// Y is the neighbor. X is the current node
 		long xIndex = xPrefs.getItemID(0);
 		long yIndex = yPrefs.getItemID(0);
@@ -185,14 +212,6 @@ public final class TwoStepUncenteredCosineSimilarity extends AbstractSimilarity
 				count++;
 			}
 			if (compare <= 0) {// X has a value
-				double x = xPrefs.getValue(xPrefIndex);
-				itemsInX++;
-				totScoresInX += x;
-				if (compare < 0) {
-					totX2NotInY += x * x;
-					itemsInXNotInY++;
-					totScoresInXNotInY += x;
-				}
 				if (++xPrefIndex >= xLength) {
 					if (hasInferrer || hasXInferrer) {// We use the inferrer for X to count the remaining Ys
 						// Must count other Ys; pretend next X is far away
@@ -209,13 +228,8 @@ public final class TwoStepUncenteredCosineSimilarity extends AbstractSimilarity
 				}
 			}
 			if (compare >= 0) { // Y has a value
-				double y = yPrefs.getValue(yPrefIndex);
-				itemsInY++;
-				totScoresInY += y;
 				if (compare > 0) {
-					totY2NotInX += y * y;
 					itemsInYNotInX++;
-					totScoresInYNotInX += y;
 				}
 				if (++yPrefIndex >= yLength) {
 					if (hasInferrer || hasYInferrer) {// We use the inferrer for Y to count the remaining Xs
@@ -234,7 +248,8 @@ public final class TwoStepUncenteredCosineSimilarity extends AbstractSimilarity
 			}
 		}
 
-		double result = computeResult(count, sumXY, sumX2, sumY2, userID1, userID2);
+		double result = computeResult(count, sumXY, sumX2, sumY2, userID1, userID2, itemsInYNotInX,
+				xLength, yLength);
 
 		if (!Double.isNaN(result)) {
 			result = normalizeWeightResult(result, count, cachedNumItems);
@@ -249,7 +264,7 @@ public final class TwoStepUncenteredCosineSimilarity extends AbstractSimilarity
 	 * or replaced by the threshold similarity value + an optional bonus computed by computeRichnessMeasure().
 	 */
 	private double computeResult(int n, double sumXY, double sumX2, double sumY2,
-			long currentUser, long neighbor) {
+			long currentUser, long neighbor, int itemsInYNotInX, int currentUserSize, int neighborSize) {
 		if (n == 0) {
 			return Double.NaN;
 		}
@@ -265,28 +280,32 @@ public final class TwoStepUncenteredCosineSimilarity extends AbstractSimilarity
 			throw new IllegalArgumentException();
 		}
 
-		Double resultThreshold = getSimilarityThresholdForUser(currentUser);
-		log.trace("using threshold {} for user {}", resultThreshold, currentUser);
+		double resultThreshold = getSimilarityThresholdForUser(currentUser);
+		boolean trace = log.isTraceEnabled();
+		if (trace) {
+			log.trace("using threshold {} for user {}", resultThreshold, currentUser);
+		}
 		if (resultThreshold >= 0 && result >= resultThreshold) {
 			if (useThreshold) {
 				result = resultThreshold
 					+ computeRichnessMeasure(resultThreshold, currentUser,
-							neighbor);
+							neighbor, itemsInYNotInX, currentUserSize, neighborSize);
 			} else {
 				result = result
 						+ computeRichnessMeasure(resultThreshold, currentUser,
-								neighbor);
+								neighbor, itemsInYNotInX, currentUserSize, neighborSize);
 			}
-		} else {
+		} else if (trace) {
 			log.trace("not doing richness because th={} and res={}", resultThreshold, result);
 		}
-		log.trace("two-step returning {}", result);
 
 		// Rounding the final similarity value to 1 if it is really close to 1.
 		if ((1.0 - result) <= 0.00000000000001) {
 			result = 1.0;
 		}
-		log.trace("sim ({}, {})={}", currentUser, neighbor, result);
+		if (trace) {
+			log.trace("sim ({}, {})={}", currentUser, neighbor, result);
+		}
 
 		return result;
 
@@ -296,18 +315,32 @@ public final class TwoStepUncenteredCosineSimilarity extends AbstractSimilarity
 		if (!perUserDistro) {
 			return globalSimilarityThreshold;
 		} else {
-			double toRet;
-		       	if(similarityThresholds.containsKey(currentUser)) {
-				toRet = similarityThresholds.get(currentUser);
-			} else {
-				toRet = -1.0;
+			double threshold = getStatistics().getThreshold(currentUser);
+			if (Double.isNaN(threshold)) {
+				Double otherThreshold = similarityThresholds.get(currentUser);
+				return otherThreshold == null ? -1.0 : otherThreshold;
 			}
-			return toRet;
+			return threshold;
 		}
 	}
 
+	private UserStatistics getStatistics() {
+		try {
+			return getUserStatistics();
+		} catch (TasteException te) {
+			throw new IllegalStateException(te);
+		}
+	}
+
+	/**
+	 * @param currentUserSize
+	 *            number of preferences of currentUser
+	 * @param neighborSize
+	 *            number of preferences of neighbor
+	 */
 	private double computeRichnessMeasure(double resultThreshold,
-			long currentUser, long neighbor) {
+			long currentUser, long neighbor, int itemsInYNotInX,
+			int currentUserSize, int neighborSize) {
 
 		if (useRichness) {
 			double toRet;
@@ -315,22 +348,18 @@ public final class TwoStepUncenteredCosineSimilarity extends AbstractSimilarity
 
 			int userIdealNbItems = idealNbItems;
 			if (!isGlobalIdealNbItems) {
-				try {
-					DataModel dataModel = getDataModel();
-					PreferenceArray userPrefs = null;
-          if (variantIdealNbItems.contains("n")) {
-            userPrefs = dataModel.getPreferencesFromUser(neighbor);
-          } else { // Default : "u"
-            userPrefs = dataModel.getPreferencesFromUser(currentUser);
-          }
-					int nbUserItems = userPrefs.length();
-					double weight = percentIdealNbItems;
-					if (randomizeIdealNbItems) {
-						double randomDouble = rand.nextDouble();
-						weight = weight + randomDouble - 0.5;
-					}
-					userIdealNbItems = (int) (nbUserItems * weight);
-				} catch (TasteException ex) {}
+				int nbUserItems;
+				if (variantIdealNbItems.contains("n")) {
+					nbUserItems = neighborSize;
+				} else { // Default : "u"
+					nbUserItems = currentUserSize;
+				}
+				double weight = percentIdealNbItems;
+				if (randomizeIdealNbItems) {
+					double randomDouble = randomDouble(currentUser, neighbor);
+					weight = weight + randomDouble - 0.5;
+				}
+				userIdealNbItems = (int) (nbUserItems * weight);
 			}
 
 			if (itemsInYNotInX == userIdealNbItems) {
@@ -345,8 +374,10 @@ public final class TwoStepUncenteredCosineSimilarity extends AbstractSimilarity
 				toRet = 0;
 			}
 
-			log.trace("sim ({}, {}): computed richness={} for threshold={}, maxRichness={}, idealNbItems={}, itemsInYNotInX={}",
-				       	currentUser, neighbor, toRet, resultThreshold, maxRichness, userIdealNbItems , itemsInYNotInX);
+			if (log.isTraceEnabled()) {
+				log.trace("sim ({}, {}): computed richness={} for threshold={}, maxRichness={}, idealNbItems={}, itemsInYNotInX={}",
+					       	currentUser, neighbor, toRet, resultThreshold, maxRichness, userIdealNbItems , itemsInYNotInX);
+			}
 			return toRet;
 		} else {
 			return 0;
@@ -355,14 +386,17 @@ public final class TwoStepUncenteredCosineSimilarity extends AbstractSimilarity
 
 	public boolean hasSimilarityThresholdForUser(long userID) {
 		if (perUserDistro) {
-			return similarityThresholds.containsKey(userID);
+			return !Double.isNaN(getStatistics().getThreshold(userID))
+					|| similarityThresholds.containsKey(userID);
 		} else {
 			return globalSimilarityThreshold >= 0;
 		}
 	}
 
 	public void setSimilarityThresholdForUser(long userID, double threshold) {
-		similarityThresholds.put(userID, threshold);
+		if (!getStatistics().setThreshold(userID, threshold)) {
+			similarityThresholds.put(userID, threshold);
+		}
 	}
 
 	/**
@@ -406,8 +440,35 @@ public final class TwoStepUncenteredCosineSimilarity extends AbstractSimilarity
 		variantIdealNbItems = s;
 	}
 
-	public void setRand(Random r) {
-		rand = r;
+	/**
+	 * @param seed
+	 *            seed of the random weights of the ideal number of items, when
+	 *            they are randomized
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * @return a value in [0,1) drawn for the pair of users from the seed. The
+	 *         same pair always gets the same value, so that similarities do not
+	 *         depend on the thread computing them or on the order in which
+	 *         they are computed.
+	 */
+	private double randomDouble(long currentUser, long neighbor) {
+		long z = seed ^ (currentUser * 0x9E3779B97F4A7C15L) ^ (neighbor * 0xC2B2AE3D27D4EB4FL);
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		z ^= z >>> 31;
+		return (z >>> 11) * 0x1.0p-53;
+	}
+
+	/**
+	 * The richness bonus depends on the threshold of the first user.
+	 */
+	@Override
+	public boolean isSymmetric() {
+		return false;
 	}
 
 	public boolean isPerUserDistro() {
@@ -424,15 +485,27 @@ public final class TwoStepUncenteredCosineSimilarity extends AbstractSimilarity
 	}
 
 	public double computeSecondStep(double resultThreshold, long xUser, long yUser) {
-		log.debug("Computing second step with threshold={} bewteen user {} and potential neighbor {}", resultThreshold, xUser, yUser);
+		if (log.isDebugEnabled()) {
+			log.debug("Computing second step with threshold={} bewteen user {} and potential neighbor {}", resultThreshold, xUser, yUser);
+		}
 		DataModel model = getDataModel();
 		int itemsInYNotInX = 0;
+		int nbUserItems = -1;
 		try {
-			PreferenceArray yPrefs = model.getPreferencesFromUser(yUser);
 			PreferenceArray xPrefs = model.getPreferencesFromUser(xUser);
-			for (Preference pref : yPrefs) {
-				if (!xPrefs.hasPrefWithItemID(pref.getItemID())) {
-					itemsInYNotInX += 1;
+			int xLength = xPrefs.length();
+			nbUserItems = xLength;
+			PreferenceArray yPrefs = model.getPreferencesFromUser(yUser);
+			int yLength = yPrefs.length();
+			// Both profiles are sorted by item ID
+			int xPrefIndex = 0;
+			for (int yPrefIndex = 0; yPrefIndex < yLength; yPrefIndex++) {
+				long yIndex = yPrefs.getItemID(yPrefIndex);
+				while (xPrefIndex < xLength && xPrefs.getItemID(xPrefIndex) < yIndex) {
+					xPrefIndex++;
+				}
+				if (xPrefIndex == xLength || xPrefs.getItemID(xPrefIndex) != yIndex) {
+					itemsInYNotInX++;
 				}
 			}
 		} catch (TasteException ex) {}
@@ -442,17 +515,13 @@ public final class TwoStepUncenteredCosineSimilarity extends AbstractSimilarity
 			double maxRichness = 1 - resultThreshold;
 
 			int userIdealNbItems = idealNbItems;
-			if (!isGlobalIdealNbItems) {
-				try {
-					PreferenceArray xPrefs = model.getPreferencesFromUser(xUser);
-					int nbUserItems = xPrefs.length();
-					double weight = percentIdealNbItems;
-					if (randomizeIdealNbItems) {
-						double randomDouble = rand.nextDouble();
-						weight = weight + randomDouble - 0.5;
-					}
-					userIdealNbItems = (int) (nbUserItems * weight);
-				} catch (TasteException ex) {}
+			if (!isGlobalIdealNbItems && nbUserItems >= 0) {
+				double weight = percentIdealNbItems;
+				if (randomizeIdealNbItems) {
+					double randomDouble = randomDouble(xUser, yUser);
+					weight = weight + randomDouble - 0.5;
+				}
+				userIdealNbItems = (int) (nbUserItems * weight);
 			}
 
 			if (itemsInYNotInX == userIdealNbItems) {
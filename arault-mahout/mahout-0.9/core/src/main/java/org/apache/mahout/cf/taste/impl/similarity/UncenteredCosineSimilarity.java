@@ -52,6 +52,16 @@ public final class UncenteredCosineSimilarity extends AbstractSimilarity {
     Preconditions.checkArgument(dataModel.hasPreferenceValues(), "DataModel doesn't have preference values");
   }
 
+  /**
+   * Also true with a {@link ZeroingPreferenceInferrer} on unweighted data, as the cosine of disjoint
+   * profiles is then 0.
+   */
+  @Override
+  public boolean isConstantForDisjointUsers() {
+    return super.isConstantForDisjointUsers()
+        || (getPreferenceInferrer() instanceof ZeroingPreferenceInferrer && !isWeighted());
+  }
+
   @Override
   double computeResult(int n, double sumXY, double sumX2, double sumY2, double sumXYdiff2) {
 //	  System.out.println("[DAVIDE] uncenteredCosine n="+n+" sumXY="+sumXY+" sumX2="+sumX2+" sumY2="+sumY2);
@@ -0,0 +1,153 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.similarity;
+
+import java.util.Arrays;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/**
+ * <p>
+ * Per-user figures of a {@link DataModel}, in primitive arrays indexed by the
+ * position of the user in ascending ID order: profile size, sum and sum of
+ * squares of the preference values, and a similarity threshold which is
+ * {@link Double#NaN} until set.
+ * </p>
+ *
+ * <p>
+ * Sums are tallied in item order, as {@link AbstractSimilarity#userSimilarity(long, long)}
+ * tallies them, so they can stand for the sums of a whole profile. The
+ * figures describe the model when the table was built; a similarity rebuilds
+ * its table when refreshed. A threshold is expected to be written by the
+ * thread computing the user's neighborhood, before other threads read it.
+ * </p>
+ */
+public final class UserStatistics {
+
+	private final long[] userIDs;
+	private final int[] profileSizes;
+	private final double[] sums;
+	private final double[] squaredNorms;
+	private final double[] thresholds;
+
+	public UserStatistics(DataModel dataModel) throws TasteException {
+		this(dataModel, null);
+	}
+
+	/**
+	 * @param previous
+	 *            table whose thresholds are kept for the users who are still
+	 *            in dataModel, or {@code null}
+	 */
+	public UserStatistics(DataModel dataModel, UserStatistics previous) throws TasteException {
+		long[] ids = new long[dataModel.getNumUsers()];
+		int numUsers = 0;
+		LongPrimitiveIterator it = dataModel.getUserIDs();
+		while (it.hasNext()) {
+			ids[numUsers++] = it.nextLong();
+		}
+		Arrays.sort(ids, 0, numUsers);
+		userIDs = numUsers == ids.length ? ids : Arrays.copyOf(ids, numUsers);
+		profileSizes = new int[numUsers];
+		sums = new double[numUsers];
+		squaredNorms = new double[numUsers];
+		thresholds = new double[numUsers];
+		Arrays.fill(thresholds, Double.NaN);
+		for (int i = 0; i < numUsers; i++) {
+			PreferenceArray prefs = dataModel.getPreferencesFromUser(userIDs[i]);
+			double sum = 0.0;
+			double sum2 = 0.0;
+			for (int j = 0; j < prefs.length(); j++) {
+				double x = prefs.getValue(j);
+				sum += x;
+				sum2 += x * x;
+			}
+			profileSizes[i] = prefs.length();
+			sums[i] = sum;
+			squaredNorms[i] = sum2;
+			if (previous != null) {
+				thresholds[i] = previous.getThreshold(userIDs[i]);
+			}
+		}
+	}
+
+	public int getNumUsers() {
+		return userIDs.length;
+	}
+
+	/**
+	 * @return the index of userID in the arrays of this table, or a negative
+	 *         value if userID was not in the data model
+	 */
+	public int indexOf(long userID) {
+		return Arrays.binarySearch(userIDs, userID);
+	}
+
+	public long getUserID(int index) {
+		return userIDs[index];
+	}
+
+	public int getProfileSize(int index) {
+		return profileSizes[index];
+	}
+
+	public double getSum(int index) {
+		return sums[index];
+	}
+
+	/**
+	 * @return the sum of the squares of the preference values of the user
+	 */
+	public double getSquaredNorm(int index) {
+		return squaredNorms[index];
+	}
+
+	public double getNorm(int index) {
+		return Math.sqrt(squaredNorms[index]);
+	}
+
+	/**
+	 * @return the threshold of userID, or NaN if it was not set or userID is
+	 *         not in the table
+	 */
+	public double getThreshold(long userID) {
+		int index = indexOf(userID);
+		return index < 0 ? Double.NaN : thresholds[index];
+	}
+
+	/**
+	 * @return whether the threshold of userID could be stored, i.e. whether
+	 *         userID is in the table
+	 */
+	public boolean setThreshold(long userID, double threshold) {
+		int index = indexOf(userID);
+		if (index < 0) {
+			return false;
+		}
+		thresholds[index] = threshold;
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "UserStatistics[users:" + userIDs.length + ']';
+	}
+}
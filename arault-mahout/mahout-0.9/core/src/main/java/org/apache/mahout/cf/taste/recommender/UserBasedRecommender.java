@@ -50,5 +50,23 @@ public interface UserBasedRecommender extends Recommender {
    *           if an error occurs while accessing the {@link org.apache.mahout.cf.taste.model.DataModel}
    */
   long[] mostSimilarUserIDs(long userID, int howMany, Rescorer<LongPair> rescorer) throws TasteException;
+
+  /**
+   * <p>
+   * Estimates the preferences of a user for several items at once, as would successive calls to
+   * {@link #estimatePreference(long, long)}, but resolving the user's neighborhood and the similarities to the
+   * neighbors only once.
+   * </p>
+   *
+   * @param userID
+   *          user ID whose preferences are to be estimated
+   * @param itemIDs
+   *          item IDs to estimate preferences for
+   * @return estimated preferences, in the order of itemIDs; the actual preference if the user already expressed
+   *         one, or {@link Float#NaN} if no estimate is possible
+   * @throws TasteException
+   *           if an error occurs while accessing the {@link org.apache.mahout.cf.taste.model.DataModel}
+   */
+  float[] estimatePreferences(long userID, long[] itemIDs) throws TasteException;
   
 }
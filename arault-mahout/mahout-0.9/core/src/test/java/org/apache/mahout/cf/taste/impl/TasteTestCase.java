@@ -30,6 +30,7 @@ import org.apache.mahout.cf.taste.model.Preference;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
 
 import java.util.List;
+import java.util.Random;
 
 public abstract class TasteTestCase extends MahoutTestCase {
 
@@ -76,6 +77,30 @@ public abstract class TasteTestCase extends MahoutTestCase {
             });
   }
 
+  /**
+   * @return a model of users 1 to numUsers, each rating each of items 0 to numItems - 1 with probability density,
+   *  with an integer from 1 to maxValue; with ratesOwnItem, user u also rates item (u - 1) % numItems 3, so that
+   *  no user is left out of the model for rating nothing
+   */
+  protected static DataModel getRandomDataModel(Random random, int numUsers, int numItems, double density,
+                                                int maxValue, boolean ratesOwnItem) {
+    long[] userIDs = new long[numUsers];
+    Double[][] prefs = new Double[numUsers][];
+    for (int i = 0; i < numUsers; i++) {
+      userIDs[i] = i + 1;
+      prefs[i] = new Double[numItems];
+      for (int j = 0; j < numItems; j++) {
+        if (random.nextDouble() < density) {
+          prefs[i][j] = (double) (1 + random.nextInt(maxValue));
+        }
+      }
+      if (ratesOwnItem) {
+        prefs[i][i % numItems] = 3.0;
+      }
+    }
+    return getDataModel(userIDs, prefs);
+  }
+
   protected static DataModel getBooleanDataModel() {
     return getBooleanDataModel(new long[] {1, 2, 3, 4},
                                new boolean[][] {
@@ -17,6 +17,9 @@
 
 package org.apache.mahout.cf.taste.impl.eval;
 
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.eval.DataModelBuilder;
 import org.apache.mahout.cf.taste.eval.IRStatistics;
 import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
@@ -24,11 +27,16 @@ import org.apache.mahout.cf.taste.eval.RecommenderIRStatsEvaluator;
 import org.apache.mahout.cf.taste.impl.TasteTestCase;
 import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.model.GenericBooleanPrefDataModel;
+import org.apache.mahout.cf.taste.impl.neighborhood.NearestNUserNeighborhood;
 import org.apache.mahout.cf.taste.impl.recommender.GenericBooleanPrefItemBasedRecommender;
+import org.apache.mahout.cf.taste.impl.recommender.GenericUserBasedRecommender;
 import org.apache.mahout.cf.taste.impl.similarity.LogLikelihoodSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.apache.mahout.common.RandomUtils;
 import org.junit.Test;
 
 public final class GenericRecommenderIRStatsEvaluatorImplTest extends TasteTestCase {
@@ -60,6 +68,36 @@ public final class GenericRecommenderIRStatsEvaluatorImplTest extends TasteTestC
     assertEquals(0.666666666, stats.getNormalizedDiscountedCumulativeGain(), EPSILON);
   }
 
+  @Test
+  public void testSeveralNumbersOfRecommendations() throws Exception {
+    DataModel model = getRandomDataModel();
+    RecommenderBuilder builder = new RecommenderBuilder() {
+      @Override
+      public Recommender buildRecommender(DataModel dataModel) throws TasteException {
+        UserSimilarity similarity = new PearsonCorrelationSimilarity(dataModel);
+        return new GenericUserBasedRecommender(dataModel, new NearestNUserNeighborhood(5, similarity, dataModel),
+            similarity);
+      }
+    };
+    int[] rs = {4, 1, 2, 8};
+    IRStatistics[] stats = new GenericRecommenderIRStatsEvaluator(new GenericRelevantItemsDataSplitter(), 3)
+        .evaluate(builder, null, model, null, 2, rs, 3.0, 0.8);
+
+    assertEquals(rs.length, stats.length);
+    for (int i = 0; i < rs.length; i++) {
+      // Same users evaluated as by a separate evaluation, seeded the same
+      IRStatistics expected = new GenericRecommenderIRStatsEvaluator()
+          .evaluate(builder, null, model, null, 2, rs[i], 3.0, 0.8);
+      assertFalse(Double.isNaN(stats[i].getPrecision()));
+      assertEquals(expected.getPrecision(), stats[i].getPrecision(), EPSILON);
+      assertEquals(expected.getRecall(), stats[i].getRecall(), EPSILON);
+      assertEquals(expected.getFallOut(), stats[i].getFallOut(), EPSILON);
+      assertEquals(expected.getNormalizedDiscountedCumulativeGain(),
+          stats[i].getNormalizedDiscountedCumulativeGain(), EPSILON);
+      assertEquals(expected.getReach(), stats[i].getReach(), EPSILON);
+    }
+  }
+
   @Test
   public void testIRStats() {
     IRStatistics stats = new IRStatisticsImpl(0.3, 0.1, 0.2, 0.05, 0.15);
@@ -70,4 +108,21 @@ public final class GenericRecommenderIRStatsEvaluatorImplTest extends TasteTestC
     assertEquals(0.05, stats.getNormalizedDiscountedCumulativeGain(), EPSILON);
   }
 
+  private static DataModel getRandomDataModel() {
+    Random random = RandomUtils.getRandom();
+    int numUsers = 30;
+    long[] userIDs = new long[numUsers];
+    Double[][] prefValues = new Double[numUsers][];
+    for (int u = 0; u < numUsers; u++) {
+      userIDs[u] = u;
+      prefValues[u] = new Double[20];
+      for (int j = 0; j < prefValues[u].length; j++) {
+        if (random.nextDouble() < 0.5) {
+          prefValues[u][j] = 1.0 + 4.0 * random.nextDouble();
+        }
+      }
+    }
+    return getDataModel(userIDs, prefValues);
+  }
+
 }
@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+/**
+ * Tests {@link KFoldPreferenceStore}.
+ */
+public final class KFoldPreferenceStoreTest extends TasteTestCase {
+
+  @Test
+  public void testFoldsPartitionPreferences() throws Exception {
+    DataModel dataModel = getRandomDataModel();
+    int numFolds = 3;
+    KFoldPreferenceStore store = new KFoldPreferenceStore(dataModel, numFolds, 1.0, RandomUtils.getRandom());
+    FastByIDMap<FastIDSet> testedItems = new FastByIDMap<FastIDSet>();
+    for (int k = 0; k < numFolds; k++) {
+      for (LongPrimitiveIterator it = store.getTestPrefs(k).keySetIterator(); it.hasNext();) {
+        long userID = it.nextLong();
+        PreferenceArray prefs = store.getTestPrefs(k).get(userID);
+        int numPrefs = dataModel.getPreferencesFromUser(userID).length();
+        // Dealt in turn: the first folds get one more preference when the folds cannot be even
+        assertEquals(numPrefs / numFolds + (k < numPrefs % numFolds ? 1 : 0), prefs.length());
+        if (!testedItems.containsKey(userID)) {
+          testedItems.put(userID, new FastIDSet());
+        }
+        for (int i = 0; i < prefs.length(); i++) {
+          assertEquals(dataModel.getPreferenceValue(userID, prefs.getItemID(i)), prefs.getValue(i), EPSILON);
+          assertTrue(testedItems.get(userID).add(prefs.getItemID(i)));
+        }
+      }
+    }
+    for (LongPrimitiveIterator it = dataModel.getUserIDs(); it.hasNext();) {
+      long userID = it.nextLong();
+      FastIDSet itemIDs = dataModel.getItemIDsFromUser(userID);
+      assertEquals(itemIDs.size(), testedItems.get(userID).size());
+      assertEquals(itemIDs.size(), testedItems.get(userID).intersectionSize(itemIDs));
+    }
+  }
+
+  @Test
+  public void testTrainingModelSameAsGeneric() throws Exception {
+    DataModel dataModel = getRandomDataModel();
+    int numFolds = 4;
+    KFoldPreferenceStore store = new KFoldPreferenceStore(dataModel, numFolds, 0.8, RandomUtils.getRandom());
+    for (int k = 0; k < numFolds; k++) {
+      FastByIDMap<PreferenceArray> testPrefs = store.getTestPrefs(k);
+      // Users are selected in each fold they have a preference in, i.e. in the first one
+      FastByIDMap<PreferenceArray> trainingPrefs = new FastByIDMap<PreferenceArray>();
+      for (LongPrimitiveIterator it = store.getTestPrefs(0).keySetIterator(); it.hasNext();) {
+        long userID = it.nextLong();
+        FastIDSet testItems = new FastIDSet();
+        if (testPrefs.containsKey(userID)) {
+          testItems.addAll(testPrefs.get(userID).getIDs());
+        }
+        PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
+        PreferenceArray training = new GenericUserPreferenceArray(prefs.length() - testItems.size());
+        int i = 0;
+        for (int j = 0; j < prefs.length(); j++) {
+          if (!testItems.contains(prefs.getItemID(j))) {
+            training.set(i++, prefs.get(j));
+          }
+        }
+        if (i > 0) {
+          trainingPrefs.put(userID, training);
+        }
+      }
+      assertSameModel(new GenericDataModel(trainingPrefs), store.getTrainingModel(k));
+      assertSameModel(new GenericDataModel(trainingPrefs), new GenericDataModel(store.getTrainingPrefs(k)));
+    }
+  }
+
+  private static DataModel getRandomDataModel() {
+    Random random = RandomUtils.getRandom();
+    int numUsers = 30;
+    long[] userIDs = new long[numUsers];
+    Double[][] prefValues = new Double[numUsers][];
+    for (int u = 0; u < numUsers; u++) {
+      userIDs[u] = 3 * u + 1;
+      prefValues[u] = new Double[20];
+      // Some users have a single preference
+      double density = u % 5 == 0 ? 0.05 : 0.5;
+      for (int j = 0; j < prefValues[u].length; j++) {
+        if (random.nextDouble() < density) {
+          prefValues[u][j] = (double) (1 + random.nextInt(5));
+        }
+      }
+    }
+    return getDataModel(userIDs, prefValues);
+  }
+
+  private static void assertSameModel(DataModel expected, DataModel model) throws Exception {
+    assertEquals(expected.getNumUsers(), model.getNumUsers());
+    assertEquals(expected.getNumItems(), model.getNumItems());
+    assertEquals(expected.getMinPreference(), model.getMinPreference(), EPSILON);
+    assertEquals(expected.getMaxPreference(), model.getMaxPreference(), EPSILON);
+    LongPrimitiveIterator userIDs = model.getUserIDs();
+    for (LongPrimitiveIterator it = expected.getUserIDs(); it.hasNext();) {
+      long userID = it.nextLong();
+      assertEquals(userID, userIDs.nextLong());
+      assertEquals(expected.getPreferencesFromUser(userID), model.getPreferencesFromUser(userID));
+      assertEquals(expected.getItemIDsFromUser(userID), model.getItemIDsFromUser(userID));
+      for (LongPrimitiveIterator items = expected.getItemIDs(); items.hasNext();) {
+        long itemID = items.nextLong();
+        assertEquals(expected.getPreferenceValue(userID, itemID), model.getPreferenceValue(userID, itemID));
+      }
+    }
+    LongPrimitiveIterator itemIDs = model.getItemIDs();
+    for (LongPrimitiveIterator it = expected.getItemIDs(); it.hasNext();) {
+      long itemID = it.nextLong();
+      assertEquals(itemID, itemIDs.nextLong());
+      assertEquals(expected.getPreferencesForItem(itemID), model.getPreferencesForItem(itemID));
+      assertEquals(expected.getNumUsersWithPreferenceFor(itemID), model.getNumUsersWithPreferenceFor(itemID));
+      for (LongPrimitiveIterator items = expected.getItemIDs(); items.hasNext();) {
+        long itemID2 = items.nextLong();
+        assertEquals(expected.getNumUsersWithPreferenceFor(itemID, itemID2),
+            model.getNumUsersWithPreferenceFor(itemID, itemID2));
+      }
+    }
+  }
+
+}
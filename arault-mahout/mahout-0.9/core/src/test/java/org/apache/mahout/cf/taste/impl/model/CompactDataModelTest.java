@@ -0,0 +1,136 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+/**
+ * Tests {@link CompactDataModel}.
+ */
+public final class CompactDataModelTest extends TasteTestCase {
+
+  @Test
+  public void testSameAsGeneric() throws Exception {
+    DataModel model = getDataModel();
+    assertSameModel(model, new CompactDataModel(model));
+  }
+
+  @Test
+  public void testQuantizedValues() throws Exception {
+    DataModel model = buildQuantizableModel();
+    assertSameModel(model, new CompactDataModel(model));
+  }
+
+  @Test
+  public void testWriteAndMap() throws Exception {
+    DataModel model = getDataModel();
+    File file = getTestTempFile("model.bin");
+    new CompactDataModel(model).write(file);
+    assertSameModel(model, CompactDataModel.map(file));
+
+    DataModel quantizableModel = buildQuantizableModel();
+    File quantizedFile = getTestTempFile("quantized.bin");
+    new CompactDataModel(quantizableModel).write(quantizedFile);
+    assertSameModel(quantizableModel, CompactDataModel.map(quantizedFile));
+  }
+
+  @Test(expected = IOException.class)
+  public void testMapOtherFile() throws Exception {
+    File file = getTestTempFile("other.bin");
+    Files.write("1,2,3.0\n1,3,4.0\n2,2,5.0\n2,3,1.0\n", file, Charsets.UTF_8);
+    CompactDataModel.map(file);
+  }
+
+  private static DataModel buildQuantizableModel() {
+    Random random = RandomUtils.getRandom();
+    FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>();
+    for (long userID = 0; userID < 50; userID++) {
+      PreferenceArray prefs = new GenericUserPreferenceArray(1 + random.nextInt(20));
+      prefs.setUserID(0, userID * 7);
+      for (int i = 0; i < prefs.length(); i++) {
+        // Distinct item IDs, not sorted
+        prefs.setItemID(i, (i * 37 + userID) % 101);
+        prefs.setValue(i, random.nextInt(11) / 2.0f - 1.0f);
+      }
+      userData.put(userID * 7, prefs);
+    }
+    return new GenericDataModel(userData);
+  }
+
+  @Test
+  public void testIndices() throws Exception {
+    CompactDataModel model = new CompactDataModel(getDataModel());
+    int userIndex = model.getUserIndex(2);
+    assertEquals(2, model.getUserID(userIndex));
+    assertTrue(model.getUserIndex(42) < 0);
+    assertTrue(model.getItemIndex(42) < 0);
+    int start = model.getUserRowStart(userIndex);
+    assertEquals(3, model.getUserRowEnd(userIndex) - start);
+    assertEquals(0, model.getItemID(model.getItemIndexAt(start)));
+    assertEquals(0.2f, model.getUserValueAt(start), EPSILON);
+  }
+
+  @Test(expected = NoSuchUserException.class)
+  public void testNoSuchUser() throws Exception {
+    new CompactDataModel(getDataModel()).getPreferencesFromUser(42);
+  }
+
+  private static void assertSameModel(DataModel expected, CompactDataModel model) throws Exception {
+    assertEquals(expected.getNumUsers(), model.getNumUsers());
+    assertEquals(expected.getNumItems(), model.getNumItems());
+    assertEquals(expected.getMinPreference(), model.getMinPreference(), 0.0f);
+    assertEquals(expected.getMaxPreference(), model.getMaxPreference(), 0.0f);
+    LongPrimitiveIterator userIDs = model.getUserIDs();
+    for (LongPrimitiveIterator it = expected.getUserIDs(); it.hasNext();) {
+      long userID = it.nextLong();
+      assertEquals(userID, userIDs.nextLong());
+      assertEquals(expected.getPreferencesFromUser(userID), model.getPreferencesFromUser(userID));
+      assertEquals(expected.getItemIDsFromUser(userID), model.getItemIDsFromUser(userID));
+      for (LongPrimitiveIterator items = expected.getItemIDs(); items.hasNext();) {
+        long itemID = items.nextLong();
+        assertEquals(expected.getPreferenceValue(userID, itemID), model.getPreferenceValue(userID, itemID));
+      }
+    }
+    LongPrimitiveIterator itemIDs = model.getItemIDs();
+    for (LongPrimitiveIterator it = expected.getItemIDs(); it.hasNext();) {
+      long itemID = it.nextLong();
+      assertEquals(itemID, itemIDs.nextLong());
+      assertEquals(expected.getPreferencesForItem(itemID), model.getPreferencesForItem(itemID));
+      for (LongPrimitiveIterator items = expected.getItemIDs(); items.hasNext();) {
+        long itemID2 = items.nextLong();
+        assertEquals(expected.getNumUsersWithPreferenceFor(itemID, itemID2),
+            model.getNumUsersWithPreferenceFor(itemID, itemID2));
+      }
+    }
+  }
+
+}
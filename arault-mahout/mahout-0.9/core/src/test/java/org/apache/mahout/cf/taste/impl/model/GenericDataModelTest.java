@@ -46,6 +46,25 @@ public final class GenericDataModelTest extends TasteTestCase {
     assertEquals(model.getRawUserData(), newModel.getRawUserData());
   }
 
+  @Test
+  public void testSharedPreferencesUnchanged() throws Exception {
+    GenericDataModel model = (GenericDataModel) getDataModel();
+    // Both models hold the same user preference arrays
+    GenericDataModel copy = new GenericDataModel(GenericDataModel.toDataMap(model));
+    copy.setPreference(1L, 2L, 0.9f);
+    copy.setPreference(2L, 0L, 0.6f);
+
+    assertEquals(0.9f, copy.getPreferenceValue(1L, 2L), EPSILON);
+    assertEquals(0.6f, copy.getPreferenceValue(2L, 0L), EPSILON);
+    assertEquals(3, copy.getPreferencesFromUser(1L).length());
+    assertEquals(4, copy.getPreferencesForItem(2L).length());
+
+    assertNull(model.getPreferenceValue(1L, 2L));
+    assertEquals(0.2f, model.getPreferenceValue(2L, 0L), EPSILON);
+    assertEquals(2, model.getPreferencesFromUser(1L).length());
+    assertEquals(3, model.getPreferencesForItem(2L).length());
+  }
+
   // Lots of other stuff should be tested but is kind of covered by FileDataModelTest
 
 }
@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.junit.Test;
+
+/**
+ * Tests {@link MutableDataModel}.
+ */
+public final class MutableDataModelTest extends TasteTestCase {
+
+  @Test
+  public void testSameAsGeneric() throws Exception {
+    assertSameModel(getDataModel(), new MutableDataModel(getDataModel()));
+  }
+
+  @Test
+  public void testSetPreferences() throws Exception {
+    MutableDataModel model = new MutableDataModel(getDataModel());
+    model.setPreference(1, 2, 0.9f);
+    model.setPreference(2, 0, 0.5f);
+    model.setPreference(5, 7, 0.6f);
+    PreferenceArray newUser = new GenericUserPreferenceArray(2);
+    newUser.setUserID(0, 0);
+    newUser.setItemID(0, 3);
+    newUser.setValue(0, 0.1f);
+    newUser.setItemID(1, 1);
+    newUser.setValue(1, 0.2f);
+    model.setPreferences(newUser);
+    model.setPreference(2, 0, 0.6f);
+
+    DataModel expected = getDataModel(
+        new long[] {0, 1, 2, 3, 4, 5},
+        new Double[][] {
+            {null, 0.2, null, 0.1},
+            {0.1, 0.3, 0.9},
+            {0.6, 0.3, 0.3},
+            {0.4, 0.3, 0.5},
+            {0.7, 0.3, 0.8},
+            {null, null, null, null, null, null, null, 0.6},
+        });
+    assertSameModel(expected, model);
+    // As with GenericDataModel, the bounds are those of the initial data
+    assertEquals(0.8f, model.getMaxPreference(), EPSILON);
+
+    model.setPreference(0, 1, 0.7f);
+    assertEquals(0.7f, model.getPreferenceValue(0, 1), EPSILON);
+    assertEquals(2, model.getPreferencesFromUser(0).length());
+  }
+
+  @Test
+  public void testSourceUnchanged() throws Exception {
+    DataModel source = getDataModel();
+    MutableDataModel model = new MutableDataModel(source);
+    PreferenceArray prefs = model.getPreferencesFromUser(1);
+    model.setPreference(1, 0, 0.9f);
+    model.setPreference(1, 5, 0.9f);
+    assertEquals(0.9f, model.getPreferenceValue(1, 0), EPSILON);
+    assertEquals(4, model.getPreferencesForItem(0).length());
+    assertEquals(1, model.getPreferencesForItem(5).length());
+    assertSameModel(getDataModel(), source);
+    assertEquals(getDataModel().getPreferencesFromUser(1), prefs);
+  }
+
+  @Test
+  public void testRemovePreference() throws Exception {
+    MutableDataModel model = new MutableDataModel(getDataModel());
+    model.removePreference(1, 0);
+    model.removePreference(1, 1);
+    model.removePreference(2, 2);
+    model.removePreference(3, 2);
+    model.setPreference(4, 6, 0.5f);
+    model.removePreference(4, 2);
+    model.removePreference(4, 6);
+    model.removePreference(42, 0);
+
+    DataModel expected = getDataModel(
+        new long[] {2, 3, 4},
+        new Double[][] {
+            {0.2, 0.3},
+            {0.4, 0.3},
+            {0.7, 0.3},
+        });
+    assertSameModel(expected, model);
+  }
+
+  private static void assertSameModel(DataModel expected, DataModel model) throws Exception {
+    assertEquals(expected.getNumUsers(), model.getNumUsers());
+    assertEquals(expected.getNumItems(), model.getNumItems());
+    LongPrimitiveIterator userIDs = model.getUserIDs();
+    for (LongPrimitiveIterator it = expected.getUserIDs(); it.hasNext();) {
+      long userID = it.nextLong();
+      assertEquals(userID, userIDs.nextLong());
+      assertEquals(expected.getPreferencesFromUser(userID), model.getPreferencesFromUser(userID));
+      assertEquals(expected.getItemIDsFromUser(userID), model.getItemIDsFromUser(userID));
+    }
+    LongPrimitiveIterator itemIDs = model.getItemIDs();
+    for (LongPrimitiveIterator it = expected.getItemIDs(); it.hasNext();) {
+      long itemID = it.nextLong();
+      assertEquals(itemID, itemIDs.nextLong());
+      assertEquals(expected.getPreferencesForItem(itemID), model.getPreferencesForItem(itemID));
+      for (LongPrimitiveIterator items = expected.getItemIDs(); items.hasNext();) {
+        long itemID2 = items.nextLong();
+        assertEquals(expected.getNumUsersWithPreferenceFor(itemID, itemID2),
+            model.getNumUsersWithPreferenceFor(itemID, itemID2));
+      }
+    }
+  }
+
+}
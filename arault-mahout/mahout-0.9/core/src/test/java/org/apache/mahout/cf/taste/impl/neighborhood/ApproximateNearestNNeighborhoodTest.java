@@ -0,0 +1,96 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.neighborhood;
+
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.collect.Lists;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.similarity.UncenteredCosineSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.common.distance.CosineDistanceMeasure;
+import org.apache.mahout.math.neighborhood.BruteSearch;
+import org.apache.mahout.math.neighborhood.LocalitySensitiveHashSearch;
+import org.apache.mahout.math.neighborhood.UpdatableSearcher;
+import org.junit.Test;
+
+/** <p>Tests {@link ApproximateNearestNUserNeighborhood}.</p> */
+public final class ApproximateNearestNNeighborhoodTest extends TasteTestCase {
+
+  @Test
+  public void testExhaustiveSearchIsExact() throws Exception {
+    Random random = RandomUtils.getRandom();
+    DataModel dataModel = getRandomDataModel(random, 40, 30, 1.0 / 4, 5, true);
+    UserSimilarity similarity = new UncenteredCosineSimilarity(dataModel);
+    NearestNUserNeighborhood exact = new NearestNUserNeighborhood(5, similarity, dataModel);
+    // All other users are candidates, so that only the ranking by similarity matters
+    ApproximateNearestNUserNeighborhood approximate = new ApproximateNearestNUserNeighborhood(5,
+        dataModel.getNumUsers() - 1, new ApproximateNearestNUserNeighborhood.SearcherFactory() {
+          @Override
+          public UpdatableSearcher newSearcher() {
+            return new BruteSearch(new CosineDistanceMeasure());
+          }
+        }, similarity, dataModel);
+
+    for (long userID = 1; userID <= dataModel.getNumUsers(); userID++) {
+      long[] lower = exact.getUserNeighborhood(userID);
+      assertArrayEquals(lower, approximate.getUserNeighborhood(userID));
+      assertArrayEquals(lower, approximate.getUserNeighborhood(userID, "lower", random));
+      assertArrayEquals(exact.getUserNeighborhood(userID, "higher", random),
+          approximate.getUserNeighborhood(userID, "higher", random));
+    }
+  }
+
+  @Test
+  public void testHashedSearch() throws Exception {
+    Random random = RandomUtils.getRandom();
+    DataModel dataModel = getRandomDataModel(random, 40, 30, 1.0 / 4, 5, true);
+    UserSimilarity similarity = new UncenteredCosineSimilarity(dataModel);
+    final List<UpdatableSearcher> searchers = Lists.newArrayList();
+    ApproximateNearestNUserNeighborhood approximate = new ApproximateNearestNUserNeighborhood(5, 10,
+        new ApproximateNearestNUserNeighborhood.SearcherFactory() {
+          @Override
+          public UpdatableSearcher newSearcher() {
+            UpdatableSearcher searcher = new LocalitySensitiveHashSearch(new CosineDistanceMeasure(), 10);
+            searchers.add(searcher);
+            return searcher;
+          }
+        }, similarity, dataModel);
+
+    for (long userID = 1; userID <= dataModel.getNumUsers(); userID++) {
+      long[] neighborhood = approximate.getUserNeighborhood(userID);
+      assertTrue(neighborhood.length <= 5);
+      for (long neighborID : neighborhood) {
+        assertTrue(neighborID != userID);
+        assertTrue(neighborID >= 1 && neighborID <= dataModel.getNumUsers());
+      }
+    }
+    // The index is rebuilt from scratch in a new searcher, the former one being left as it was
+    long[] before = approximate.getUserNeighborhood(1);
+    approximate.refresh(null);
+    assertArrayEquals(before, approximate.getUserNeighborhood(1));
+    assertEquals(2, searchers.size());
+    assertEquals(dataModel.getNumUsers(), searchers.get(0).size());
+    assertEquals(dataModel.getNumUsers(), searchers.get(1).size());
+  }
+
+}
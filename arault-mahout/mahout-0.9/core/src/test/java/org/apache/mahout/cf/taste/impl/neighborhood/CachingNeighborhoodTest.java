@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.neighborhood;
+
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.similarity.UncenteredCosineSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+/** <p>Tests {@link CachingUserNeighborhood}.</p> */
+public final class CachingNeighborhoodTest extends TasteTestCase {
+
+  @Test
+  public void testChoiceBehaviors() throws Exception {
+    // Few items and rating values, so that many users are equally similar
+    Random random = RandomUtils.getRandom();
+    DataModel dataModel = getRandomDataModel(random, 40, 4, 0.5, 2, false);
+    UserSimilarity similarity = new UncenteredCosineSimilarity(dataModel);
+    NearestNUserNeighborhood scanned = new NearestNUserNeighborhood(5, similarity, dataModel);
+    CachingUserNeighborhood cached =
+        new CachingUserNeighborhood(new NearestNUserNeighborhood(5, similarity, dataModel), dataModel);
+
+    // Twice, the second time from the cache
+    for (int pass = 0; pass < 2; pass++) {
+      LongPrimitiveIterator it = dataModel.getUserIDs();
+      while (it.hasNext()) {
+        long userID = it.nextLong();
+        long[] lower = scanned.getUserNeighborhood(userID);
+        assertArrayEquals(lower, cached.getUserNeighborhood(userID));
+        assertArrayEquals(lower, cached.getUserNeighborhood(userID, "lower", random));
+        assertArrayEquals(scanned.getUserNeighborhood(userID, "higher", random),
+            cached.getUserNeighborhood(userID, "higher", random));
+        // Ties are broken with the caller's Random, as when scanning all users
+        long seed = random.nextLong();
+        assertArrayEquals(scanned.getUserNeighborhood(userID, "random", new Random(seed)),
+            cached.getUserNeighborhood(userID, "random", new Random(seed)));
+      }
+    }
+  }
+
+  @Test
+  public void testRandomTiesWithLastNeighbor() throws Exception {
+    // User 5 rates like user 1, users 2, 3 and 4 tie behind it
+    DataModel dataModel = getDataModel(
+        new long[] {1, 2, 3, 4, 5},
+        new Double[][] {
+            {1.0, 1.0},
+            {1.0, 2.0},
+            {1.0, 2.0},
+            {1.0, 2.0},
+            {2.0, 2.0},
+        });
+    UserSimilarity similarity = new UncenteredCosineSimilarity(dataModel);
+    NearestNUserNeighborhood scanned = new NearestNUserNeighborhood(2, similarity, dataModel);
+    CachingUserNeighborhood cached =
+        new CachingUserNeighborhood(new NearestNUserNeighborhood(2, similarity, dataModel), dataModel);
+
+    FastIDSet drawn = new FastIDSet();
+    for (long seed = 0; seed < 200; seed++) {
+      long[] neighborhood = scanned.getUserNeighborhood(1, "random", new Random(seed));
+      assertArrayEquals(neighborhood, cached.getUserNeighborhood(1, "random", new Random(seed)));
+      assertEquals(5, neighborhood[0]);
+      drawn.add(neighborhood[1]);
+    }
+    assertEquals(3, drawn.size());
+  }
+
+  @Test
+  public void testClearChangedUsers() throws Exception {
+    Random random = RandomUtils.getRandom();
+    GenericDataModel dataModel = (GenericDataModel) getRandomDataModel(random, 40, 12, 1.0 / 4, 5, true);
+    UserSimilarity similarity = new UncenteredCosineSimilarity(dataModel);
+    CachingUserNeighborhood cached =
+        new CachingUserNeighborhood(new NearestNUserNeighborhood(5, similarity, dataModel), dataModel);
+    for (long userID = 1; userID <= dataModel.getNumUsers(); userID++) {
+      cached.getUserNeighborhood(userID);
+    }
+
+    // Users 1 and 2 rate more items, in place
+    dataModel.setPreference(1, 5, 4.0f);
+    dataModel.setPreference(1, 7, 2.0f);
+    dataModel.setPreference(2, 5, 1.0f);
+    cached.clear(new long[] {1, 2});
+    NearestNUserNeighborhood scanned = new NearestNUserNeighborhood(5, similarity, dataModel);
+    for (long userID = 1; userID <= dataModel.getNumUsers(); userID++) {
+      assertArrayEquals(scanned.getUserNeighborhood(userID), cached.getUserNeighborhood(userID));
+      assertArrayEquals(scanned.getUserNeighborhood(userID, "higher", random),
+          cached.getUserNeighborhood(userID, "higher", random));
+    }
+  }
+
+}
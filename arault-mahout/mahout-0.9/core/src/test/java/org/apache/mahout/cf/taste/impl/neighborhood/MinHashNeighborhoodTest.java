@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.neighborhood;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.similarity.TanimotoCoefficientSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+/** <p>Tests {@link MinHashUserNeighborhood}.</p> */
+public final class MinHashNeighborhoodTest extends TasteTestCase {
+
+  @Test
+  public void testIdenticalUsersAreNeighbors() throws Exception {
+    // Users 2i+1 and 2i+2 rate the same items, which no other user rates all of
+    Random random = RandomUtils.getRandom();
+    long[] userIDs = new long[40];
+    Double[][] prefs = new Double[userIDs.length][];
+    for (int i = 0; i < userIDs.length; i += 2) {
+      userIDs[i] = i + 1;
+      userIDs[i + 1] = i + 2;
+      prefs[i] = new Double[60];
+      prefs[i + 1] = new Double[60];
+      for (int j = 0; j < prefs[i].length; j++) {
+        if (j == i || j == i + 1 || random.nextInt(5) == 0) {
+          prefs[i][j] = (double) (1 + random.nextInt(5));
+          prefs[i + 1][j] = (double) (1 + random.nextInt(5));
+        }
+      }
+    }
+    DataModel dataModel = getDataModel(userIDs, prefs);
+    MinHashUserNeighborhood neighborhood =
+        new MinHashUserNeighborhood(1, 20, 5, 3, new TanimotoCoefficientSimilarity(dataModel), dataModel);
+
+    for (long userID : userIDs) {
+      long twinID = userID % 2 == 1 ? userID + 1 : userID - 1;
+      assertArrayEquals(new long[] {twinID}, neighborhood.getUserNeighborhood(userID));
+      assertArrayEquals(new long[] {twinID}, neighborhood.getUserNeighborhood(userID, "random", random));
+    }
+    neighborhood.refresh(null);
+    assertArrayEquals(new long[] {2}, neighborhood.getUserNeighborhood(1));
+  }
+
+  @Test
+  public void testNoMoreSimilarThanExact() throws Exception {
+    Random random = RandomUtils.getRandom();
+    DataModel dataModel = getRandomDataModel(random, 60, 30, 1.0 / 3, 5, true);
+    UserSimilarity similarity = new TanimotoCoefficientSimilarity(dataModel);
+    NearestNUserNeighborhood exact = new NearestNUserNeighborhood(5, similarity, dataModel);
+    // Single hash function bands find many candidates
+    MinHashUserNeighborhood minHash = new MinHashUserNeighborhood(5, 30, 30, 2, similarity, dataModel);
+
+    for (long userID = 1; userID <= dataModel.getNumUsers(); userID++) {
+      double[] exactSimilarities = similarities(similarity, userID, exact.getUserNeighborhood(userID));
+      long[] neighbors = minHash.getUserNeighborhood(userID, "higher", random);
+      assertTrue(neighbors.length <= exactSimilarities.length);
+      double[] approximateSimilarities = similarities(similarity, userID, neighbors);
+      // Sorted by descending similarity, the i-th neighbor found is at most as similar as the exact i-th
+      for (int i = 1; i <= approximateSimilarities.length; i++) {
+        assertTrue(approximateSimilarities[approximateSimilarities.length - i]
+            <= exactSimilarities[exactSimilarities.length - i]);
+      }
+    }
+  }
+
+  @Test
+  public void testSeededHashFunctions() throws Exception {
+    Random random = RandomUtils.getRandom();
+    DataModel dataModel = getRandomDataModel(random, 60, 30, 1.0 / 3, 5, true);
+    UserSimilarity similarity = new TanimotoCoefficientSimilarity(dataModel);
+    // Bands of several hash functions miss candidates, which depend on the hash functions drawn
+    MinHashUserNeighborhood first = new MinHashUserNeighborhood(5, 12, 3, 2, similarity, dataModel, 42L);
+    MinHashUserNeighborhood second = new MinHashUserNeighborhood(5, 12, 3, 1, similarity, dataModel, 42L);
+
+    for (long userID = 1; userID <= dataModel.getNumUsers(); userID++) {
+      assertArrayEquals(first.getUserNeighborhood(userID), second.getUserNeighborhood(userID));
+    }
+  }
+
+  private static double[] similarities(UserSimilarity similarity, long userID, long[] neighbors) throws Exception {
+    double[] result = new double[neighbors.length];
+    for (int i = 0; i < neighbors.length; i++) {
+      result[i] = similarity.userSimilarity(userID, neighbors[i]);
+    }
+    Arrays.sort(result);
+    return result;
+  }
+
+}
@@ -17,8 +17,22 @@
 
 package org.apache.mahout.cf.taste.impl.neighborhood;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.similarity.TwoStepUncenteredCosineSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.UncenteredCosineSimilarity;
 import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.apache.mahout.common.RandomUtils;
 import org.junit.Test;
 
 /** <p>Tests {@link NearestNUserNeighborhood}.</p> */
@@ -50,4 +64,187 @@ public final class NearestNNeighborhoodTest extends TasteTestCase {
     assertTrue(arrayContains(neighborhood3, 3));
   }
 
+  @Test
+  public void testPrecomputedNeighborhood() throws Exception {
+    // Few items and rating values, so that many users are equally similar
+    Random random = RandomUtils.getRandom();
+    DataModel dataModel = getRandomDataModel(random, 40, 4, 0.5, 2, false);
+    UserSimilarity similarity = new UncenteredCosineSimilarity(dataModel);
+    NearestNUserNeighborhood scanned = new NearestNUserNeighborhood(5, similarity, dataModel);
+    NearestNUserNeighborhood precomputed = new NearestNUserNeighborhood(5, similarity, dataModel);
+    precomputed.precomputeNeighborhoods(4);
+    assertNotNull(precomputed.getNeighborhoodGraph());
+    assertEquals(dataModel.getNumUsers(), precomputed.getNeighborhoodGraph().getNumUsers());
+
+    LongPrimitiveIterator it = dataModel.getUserIDs();
+    while (it.hasNext()) {
+      long userID = it.nextLong();
+      long[] lower = scanned.getUserNeighborhood(userID);
+      assertArrayEquals(lower, precomputed.getUserNeighborhood(userID));
+      assertArrayEquals(lower, precomputed.getUserNeighborhood(userID, "lower", random));
+      if (lower.length == 5) {
+        assertArrayEquals(scanned.getUserNeighborhood(userID, "higher", random),
+            precomputed.getUserNeighborhood(userID, "higher", random));
+      }
+      // Random tie breaking picks other users, but with the same similarities
+      long seed = random.nextLong();
+      long[] randomNeighborhood = precomputed.getUserNeighborhood(userID, "random", new Random(seed));
+      assertArrayEquals(scanned.getUserNeighborhood(userID, "random", new Random(seed)), randomNeighborhood);
+      assertEquals(lower.length == 0 ? 0 : 5, randomNeighborhood.length);
+      assertArrayEquals(similarities(similarity, userID, lower),
+          similarities(similarity, userID, Arrays.copyOf(randomNeighborhood, lower.length)), EPSILON);
+    }
+
+    precomputed.refresh(null);
+    assertNull(precomputed.getNeighborhoodGraph());
+  }
+
+  @Test
+  public void testRandomTiesWithLastNeighbor() throws Exception {
+    DataModel dataModel = getDataModel(new long[] {1, 2, 3, 4, 5},
+        new Double[][] {{1.0}, {1.0}, {1.0}, {1.0}, {1.0}});
+    // User 5 is the nearest neighbor of user 1, users 2, 3 and 4 tie behind it
+    final double[] similaritiesToUser1 = {Double.NaN, Double.NaN, 0.5, 0.5, 0.5, 0.6};
+    UserSimilarity similarity = new UserSimilarity() {
+      @Override
+      public double userSimilarity(long userID1, long userID2) {
+        if (userID1 == userID2) {
+          return Double.NaN;
+        }
+        if (userID1 == 1 || userID2 == 1) {
+          return similaritiesToUser1[(int) (userID1 + userID2 - 1)];
+        }
+        return 0.1;
+      }
+      @Override
+      public void setPreferenceInferrer(PreferenceInferrer inferrer) {
+        throw new UnsupportedOperationException();
+      }
+      @Override
+      public void refresh(Collection<Refreshable> alreadyRefreshed) {
+      }
+    };
+    NearestNUserNeighborhood scanned = new NearestNUserNeighborhood(2, similarity, dataModel);
+    NearestNUserNeighborhood precomputed = new NearestNUserNeighborhood(2, similarity, dataModel);
+    precomputed.precomputeNeighborhoods(2);
+
+    FastIDSet drawn = new FastIDSet();
+    for (long seed = 0; seed < 200; seed++) {
+      long[] neighborhood = scanned.getUserNeighborhood(1, "random", new Random(seed));
+      assertArrayEquals(neighborhood, precomputed.getUserNeighborhood(1, "random", new Random(seed)));
+      assertEquals(5, neighborhood[0]);
+      drawn.add(neighborhood[1]);
+    }
+    // Every tied user can be drawn, whatever the order in which users are scanned
+    assertEquals(3, drawn.size());
+  }
+
+  @Test
+  public void testRandomizedTwoStepGraph() throws Exception {
+    Random random = RandomUtils.getRandom();
+    DataModel dataModel = getRandomDataModel(random, 40, 12, 1.0 / 3, 5, true);
+    // The same graph whatever the number of threads computing its rows
+    NearestNUserNeighborhood sequential = new NearestNUserNeighborhood(5, newRandomizedTwoStep(dataModel), dataModel);
+    sequential.precomputeNeighborhoods(1);
+    NearestNUserNeighborhood parallel = new NearestNUserNeighborhood(5, newRandomizedTwoStep(dataModel), dataModel);
+    parallel.precomputeNeighborhoods(4);
+    for (long userID = 1; userID <= dataModel.getNumUsers(); userID++) {
+      long[] lower = sequential.getUserNeighborhood(userID);
+      assertArrayEquals(lower, parallel.getUserNeighborhood(userID));
+      for (long neighborID : lower) {
+        assertEquals(sequential.getNeighborhoodGraph().getSimilarity(userID, neighborID),
+            parallel.getNeighborhoodGraph().getSimilarity(userID, neighborID), 0.0);
+      }
+      long seed = random.nextLong();
+      assertArrayEquals(sequential.getUserNeighborhood(userID, "random", new Random(seed)),
+          parallel.getUserNeighborhood(userID, "random", new Random(seed)));
+    }
+  }
+
+  private static TwoStepUncenteredCosineSimilarity newRandomizedTwoStep(DataModel dataModel) throws Exception {
+    TwoStepUncenteredCosineSimilarity twoStep = new TwoStepUncenteredCosineSimilarity(dataModel);
+    twoStep.setPerUserDistro(true);
+    twoStep.setPercentileThreshold(0.8);
+    twoStep.setIsGlobalIdealNbItems(false);
+    twoStep.setRandomizeIdealNbItems(true);
+    twoStep.setSeed(42L);
+    return twoStep;
+  }
+
+  @Test
+  public void testUpdatedNeighborhood() throws Exception {
+    Random random = RandomUtils.getRandom();
+    GenericDataModel dataModel = (GenericDataModel) getRandomDataModel(random, 40, 12, 1.0 / 4, 5, true);
+    UserSimilarity similarity = new UncenteredCosineSimilarity(dataModel);
+    NearestNUserNeighborhood previous = new NearestNUserNeighborhood(5, similarity, dataModel);
+    previous.precomputeNeighborhoods(2);
+
+    // Users 1 and 2 rate more items, on a copy of the model
+    GenericDataModel updatedModel = new GenericDataModel(GenericDataModel.toDataMap(dataModel));
+    updatedModel.setPreference(1, 5, 4.0f);
+    updatedModel.setPreference(1, 7, 2.0f);
+    updatedModel.setPreference(2, 5, 1.0f);
+    UserSimilarity updatedSimilarity = new UncenteredCosineSimilarity(updatedModel);
+    NearestNUserNeighborhood updated = new NearestNUserNeighborhood(5, updatedSimilarity, updatedModel);
+    updated.precomputeNeighborhoods(2, previous, new long[] {1, 2});
+    NearestNUserNeighborhood scanned = new NearestNUserNeighborhood(5, updatedSimilarity, updatedModel);
+
+    for (long userID = 1; userID <= dataModel.getNumUsers(); userID++) {
+      long[] lower = scanned.getUserNeighborhood(userID);
+      assertArrayEquals(lower, updated.getUserNeighborhood(userID));
+      for (long neighborID : lower) {
+        assertEquals(updatedSimilarity.userSimilarity(userID, neighborID),
+            updated.getNeighborhoodGraph().getSimilarity(userID, neighborID), 0.0);
+      }
+      if (lower.length == 5) {
+        assertArrayEquals(scanned.getUserNeighborhood(userID, "higher", random),
+            updated.getUserNeighborhood(userID, "higher", random));
+      }
+    }
+  }
+
+  @Test
+  public void testCandidatePruning() throws Exception {
+    Random random = RandomUtils.getRandom();
+    DataModel dataModel = getRandomDataModel(random, 40, 30, 1.0 / 10, 5, true);
+    final UserSimilarity similarity = new UncenteredCosineSimilarity(dataModel);
+    // Hides the similarity type, so that all users are scanned
+    UserSimilarity opaque = new UserSimilarity() {
+      @Override
+      public double userSimilarity(long userID1, long userID2) throws TasteException {
+        return similarity.userSimilarity(userID1, userID2);
+      }
+      @Override
+      public void setPreferenceInferrer(PreferenceInferrer inferrer) {
+        throw new UnsupportedOperationException();
+      }
+      @Override
+      public void refresh(Collection<Refreshable> alreadyRefreshed) {
+      }
+    };
+    NearestNUserNeighborhood pruned = new NearestNUserNeighborhood(5, similarity, dataModel);
+    NearestNUserNeighborhood scanned = new NearestNUserNeighborhood(5, opaque, dataModel);
+    NearestNUserNeighborhood precomputed = new NearestNUserNeighborhood(5, similarity, dataModel);
+    precomputed.precomputeNeighborhoods(2);
+
+    for (long userID = 1; userID <= dataModel.getNumUsers(); userID++) {
+      long[] lower = scanned.getUserNeighborhood(userID);
+      assertArrayEquals(lower, pruned.getUserNeighborhood(userID));
+      assertArrayEquals(lower, precomputed.getUserNeighborhood(userID));
+      if (lower.length == 5) {
+        assertArrayEquals(scanned.getUserNeighborhood(userID, "higher", random),
+            pruned.getUserNeighborhood(userID, "higher", random));
+      }
+    }
+  }
+
+  private static double[] similarities(UserSimilarity similarity, long userID, long[] neighbors) throws Exception {
+    double[] result = new double[neighbors.length];
+    for (int i = 0; i < neighbors.length; i++) {
+      result[i] = similarity.userSimilarity(userID, neighbors[i]);
+    }
+    Arrays.sort(result);
+    return result;
+  }
+
 }
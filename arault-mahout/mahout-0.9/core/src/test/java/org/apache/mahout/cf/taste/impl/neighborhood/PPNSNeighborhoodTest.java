@@ -0,0 +1,145 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.neighborhood;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.collect.Lists;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.similarity.UncenteredCosineSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+/** <p>Tests {@link PPNSUserNeighborhood}.</p> */
+public final class PPNSNeighborhoodTest extends TasteTestCase {
+
+  @Test
+  public void testNeighborsFromTopCandidates() throws Exception {
+    DataModel dataModel = getRandomDataModel(RandomUtils.getRandom(), 40, 8, 2.0 / 3, 3, false);
+    UserSimilarity similarity = new UncenteredCosineSimilarity(dataModel);
+    PPNSUserNeighborhood ppns =
+        new PPNSUserNeighborhood(3, Double.NEGATIVE_INFINITY, similarity, dataModel, 1.0, 3, 1234L);
+    NearestNUserNeighborhood nearest = new NearestNUserNeighborhood(9, similarity, dataModel);
+    LongPrimitiveIterator it = dataModel.getUserIDs();
+    while (it.hasNext()) {
+      long userID = it.nextLong();
+      long[] top = nearest.getUserNeighborhood(userID);
+      long[] neighbors = ppns.getUserNeighborhood(userID);
+      assertEquals(3, neighbors.length);
+      assertEquals(top[0], neighbors[0]);
+      assertEquals(top[1], neighbors[1]);
+      // The last neighbor is drawn from the last block of candidates
+      assertTrue(Arrays.asList(top[6], top[7], top[8]).contains(neighbors[2]));
+    }
+  }
+
+  @Test
+  public void testSeededDraws() throws Exception {
+    DataModel dataModel = getRandomDataModel(RandomUtils.getRandom(), 40, 8, 2.0 / 3, 3, false);
+    UserSimilarity similarity = new UncenteredCosineSimilarity(dataModel);
+    PPNSUserNeighborhood first =
+        new PPNSUserNeighborhood(3, Double.NEGATIVE_INFINITY, similarity, dataModel, 1.0, 3, 42L);
+    PPNSUserNeighborhood second =
+        new PPNSUserNeighborhood(3, Double.NEGATIVE_INFINITY, similarity, dataModel, 1.0, 3, 42L);
+    for (int pass = 0; pass < 3; pass++) {
+      LongPrimitiveIterator it = dataModel.getUserIDs();
+      while (it.hasNext()) {
+        long userID = it.nextLong();
+        assertArrayEquals(first.getUserNeighborhood(userID), second.getUserNeighborhood(userID));
+      }
+    }
+  }
+
+  @Test
+  public void testDrawsIndependentOfThreads() throws Exception {
+    DataModel dataModel = getRandomDataModel(RandomUtils.getRandom(), 40, 8, 2.0 / 3, 3, false);
+    UserSimilarity similarity = new UncenteredCosineSimilarity(dataModel);
+    PPNSUserNeighborhood sequential =
+        new PPNSUserNeighborhood(3, Double.NEGATIVE_INFINITY, similarity, dataModel, 1.0, 3, 42L);
+    final PPNSUserNeighborhood parallel =
+        new PPNSUserNeighborhood(3, Double.NEGATIVE_INFINITY, similarity, dataModel, 1.0, 3, 42L);
+    final long[] userIDs = new long[dataModel.getNumUsers()];
+    LongPrimitiveIterator it = dataModel.getUserIDs();
+    for (int i = 0; i < userIDs.length; i++) {
+      userIDs[i] = it.nextLong();
+    }
+    long[][] expected = new long[userIDs.length][];
+    for (int i = 0; i < userIDs.length; i++) {
+      expected[i] = sequential.getUserNeighborhood(userIDs[i]);
+    }
+
+    // Each thread queries the users from a different one, as the threads of an evaluator would
+    Collection<Callable<long[][]>> tasks = Lists.newArrayList();
+    for (int t = 0; t < 4; t++) {
+      final int offset = t * userIDs.length / 4;
+      tasks.add(new Callable<long[][]>() {
+        @Override
+        public long[][] call() throws Exception {
+          long[][] result = new long[userIDs.length][];
+          for (int i = 0; i < userIDs.length; i++) {
+            int index = (offset + i) % userIDs.length;
+            result[index] = parallel.getUserNeighborhood(userIDs[index]);
+          }
+          return result;
+        }
+      });
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      for (Future<long[][]> future : executor.invokeAll(tasks)) {
+        long[][] actual = future.get();
+        for (int i = 0; i < userIDs.length; i++) {
+          assertArrayEquals(expected[i], actual[i]);
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testPrecomputed() throws Exception {
+    Random random = RandomUtils.getRandom();
+    DataModel dataModel = getRandomDataModel(random, 40, 8, 2.0 / 3, 3, false);
+    UserSimilarity similarity = new UncenteredCosineSimilarity(dataModel);
+    PPNSUserNeighborhood scanned = new PPNSUserNeighborhood(3, similarity, dataModel, 3);
+    PPNSUserNeighborhood precomputed = new PPNSUserNeighborhood(3, similarity, dataModel, 3);
+    precomputed.precomputeNeighborhoods(3);
+    assertEquals(dataModel.getNumUsers(), precomputed.getNeighborhoodGraph().getNumUsers());
+    LongPrimitiveIterator it = dataModel.getUserIDs();
+    while (it.hasNext()) {
+      long userID = it.nextLong();
+      for (String choiceBehavior : new String[] {"lower", "higher", "random"}) {
+        long seed = random.nextLong();
+        assertArrayEquals(scanned.getUserNeighborhood(userID, choiceBehavior, new Random(seed)),
+            precomputed.getUserNeighborhood(userID, choiceBehavior, new Random(seed)));
+      }
+    }
+  }
+
+}
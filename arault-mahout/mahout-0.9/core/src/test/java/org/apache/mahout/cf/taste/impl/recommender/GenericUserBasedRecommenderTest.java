@@ -21,6 +21,7 @@ import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.TasteTestCase;
 import org.apache.mahout.cf.taste.impl.neighborhood.NearestNUserNeighborhood;
 import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.TwoStepUncenteredCosineSimilarity;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
 import org.apache.mahout.cf.taste.recommender.RecommendedItem;
@@ -73,6 +74,42 @@ public final class GenericUserBasedRecommenderTest extends TasteTestCase {
     }
   }
 
+  @Test
+  public void testRecommendMatchesEstimatePref() throws Exception {
+    DataModel dataModel = getDataModel(
+            new long[] {1, 2, 3, 4, 5},
+            new Double[][] {
+                    {0.1, 0.2},
+                    {0.2, 0.3, 0.3, 0.6},
+                    {0.4, 0.4, 0.5, 0.9},
+                    {0.1, 0.4, 0.5, 0.8, 0.9, 1.0},
+                    {0.2, 0.3, 0.6, 0.7, 0.1, 0.2},
+            });
+    // Also with random ideal numbers of items, drawn once per pair of users
+    TwoStepUncenteredCosineSimilarity twoStep = new TwoStepUncenteredCosineSimilarity(dataModel);
+    twoStep.setSimilarityThresholdForAllUser(0.5);
+    twoStep.setIsGlobalIdealNbItems(false);
+    twoStep.setRandomizeIdealNbItems(true);
+    twoStep.setSeed(42L);
+    for (UserSimilarity similarity : new UserSimilarity[] {new PearsonCorrelationSimilarity(dataModel), twoStep}) {
+      UserNeighborhood neighborhood = new NearestNUserNeighborhood(4, similarity, dataModel);
+      Recommender recommender = new GenericUserBasedRecommender(dataModel, neighborhood, similarity);
+      // Estimates accumulated over the neighbors' preferences are those computed item by item
+      List<RecommendedItem> recommended = recommender.recommend(1, 10);
+      assertFalse(recommended.isEmpty());
+      int expectedSize = 0;
+      for (long itemID = 2; itemID < 6; itemID++) {
+        if (!Float.isNaN(recommender.estimatePreference(1, itemID))) {
+          expectedSize++;
+        }
+      }
+      assertEquals(expectedSize, recommended.size());
+      for (RecommendedItem item : recommended) {
+        assertEquals(recommender.estimatePreference(1, item.getItemID()), item.getValue(), 0.0f);
+      }
+    }
+  }
+
   @Test
   public void testRescorer() throws Exception {
     DataModel dataModel = getDataModel(
@@ -102,6 +139,17 @@ public final class GenericUserBasedRecommenderTest extends TasteTestCase {
     assertEquals(0.1f, recommender.estimatePreference(1, 2), EPSILON);
   }
 
+  @Test
+  public void testEstimatePrefs() throws Exception {
+    UserBasedRecommender recommender = buildRecommender();
+    long[] itemIDs = {2, 0, 3, 1};
+    float[] estimates = recommender.estimatePreferences(1, itemIDs);
+    assertEquals(itemIDs.length, estimates.length);
+    for (int i = 0; i < itemIDs.length; i++) {
+      assertEquals(recommender.estimatePreference(1, itemIDs[i]), estimates[i], 0.0f);
+    }
+  }
+
   @Test
   public void testBestRating() throws Exception {
     Recommender recommender = buildRecommender();
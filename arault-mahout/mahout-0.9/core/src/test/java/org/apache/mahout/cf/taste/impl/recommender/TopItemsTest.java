@@ -99,6 +99,32 @@ public final class TopItemsTest extends TasteTestCase {
     }
   }
 
+  @Test
+  public void testTopUsersTies() throws Exception {
+    long[] ids = {5, 1, 4, 2, 3, 6};
+    // 6 is the most similar user, the others tie
+    TopItems.LongToDoubleEstimator estimator = new TopItems.LongToDoubleEstimator() {
+      @Override
+      public double estimate(long id) {
+        return id == 6 ? 1.0 : 0.5;
+      }
+    };
+    assertArrayEquals(new long[] {6, 1, 2},
+        TopItems.getTopUsers(3, new LongPrimitiveArrayIterator(ids), null, estimator));
+    assertArrayEquals(new long[] {6, 5, 4},
+        TopItems.getTopUsersHigher(3, new LongPrimitiveArrayIterator(ids), null, estimator));
+    // Fewer users than asked for
+    assertArrayEquals(new long[] {6, 5, 4, 3, 2, 1},
+        TopItems.getTopUsersHigher(10, new LongPrimitiveArrayIterator(ids), null, estimator));
+
+    long[] random = TopItems.getTopUsersRandom(3, new LongPrimitiveArrayIterator(ids), null, estimator,
+        RandomUtils.getRandom());
+    assertEquals(3, random.length);
+    assertEquals(6, random[0]);
+    assertTrue(random[1] != random[2]);
+    assertTrue(random[1] >= 1 && random[1] <= 5 && random[2] >= 1 && random[2] <= 5);
+  }
+
   @Test
   public void testTopItemItem() throws Exception {
     List<GenericItemSimilarity.ItemItemSimilarity> sims = Lists.newArrayList();
@@ -0,0 +1,98 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.similarity;
+
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.junit.Test;
+
+/** <p>Tests {@link BoundedCachingUserSimilarity}.</p> */
+public final class BoundedCachingUserSimilarityTest extends SimilarityTestCase {
+
+  @Test
+  public void testCachedValues() throws Exception {
+    DataModel dataModel = getDataModel();
+    UserSimilarity similarity = new PearsonCorrelationSimilarity(dataModel);
+    BoundedCachingUserSimilarity cached = new BoundedCachingUserSimilarity(similarity, true, 1L << 20);
+    for (int round = 0; round < 2; round++) {
+      for (long userID1 = 1; userID1 <= 4; userID1++) {
+        for (long userID2 = 1; userID2 <= 4; userID2++) {
+          assertCorrelationEquals(similarity.userSimilarity(userID1, userID2), cached.userSimilarity(userID1, userID2));
+        }
+      }
+    }
+    // Both orders of the 6 pairs of distinct users and the 4 pairs of a user with itself, twice
+    assertEquals(10, cached.getNumMisses());
+    assertEquals(2 * 16 - 10, cached.getNumHits());
+  }
+
+  @Test
+  public void testAsymmetric() throws Exception {
+    AsymmetricUncenteredCosineSimilarity similarity = new AsymmetricUncenteredCosineSimilarity(getDataModel());
+    similarity.setDivideByX(true);
+    assertFalse(similarity.isSymmetric());
+    BoundedCachingUserSimilarity cached = new BoundedCachingUserSimilarity(similarity, similarity.isSymmetric(),
+        1L << 20);
+    assertCorrelationEquals(similarity.userSimilarity(1, 2), cached.userSimilarity(1, 2));
+    assertCorrelationEquals(similarity.userSimilarity(2, 1), cached.userSimilarity(2, 1));
+    assertEquals(2, cached.getNumMisses());
+  }
+
+  @Test
+  public void testEviction() throws Exception {
+    UserSimilarity similarity = new PearsonCorrelationSimilarity(getDataModel());
+    // A single set of entries
+    BoundedCachingUserSimilarity cached = new BoundedCachingUserSimilarity(similarity, true,
+        8 * BoundedCachingUserSimilarity.BYTES_PER_ENTRY);
+    assertEquals(8, cached.getCapacity());
+    for (long userID1 = 1; userID1 <= 3; userID1++) {
+      for (long userID2 = userID1; userID2 <= 4; userID2++) {
+        cached.userSimilarity(userID1, userID2);
+      }
+    }
+    // The oldest pair was evicted by the ninth one
+    cached.userSimilarity(4, 3);
+    cached.userSimilarity(1, 1);
+    assertEquals(1, cached.getNumHits());
+    assertEquals(10, cached.getNumMisses());
+  }
+
+  @Test
+  public void testChangedUsers() throws Exception {
+    GenericDataModel dataModel = (GenericDataModel) getDataModel();
+    BoundedCachingUserSimilarity cached = new BoundedCachingUserSimilarity(
+        new UncenteredCosineSimilarity(dataModel), true, 1L << 20);
+    cached.userSimilarity(1, 2);
+    cached.userSimilarity(3, 4);
+
+    GenericDataModel updatedModel = new GenericDataModel(GenericDataModel.toDataMap(dataModel));
+    updatedModel.setPreference(1, 3, 5.0f);
+    UserSimilarity updatedSimilarity = new UncenteredCosineSimilarity(updatedModel);
+    BoundedCachingUserSimilarity updated = new BoundedCachingUserSimilarity(updatedSimilarity, cached, new long[] {1});
+    assertCorrelationEquals(updatedSimilarity.userSimilarity(1, 2), updated.userSimilarity(2, 1));
+    assertCorrelationEquals(updatedSimilarity.userSimilarity(3, 4), updated.userSimilarity(4, 3));
+    assertEquals(1, updated.getNumHits());
+    assertEquals(1, updated.getNumMisses());
+
+    updated.clearCacheForUser(4);
+    updated.userSimilarity(3, 4);
+    assertEquals(2, updated.getNumMisses());
+  }
+
+}
@@ -0,0 +1,98 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.similarity;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+/** <p>Tests {@link SimilarityHistogram}.</p> */
+public final class SimilarityHistogramTest extends TasteTestCase {
+
+  @Test
+  public void testSameValuesAsSortedSet() {
+    Random random = RandomUtils.getRandom();
+    SimilarityHistogram histogram = new SimilarityHistogram();
+    Set<Double> distinct = Sets.newHashSet();
+    for (int i = 0; i < 1000; i++) {
+      double similarity;
+      if (i % 100 == 0) {
+        similarity = Double.NaN;
+      } else if (i % 10 == 0) {
+        // Outside of [-1, 1]
+        similarity = 10.0 * random.nextGaussian();
+      } else {
+        similarity = 2.0 * random.nextDouble() - 1.0;
+      }
+      histogram.add(similarity);
+      distinct.add(Math.round(similarity * 100) / 100.0);
+    }
+    assertSameValues(distinct, histogram);
+  }
+
+  @Test
+  public void testMerge() {
+    Random random = RandomUtils.getRandom();
+    SimilarityHistogram merged = new SimilarityHistogram();
+    Set<Double> distinct = Sets.newHashSet();
+    for (int h = 0; h < 3; h++) {
+      SimilarityHistogram histogram = new SimilarityHistogram();
+      for (int i = 0; i < 50; i++) {
+        double similarity = h == 2 ? 3.0 * random.nextDouble() : random.nextDouble();
+        histogram.add(similarity);
+        distinct.add(Math.round(similarity * 100) / 100.0);
+      }
+      merged.merge(histogram);
+    }
+    assertSameValues(distinct, merged);
+  }
+
+  @Test
+  public void testExtremeValues() {
+    SimilarityHistogram histogram = new SimilarityHistogram();
+    histogram.add(Double.POSITIVE_INFINITY);
+    histogram.add(Double.NEGATIVE_INFINITY);
+    histogram.add(0.5);
+    assertEquals(3, histogram.getNumDistinctValues());
+    assertEquals(Long.MIN_VALUE / 100.0, histogram.getDistinctValue(0), EPSILON);
+    assertEquals(0.5, histogram.getDistinctValue(1), EPSILON);
+    assertEquals(Long.MAX_VALUE / 100.0, histogram.getDistinctValue(2), EPSILON);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testEmpty() {
+    new SimilarityHistogram().getDistinctValue(0);
+  }
+
+  private static void assertSameValues(Set<Double> distinct, SimilarityHistogram histogram) {
+    List<Double> sorted = Lists.newArrayList(distinct);
+    Collections.sort(sorted);
+    assertEquals(sorted.size(), histogram.getNumDistinctValues());
+    for (int i = 0; i < sorted.size(); i++) {
+      assertEquals(sorted.get(i), histogram.getDistinctValue(i), 0.0);
+    }
+  }
+
+}
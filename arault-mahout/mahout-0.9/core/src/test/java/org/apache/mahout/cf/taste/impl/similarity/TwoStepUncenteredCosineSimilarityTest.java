@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.similarity;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+/** <p>Tests {@link TwoStepUncenteredCosineSimilarity}.</p> */
+public final class TwoStepUncenteredCosineSimilarityTest extends SimilarityTestCase {
+
+  @Test
+  public void testRichness() throws Exception {
+    DataModel dataModel = getDataModel(
+        new long[] {1, 2},
+        new Double[][] {
+            {null, 1.0, 2.0, null, null, 1.0},
+            {null, 2.0, 1.0, 1.0,  1.0,  null},
+        });
+    TwoStepUncenteredCosineSimilarity similarity = new TwoStepUncenteredCosineSimilarity(dataModel);
+    similarity.setIdealNbItems(2);
+    // Below the threshold: plain cosine over co-rated items
+    similarity.setSimilarityThresholdForAllUser(0.9);
+    assertCorrelationEquals(0.8, similarity.userSimilarity(1, 2));
+    // Above the threshold: threshold + richness, maximal with exactly 2 items of 2 not in 1
+    similarity.setSimilarityThresholdForAllUser(0.5);
+    assertCorrelationEquals(1.0, similarity.userSimilarity(1, 2));
+  }
+
+  @Test
+  public void testConcurrentUserSimilarity() throws Exception {
+    Random random = RandomUtils.getRandom();
+    DataModel dataModel = getRandomDataModel(random, 30, 20, 1.0 / 3, 5, true);
+
+    TwoStepUncenteredCosineSimilarity twoStep = new TwoStepUncenteredCosineSimilarity(dataModel);
+    twoStep.setIdealNbItems(3);
+    twoStep.setSimilarityThresholdForAllUser(0.3);
+    // Random ideal numbers of items, drawn from the seed for each pair of users
+    TwoStepUncenteredCosineSimilarity randomized = new TwoStepUncenteredCosineSimilarity(dataModel);
+    randomized.setIsGlobalIdealNbItems(false);
+    randomized.setRandomizeIdealNbItems(true);
+    randomized.setSeed(1234L);
+    randomized.setSimilarityThresholdForAllUser(0.3);
+    UncenteredCosineSimilarity cosine = new UncenteredCosineSimilarity(dataModel);
+    cosine.setPreferenceInferrer(new AveragingPreferenceInferrer(dataModel));
+    PearsonCorrelationSimilarity pearson = new PearsonCorrelationSimilarity(dataModel);
+
+    for (UserSimilarity similarity : new UserSimilarity[] {twoStep, randomized, cosine, pearson}) {
+      final UserSimilarity shared = similarity;
+      final int numUsers = dataModel.getNumUsers();
+      double[][] expected = new double[numUsers][numUsers];
+      for (int i = 0; i < numUsers; i++) {
+        for (int j = 0; j < numUsers; j++) {
+          expected[i][j] = shared.userSimilarity(i + 1, j + 1);
+        }
+      }
+
+      Collection<Callable<double[][]>> tasks = Lists.newArrayList();
+      for (int t = 0; t < 4; t++) {
+        tasks.add(new Callable<double[][]>() {
+          @Override
+          public double[][] call() throws Exception {
+            double[][] result = new double[numUsers][numUsers];
+            for (int round = 0; round < 20; round++) {
+              for (int i = 0; i < numUsers; i++) {
+                for (int j = 0; j < numUsers; j++) {
+                  result[i][j] = shared.userSimilarity(i + 1, j + 1);
+                }
+              }
+            }
+            return result;
+          }
+        });
+      }
+      ExecutorService executor = Executors.newFixedThreadPool(4);
+      try {
+        List<Future<double[][]>> futures = executor.invokeAll(tasks);
+        for (Future<double[][]> future : futures) {
+          double[][] actual = future.get();
+          for (int i = 0; i < numUsers; i++) {
+            for (int j = 0; j < numUsers; j++) {
+              assertEquals(expected[i][j], actual[i][j], 0.0);
+            }
+          }
+        }
+      } finally {
+        executor.shutdown();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.similarity;
+
+import java.util.Collection;
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+/** <p>Tests {@link UserStatistics}.</p> */
+public final class UserStatisticsTest extends SimilarityTestCase {
+
+  @Test
+  public void testStatistics() throws Exception {
+    DataModel dataModel = getDataModel(
+        new long[] {3, 1},
+        new Double[][] {
+            {null, 1.0, 2.0},
+            {2.0, null, null},
+        });
+    UserStatistics stats = new UserStatistics(dataModel);
+    assertEquals(2, stats.getNumUsers());
+    assertEquals(1, stats.getUserID(0));
+    int index = stats.indexOf(3);
+    assertEquals(1, index);
+    assertEquals(2, stats.getProfileSize(index));
+    assertEquals(3.0, stats.getSum(index), EPSILON);
+    assertEquals(5.0, stats.getSquaredNorm(index), EPSILON);
+    assertEquals(Math.sqrt(5.0), stats.getNorm(index), EPSILON);
+    assertTrue(stats.indexOf(2) < 0);
+    assertTrue(Double.isNaN(stats.getThreshold(3)));
+    assertTrue(stats.setThreshold(3, 0.5));
+    assertFalse(stats.setThreshold(2, 0.5));
+    assertEquals(0.5, new UserStatistics(dataModel, stats).getThreshold(3), 0.0);
+  }
+
+  @Test
+  public void testThresholdsKeptOnRefresh() throws Exception {
+    DataModel dataModel = getDataModel();
+    TwoStepUncenteredCosineSimilarity similarity = new TwoStepUncenteredCosineSimilarity(dataModel);
+    similarity.setPerUserDistro(true);
+    similarity.setSimilarityThresholdForUser(1, 0.25);
+    // Not in the data model
+    similarity.setSimilarityThresholdForUser(100, 0.75);
+    similarity.refresh(null);
+    assertTrue(similarity.hasSimilarityThresholdForUser(1));
+    assertEquals(0.25, similarity.getSimilarityThresholdForUser(1), 0.0);
+    assertEquals(0.75, similarity.getSimilarityThresholdForUser(100), 0.0);
+    assertFalse(similarity.hasSimilarityThresholdForUser(2));
+  }
+
+  @Test
+  public void testZeroFilledSums() throws Exception {
+    Random random = RandomUtils.getRandom();
+    DataModel dataModel = getRandomDataModel(random, 20, 15, 1.0 / 3, 5, true);
+    // Infers the same 0 as ZeroingPreferenceInferrer, but without the sums of the statistics
+    PreferenceInferrer zeros = new PreferenceInferrer() {
+      @Override
+      public float inferPreference(long userID, long itemID) {
+        return 0.0f;
+      }
+
+      @Override
+      public void refresh(Collection<Refreshable> alreadyRefreshed) {
+      }
+    };
+
+    AbstractSimilarity[] fast = {
+        new UncenteredCosineSimilarity(dataModel),
+        new PearsonCorrelationSimilarity(dataModel),
+        new AsymmetricUncenteredCosineSimilarity(dataModel),
+        newTwoStep(dataModel),
+    };
+    AbstractSimilarity[] merged = {
+        new UncenteredCosineSimilarity(dataModel),
+        new PearsonCorrelationSimilarity(dataModel),
+        new AsymmetricUncenteredCosineSimilarity(dataModel),
+        newTwoStep(dataModel),
+    };
+    ((AsymmetricUncenteredCosineSimilarity) fast[2]).setDivideByX(true);
+    ((AsymmetricUncenteredCosineSimilarity) merged[2]).setDivideByX(true);
+    for (int s = 0; s < fast.length; s++) {
+      fast[s].setPreferenceInferrer(new ZeroingPreferenceInferrer());
+      merged[s].setPreferenceInferrer(zeros);
+      for (long userID1 = 1; userID1 <= dataModel.getNumUsers(); userID1++) {
+        for (long userID2 = 1; userID2 <= dataModel.getNumUsers(); userID2++) {
+          assertEquals(merged[s].userSimilarity(userID1, userID2), fast[s].userSimilarity(userID1, userID2), 0.0);
+        }
+      }
+    }
+  }
+
+  private static TwoStepUncenteredCosineSimilarity newTwoStep(DataModel dataModel) throws Exception {
+    TwoStepUncenteredCosineSimilarity twoStep = new TwoStepUncenteredCosineSimilarity(dataModel);
+    twoStep.setIdealNbItems(3);
+    twoStep.setIsGlobalIdealNbItems(false);
+    twoStep.setSimilarityThresholdForAllUser(0.3);
+    return twoStep;
+  }
+
+}
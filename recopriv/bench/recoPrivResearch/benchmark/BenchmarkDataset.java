@@ -0,0 +1,104 @@
+package recoPrivResearch.benchmark;
+
+import java.io.File;
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import recoPrivResearch.tools.ExceptHandler;
+
+/**
+ * Dataset shared by all the benchmarks of a trial, loaded once.
+ * - ml-100k: the bundled MovieLens dataset,
+ * - random: the synthetic dataset written by datasets/random/createRandomDataset.py.
+ * Datasets are looked up in the directory given by the recopriv.datasetsDir system property.
+ * Benchmarks query users and items in a fixed pseudo-random order, so that runs are comparable across commits.
+ */
+@State(Scope.Benchmark)
+public class BenchmarkDataset {
+
+	public static final long SEED = 862576678; // Default seed_ of Parameters
+	static final int NB_QUERIES = 1 << 12; // Power of 2, see nextIndex()
+
+	@Param({"ml-100k", "random"})
+	public String dataset;
+
+	private File file;
+	private DataModel model;
+	private long[] userIDs;
+	private long[] itemIDs;
+
+	@Setup
+	public void load() throws TasteException {
+		file = getFile(dataset);
+		model = ExceptHandler.createDataModel(file.getPath());
+		if (model == null) {
+			throw new IllegalStateException("Cannot load " + file);
+		}
+		userIDs = toArray(model.getUserIDs(), model.getNumUsers());
+		itemIDs = toArray(model.getItemIDs(), model.getNumItems());
+	}
+
+	public static File getFile(String dataset) {
+		File dir = new File(System.getProperty("recopriv.datasetsDir", "datasets"));
+		if (dataset.equals("ml-100k")) {
+			return new File(dir, "movieLens/ml-100k/ratings.csv");
+		} else if (dataset.equals("random")) {
+			return new File(dir, "random/ratings.csv");
+		}
+		throw new IllegalArgumentException("Unknown dataset " + dataset);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public DataModel getModel() {
+		return model;
+	}
+
+	/**
+	 * NB_QUERIES user IDs of the dataset, drawn with SEED and salt.
+	 */
+	public long[] sampleUserIDs(long salt) {
+		return sample(userIDs, salt);
+	}
+
+	/**
+	 * NB_QUERIES item IDs of the dataset, drawn with SEED and salt.
+	 */
+	public long[] sampleItemIDs(long salt) {
+		return sample(itemIDs, salt);
+	}
+
+	/**
+	 * Index of the query to run after index.
+	 */
+	static int nextIndex(int index) {
+		return (index + 1) & (NB_QUERIES - 1);
+	}
+
+	private static long[] sample(long[] ids, long salt) {
+		Random rand = new Random(SEED ^ salt);
+		long[] result = new long[NB_QUERIES];
+		for(int i=0; i<NB_QUERIES; i++) {
+			result[i] = ids[rand.nextInt(ids.length)];
+		}
+		return result;
+	}
+
+	private static long[] toArray(LongPrimitiveIterator it, int size) {
+		long[] result = new long[size];
+		for(int i=0; it.hasNext(); i++) {
+			result[i] = it.nextLong();
+		}
+		return result;
+	}
+}
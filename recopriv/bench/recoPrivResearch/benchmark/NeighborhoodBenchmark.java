@@ -0,0 +1,75 @@
+package recoPrivResearch.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.neighborhood.NearestNUserNeighborhood;
+import org.apache.mahout.cf.taste.impl.neighborhood.PPNSUserNeighborhood;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time of an on-demand neighborhood query, i.e. getUserNeighborhood() without precomputed kNN graph, for each
+ * neighborhood type ("knn" or "ppns") and choice behavior between equally similar neighbors.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NeighborhoodBenchmark {
+
+	@Param({"cosine", "cosine-average", "jaccard"})
+	public String similarityType;
+
+	@Param({"knn", "ppns"})
+	public String neighborhoodType;
+
+	@Param({"lower", "higher", "random"})
+	public String choiceBehavior;
+
+	@Param({"10"})
+	public int k;
+
+	@Param({"4"})
+	public int beta;
+
+	private UserNeighborhood neighborhood;
+	private long[] userIDs;
+	private int index;
+	private Random rand;
+
+	@Setup
+	public void setUp(BenchmarkDataset data) throws TasteException {
+		DataModel model = data.getModel();
+		UserSimilarity similarity = Similarities.create(similarityType, model);
+		if (neighborhoodType.equals("ppns")) {
+			neighborhood = new PPNSUserNeighborhood(k, similarity, model, beta);
+		} else {
+			neighborhood = new NearestNUserNeighborhood(k, similarity, model);
+		}
+		userIDs = data.sampleUserIDs(3);
+		rand = new Random(BenchmarkDataset.SEED);
+	}
+
+	@Benchmark
+	public long[] getUserNeighborhood() throws TasteException {
+		index = BenchmarkDataset.nextIndex(index);
+		return neighborhood.getUserNeighborhood(userIDs[index], choiceBehavior, rand);
+	}
+}
@@ -0,0 +1,71 @@
+package recoPrivResearch.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.neighborhood.NearestNUserNeighborhood;
+import org.apache.mahout.cf.taste.impl.recommender.GenericUserBasedRecommender;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time of GenericUserBasedRecommender.recommend() and estimatePreference() with a kNN neighborhood computed on demand,
+ * as built by the recommender builders of the experiments.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecommenderBenchmark {
+
+	@Param({"cosine", "cosine-average", "jaccard"})
+	public String similarityType;
+
+	@Param({"10"})
+	public int k;
+
+	@Param({"5"})
+	public int howMany; // Default r_ of Parameters
+
+	private GenericUserBasedRecommender recommender;
+	private long[] userIDs;
+	private long[] itemIDs;
+	private int index;
+
+	@Setup
+	public void setUp(BenchmarkDataset data) throws TasteException {
+		DataModel model = data.getModel();
+		UserSimilarity similarity = Similarities.create(similarityType, model);
+		recommender = new GenericUserBasedRecommender(model, new NearestNUserNeighborhood(k, similarity, model), similarity);
+		userIDs = data.sampleUserIDs(4);
+		itemIDs = data.sampleItemIDs(5);
+	}
+
+	@Benchmark
+	public List<RecommendedItem> recommend() throws TasteException {
+		index = BenchmarkDataset.nextIndex(index);
+		return recommender.recommend(userIDs[index], howMany);
+	}
+
+	@Benchmark
+	public float estimatePreference() throws TasteException {
+		index = BenchmarkDataset.nextIndex(index);
+		return recommender.estimatePreference(userIDs[index], itemIDs[index]);
+	}
+}
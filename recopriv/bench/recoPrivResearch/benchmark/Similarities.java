@@ -0,0 +1,53 @@
+package recoPrivResearch.benchmark;
+
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+
+import recoPrivResearch.recommenderBuilder.JaccardKNNRecommenderBuilder;
+import recoPrivResearch.recommenderBuilder.VariousSimmRecommenderBuilder;
+import recoPrivResearch.tools.Parameters;
+
+/**
+ * Create the similarity measures of the experiments from their similarityType_ names, e.g. "cosine",
+ * "cosine-average", "pearson", "wupXontoY", "twostep(0.8)" or "jaccard", configured as the recommender
+ * builders of EvaluateRecommender do with the default Parameters.
+ */
+final class Similarities {
+
+	private Similarities() {
+	}
+
+	static UserSimilarity create(String similarityType, DataModel model) {
+		Parameters p = new Parameters(new String[0]);
+		if (similarityType.equals("jaccard")) {
+			return new JaccardSimilarityFactory(p).getSimilarityMeasure(model);
+		}
+		return new VariousSimilarityFactory(similarityType, p).getSimilarityMeasure(model);
+	}
+
+	// Only used for their getSimilarityMeasure method
+
+	private static final class JaccardSimilarityFactory extends JaccardKNNRecommenderBuilder {
+		private JaccardSimilarityFactory(Parameters p) {
+			super(p.k_, false, p.beta_);
+		}
+
+		@Override
+		protected UserSimilarity getSimilarityMeasure(DataModel model) {
+			return super.getSimilarityMeasure(model);
+		}
+	}
+
+	private static final class VariousSimilarityFactory extends VariousSimmRecommenderBuilder {
+		private VariousSimilarityFactory(String similarityType, Parameters p) {
+			super(p.k_, similarityType, p.twostepUseThreshold_, p.twostepIdealNbItems_, p.twostepFirstStepType_,
+					p.isGlobalIdealNbItems_, p.percentIdealNbItems_, p.randomizeIdealNbItems_,
+					BenchmarkDataset.SEED, p.variantIdealNbItems_, false, p.beta_);
+		}
+
+		@Override
+		protected UserSimilarity getSimilarityMeasure(DataModel model) {
+			return super.getSimilarityMeasure(model);
+		}
+	}
+}
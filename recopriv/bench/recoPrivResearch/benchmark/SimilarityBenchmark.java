@@ -0,0 +1,51 @@
+package recoPrivResearch.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time of UserSimilarity.userSimilarity() for each similarity measure, over pseudo-random pairs of users.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimilarityBenchmark {
+
+	@Param({"cosine", "cosine-mahout", "cosine-average", "pearson", "jaccard", "wupXontoY", "wupYontoX", "asymcosX", "twostep(0.8)"})
+	public String similarityType;
+
+	private UserSimilarity similarity;
+	private long[] firstUserIDs;
+	private long[] secondUserIDs;
+	private int index;
+
+	@Setup
+	public void setUp(BenchmarkDataset data) {
+		similarity = Similarities.create(similarityType, data.getModel());
+		firstUserIDs = data.sampleUserIDs(1);
+		secondUserIDs = data.sampleUserIDs(2);
+	}
+
+	@Benchmark
+	public double userSimilarity() throws TasteException {
+		index = BenchmarkDataset.nextIndex(index);
+		return similarity.userSimilarity(firstUserIDs[index], secondUserIDs[index]);
+	}
+}
@@ -0,0 +1,67 @@
+package recoPrivResearch.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import recoPrivResearch.dataModelBuilder.SybilModelBuilder;
+import recoPrivResearch.tools.Parameters;
+
+/**
+ * Time of injecting Sybils in the dataset with SybilModelBuilder.buildDataModel().
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SybilModelBuilderBenchmark {
+
+	@Param({"1", "100"})
+	public int nbTargets;
+
+	@Param({"10"})
+	public int nbSybils;
+
+	@Param({"8"})
+	public int nbAuxiliaryItems;
+
+	@Param({"random"})
+	public String auxiliaryItemsSelectionStrategy;
+
+	private Parameters params;
+	private FastByIDMap<PreferenceArray> rawData;
+
+	@Setup
+	public void setUp(BenchmarkDataset data) throws TasteException {
+		params = new Parameters(new String[] {"nbTargets", Integer.toString(nbTargets),
+				"nbSybils", Integer.toString(nbSybils),
+				"nbAuxiliaryItems", Integer.toString(nbAuxiliaryItems),
+				"auxiliaryItemsSelectionStrategy", auxiliaryItemsSelectionStrategy});
+		// buildDataModel only sorts the preference arrays of rawData, which are already sorted
+		rawData = GenericDataModel.toDataMap(data.getModel());
+	}
+
+	@Benchmark
+	public DataModel buildSybilDataModel() {
+		return new SybilModelBuilder(params, new Random(BenchmarkDataset.SEED)).buildDataModel(rawData);
+	}
+}
@@ -0,0 +1,38 @@
+#! /bin/bash
+# Compile and run the JMH benchmarks of $BASEDIR/bench/ against $BASEDIR/bin/ and $BASEDIR/lib/.
+# Usage: ./benchmark.sh [JMH options, e.g. a benchmark regexp like SimilarityBenchmark, -p dataset=ml-100k]
+# Run ./build.sh first. JMH_LIB must be a directory holding the jmh-core, jmh-generator-annprocess
+# and jopt-simple jars (e.g. JMH 1.21).
+# Results are written in JSON to $BASEDIR/bench-results/<commit>_<date>.json, to compare commits.
+# The synthetic dataset is generated with datasets/random/createRandomDataset.py if missing.
+
+# Find where this script is stored and set BASEDIR
+DIR=$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )
+export BASEDIR="$(dirname $DIR)"
+
+if [ -z "$JMH_LIB" ] || [ ! -d "$JMH_LIB" ]; then
+	echo "Set JMH_LIB to the directory holding the JMH jars"
+	exit 1
+fi
+
+CLASSPATH="$BASEDIR/bench-bin/:$BASEDIR/bin/:$BASEDIR/lib/*:$JMH_LIB/*"
+
+# Compile the benchmarks; the JMH annotation processor generates the benchmark list
+SRC=`find $BASEDIR/bench/ -type f -print | grep -E '\.java$'`
+rm -rf $BASEDIR/bench-bin/
+mkdir -p $BASEDIR/bench-bin/
+javac $SRC -d $BASEDIR/bench-bin/ -cp "$CLASSPATH" -source 1.7 -Xlint || exit 1
+
+if [ ! -f "$BASEDIR/datasets/random/ratings.csv" ]; then
+	(cd $BASEDIR/datasets/random/ && python createRandomDataset.py)
+fi
+
+VERSION=`git -C $BASEDIR rev-parse --short HEAD 2>/dev/null || echo unknown`
+mkdir -p $BASEDIR/bench-results/
+RESULTS="$BASEDIR/bench-results/${VERSION}_$(date +%Y%m%d-%H%M%S).json"
+
+java -cp "$CLASSPATH" org.openjdk.jmh.Main -rf json -rff "$RESULTS" \
+	-jvmArgsAppend "-Drecopriv.datasetsDir=$BASEDIR/datasets -Dlog4j.configurationFile=$BASEDIR/scripts/benchmark-log4j2.xml" \
+	"$@"
+
+echo "Results written to $RESULTS"
@@ -1,9 +1,10 @@
 #!/bin/bash 
 # Generate cumulative distribution of the number of PSC per user w/ different measures.
-# Usage: ./computeNbPSCDistribution.sh path/to/log4j.properties path/to/dataset.csv <OUTPUT_FILENAME_PREFIX> path/to/result/dir/ {true,false}
+# Usage: ./computeNbPSCDistribution.sh path/to/log4j.properties path/to/dataset.csv <OUTPUT_FILENAME_PREFIX> path/to/result/dir/ {true,false} [NB_THREADS]
 # The dataset must be in Mahout-compatible CSV.
 # path/to/result/dir/ must already exist.
-# The last boolean argument enables logging of PSC IDs
+# The boolean argument enables logging of PSC IDs
+# NB_THREADS defaults to the number of available processors
 
 # Find where this script is stored and set BASEDIR
 DIR=$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )
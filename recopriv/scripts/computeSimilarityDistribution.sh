@@ -1,9 +1,10 @@
 #!/bin/bash 
 # Generate cumulative distribution of user similarities w/ different measures.
-# Usage: ./computeSimilarityDistribution.sh path/to/log4j.properties path/to/dataset.csv <OUTPUT_FILENAME_PREFIX> path/to/result/dir/ {true,false}
+# Usage: ./computeSimilarityDistribution.sh path/to/log4j.properties path/to/dataset.csv <OUTPUT_FILENAME_PREFIX> path/to/result/dir/ {true,false} [NB_THREADS]
 # The dataset must be in Mahout-compatible CSV.
 # path/to/result/dir/ must already exist.
-# The last boolean argument enables logging of similarity values
+# The boolean argument enables logging of similarity values
+# NB_THREADS defaults to the number of available processors
 
 # Find where this script is stored and set BASEDIR
 DIR=$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )
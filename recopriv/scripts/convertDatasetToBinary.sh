@@ -0,0 +1,14 @@
+#!/bin/bash 
+# Use the DatasetToBinary java class to convert all datasets (CSV files or serialized objects) provided as arguments of this script.
+# Binary files are written in a binary/ subdirectory of the directories of the original datasets, with the .bin extension.
+# Run the experiments on them with dataModelType=mapped and datasetPath pointing to the binary file.
+
+# Find where this script is stored and set BASEDIR
+DIR=$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )
+export BASEDIR="$(dirname $DIR)"
+
+export CLASSPATH=".:$BASEDIR/bin/:$BASEDIR/lib/*"
+
+COMMAND_ARGUMENTS="-Dlog4j.configurationFile="$BASEDIR/scripts/logInfoLevelToConsole-log4j2.xml" recoPrivResearch.tools.DatasetToBinary"
+
+java $COMMAND_ARGUMENTS "$@"
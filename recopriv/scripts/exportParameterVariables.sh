@@ -5,6 +5,7 @@ export log4jConfFile=$baseDir/scripts/log4j.properties
 #export datasetPath=$baseDir/datasets/jester/jester-data-1.csv
 export datasetPath=$baseDir/datasets/movietweetings_recsys_challenge_2014/training_test_eval_concat_cleaned.csv
 export testingPath=$baseDir/datasets/movieLens/ml-100k/u.test
+export dataModelType=file
 export outputPath=$baseDir/output/
 export experimentId=0
 export vcsVersionId=unknown
@@ -22,6 +23,13 @@ export percentAdditionalItems=1.0
 export k=10
 export neighborhoodType=knn
 export beta=4
+export nbNeighborhoodThreads=0
+export cacheNeighborhoods=false
+export approxSearchSize=50
+export approxNbProjections=3
+export jaccardNbHashes=0
+export jaccardNbBands=20
+export similarityCacheMB=0
 export likeThreshold=3.0
 export trainingPercentage=0.8
 export validationPercentage=1.0
@@ -30,11 +38,14 @@ export computeMae=false
 export computeRmse=false
 export computeIRStats=false
 export r=5
+export nbIRStatsThreads=1
 export computeAboveThres=false
 export computeBuildRunTime=false
 export computeSizeDistrib=false
 export computeBuildMemory=false
 export computeHypotheses=false
+export nbHypothesesThreads=1
+export computeApproxRecall=false
 export doSybilAttack=true
 export nbAttackers=1
 export nbTargets=1
@@ -44,12 +55,14 @@ export relativeNbAuxItems=true
 export nbAuxiliaryItems=8
 export percentAuxiliaryItems=0.1
 export auxiliaryItemsSelectionStrategy=random
+export legacyPopularityAux=false
 export bestWorstFrac=2
 export nbSybils=10
 export sybilRatingsStrategy=groundtruth
 export adaptiveSybils=false
 export adaptiveSybilsNbRounds=10
 export sybilsNbRecoPerRound=1
+export nbAttackThreads=1
 export neighborChoiceBehavior=random
 export doOnlyPrecomputations=false
 export nbRuns=1
@@ -5,6 +5,7 @@ baseDir $baseDir
 log4jConfFile $log4jConfFile
 datasetPath $datasetPath
 testingPath $testingPath
+dataModelType $dataModelType
 outputPath $outputPath
 experimentId $experimentId
 vcsVersionId $vcsVersionId
@@ -22,6 +23,13 @@ percentAdditionalItems $percentAdditionalItems
 k $k
 neighborhoodType $neighborhoodType
 beta $beta
+nbNeighborhoodThreads $nbNeighborhoodThreads
+cacheNeighborhoods $cacheNeighborhoods
+approxSearchSize $approxSearchSize
+approxNbProjections $approxNbProjections
+jaccardNbHashes $jaccardNbHashes
+jaccardNbBands $jaccardNbBands
+similarityCacheMB $similarityCacheMB
 likeThreshold $likeThreshold
 trainingPercentage $trainingPercentage
 validationPercentage $validationPercentage
@@ -30,11 +38,14 @@ computeMae $computeMae
 computeRmse $computeRmse
 computeIRStats $computeIRStats
 r $r
+nbIRStatsThreads $nbIRStatsThreads
 computeAboveThres $computeAboveThres
 computeBuildRunTime $computeBuildRunTime
 computeSizeDistrib $computeSizeDistrib
 computeBuildMemory $computeBuildMemory
 computeHypotheses $computeHypotheses
+nbHypothesesThreads $nbHypothesesThreads
+computeApproxRecall $computeApproxRecall
 doSybilAttack $doSybilAttack
 nbAttackers $nbAttackers
 nbTargets $nbTargets
@@ -44,12 +55,14 @@ relativeNbAuxItems $relativeNbAuxItems
 nbAuxiliaryItems $nbAuxiliaryItems
 percentAuxiliaryItems $percentAuxiliaryItems
 auxiliaryItemsSelectionStrategy $auxiliaryItemsSelectionStrategy
+legacyPopularityAux $legacyPopularityAux
 bestWorstFrac $bestWorstFrac
 nbSybils $nbSybils
 sybilRatingsStrategy $sybilRatingsStrategy
 adaptiveSybils $adaptiveSybils
 adaptiveSybilsNbRounds $adaptiveSybilsNbRounds
 sybilsNbRecoPerRound $sybilsNbRecoPerRound
+nbAttackThreads $nbAttackThreads
 neighborChoiceBehavior $neighborChoiceBehavior
 doOnlyPrecomputations $doOnlyPrecomputations
 nbRuns $nbRuns
@@ -2,6 +2,7 @@ package recoPrivResearch;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 
@@ -34,7 +35,6 @@ import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
 import org.apache.mahout.cf.taste.eval.DataModelBuilder;
 import org.apache.mahout.cf.taste.similarity.UserSimilarity;
 import org.apache.mahout.cf.taste.eval.RecommenderEvaluator;
-import org.apache.mahout.cf.taste.eval.RecommenderIRStatsEvaluator;
 import org.apache.mahout.cf.taste.eval.IRStatistics;
 import org.apache.mahout.cf.taste.impl.model.file.FileDataModel;
 import org.apache.mahout.cf.taste.impl.eval.AverageAbsoluteDifferenceRecommenderEvaluator;
@@ -43,7 +43,13 @@ import org.apache.mahout.cf.taste.impl.eval.RMSRecommenderEvaluator;
 import org.apache.mahout.cf.taste.impl.eval.RMSRecommenderEvaluatorKFold;
 import org.apache.mahout.cf.taste.impl.eval.RMSRecommenderSequentialEvaluator;
 import org.apache.mahout.cf.taste.impl.eval.GenericRecommenderIRStatsEvaluator;
+import org.apache.mahout.cf.taste.impl.eval.GenericRelevantItemsDataSplitter;
 import org.apache.mahout.cf.taste.impl.eval.IRStatisticsImpl;
+import org.apache.mahout.cf.taste.impl.neighborhood.ApproximateNearestNUserNeighborhood;
+import org.apache.mahout.cf.taste.impl.neighborhood.MinHashUserNeighborhood;
+import org.apache.mahout.cf.taste.impl.neighborhood.NearestNUserNeighborhood;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
 
 import recoPrivResearch.attackEvaluator.AttackStats;
 import recoPrivResearch.attackEvaluator.AttackEvaluator;
@@ -56,8 +62,10 @@ import recoPrivResearch.recommenderBuilder.ItemAvgRatingRecommenderBuilder;
 import recoPrivResearch.recommenderBuilder.UserAvgRatingRecommenderBuilder;
 import recoPrivResearch.recommenderBuilder.VariousSimmRecommenderBuilder;
 import recoPrivResearch.recommenderBuilder.JaccardKNNRecommenderBuilder;
+import recoPrivResearch.recommenderBuilder.KNNRecommenderBuilder;
 import recoPrivResearch.tools.Parameters;
 import recoPrivResearch.tools.ExceptHandler;
+import recoPrivResearch.tools.LikedItemsHypotheses;
 
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.model.Preference;
@@ -99,7 +107,7 @@ public class EvaluateRecommender {
 
 		// 1) Load dataset
 		logger.info("Creating models, builders, and evaluators...");
-		DataModel model = ExceptHandler.createDataModel(params.datasetPath_);
+		DataModel model = ExceptHandler.createDataModel(params.datasetPath_, params.dataModelType_);
 		// WARNING: FileDataModel throws a NoSuchElementException if there is a text file
 		// with the same name prefix (until .csv) in the same dir as the dataset
 		logger.info("Dataset containing ratings by {} users on {} items", ExceptHandler.getModelNumUsers(model), ExceptHandler.getModelNumItems(model));
@@ -139,11 +147,29 @@ public class EvaluateRecommender {
 		} else if (params.similarityType_.equals("item-mean")) {
 			result = new ItemAvgRatingRecommenderBuilder();
 		} else {
-			result = new VariousSimmRecommenderBuilder(params.k_, params.similarityType_, params.twostepUseThreshold_, params.twostepIdealNbItems_, params.twostepFirstStepType_, params.isGlobalIdealNbItems_, params.percentIdealNbItems_, params.randomizeIdealNbItems_, rand, params.variantIdealNbItems_, isPPNS, params.beta_);
+			result = new VariousSimmRecommenderBuilder(params.k_, params.similarityType_, params.twostepUseThreshold_, params.twostepIdealNbItems_, params.twostepFirstStepType_, params.isGlobalIdealNbItems_, params.percentIdealNbItems_, params.randomizeIdealNbItems_, params.seed_, params.variantIdealNbItems_, isPPNS, params.beta_);
+		}
+		if (result instanceof KNNRecommenderBuilder) {
+			((KNNRecommenderBuilder) result).setNbNeighborhoodThreads(params.nbNeighborhoodThreads_);
+			((KNNRecommenderBuilder) result).setNeighborhoodSeed(params.seed_);
+			((KNNRecommenderBuilder) result).setCacheNeighborhoods(params.cacheNeighborhoods_);
+			((KNNRecommenderBuilder) result).setSimilarityCacheSize(params.similarityCacheMB_ * (1L << 20));
+			if (result instanceof JaccardKNNRecommenderBuilder && !isPPNS) {
+				// MinHash signatures are computed with the neighborhood threads, or one thread for on-demand neighborhoods
+				((JaccardKNNRecommenderBuilder) result).setMinHash(params.jaccardNbHashes_, params.jaccardNbBands_, Math.max(1, params.nbNeighborhoodThreads_), params.seed_);
+			}
+			if (isApproximateKNN()) {
+				((KNNRecommenderBuilder) result).setApproximateSearch(params.neighborhoodType_, params.approxSearchSize_, params.approxNbProjections_);
+			}
 		}
 		return result;
 	}
 
+	private boolean isApproximateKNN() {
+		return params.neighborhoodType_.equals("lsh") || params.neighborhoodType_.equals("projection")
+			|| params.neighborhoodType_.equals("fastprojection") || params.neighborhoodType_.equals("brute");
+	}
+
 	// Run from 0 to all evaluators among: MAE, RMSE, Information Retrieval stats, Sybil Attack
 	private void runEvaluators(DataModel model, RecommenderBuilder builder) {
 		logger.info("Running evaluators...");
@@ -161,6 +187,7 @@ public class EvaluateRecommender {
 		runBuildRunTimeEval(model, builder);
 		runBuildMemoryEval(model, builder);
 		runHypothesesEval(model);
+		runApproxRecallEval(model, builder);
 		runSizeDistribEval(model, builder);
 
 		runSybilAttack(model, builder);
@@ -227,22 +254,26 @@ public class EvaluateRecommender {
 		//IRStatistics[] result = new IRStatistics[params.r_];
 		IRStatistics[] result = new IRStatistics[16];
 		if(params.computeIRStats_) {
-			RecommenderIRStatsEvaluator irsEvaluator = new GenericRecommenderIRStatsEvaluator();
+			GenericRecommenderIRStatsEvaluator irsEvaluator = new GenericRecommenderIRStatsEvaluator(new GenericRelevantItemsDataSplitter(), params.nbIRStatsThreads_);
+			// Each evaluated user gets one recommendation list for all the numbers of recommendations with the same "at"
+			int[] rs = new int[8];
 			for(int i=0; i < 8; i++) {
-				logger.info("Computing Recall, Precision, etc for {} recommendations...", i+1);
-				try {
-					result[i] = irsEvaluator.evaluate(builder, null, model, null, 10, 2*i+2+16, params.likeThreshold_, params.validationPercentage_);
-				} catch(TasteException e) {
-					e.printStackTrace();
-				}
+				rs[i] = 2*i+2+16;
 			}
-      for(int i=0; i < 8; i++) {
-				logger.info("Computing Recall, Precision, etc for {} recommendations...", i+1);
-				try {
-					result[i+8] = irsEvaluator.evaluate(builder, null, model, null, 20, 4*i+4+32, params.likeThreshold_, params.validationPercentage_);
-				} catch(TasteException e) {
-					e.printStackTrace();
-				}
+			logger.info("Computing Recall, Precision, etc for {} recommendations...", Arrays.toString(rs));
+			try {
+				System.arraycopy(irsEvaluator.evaluate(builder, null, model, null, 10, rs, params.likeThreshold_, params.validationPercentage_), 0, result, 0, 8);
+			} catch(TasteException e) {
+				e.printStackTrace();
+			}
+			for(int i=0; i < 8; i++) {
+				rs[i] = 4*i+4+32;
+			}
+			logger.info("Computing Recall, Precision, etc for {} recommendations...", Arrays.toString(rs));
+			try {
+				System.arraycopy(irsEvaluator.evaluate(builder, null, model, null, 20, rs, params.likeThreshold_, params.validationPercentage_), 0, result, 8, 8);
+			} catch(TasteException e) {
+				e.printStackTrace();
 			}
 			logIRStats(result);
 		}
@@ -383,57 +414,86 @@ public class EvaluateRecommender {
 		}
 	}
 
-	private void runHypothesesEval(DataModel model) {
-		if (params.computeHypotheses_) {
-			logger.info("Running hypotheses evaluation");
-			Logger hypoLogger = LogManager.getLogger(EvaluateRecommender.class.getName() + "-hypotheses");
-			int nbHypoI = 0, nbHypoII = 0, nbHypoIII = 0;
-			int nbInUAndN = 0;
-			int sizeU, sizeN;
-			long u, n;
-
-			LongPrimitiveIterator itU = ExceptHandler.getModelUserIDs(model);
-			for (; itU.hasNext(); ) {
-				u = itU.nextLong();
-				nbHypoI = 0;
-				nbHypoII = 0;
-				nbHypoIII = 0;
-				sizeU = 0;
-				PreferenceArray UPrefs = ExceptHandler.getPreferences(model, u);
-				for (Preference pref : UPrefs) {
-					if (pref.getValue() >= params.likeThreshold_) {
-						sizeU += 1;
-					}
-				}
-				LongPrimitiveIterator itN = ExceptHandler.getModelUserIDs(model);
-				for (; itN.hasNext(); ) {
-					n = itN.nextLong();
-					if (n != u) {
-						nbInUAndN = 0;
-						sizeN = 0;
-						PreferenceArray NPrefs = ExceptHandler.getPreferences(model, n);
-						for (Preference pref : NPrefs) {
-							if (pref.getValue() >= params.likeThreshold_) {
-								sizeN += 1;
-								if (ExceptHandler.getItemValue(model, u, pref.getItemID()) >= params.likeThreshold_) {
-									nbInUAndN += 1;
-								}
-							}
-						}
-						if (nbInUAndN == sizeN) {
-							if (nbInUAndN == sizeU) {
-								nbHypoI += 1;
-							} else if ((sizeN + 1) == sizeU) {
-								nbHypoII += 1;
-							}
-						} else if ((nbInUAndN + 1) == sizeU) {
-							if (sizeN == sizeU) {
-								nbHypoIII += 1;
+	/**
+	 * Log the recall@k of the approximate kNN neighborhoods (searcher or MinHash based), i.e. the average over users of the fraction of
+	 * their exact kNN, by the same similarity, found in their approximate neighborhood. Equally similar
+	 * neighbors are chosen by lower IDs first on both sides so that results are reproducible.
+	 */
+	private void runApproxRecallEval(DataModel model, RecommenderBuilder builder) {
+		if (params.computeApproxRecall_ && builder instanceof KNNRecommenderBuilder) {
+			logger.info("Computing recall of approximate kNN neighborhoods");
+			Logger approxRecallLogger = LogManager.getLogger(EvaluateRecommender.class.getName() + "-approxRecall");
+			KNNRecommenderBuilder builder_ = (KNNRecommenderBuilder) builder;
+			builder_.buildRecommender(model);
+			UserNeighborhood neighborhood = builder_.getNeighborhood();
+			UserSimilarity similarity;
+			String approxType;
+			int approxSize;
+			if (neighborhood instanceof ApproximateNearestNUserNeighborhood) {
+				similarity = ((ApproximateNearestNUserNeighborhood) neighborhood).getUserSimilarity();
+				approxType = params.neighborhoodType_;
+				approxSize = params.approxSearchSize_;
+			} else if (neighborhood instanceof MinHashUserNeighborhood) {
+				similarity = ((MinHashUserNeighborhood) neighborhood).getUserSimilarity();
+				approxType = "minhash" + params.jaccardNbBands_;
+				approxSize = params.jaccardNbHashes_;
+			} else {
+				logger.warn("Recall of approximate kNN requires an approximate neighborhoodType or jaccardNbHashes, not {}", neighborhood);
+				return;
+			}
+			double sumRecall = 0.0;
+			int nbUsers = 0;
+			long approxTime = 0;
+			long exactTime = 0;
+			boolean complete = false;
+			try {
+				NearestNUserNeighborhood exact = new NearestNUserNeighborhood(params.k_, similarity, model);
+				for (LongPrimitiveIterator it = model.getUserIDs(); it.hasNext(); ) {
+					long user = it.nextLong();
+					long start = System.nanoTime();
+					long[] approxNeighbors = neighborhood.getUserNeighborhood(user);
+					long middle = System.nanoTime();
+					long[] exactNeighbors = exact.getUserNeighborhood(user);
+					exactTime += System.nanoTime() - middle;
+					approxTime += middle - start;
+					if (exactNeighbors.length > 0) {
+						FastIDSet exactSet = new FastIDSet(exactNeighbors);
+						int nbFound = 0;
+						for (long neighbor : approxNeighbors) {
+							if (exactSet.contains(neighbor)) {
+								nbFound++;
 							}
 						}
+						sumRecall += (double) nbFound / exactNeighbors.length;
+						nbUsers++;
 					}
 				}
-				hypoLogger.info("{},{},{},{},{}", u, nbHypoI, nbHypoII, nbHypoIII, sizeU);
+				complete = true;
+			} catch (TasteException e) {
+				e.printStackTrace();
+			}
+			// A partial or empty average is not a result
+			if (!complete) {
+				logger.warn("Recall of approximate kNN aborted after {} users", nbUsers);
+			} else if (nbUsers == 0) {
+				logger.warn("Recall of approximate kNN has no user with exact neighbors");
+			} else {
+				approxRecallLogger.info("{},{},{},{},{},{}", params.k_, approxType, approxSize,
+						sumRecall / nbUsers, approxTime, exactTime);
+			}
+		}
+	}
+
+	private void runHypothesesEval(DataModel model) {
+		if (params.computeHypotheses_) {
+			logger.info("Running hypotheses evaluation");
+			Logger hypoLogger = LogManager.getLogger(EvaluateRecommender.class.getName() + "-hypotheses");
+			LikedItemsHypotheses hypotheses = new LikedItemsHypotheses(model, params.likeThreshold_);
+			int[][] counts = hypotheses.countHypotheses(params.nbHypothesesThreads_);
+			long[] userIDs = hypotheses.getUserIDs();
+			for (int u = 0; u < userIDs.length; u++) {
+				hypoLogger.info("{},{},{},{},{}", userIDs[u], counts[u][LikedItemsHypotheses.HYPO_I], counts[u][LikedItemsHypotheses.HYPO_II],
+						counts[u][LikedItemsHypotheses.HYPO_III], hypotheses.getNbLiked(u));
 			}
 		}
 	}
@@ -5,6 +5,11 @@ import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.TLongDoubleMap;
@@ -70,6 +75,7 @@ public class NearestNeighborSybilAttackEvaluator implements AttackEvaluator {
 	private final TLongSet realUsers;
 	private final Random rand;
 	private final long neighorhoodsSeed;
+	private final int nbThreads;
 
 	public NearestNeighborSybilAttackEvaluator(Parameters p, Random r) {
 		adaptiveSybils = p.adaptiveSybils_;
@@ -82,6 +88,7 @@ public class NearestNeighborSybilAttackEvaluator implements AttackEvaluator {
 		realUsers = new TLongHashSet();
 		rand = r;
 		neighorhoodsSeed = rand.nextLong();
+		nbThreads = p.nbAttackThreads_;
 	}
 
 	/**
@@ -131,7 +138,7 @@ public class NearestNeighborSybilAttackEvaluator implements AttackEvaluator {
 			/*}*/
 
 			logger.info("Measuring statistics...");
-			result = measureStats(recommendations, neighborhood, sybilUserIDs, model, cosim, localRand);
+			result = measureStats(recommendations, neighborhood, sybilUserIDs, model, cosim, localRand.nextLong());
 		} else {
 			AttackStats avgStats = new AttackStats();
 			Recommender rec = recsys;
@@ -148,7 +155,7 @@ public class NearestNeighborSybilAttackEvaluator implements AttackEvaluator {
 				}
 
 				logger.info("Round {}: Measuring statistics...", i);
-				avgStats = AttackStats.add(avgStats, measureStats(recommendations, neighborhood, sybilUserIDs, model, cosim, localRand));
+				avgStats = AttackStats.add(avgStats, measureStats(recommendations, neighborhood, sybilUserIDs, model, cosim, localRand.nextLong()));
 
 				logger.info("Round {}: Updating DataModel and recommendation system...", i);
 				rec = updateModelAndRecSys(builder, sybilBuilder, model, recommendations);
@@ -172,37 +179,100 @@ public class NearestNeighborSybilAttackEvaluator implements AttackEvaluator {
 		}
 	}
 
+	/**
+	 * Work done for a single target user, independently of the other targets.
+	 */
+	private interface TargetTask<T> {
+		T run(long targetID);
+	}
+
+	/**
+	 * Run task for each user of targetIDs, on up to nbThreads threads, and return the results in the order of targetIDs.
+	 * Tasks must not share mutable state so that the results do not depend on the number of threads.
+	 */
+	private <T> List<T> forEachTarget(long[] targetIDs, final TargetTask<T> task) {
+		List<T> results = new ArrayList<>(targetIDs.length);
+		if(nbThreads <= 1 || targetIDs.length <= 1) {
+			for(long targetID : targetIDs) {
+				results.add(task.run(targetID));
+			}
+			return results;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(nbThreads, targetIDs.length));
+		try {
+			List<Future<T>> futures = new ArrayList<>(targetIDs.length);
+			for(final long targetID : targetIDs) {
+				futures.add(executor.submit(new Callable<T>() {
+					@Override
+					public T call() {
+						return task.run(targetID);
+					}
+				}));
+			}
+			for(Future<T> future : futures) {
+				results.add(future.get());
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch(ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		return results;
+	}
+
+	/**
+	 * Seed of the Random used for the work of targetID, so that it does not depend on which targets were processed before.
+	 */
+	private static long targetSeed(long seed, long targetID) {
+		return seed ^ (targetID * 0x9E3779B97F4A7C15L);
+	}
+
 	/**
 	 * Generate one list of unique RecommendedItem per target user using all recommendations received by Sybil users.
 	 * These lists do not include auxiliaryItems even if some got recommended to Sybil users.
 	 * How many recommendations each Sybil user receives is controlled by the nbReco attribute.
 	 */
-	private TLongObjectMap<List<RecommendedItem>> getRecoForSybils(Recommender recsys, TLongObjectMap<TLongArrayList> sybilUserIDs, TLongObjectMap<TLongArrayList> auxiliaryItems, TLongObjectMap<TLongArrayList> learntItems, long seed) {
-		TLongObjectMap<List<RecommendedItem>> result = new TLongObjectHashMap<>(sybilUserIDs.size());
-		Random localRand = new Random(seed);
+	private TLongObjectMap<List<RecommendedItem>> getRecoForSybils(final Recommender recsys, final TLongObjectMap<TLongArrayList> sybilUserIDs, final TLongObjectMap<TLongArrayList> auxiliaryItems, TLongObjectMap<TLongArrayList> learntItems, final long seed) {
+		long[] targetIDs = sybilUserIDs.keys();
 
-		for(TLongIterator it=sybilUserIDs.keySet().iterator(); it.hasNext();) {
-			long targetID = it.next();
-			List<RecommendedItem> allRecoForTargetsSybils = new ArrayList<>();
+		List<List<RecommendedItem>> recos = forEachTarget(targetIDs, new TargetTask<List<RecommendedItem>>() {
+			@Override
+			public List<RecommendedItem> run(long targetID) {
+				return getRecoForTargetsSybils(recsys, targetID, sybilUserIDs.get(targetID), auxiliaryItems.get(targetID), new Random(targetSeed(seed, targetID)));
+			}
+		});
 
-			TLongArrayList targetsSybilIDs = sybilUserIDs.get(targetID);
-			for(TLongIterator iter=targetsSybilIDs.iterator(); iter.hasNext();) {
-				long sybilID = iter.next();
-				List<RecommendedItem> recos = ExceptHandler.getRecommendations(recsys, sybilID, nbReco, neighborChoiceBehavior, localRand);
+		TLongObjectMap<List<RecommendedItem>> result = new TLongObjectHashMap<>(targetIDs.length);
+		for(int i=0; i<targetIDs.length; i++) {
+			result.put(targetIDs[i], recos.get(i));
+		}
+		return result;
+	}
 
-				logger.debug("Target {}, Sybil {}, recommendations: {}", targetID, sybilID, recos);
+	/**
+	 * Gather the recommendations received by the Sybil users targeting targetID, without auxiliary items nor duplicates.
+	 */
+	private List<RecommendedItem> getRecoForTargetsSybils(Recommender recsys, long targetID, TLongArrayList targetsSybilIDs, TLongArrayList targetsAuxItems, Random localRand) {
+		List<RecommendedItem> allRecoForTargetsSybils = new ArrayList<>();
 
-				allRecoForTargetsSybils.addAll(recos);
-			}
-			logger.debug("Sybil users targeting user {} have learnt {} items (with duplicates)", targetID, allRecoForTargetsSybils.size());
+		for(TLongIterator iter=targetsSybilIDs.iterator(); iter.hasNext();) {
+			long sybilID = iter.next();
+			List<RecommendedItem> recos = ExceptHandler.getRecommendations(recsys, sybilID, nbReco, neighborChoiceBehavior, localRand);
 
-			removeAllFrom(auxiliaryItems.get(targetID), allRecoForTargetsSybils);
-			NearestNeighborSybilAttackEvaluator.removeDuplicatedRecos(allRecoForTargetsSybils);
+			logger.debug("Target {}, Sybil {}, recommendations: {}", targetID, sybilID, recos);
 
-			result.put(targetID, allRecoForTargetsSybils);
+			allRecoForTargetsSybils.addAll(recos);
 		}
+		logger.debug("Sybil users targeting user {} have learnt {} items (with duplicates)", targetID, allRecoForTargetsSybils.size());
 
-		return result;
+		removeAllFrom(targetsAuxItems, allRecoForTargetsSybils);
+		NearestNeighborSybilAttackEvaluator.removeDuplicatedRecos(allRecoForTargetsSybils);
+
+		return allRecoForTargetsSybils;
 	}
 
 	/**
@@ -239,6 +309,27 @@ public class NearestNeighborSybilAttackEvaluator implements AttackEvaluator {
 		logger.debug("Removed {} occurences of duplicated items", nbRemoved);
 	}
 
+	/**
+	 * Measures of one round of the attack on a single target user, merged into an AttackStats by measureStats.
+	 */
+	private static class TargetStats {
+		int nbPerfectMatches;
+		double expectedNeighborhoodsFrac;
+		double targetIsNeighborFrac;
+		double nbSybilNeighbors;
+		double fracOfUnwantedNeighbors;
+		double fracOfUnwantedNeighborsWTargetOnly = Double.NaN; // NaN if no Sybil has the target as neighbor
+		double fracSybilsHaveAllSybilNeighbors;
+		double allSybilsOnlySybilNeighbors;
+		double sybilInfiltration = Double.NaN; // NaN if the target has no neighbors
+		int yield;
+		double accuracy;
+		int absAccuracy;
+		double stricterAccuracy;
+		int stricterAbsAccuracy;
+		int nbFakeItems;
+	}
+
 	/**
 	 * Compute and gather in one object 3 measures about one round of the attack on all target users.
 	 * Measures (1 value of each per target user) are:
@@ -248,171 +339,204 @@ public class NearestNeighborSybilAttackEvaluator implements AttackEvaluator {
 	 * Accuracy: the fraction of items liked by the target user among the items learnt.
 	 * Nb perfect matches: how many real users in the dataset have a cosine similarity of 1 with the target user.
 	 * The behavior regarding learnt items on which the target has no opinion is controlled by unknownRatingIsDislike.
+	 * Target users are measured independently (in parallel if nbThreads > 1), each with its own Random seeded from seed.
 	 */
-	private AttackStats measureStats(TLongObjectMap<List<RecommendedItem>> recommendations, UserNeighborhood neighborhood, TLongObjectMap<TLongArrayList> sybilIDs, DataModel model, UserSimilarity cosim, Random rand) {
+	private AttackStats measureStats(final TLongObjectMap<List<RecommendedItem>> recommendations, final UserNeighborhood neighborhood, final TLongObjectMap<TLongArrayList> sybilIDs, final DataModel model, final UserSimilarity cosim, final long seed) {
 		AttackStats result = new AttackStats();
 
-		TLongSet targetIDs = recommendations.keySet();
-
-		result.setNbPerfectMatches(computeNbPerfectMatches(model, targetIDs, cosim));
-
-		computeSybilNeighborhoodsChecks(targetIDs, sybilIDs, neighborhood, result, rand);
-
-		result.setSybilInfiltration(computeNeighborhoodInfiltration(targetIDs, sybilIDs, neighborhood, rand));
-
-		result.setYield(computeYield(targetIDs, recommendations));
-
-		computeAccuracies(targetIDs, recommendations, model, result);
+		long[] targetIDs = recommendations.keys();
+		final long maxItemID = computeMaxItemID(model);
+
+		List<TargetStats> stats = forEachTarget(targetIDs, new TargetTask<TargetStats>() {
+			@Override
+			public TargetStats run(long targetID) {
+				TargetStats s = new TargetStats();
+				Random targetRand = new Random(targetSeed(seed, targetID));
+				List<RecommendedItem> learnt = recommendations.get(targetID);
+
+				s.nbPerfectMatches = computeNbPerfectMatches(model, targetID, cosim);
+				computeSybilNeighborhoodsChecks(targetID, sybilIDs.get(targetID), neighborhood, s, targetRand);
+				s.sybilInfiltration = computeNeighborhoodInfiltration(targetID, sybilIDs.get(targetID), neighborhood, targetRand);
+				s.yield = computeYield(targetID, learnt);
+				computeAccuracies(targetID, learnt, model, maxItemID, s);
+				computeStricterAccuracies(targetID, learnt, model, maxItemID, s);
+				return s;
+			}
+		});
 
-		computeStricterAccuracies(targetIDs, recommendations, model, result);
+		mergeTargetStats(targetIDs, stats, result);
 
 		result.setNbAuxiliaryItems(computeNbAuxiliaryItems(model));
 
 		return result;
 	}
 
-	// Compute the fraction of Sybil infiltration for each neighborhood
-	private TLongDoubleMap computeNeighborhoodInfiltration(TLongSet targetIDs, TLongObjectMap<TLongArrayList> sybilIDs, UserNeighborhood neighborhood, Random rand) {
-		TLongDoubleMap neighborhoodInfiltration = new TLongDoubleHashMap(targetIDs.size());
-		int nbNoNeighbors = 0;
-		for(TLongIterator it=targetIDs.iterator(); it.hasNext();) {
-			long targetID = it.next();
-			TLongArrayList targetsSybilIDs = sybilIDs.get(targetID);
-			long[] targetNeighborhood = ExceptHandler.getNeighborhood(neighborhood, targetID, neighborChoiceBehavior, rand);
+	/**
+	 * Gather the per target measures into result, in the order of targetIDs.
+	 */
+	private static void mergeTargetStats(long[] targetIDs, List<TargetStats> stats, AttackStats result) {
+		int nbTargets = targetIDs.length;
+		TLongIntMap nbPerfectMatches = new TLongIntHashMap(nbTargets);
+		TLongDoubleMap fracOfExpectedNeighborhoods = new TLongDoubleHashMap(nbTargets);
+		TLongDoubleMap targetsAreNeighbors = new TLongDoubleHashMap(nbTargets);
+		TLongDoubleMap targetsNbSybilNeighbors = new TLongDoubleHashMap(nbTargets);
+		TLongDoubleMap fracOfUnwantedNeighbors = new TLongDoubleHashMap(nbTargets);
+		TLongDoubleMap fracOfUnwantedNeighborsWithTargetOnly = new TLongDoubleHashMap(nbTargets);
+		TLongDoubleMap neighborhoodInfiltration = new TLongDoubleHashMap(nbTargets);
+		TLongIntMap yield = new TLongIntHashMap(nbTargets);
+		TLongDoubleMap accuracies = new TLongDoubleHashMap(nbTargets);
+		TLongIntMap absAccuracies = new TLongIntHashMap(nbTargets);
+		TLongDoubleMap stricterAccuracies = new TLongDoubleHashMap(nbTargets);
+		TLongIntMap stricterAbsAccuracies = new TLongIntHashMap(nbTargets);
 
-			logger.debug("Target user {} has neighbors {}", targetID, targetNeighborhood);
+		int nbNoNeighbors = 0;
+		int nbFakeItems = 0; // Fake items are counted over all targets so far
+		double accuracyPrime = 0.0;
+		for(int i=0; i<nbTargets; i++) {
+			long targetID = targetIDs[i];
+			TargetStats s = stats.get(i);
+
+			nbPerfectMatches.put(targetID, s.nbPerfectMatches);
+			fracOfExpectedNeighborhoods.put(targetID, s.expectedNeighborhoodsFrac);
+			targetsAreNeighbors.put(targetID, s.targetIsNeighborFrac);
+			targetsNbSybilNeighbors.put(targetID, s.nbSybilNeighbors);
+			fracOfUnwantedNeighbors.put(targetID, s.fracOfUnwantedNeighbors);
+			if(!Double.isNaN(s.fracOfUnwantedNeighborsWTargetOnly)) {
+				fracOfUnwantedNeighborsWithTargetOnly.put(targetID, s.fracOfUnwantedNeighborsWTargetOnly);
+			}
+			result.setAllSybilsOnlySybilNeighbors(s.allSybilsOnlySybilNeighbors);
+			result.setFracSybilsHaveAllSybilNeighbors(s.fracSybilsHaveAllSybilNeighbors);
 
-			if(targetNeighborhood != null) { // if targetID has no neighbors, he is not included in neighborhoodInfiltration
-				neighborhoodInfiltration.put(targetID, getInfiltrationFraction(targetsSybilIDs, targetNeighborhood));
+			if(!Double.isNaN(s.sybilInfiltration)) { // if targetID has no neighbors, he is not included in neighborhoodInfiltration
+				neighborhoodInfiltration.put(targetID, s.sybilInfiltration);
 			} else {
-				logger.warn("The neighborhood of user {} is null", targetID);
 				nbNoNeighbors++;
 			}
+
+			yield.put(targetID, s.yield);
+			accuracies.put(targetID, s.accuracy);
+			absAccuracies.put(targetID, s.absAccuracy);
+			stricterAccuracies.put(targetID, s.stricterAccuracy);
+			stricterAbsAccuracies.put(targetID, s.stricterAbsAccuracy);
+
+			nbFakeItems += s.nbFakeItems;
+			accuracyPrime = s.yield > 0 ? s.stricterAbsAccuracy / (double) (s.yield - nbFakeItems) : 0.0;
 		}
 		if(nbNoNeighbors > 0) {
 			logger.warn("{} target users have no neighbors", nbNoNeighbors);
 		}
-		return neighborhoodInfiltration;
+
+		result.setNbPerfectMatches(nbPerfectMatches);
+		result.setExpectedNeighborhoodsFrac(fracOfExpectedNeighborhoods);
+		result.setTargetsAreNeighbors(targetsAreNeighbors);
+		result.setTargetsNbSybilNeighbors(targetsNbSybilNeighbors);
+		result.setFracOfUnwantedNeighbors(fracOfUnwantedNeighbors);
+		result.setFracOfUnwantedNeighborsWTargetOnly(fracOfUnwantedNeighborsWithTargetOnly);
+		result.setSybilInfiltration(neighborhoodInfiltration);
+		result.setYield(yield);
+		result.setAccuracy(accuracies);
+		result.setAbsAccuracy(absAccuracies);
+		result.setAccuracyPrime(accuracyPrime);
+		result.setStricterAccuracy(stricterAccuracies);
+		result.setStricterAbsAccuracy(stricterAbsAccuracies);
 	}
 
-	// Check if each Sybils neighborhood is as expected: k-1 Sybils + target user
-	private void computeSybilNeighborhoodsChecks(TLongSet targetIDs, TLongObjectMap<TLongArrayList> sybilIDs, UserNeighborhood neighborhood, AttackStats result, Random rand) {
-		int nbTargets = targetIDs.size();
-		TLongDoubleMap fracOfExpectedNeighborhoods = new TLongDoubleHashMap(nbTargets);
-		TLongDoubleMap targetsAreNeighbors = new TLongDoubleHashMap(nbTargets);
-		TLongDoubleMap targetsNbSybilNeighbors = new TLongDoubleHashMap(nbTargets);
-		TLongDoubleMap fracOfUnwantedNeighbors = new TLongDoubleHashMap(nbTargets);
-		TLongDoubleMap fracOfUnwantedNeighborsWithTargetOnly = new TLongDoubleHashMap(nbTargets);
+	// Compute the fraction of Sybil infiltration in targetID's neighborhood, NaN if it has no neighbors
+	private double computeNeighborhoodInfiltration(long targetID, TLongArrayList targetsSybilIDs, UserNeighborhood neighborhood, Random rand) {
+		long[] targetNeighborhood = ExceptHandler.getNeighborhood(neighborhood, targetID, neighborChoiceBehavior, rand);
 
-		for(TLongIterator it=targetIDs.iterator(); it.hasNext();) { // For each target user (targetID)
-			long targetID = it.next();
-			TLongArrayList sybils = sybilIDs.get(targetID);
-			int nbSybils = sybils.size();
-			double fracSybilNeighbors = 0;
-      int onlySybils = 0;
-			double expectedNeighborhoodFraction = 0.0; // Fraction of targetID's Sybils have the expected neighborhood composition
-			int nbTargetIsNeighbor = 0; // How many of targetID's Sybils have targetID in their neighborhood
-			TDoubleArrayList nbSybilNeighbors = new TDoubleArrayList(nbSybils); // Fraction of Sybil neighbors for each Sybil of targetID
-			TDoubleArrayList fractionsOfUnwantedNeighbors = new TDoubleArrayList(nbSybils); // For each Sybil, the fraction of unwanted neighbors
-			TDoubleArrayList fractionsOfUnwantedNeighborsWTargetOnly = new TDoubleArrayList(); // For each Sybil who has target as neighbor, the fraction of unwanted neighbors
-			for(int i=0; i<nbSybils; i++) { // For each Sybil user (sybilID) targeting targetID
-				long sybilID = sybils.get(i);
-				long[] sybilNeighborhood = ExceptHandler.getNeighborhood(neighborhood, sybilID, neighborChoiceBehavior, rand);
-
-				//if(result.getNbPerfectMatchesAt(1).get(targetID)==0) {
-					logger.debug("Sybil {} (target={}, nbPerfectMatches={}) has neighbors {}", sybilID, targetID, result.getNbPerfectMatchesAt(1).get(targetID), sybilNeighborhood);
-				//}
+		logger.debug("Target user {} has neighbors {}", targetID, targetNeighborhood);
 
-				if(sybilNeighborhood != null) {
-					int nbSybilsNeighbors = 0;
-					boolean targetIsNeighbor = false;
-					int nbUnwantedNeighbors = 0;
-					for(int j=0; j<sybilNeighborhood.length; j++) { // For each neighbor of sybilID
-						if(sybils.contains(sybilNeighborhood[j])) {
-							nbSybilsNeighbors++;
-						} else if(sybilNeighborhood[j] == targetID) {
-							targetIsNeighbor = true;
-							nbTargetIsNeighbor++;
-						} else {
-							nbUnwantedNeighbors++;
-						}
+		if(targetNeighborhood == null) {
+			logger.warn("The neighborhood of user {} is null", targetID);
+			return Double.NaN;
+		}
+		return getInfiltrationFraction(targetsSybilIDs, targetNeighborhood);
+	}
+
+	// Check if each Sybils neighborhood is as expected: k-1 Sybils + target user
+	private void computeSybilNeighborhoodsChecks(long targetID, TLongArrayList sybils, UserNeighborhood neighborhood, TargetStats result, Random rand) {
+		int nbSybils = sybils.size();
+		double fracSybilNeighbors = 0;
+		int onlySybils = 0;
+		double expectedNeighborhoodFraction = 0.0; // Fraction of targetID's Sybils have the expected neighborhood composition
+		int nbTargetIsNeighbor = 0; // How many of targetID's Sybils have targetID in their neighborhood
+		TDoubleArrayList nbSybilNeighbors = new TDoubleArrayList(nbSybils); // Fraction of Sybil neighbors for each Sybil of targetID
+		TDoubleArrayList fractionsOfUnwantedNeighbors = new TDoubleArrayList(nbSybils); // For each Sybil, the fraction of unwanted neighbors
+		TDoubleArrayList fractionsOfUnwantedNeighborsWTargetOnly = new TDoubleArrayList(); // For each Sybil who has target as neighbor, the fraction of unwanted neighbors
+		for(int i=0; i<nbSybils; i++) { // For each Sybil user (sybilID) targeting targetID
+			long sybilID = sybils.get(i);
+			long[] sybilNeighborhood = ExceptHandler.getNeighborhood(neighborhood, sybilID, neighborChoiceBehavior, rand);
+
+			logger.debug("Sybil {} (target={}, nbPerfectMatches={}) has neighbors {}", sybilID, targetID, result.nbPerfectMatches, sybilNeighborhood);
+
+			if(sybilNeighborhood != null) {
+				int nbSybilsNeighbors = 0;
+				boolean targetIsNeighbor = false;
+				int nbUnwantedNeighbors = 0;
+				for(int j=0; j<sybilNeighborhood.length; j++) { // For each neighbor of sybilID
+					if(sybils.contains(sybilNeighborhood[j])) {
+						nbSybilsNeighbors++;
+					} else if(sybilNeighborhood[j] == targetID) {
+						targetIsNeighbor = true;
+						nbTargetIsNeighbor++;
+					} else {
+						nbUnwantedNeighbors++;
 					}
-					nbSybilNeighbors.add((nbSybilsNeighbors / (double) (neighborhoodSize - 1)));
-					double fraction = nbUnwantedNeighbors / (double) neighborhoodSize;
+				}
+				nbSybilNeighbors.add((nbSybilsNeighbors / (double) (neighborhoodSize - 1)));
+				double fraction = nbUnwantedNeighbors / (double) neighborhoodSize;
 
-					logger.debug("target {}, sybil {}, unwanted neighbors = {}", targetID, sybilID, fraction);
+				logger.debug("target {}, sybil {}, unwanted neighbors = {}", targetID, sybilID, fraction);
 
-					fractionsOfUnwantedNeighbors.add(fraction);
-					if(targetIsNeighbor) {
-						fractionsOfUnwantedNeighborsWTargetOnly.add(fraction);
+				fractionsOfUnwantedNeighbors.add(fraction);
+				if(targetIsNeighbor) {
+					fractionsOfUnwantedNeighborsWTargetOnly.add(fraction);
 
-						logger.debug("sybil {} has target {} as a neighbor", sybilID, targetID);
-					}
+					logger.debug("sybil {} has target {} as a neighbor", sybilID, targetID);
+				}
 
-					if (nbSybilsNeighbors == (neighborhoodSize-1)) {
-						fracSybilNeighbors += 1.0;
-					} else if (nbSybilsNeighbors == neighborhoodSize) {
-            onlySybils++;
-          }
+				if (nbSybilsNeighbors == (neighborhoodSize-1)) {
+					fracSybilNeighbors += 1.0;
+				} else if (nbSybilsNeighbors == neighborhoodSize) {
+					onlySybils++;
+				}
 
-					if(targetIsNeighbor && nbSybilsNeighbors == (neighborhoodSize-1)) {
-						expectedNeighborhoodFraction++;
-					}
-				} else {
-					logger.warn("The neighborhood of Sybil user {} is null", sybilID);
+				if(targetIsNeighbor && nbSybilsNeighbors == (neighborhoodSize-1)) {
+					expectedNeighborhoodFraction++;
 				}
-			}
-			
-			expectedNeighborhoodFraction = expectedNeighborhoodFraction / (double) nbSybils;
-			double targetIsNeighborFraction = nbTargetIsNeighbor / (double) nbSybils;
-			//double targetsNbSybilNeighborsFraction = AttackStats.averageIntArrayList(nbSybilNeighbors) / (double) (neighborhoodSize-1);
-
-      result.setAllSybilsOnlySybilNeighbors((double) onlySybils / (double) nbSybils);
-      
-			result.setFracSybilsHaveAllSybilNeighbors(fracSybilNeighbors / nbSybils);
-			fracOfExpectedNeighborhoods.put(targetID, expectedNeighborhoodFraction);
-			targetsAreNeighbors.put(targetID, targetIsNeighborFraction);
-			targetsNbSybilNeighbors.put(targetID, AttackStats.averageDoubleArrayList(nbSybilNeighbors));
-			fracOfUnwantedNeighbors.put(targetID, AttackStats.averageDoubleArrayList(fractionsOfUnwantedNeighbors));
-
-			if(fractionsOfUnwantedNeighborsWTargetOnly.size() > 0) {
-				logger.debug("average fraction of unwanted w/ target only = {}, averaged fractions: {}", AttackStats.averageDoubleArrayList(fractionsOfUnwantedNeighborsWTargetOnly), fractionsOfUnwantedNeighborsWTargetOnly);
-				fracOfUnwantedNeighborsWithTargetOnly.put(targetID, AttackStats.averageDoubleArrayList(fractionsOfUnwantedNeighborsWTargetOnly));
+			} else {
+				logger.warn("The neighborhood of Sybil user {} is null", sybilID);
 			}
 		}
-		result.setExpectedNeighborhoodsFrac(fracOfExpectedNeighborhoods);
-		result.setTargetsAreNeighbors(targetsAreNeighbors);
-		result.setTargetsNbSybilNeighbors(targetsNbSybilNeighbors);
-		result.setFracOfUnwantedNeighbors(fracOfUnwantedNeighbors);
-		result.setFracOfUnwantedNeighborsWTargetOnly(fracOfUnwantedNeighborsWithTargetOnly);
-	}
 
-	// Compute attack yield (nb items learnt)/target user
-	private TLongIntMap computeYield(TLongSet targetIDs, TLongObjectMap<List<RecommendedItem>> recommendations) {
-		TLongIntMap yield = new TLongIntHashMap(targetIDs.size());
-		for(TLongIterator it=targetIDs.iterator(); it.hasNext();) {
-			long targetID = it.next();
-			int nbLearntItems = recommendations.get(targetID).size();
+		result.expectedNeighborhoodsFrac = expectedNeighborhoodFraction / (double) nbSybils;
+		result.targetIsNeighborFrac = nbTargetIsNeighbor / (double) nbSybils;
+		result.allSybilsOnlySybilNeighbors = (double) onlySybils / (double) nbSybils;
+		result.fracSybilsHaveAllSybilNeighbors = fracSybilNeighbors / nbSybils;
+		result.nbSybilNeighbors = AttackStats.averageDoubleArrayList(nbSybilNeighbors);
+		result.fracOfUnwantedNeighbors = AttackStats.averageDoubleArrayList(fractionsOfUnwantedNeighbors);
 
-			if(nbLearntItems == 0) {
-				logger.warn("Sybil users targeting user {} did not learn anything", targetID);
-			}
+		if(fractionsOfUnwantedNeighborsWTargetOnly.size() > 0) {
+			logger.debug("average fraction of unwanted w/ target only = {}, averaged fractions: {}", AttackStats.averageDoubleArrayList(fractionsOfUnwantedNeighborsWTargetOnly), fractionsOfUnwantedNeighborsWTargetOnly);
+			result.fracOfUnwantedNeighborsWTargetOnly = AttackStats.averageDoubleArrayList(fractionsOfUnwantedNeighborsWTargetOnly);
+		}
+	}
+
+	// Compute attack yield (nb items learnt) for targetID
+	private int computeYield(long targetID, List<RecommendedItem> learnt) {
+		int nbLearntItems = learnt.size();
 
-			yield.put(targetID, nbLearntItems);
+		if(nbLearntItems == 0) {
+			logger.warn("Sybil users targeting user {} did not learn anything", targetID);
 		}
-		return yield;
+
+		return nbLearntItems;
 	}
 
-	// Compute attack accuracy(nb rated items learnt/nb items learnt)/target user
-	// Requires only an item to be rated in target's profile
-	private void computeAccuracies(TLongSet targetIDs, TLongObjectMap<List<RecommendedItem>> recommendations, DataModel model, AttackStats result) {
-		TLongDoubleMap accuracies = new TLongDoubleHashMap(targetIDs.size());
-		TLongIntMap absAccuracies = new TLongIntHashMap(targetIDs.size());
-    
-    int fakeItems = 0;
-    
-    /* Compute max item ID to know if item is fake or not */
-    long maxItemID = 0;
+	// Compute max item ID to know if an item is fake or not
+	private static long computeMaxItemID(DataModel model) {
+		long maxItemID = 0;
 		try {
 			for (LongPrimitiveIterator it = model.getItemIDs(); it.hasNext();) {
 				long itemID = it.nextLong();
@@ -421,114 +545,80 @@ public class NearestNeighborSybilAttackEvaluator implements AttackEvaluator {
 				}
 			}
 		} catch (TasteException ex) {}
-    
-		for(TLongIterator it=targetIDs.iterator(); it.hasNext();) {
-			long targetID = it.next();
-			int accuracy = 0;
-			double accuracyPercent = 0.0;
-      double accuracyPercentPrime = 0.0;
-			int nbLearntItems = recommendations.get(targetID).size();
-
-			logger.debug("Sybil users targeting user {} have learnt {} items", targetID, nbLearntItems);
-			if(nbLearntItems > 0) {
-				for(Iterator<RecommendedItem> iter=recommendations.get(targetID).iterator(); iter.hasNext();) {
-					long itemID = iter.next().getItemID();
-          if (itemID <= maxItemID) {
-            float rating = ExceptHandler.getItemValue(model, targetID, itemID);
-            if(rating == -1.0) {
-              logger.debug("user {} has no opinion on item {}", targetID, itemID);
-            } else {
-              accuracy++;
-            }
-          } else {
-            fakeItems++;
-          }
+		return maxItemID;
+	}
+
+	// Compute attack accuracy(nb rated items learnt/nb items learnt) for targetID
+	// Requires only an item to be rated in target's profile
+	private void computeAccuracies(long targetID, List<RecommendedItem> learnt, DataModel model, long maxItemID, TargetStats result) {
+		int accuracy = 0;
+		double accuracyPercent = 0.0;
+		int nbLearntItems = learnt.size();
+
+		logger.debug("Sybil users targeting user {} have learnt {} items", targetID, nbLearntItems);
+		if(nbLearntItems > 0) {
+			for(Iterator<RecommendedItem> iter=learnt.iterator(); iter.hasNext();) {
+				long itemID = iter.next().getItemID();
+				if (itemID <= maxItemID) {
+					float rating = ExceptHandler.getItemValue(model, targetID, itemID);
+					if(rating == -1.0) {
+						logger.debug("user {} has no opinion on item {}", targetID, itemID);
+					} else {
+						accuracy++;
+					}
 				}
-				accuracyPercent = accuracy / (double) nbLearntItems;
-				accuracyPercentPrime = accuracy / (double) (nbLearntItems - fakeItems);
 			}
-			accuracies.put(targetID, accuracyPercent);
-			absAccuracies.put(targetID, accuracy);
-      result.setAccuracyPrime(accuracyPercentPrime);
+			accuracyPercent = accuracy / (double) nbLearntItems;
 		}
-		result.setAccuracy(accuracies);
-		result.setAbsAccuracy(absAccuracies);
+		result.accuracy = accuracyPercent;
+		result.absAccuracy = accuracy;
 	}
 
-	// Compute attack accuracy(nb liked items learnt/nb items learnt)/target user
+	// Compute attack accuracy(nb liked items learnt/nb items learnt) for targetID
 	// Stricter version requiring learnt item to be in target's profile and have a rating greater or equal to likeThreshold.
-	private void computeStricterAccuracies(TLongSet targetIDs, TLongObjectMap<List<RecommendedItem>> recommendations, DataModel model, AttackStats result) {
-		TLongDoubleMap accuracies = new TLongDoubleHashMap(targetIDs.size());
-		TLongIntMap absAccuracies = new TLongIntHashMap(targetIDs.size());
-    
-    int fakeItems = 0;
-    
-    /* Compute max item ID to know if item is fake or not */
-    long maxItemID = 0;
-		try {
-			for (LongPrimitiveIterator it = model.getItemIDs(); it.hasNext();) {
-				long itemID = it.nextLong();
-				if (itemID > maxItemID) {
-					maxItemID = itemID;
-				}
-			}
-		} catch (TasteException ex) {}
-    
-		for(TLongIterator it=targetIDs.iterator(); it.hasNext();) {
-			long targetID = it.next();
-			int accuracy = 0;
-			double accuracyPercent = 0.0;
-      double accuracyPercentPrime = 0.0;
-			int nbLearntItems = recommendations.get(targetID).size();
-
-			logger.debug("Sybil users targeting user {} have learnt {} items", targetID, nbLearntItems);
-			if(nbLearntItems > 0) {
-				for(Iterator<RecommendedItem> iter=recommendations.get(targetID).iterator(); iter.hasNext();) {
-					long itemID = iter.next().getItemID();
-          if (itemID <= maxItemID) {
-            float rating = ExceptHandler.getItemValue(model, targetID, itemID);
-            if(rating == -1.0) {
-              logger.debug("user {} has no opinion on item {}", targetID, itemID);
-            }
-            /*if(!unknownRatingIsDislike && rating != -1.0) {*/
-              //rating = (float) likeThreshold;
-            /*}*/
-            if(rating >= likeThreshold) {
-              accuracy++;
-            }
-          } else {
-            fakeItems++;
-          }
+	private void computeStricterAccuracies(long targetID, List<RecommendedItem> learnt, DataModel model, long maxItemID, TargetStats result) {
+		int accuracy = 0;
+		double accuracyPercent = 0.0;
+		int fakeItems = 0;
+		int nbLearntItems = learnt.size();
+
+		logger.debug("Sybil users targeting user {} have learnt {} items", targetID, nbLearntItems);
+		if(nbLearntItems > 0) {
+			for(Iterator<RecommendedItem> iter=learnt.iterator(); iter.hasNext();) {
+				long itemID = iter.next().getItemID();
+				if (itemID <= maxItemID) {
+					float rating = ExceptHandler.getItemValue(model, targetID, itemID);
+					if(rating == -1.0) {
+						logger.debug("user {} has no opinion on item {}", targetID, itemID);
+					}
+					/*if(!unknownRatingIsDislike && rating != -1.0) {*/
+						//rating = (float) likeThreshold;
+					/*}*/
+					if(rating >= likeThreshold) {
+						accuracy++;
+					}
+				} else {
+					fakeItems++;
 				}
-				accuracyPercent = accuracy / (double) nbLearntItems;
-				accuracyPercentPrime = accuracy / (double) (nbLearntItems - fakeItems);
 			}
-			accuracies.put(targetID, accuracyPercent);
-			absAccuracies.put(targetID, accuracy);
-      result.setAccuracyPrime(accuracyPercentPrime);
+			accuracyPercent = accuracy / (double) nbLearntItems;
 		}
-		result.setStricterAccuracy(accuracies);
-		result.setStricterAbsAccuracy(absAccuracies);
+		result.stricterAccuracy = accuracyPercent;
+		result.stricterAbsAccuracy = accuracy;
+		result.nbFakeItems = fakeItems;
 	}
 
-	// Compute how many real users have a cosine similarity of 1 with each target user
-	private TLongIntMap computeNbPerfectMatches(DataModel model, TLongSet targetIDs, UserSimilarity cosim) {
-		TLongIntMap nbPerfectMatches = new TLongIntHashMap(targetIDs.size());
-
-		for(TLongIterator it=targetIDs.iterator(); it.hasNext();) {
-			long targetID = it.next();
-			int nbMatches = 0;
-			for(TLongIterator iter=realUsers.iterator(); iter.hasNext();) {
-				long realUser = iter.next();
-				double x = ExceptHandler.getSim(cosim, targetID, realUser);
-				if(realUser != targetID && x == 1.0) {
-					nbMatches++;
-				}
+	// Compute how many real users have a cosine similarity of 1 with targetID
+	private int computeNbPerfectMatches(DataModel model, long targetID, UserSimilarity cosim) {
+		int nbMatches = 0;
+		for(TLongIterator iter=realUsers.iterator(); iter.hasNext();) {
+			long realUser = iter.next();
+			double x = ExceptHandler.getSim(cosim, targetID, realUser);
+			if(realUser != targetID && x == 1.0) {
+				nbMatches++;
 			}
-			nbPerfectMatches.put(targetID, nbMatches);
 		}
-
-		return nbPerfectMatches;
+		return nbMatches;
 	}
 
 	private int computeNbAuxiliaryItems(DataModel model) {
@@ -719,6 +809,9 @@ public class NearestNeighborSybilAttackEvaluator implements AttackEvaluator {
 	 */
 	private Recommender updateModelAndRecSys(RecommenderBuilder builder, SybilModelBuilder sybilBuilder, DataModel model, TLongObjectMap<List<RecommendedItem>> recommendations) {
 		DataModel updatedModel = sybilBuilder.updateSybilProfiles(model, recommendations);
+		if(builder instanceof KNNRecommenderBuilder) { // Only Sybils changed, the neighborhoods of users unrelated to them can be reused
+			((KNNRecommenderBuilder) builder).setChangedUsers(sybilBuilder.getLastUpdatedSybils().toArray());
+		}
 		return ExceptHandler.buildRecSys(builder, updatedModel);
 	}
 
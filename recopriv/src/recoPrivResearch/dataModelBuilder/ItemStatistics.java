@@ -0,0 +1,162 @@
+package recoPrivResearch.dataModelBuilder;
+
+import java.util.Arrays;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+import recoPrivResearch.tools.ExceptHandler;
+
+/**
+ * Number of ratings and mean rating of every item of a DataModel, computed once and held in
+ * primitive arrays indexed like the sorted array of item IDs.
+ * selectTop() returns the best items of a profile according to these statistics with a bounded heap,
+ * in O(profile size x log(howMany)).
+ */
+final class ItemStatistics {
+
+	static final int MOST_POPULAR = 0; // Highest mean rating first
+	static final int LEAST_POPULAR = 1; // Lowest mean rating first
+	static final int LEAST_RATED = 2; // Lowest number of ratings first
+
+	private final long[] itemIDs;
+	private final int[] counts;
+	private final float[] means;
+
+	ItemStatistics(DataModel model) {
+		itemIDs = new long[ExceptHandler.getModelNumItems(model)];
+		counts = new int[itemIDs.length];
+		means = new float[itemIDs.length];
+		try {
+			int i = 0;
+			for(LongPrimitiveIterator it=model.getItemIDs(); it.hasNext();) {
+				itemIDs[i] = it.nextLong();
+				PreferenceArray ratings = model.getPreferencesForItem(itemIDs[i]);
+				double sum = 0.0;
+				for(int m=0; m<ratings.length(); m++) {
+					sum += ratings.getValue(m);
+				}
+				counts[i] = ratings.length();
+				means[i] = (float) (sum / ratings.length());
+				i++;
+			}
+		} catch(TasteException e) {
+			e.printStackTrace();
+		}
+	}
+
+	int getNumItems() {
+		return itemIDs.length;
+	}
+
+	/**
+	 * Greatest item ID of the DataModel, 0 if it has no items.
+	 */
+	long getMaxItemID() {
+		return itemIDs.length == 0 ? 0 : itemIDs[itemIDs.length - 1];
+	}
+
+	/**
+	 * Index of itemID in the statistics arrays, negative if the DataModel does not contain it.
+	 */
+	int indexOf(long itemID) {
+		return Arrays.binarySearch(itemIDs, itemID);
+	}
+
+	/**
+	 * Return the howMany best items of profile according to order (MOST_POPULAR, LEAST_POPULAR or LEAST_RATED),
+	 * from the best to the worst. Equally good items are ordered by ascending item ID.
+	 * Items unknown to the DataModel are ignored.
+	 */
+	long[] selectTop(PreferenceArray profile, int howMany, int order) {
+		if(howMany <= 0) {
+			return new long[0];
+		}
+		// Min-heap of the howMany best (score, item) pairs found so far, the worst one at the root
+		long[] heapIDs = new long[howMany];
+		double[] heapScores = new double[howMany];
+		int size = 0;
+		for(int j=0; j<profile.length(); j++) {
+			long itemID = profile.getItemID(j);
+			int index = indexOf(itemID);
+			if(index < 0) {
+				continue;
+			}
+			double score;
+			switch(order) {
+				case MOST_POPULAR:
+					score = means[index];
+					break;
+				case LEAST_POPULAR:
+					score = -means[index];
+					break;
+				default:
+					score = -counts[index];
+					break;
+			}
+			if(size < howMany) {
+				siftUp(heapIDs, heapScores, size++, itemID, score);
+			} else if(isWorse(heapIDs[0], heapScores[0], itemID, score)) {
+				siftDown(heapIDs, heapScores, size, itemID, score);
+			}
+		}
+
+		// Pop the worst pair repeatedly to fill the result from its end
+		long[] result = new long[size];
+		while(size > 0) {
+			result[size - 1] = heapIDs[0];
+			size--;
+			siftDown(heapIDs, heapScores, size, heapIDs[size], heapScores[size]);
+		}
+		return result;
+	}
+
+	private static boolean isWorse(long id1, double score1, long id2, double score2) {
+		if(score1 != score2) {
+			return score1 < score2;
+		}
+		return id1 > id2;
+	}
+
+	private static void siftUp(long[] ids, double[] scores, int k, long id, double score) {
+		while(k > 0) {
+			int parent = (k - 1) >>> 1;
+			if(!isWorse(id, score, ids[parent], scores[parent])) {
+				break;
+			}
+			ids[k] = ids[parent];
+			scores[k] = scores[parent];
+			k = parent;
+		}
+		ids[k] = id;
+		scores[k] = score;
+	}
+
+	/**
+	 * Put (id, score) at the root of the heap of the given size, in place of the worst pair, and restore the heap.
+	 */
+	private static void siftDown(long[] ids, double[] scores, int size, long id, double score) {
+		if(size == 0) {
+			return;
+		}
+		int k = 0;
+		int half = size >>> 1;
+		while(k < half) {
+			int child = 2 * k + 1;
+			int right = child + 1;
+			if(right < size && isWorse(ids[right], scores[right], ids[child], scores[child])) {
+				child = right;
+			}
+			if(!isWorse(ids[child], scores[child], id, score)) {
+				break;
+			}
+			ids[k] = ids[child];
+			scores[k] = scores[child];
+			k = child;
+		}
+		ids[k] = id;
+		scores[k] = score;
+	}
+}
@@ -1,8 +1,14 @@
 package recoPrivResearch.dataModelBuilder;
 
+import java.util.ArrayList;
 import java.util.Random;
 import java.util.List;
 import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import gnu.trove.list.array.TLongArrayList;
 import gnu.trove.list.TLongList;
@@ -18,7 +24,6 @@ import gnu.trove.map.hash.TLongIntHashMap;
 import gnu.trove.set.hash.TLongHashSet;
 import gnu.trove.iterator.TLongIterator;
 import gnu.trove.iterator.TLongFloatIterator;
-import gnu.trove.iterator.TLongIntIterator;
 import gnu.trove.iterator.TLongObjectIterator;
 
 import org.apache.mahout.cf.taste.recommender.RecommendedItem;
@@ -31,6 +36,7 @@ import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.MutableDataModel;
 import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
 import org.apache.mahout.cf.taste.impl.model.GenericPreference;
 
@@ -64,6 +70,7 @@ public class SybilModelBuilder implements DataModelBuilder {
 	private TLongObjectMap<TLongArrayList> sybils; // Mapping attacked user ID -> list of Sybil IDs
 	private TLongObjectMap<TLongArrayList> learntItems; // Mapping attacked user ID -> list of item IDs learnt by attack, populated by updateSybilProfiles()
 	private TLongIntMap nbNonAuxiliaryItems; // Mapping attacked user ID -> nb items left in her profile for Sybils to guess
+	private TLongSet lastUpdatedSybils = new TLongHashSet(); // Sybil IDs whose profile changed in the last call to updateSybilProfiles()
 	private final int twostepAttack;  // level of the attack against twostep metric
 	private final int twostepIdealNbItems; // twostep ideal number of extra items
 	private int nbExtraItemPerSybil; // twostepAttack number of extra items per sybil
@@ -72,6 +79,12 @@ public class SybilModelBuilder implements DataModelBuilder {
 	private final double percentIdealNbItems;
 	private final boolean isGlobalIdealNbItems;
 	private final double percentAdditionalItems; // percentage of (|t| - |aux|) as nbAdditionalItems for attack lvl 5
+	private final int nbThreads; // How many targets to generate Sybil profiles for in parallel
+	private final boolean legacyPopularityAux; // Popularity-based strategies keep the first items of the profile, as they used to
+	private long[] userIDs; // Sorted IDs of the users of the original DataModel, populated by computeStatistics()
+	private ItemStatistics itemStatistics; // Number and mean of the ratings of each item in the original DataModel
+	private TLongArrayList itemIDsByFirstRating; // Item IDs of the original DataModel, in the order of their first rating
+	private long maxItemID; // Greatest item ID in use, including the items created for attack lvl 5
 
 	public SybilModelBuilder(Parameters p, Random r) {
 		nbSybils = p.nbSybils_;
@@ -92,6 +105,8 @@ public class SybilModelBuilder implements DataModelBuilder {
 		percentIdealNbItems = p.percentIdealNbItems_;
 		isGlobalIdealNbItems = p.isGlobalIdealNbItems_;
 		percentAdditionalItems = p.percentAdditionalItems_;
+		nbThreads = p.nbAttackThreads_;
+		legacyPopularityAux = p.legacyPopularityAux_;
 
 
 		logger.debug("Sybil rating strategy is {}", sybilRatingsStrategy);
@@ -102,13 +117,48 @@ public class SybilModelBuilder implements DataModelBuilder {
 		logger.info("Injecting Sybil users in the DataModel...");
 
 		DataModel originalModel = new GenericDataModel(rawData);
+		computeStatistics(originalModel);
 		auxiliaryItems = chooseTargets(originalModel);
-		sybils = generateSybilIDs(originalModel, auxiliaryItems.keySet());
-		FastByIDMap<PreferenceArray> attackedModel = ExceptHandler.dataModelToFastByIDMap(originalModel);
+		sybils = generateSybilIDs(auxiliaryItems.keySet());
+		FastByIDMap<PreferenceArray> attackedModel = new FastByIDMap<>(userIDs.length + sybils.size() * nbSybils);
+		for(long userID : userIDs) {
+			attackedModel.put(userID, ExceptHandler.getPreferences(originalModel, userID));
+		}
 		insertSybils(attackedModel, auxiliaryItems, sybils);
 		return new GenericDataModel(attackedModel);
 	}
 
+	/**
+	 * Compute once the statistics of model needed to choose targets, auxiliary items and additional items,
+	 * instead of querying or rebuilding a DataModel for each target.
+	 * Must be called while the profiles of model are sorted by item ID, as GenericDataModel leaves them.
+	 */
+	private void computeStatistics(DataModel model) {
+		userIDs = new long[ExceptHandler.getModelNumUsers(model)];
+		int i = 0;
+		for(LongPrimitiveIterator it=ExceptHandler.getModelUserIDs(model); it.hasNext();) {
+			userIDs[i++] = it.nextLong();
+		}
+
+		itemStatistics = new ItemStatistics(model);
+		maxItemID = itemStatistics.getMaxItemID();
+
+		int nbItems = itemStatistics.getNumItems();
+
+		// Item IDs in the order of their first rating, going through users by ascending ID
+		TLongSet seenItems = new TLongHashSet(nbItems);
+		itemIDsByFirstRating = new TLongArrayList(nbItems);
+		for(long userID : userIDs) {
+			PreferenceArray prefs = ExceptHandler.getPreferences(model, userID);
+			for(int j=0; j<prefs.length(); j++) {
+				long itemID = prefs.getItemID(j);
+				if(seenItems.add(itemID)) {
+					itemIDsByFirstRating.add(itemID);
+				}
+			}
+		}
+	}
+
 	/**
 	 * Randomly choose nbTargets users and nbAuxiliaryItems items in their respective profiles
 	 * as auxiliary information for the attacker, from model.
@@ -120,7 +170,7 @@ public class SybilModelBuilder implements DataModelBuilder {
 	private TLongObjectMap<TLongArrayList> chooseTargets(DataModel model) {
 		TLongObjectMap<TLongArrayList> result = new TLongObjectHashMap<>(nbTargets);
 
-		int nbUsers = ExceptHandler.getModelNumUsers(model);
+		int nbUsers = userIDs.length;
 
 		if(nbTargets > nbUsers) {
 			logger.warn("Trying to target {} users but the provided DataModel only has {} users", nbTargets, nbUsers);
@@ -132,10 +182,10 @@ public class SybilModelBuilder implements DataModelBuilder {
 			if(nbTargets > 1) { // Selecting a different user from those previously selected
 				do {
 					int index = rand.nextInt(nbUsers);
-					userID = getUserIDAt(model, ++index, nbUsers); // Increment all index values because nextInt() returns values in [0:nbUsers[ while we expect user IDs in [1:nbUsers]
+					userID = getUserIDAt(++index); // Increment all index values because nextInt() returns values in [0:nbUsers[ while we expect user IDs in [1:nbUsers]
 				} while(selectedUsers.contains(userID));
 			} else {
-				userID = getUserIDAt(model, (int) designatedTarget, nbUsers);
+				userID = getUserIDAt((int) designatedTarget);
 			}
 			selectedUsers.add(userID);
 
@@ -170,25 +220,20 @@ public class SybilModelBuilder implements DataModelBuilder {
 	}
 
 	/**
-	 * Return the user ID at position index in the list of all user IDs contained in model.
-	 * index should be in [1:maxNbUsers].
+	 * Return the user ID at position index in the sorted array of all user IDs contained in the original model.
+	 * index should be in [1:userIDs.length].
 	 * If model has less than index users, returns the last user ID.
 	 * If index is 0 or negative, returns the first user ID.
 	 */
-	private long getUserIDAt(DataModel model, int index, int maxNbUsers) {
-		LongPrimitiveIterator userIDs = ExceptHandler.getModelUserIDs(model);
-
-		// Checking index is within expected range so that userIDs.peek() does not throw NoSuchElementException.
-		if(index > maxNbUsers) {
-			logger.warn("Asking for target user at {}, but the dataset has less users, returning the last one at {}", index, maxNbUsers);
-			index = maxNbUsers;
+	private long getUserIDAt(int index) {
+		if(index > userIDs.length) {
+			logger.warn("Asking for target user at {}, but the dataset has less users, returning the last one at {}", index, userIDs.length);
+			index = userIDs.length;
 		} else if(index < 1) {
 			logger.warn("Asking for target user at index < 1 ({}), returning user at 1", index);
 			index = 1;
 		}
-		userIDs.skip(index-1);
-
-		return userIDs.peek();
+		return userIDs[index-1];
 	}
 
 	private void dropWorstRatedItems(PreferenceArray originalItemRatings, TLongArrayList aux) {
@@ -253,25 +298,16 @@ public class SybilModelBuilder implements DataModelBuilder {
 				}
 
 			} else if (auxiliaryItemsSelectionStrategy.contains("mostPopular")) {
-				TLongFloatMap globalRatings = getPopularItems(model, targetsPref, nbAuxItems, 1);
-				for ( TLongFloatIterator it = globalRatings.iterator(); it.hasNext(); ) {
-					it.advance();
-					aux.add(it.key());
-				}
+				aux.add(legacyPopularityAux ? getFirstItems(targetsPref, nbAuxItems)
+						: itemStatistics.selectTop(targetsPref, nbAuxItems, ItemStatistics.MOST_POPULAR));
 
 			} else if (auxiliaryItemsSelectionStrategy.contains("leastPopular")) {
-				TLongFloatMap globalRatings = getPopularItems(model, targetsPref, nbAuxItems, 0);
-				for ( TLongFloatIterator it = globalRatings.iterator(); it.hasNext(); ) {
-					it.advance();
-					aux.add(it.key());
-				}
+				aux.add(legacyPopularityAux ? getFirstItems(targetsPref, nbAuxItems)
+						: itemStatistics.selectTop(targetsPref, nbAuxItems, ItemStatistics.LEAST_POPULAR));
 
 			} else if (auxiliaryItemsSelectionStrategy.contains("leastRated")) {
-				TLongIntMap globalRatings = getLeastRatedItems(model, targetsPref, nbAuxItems);
-				for ( TLongIntIterator it = globalRatings.iterator(); it.hasNext(); ) {
-					it.advance();
-					aux.add(it.key());
-				}
+				aux.add(legacyPopularityAux ? getFirstItems(targetsPref, nbAuxItems)
+						: itemStatistics.selectTop(targetsPref, nbAuxItems, ItemStatistics.LEAST_RATED));
 
 			} else { // Default is random choice
 				for(int j=0; j<nbAuxItems; j++) {
@@ -294,98 +330,22 @@ public class SybilModelBuilder implements DataModelBuilder {
 	}
 
 	/**
-	 * Return nbAuxItems most / least popular items in the global system among the ones in aux info
+	 * Return the aux items formerly chosen by the mostPopular, leastPopular and leastRated strategies. As they never
+	 * replaced an item once they held nbAuxItems, these are the first nbAuxItems items of targetsPref, in the
+	 * iteration order of the Trove map which held them.
 	 */
-	private TLongFloatMap getPopularItems(DataModel model, PreferenceArray targetsPref, int nbAuxItems, int sortingType) {
-		TLongFloatMap globalRatings = new TLongFloatHashMap();
-		long[] itemsIDs = targetsPref.getIDs();
-		long currentRefID = 0;
-		float currentRef = 0; // Least popular
-		if (sortingType >= 1) {
-			currentRef = 5; // Most popular
-		}
-		for (int j = 0; j < targetsPref.length(); j++) {
-		PreferenceArray ratings = null;
-			try {
-				ratings = model.getPreferencesForItem(itemsIDs[j]);
-			} catch (TasteException ex) {
-				logger.warn("No item correspond to ID {}", itemsIDs[j]);
-			}
-			float avg = 0;
-			for (int m = 0; m < ratings.length(); m++) {
-				avg += ratings.getValue(m);
-			}
-				// If not yet nbAuxItems in map, add key, and update ref value
-			avg = avg / ratings.length();
-			if (globalRatings.size() < nbAuxItems) {
-				globalRatings.put(itemsIDs[j], avg);
-				if ((sortingType == 0 && avg > currentRef) || (sortingType >= 1 && avg < currentRef)) {
-					currentRef = avg;
-				}
-				// If bad comparison with ref value, no need to add
-				// else add, remove last ref, and update ref value
-			} else if ((sortingType == 0 && avg < currentRef) || (sortingType >= 1 && avg > currentRef)) {
-				for ( TLongFloatIterator it = globalRatings.iterator(); it.hasNext(); ) {
-					it.advance();
-					if ((sortingType == 0 && it.value() > currentRef) || (sortingType >= 1 && it.value() < currentRef)) {
-						currentRef = it.value();
-						currentRefID = it.key();
-					}
-				}
-				globalRatings.adjustValue(currentRefID, avg);
-				for ( TLongFloatIterator it = globalRatings.iterator(); it.hasNext(); ) {
-					it.advance();
-					if ((sortingType == 0 && it.value() > currentRef) || (sortingType >= 1 && it.value() < currentRef)) {
-						currentRef = it.value();
-					}
-				}
-			}
+	private long[] getFirstItems(PreferenceArray targetsPref, int nbAuxItems) {
+		TLongFloatMap firstItems = new TLongFloatHashMap();
+		for (int j = 0; j < targetsPref.length() && firstItems.size() < nbAuxItems; j++) {
+			firstItems.put(targetsPref.getItemID(j), 0.0f);
 		}
-		System.out.format("size = %d%n", globalRatings.size());
-		return globalRatings;
-	}
-
-	/**
-	 * Return nbAuxItems least rated items in the global system among the ones in aux info
-	 */
-	private TLongIntMap getLeastRatedItems(DataModel model, PreferenceArray targetsPref, int nbAuxItems) {
-		TLongIntMap globalRatings = new TLongIntHashMap();
-		long[] itemsIDs = targetsPref.getIDs();
-		long currentRefID = 0;
-		int currentRef = 0; // Least rated
-		for (int j = 0; j < targetsPref.length(); j++) {
-			int nbTimesRated = 0;
-			try {
-				nbTimesRated = model.getNumUsersWithPreferenceFor(itemsIDs[j]);
-			} catch (TasteException ex) {
-				logger.warn("No item correspond to ID {}", itemsIDs[j]);
-			}
-				// If not yet nbAuxItems in map, add key, and update ref value
-			if (globalRatings.size() < nbAuxItems) {
-				globalRatings.put(itemsIDs[j], nbTimesRated);
-				if (nbTimesRated > currentRef) {
-					currentRef = nbTimesRated;
-				}
-				// If bad comparison with ref value, no need to add
-				// else add, remove last ref, and update ref value
-			} else if (nbTimesRated < currentRef) {
-				for ( TLongIntIterator it = globalRatings.iterator(); it.hasNext(); ) {
-					it.advance();
-					if (it.value() > currentRef) {
-						currentRef = it.value();
-						currentRefID = it.key();
-					}
-				}
-				globalRatings.adjustValue(currentRefID, nbTimesRated);
-				for ( TLongIntIterator it = globalRatings.iterator(); it.hasNext(); ) {
-					it.advance();
-					if (it.value() > currentRef) {
-						currentRef = it.value();
-					}
-				}
-			}
+		long[] result = new long[firstItems.size()];
+		int i = 0;
+		for ( TLongFloatIterator it = firstItems.iterator(); it.hasNext(); ) {
+			it.advance();
+			result[i++] = it.key();
 		}
-		return globalRatings;
+		return result;
 	}
 
 	private TLongArrayList getAuxItemsRelative(DataModel model, long userID, PreferenceArray targetsPref, int nbItems) {
@@ -406,13 +366,13 @@ public class SybilModelBuilder implements DataModelBuilder {
 
 	/**
 	 * For each target user, returns a list of IDs to be used for Sybil users.
-	 * Sybil IDs are guaranteed not to conflict with any real user ID in model.
+	 * Sybil IDs are guaranteed not to conflict with any real user ID in the original model.
 	 * Sybil IDs are chosen according to getNewID()'s behavior.
 	 */
-	private TLongObjectMap<TLongArrayList> generateSybilIDs(DataModel model, TLongSet targets) {
+	private TLongObjectMap<TLongArrayList> generateSybilIDs(TLongSet targets) {
 		TLongObjectMap<TLongArrayList> result = new TLongObjectHashMap<>(nbTargets);
 
-		TLongSet userIDsInUse = getUserIDSet(model);
+		TLongSet userIDsInUse = new TLongHashSet(userIDs);
 
 		for(TLongIterator it=targets.iterator(); it.hasNext();) {
 			long userID = it.next();
@@ -431,30 +391,6 @@ public class SybilModelBuilder implements DataModelBuilder {
 		return result;
 	}
 
-	/**
-	 * Returns the set of all user IDs in model.
-	 */
-	private TLongSet getUserIDSet(DataModel model) {
-		int nbUsers = -1;
-		try {
-			nbUsers = model.getNumUsers();
-		} catch(TasteException e) {
-			e.printStackTrace();
-		}
-
-		TLongSet result = new TLongHashSet(nbUsers);
-		LongPrimitiveIterator it = null;
-		try {
-			it = model.getUserIDs();
-		} catch(TasteException e) {
-			e.printStackTrace();
-		}
-		while(it.hasNext()) {
-			result.add(it.nextLong());
-		}
-		return result;
-	}
-
 	/** Return an ID which is not contained in takenIDs.
 	 * Try the number of elements in takenIDs + 1, then increment until a free ID is found.
 	 */
@@ -468,8 +404,12 @@ public class SybilModelBuilder implements DataModelBuilder {
 
 	/**
 	 * Insert Sybil profiles in rawModel according to auxiliaryItems, sybils, and sybilRatingsStrategy.
+	 * The random choices (items given to each Sybil) are drawn target after target, in the order of sybils,
+	 * then the profiles are built on up to nbThreads threads and all put in rawModel at the end.
 	 */
 	private void insertSybils(FastByIDMap<PreferenceArray> rawModel, TLongObjectMap<TLongArrayList> auxiliaryItems, TLongObjectMap<TLongArrayList> sybils) {
+		int totalNbItems = itemIDsByFirstRating.size();
+		List<SybilProfilesPlan> plans = new ArrayList<>(sybils.size());
 		for(TLongObjectIterator<TLongArrayList> it=sybils.iterator(); it.hasNext();) {
 			it.advance();
 			long attackedUserID = it.key();
@@ -477,12 +417,8 @@ public class SybilModelBuilder implements DataModelBuilder {
 			//dropWorstRatedItems(rawModel.get(attackedUserID), usersAuxItems);
 			sybilNbAuxiliaryItems = usersAuxItems.size();
 			TLongList usersAuxItemsList = usersAuxItems.subList(0, usersAuxItems.size());
+			PreferenceArray targetsPref = rawModel.get(attackedUserID);
 
-			DataModel model = new GenericDataModel(rawModel);
-			int totalNbItems = 0;
-			try {
-				totalNbItems = model.getNumItems();
-			} catch (TasteException ex) {;}
 			int nbAvailableItemsPerSybil = (int) ((totalNbItems - usersAuxItems.size()) / nbSybils * percentIdealNbItems);
 
 			if (!isGlobalIdealNbItems) {
@@ -491,18 +427,21 @@ public class SybilModelBuilder implements DataModelBuilder {
 
 			TLongArrayList usersAdditionalItems = null;
 			if (twostepAttack == 1) {
-				usersAdditionalItems = getAdditionalItems(rawModel, nbExtraItemPerSybil, usersAuxItems);
+				usersAdditionalItems = getAdditionalItems(totalNbItems, nbExtraItemPerSybil, usersAuxItems);
 			} else if (twostepAttack == 2) {
-				usersAdditionalItems = getAdditionalItems(rawModel, nbSybils * nbExtraItemPerSybil, usersAuxItems);
+				usersAdditionalItems = getAdditionalItems(totalNbItems, nbSybils * nbExtraItemPerSybil, usersAuxItems);
 			} else if (twostepAttack == 3) {
-				usersAdditionalItems = getAdditionalItems(rawModel, nbSybils * nbAvailableItemsPerSybil, usersAuxItems);
+				usersAdditionalItems = getAdditionalItems(totalNbItems, nbSybils * nbAvailableItemsPerSybil, usersAuxItems);
 			} else if (twostepAttack == 4) {
-				nbExtraItemPerSybil = ExceptHandler.getPreferences(model, attackedUserID).length() - sybilNbAuxiliaryItems;
-				usersAdditionalItems = getAdditionalItems(rawModel, nbSybils * nbExtraItemPerSybil, usersAuxItems);
+				nbExtraItemPerSybil = targetsPref.length() - sybilNbAuxiliaryItems;
+				usersAdditionalItems = getAdditionalItems(totalNbItems, nbSybils * nbExtraItemPerSybil, usersAuxItems);
 			} else if (twostepAttack == 5) {
-				nbExtraItemPerSybil = ExceptHandler.getPreferences(model, attackedUserID).length() - sybilNbAuxiliaryItems;
+				nbExtraItemPerSybil = targetsPref.length() - sybilNbAuxiliaryItems;
 				nbExtraItemPerSybil = (int) (percentAdditionalItems * nbExtraItemPerSybil);
-				usersAdditionalItems = getCreatedAdditionalItems(rawModel, nbSybils * nbExtraItemPerSybil);
+				usersAdditionalItems = getCreatedAdditionalItems(nbSybils * nbExtraItemPerSybil);
+				if (nbSybils * nbExtraItemPerSybil > 0) { // The created items are all rated by a Sybil
+					totalNbItems += nbSybils * nbExtraItemPerSybil;
+				}
 			}
 
 
@@ -518,36 +457,106 @@ public class SybilModelBuilder implements DataModelBuilder {
 				}
 			}
 
-			TLongArrayList usersSybils = it.value();
-
-			int sybilNb = 0;
-
-			for(TLongIterator iter=usersSybils.iterator(); iter.hasNext();) {
-				long sybilID = iter.next();
-				TLongFloatMap sybilRatings = createRatings(rawModel.get(attackedUserID), usersAuxItemsList, sybilRatingsStrategy);
-
-				if (twostepAttack == 1) {
-					TLongFloatMap sybilAdditionalRatings = createRatings(usersAdditionalItems, 0, nbExtraItemPerSybil);
-					sybilRatings.putAll(sybilAdditionalRatings);
-				} else if (twostepAttack == 2) {
-					TLongFloatMap sybilAdditionalRatings = createRatings(usersAdditionalItems, sybilNb * nbExtraItemPerSybil, nbExtraItemPerSybil);
-					sybilRatings.putAll(sybilAdditionalRatings);
-				} else if (twostepAttack == 3) {
-					TLongFloatMap sybilAdditionalRatings = createRatings(usersAdditionalItems, sybilNb * nbAvailableItemsPerSybil, nbAvailableItemsPerSybil);
-					sybilRatings.putAll(sybilAdditionalRatings);
-				} else if (twostepAttack == 4 || twostepAttack == 5) {
-					TLongFloatMap sybilAdditionalRatings = createRatings(usersAdditionalItems, sybilNb * nbExtraItemPerSybil, nbExtraItemPerSybil);
-					sybilRatings.putAll(sybilAdditionalRatings);
-				}
+			// Where the additional items of the i-th Sybil start in usersAdditionalItems, and how many there are
+			int additionalStride = 0;
+			int additionalLength = 0;
+			if (twostepAttack == 1) {
+				additionalLength = nbExtraItemPerSybil;
+			} else if (twostepAttack == 3) {
+				additionalStride = nbAvailableItemsPerSybil;
+				additionalLength = nbAvailableItemsPerSybil;
+			} else if (twostepAttack == 2 || twostepAttack == 4 || twostepAttack == 5) {
+				additionalStride = nbExtraItemPerSybil;
+				additionalLength = nbExtraItemPerSybil;
+			}
 
-				sybilNb++;
-				PreferenceArray sybilProfile = buildSybilProfile(sybilID, sybilRatings);
+			plans.add(new SybilProfilesPlan(it.value(), targetsPref, usersAuxItemsList, usersAdditionalItems, additionalStride, additionalLength));
+		}
+
+		List<PreferenceArray[]> profiles = buildSybilProfiles(plans);
+		for(int i=0; i<plans.size(); i++) {
+			TLongArrayList usersSybils = plans.get(i).sybilIDs;
+			PreferenceArray[] sybilProfiles = profiles.get(i);
+			for(int j=0; j<usersSybils.size(); j++) {
+				rawModel.put(usersSybils.get(j), sybilProfiles[j]);
+			}
+		}
+	}
+
+	/**
+	 * Items given to the Sybil users of one target, as drawn by insertSybils.
+	 */
+	private static final class SybilProfilesPlan {
+		private final TLongArrayList sybilIDs;
+		private final PreferenceArray targetsPref;
+		private final TLongList auxItems;
+		private final TLongArrayList additionalItems;
+		private final int additionalStride;
+		private final int additionalLength;
+
+		private SybilProfilesPlan(TLongArrayList sybilIDs, PreferenceArray targetsPref, TLongList auxItems, TLongArrayList additionalItems, int additionalStride, int additionalLength) {
+			this.sybilIDs = sybilIDs;
+			this.targetsPref = targetsPref;
+			this.auxItems = auxItems;
+			this.additionalItems = additionalItems;
+			this.additionalStride = additionalStride;
+			this.additionalLength = additionalLength;
+		}
+	}
+
+	/**
+	 * Build the profiles of the Sybil users of each plan, on up to nbThreads threads.
+	 * Returns them in the order of plans, and of the Sybil IDs within a plan. No random choice is made here,
+	 * so that the profiles do not depend on the number of threads.
+	 */
+	private List<PreferenceArray[]> buildSybilProfiles(List<SybilProfilesPlan> plans) {
+		List<PreferenceArray[]> results = new ArrayList<>(plans.size());
+		if(nbThreads <= 1 || plans.size() <= 1) {
+			for(SybilProfilesPlan plan : plans) {
+				results.add(buildSybilProfiles(plan));
+			}
+			return results;
+		}
 
-				logger.trace("Sybil {} has the following profile: {}", sybilID, sybilProfile);
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(nbThreads, plans.size()));
+		try {
+			List<Future<PreferenceArray[]>> futures = new ArrayList<>(plans.size());
+			for(final SybilProfilesPlan plan : plans) {
+				futures.add(executor.submit(new Callable<PreferenceArray[]>() {
+					@Override
+					public PreferenceArray[] call() {
+						return buildSybilProfiles(plan);
+					}
+				}));
+			}
+			for(Future<PreferenceArray[]> future : futures) {
+				results.add(future.get());
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch(ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		return results;
+	}
 
-				rawModel.put(sybilID, sybilProfile);
+	private PreferenceArray[] buildSybilProfiles(SybilProfilesPlan plan) {
+		TLongFloatMap auxRatings = createRatings(plan.targetsPref, plan.auxItems, sybilRatingsStrategy);
+		PreferenceArray[] result = new PreferenceArray[plan.sybilIDs.size()];
+		for(int sybilNb=0; sybilNb<result.length; sybilNb++) {
+			long sybilID = plan.sybilIDs.get(sybilNb);
+			TLongFloatMap sybilRatings = new TLongFloatHashMap(auxRatings);
+			if (twostepAttack >= 1 && twostepAttack <= 5) {
+				sybilRatings.putAll(createRatings(plan.additionalItems, sybilNb * plan.additionalStride, plan.additionalLength));
 			}
+			result[sybilNb] = buildSybilProfile(sybilID, sybilRatings);
+
+			logger.trace("Sybil {} has the following profile: {}", sybilID, result[sybilNb]);
 		}
+		return result;
 	}
 
 	private PreferenceArray buildSybilProfile(long userID, TLongFloatMap ratings) {
@@ -564,40 +573,26 @@ public class SybilModelBuilder implements DataModelBuilder {
 	}
 
 
-	private TLongArrayList getAdditionalItems(FastByIDMap<PreferenceArray> rawModel, int nbItems, TLongArrayList auxItems) {
+	/**
+	 * Return nbItems random items of the original model which are not in auxItems, or null if there are not enough of them.
+	 */
+	private TLongArrayList getAdditionalItems(int totalNbItems, int nbItems, TLongArrayList auxItems) {
 		TLongArrayList aux = null;
 
-		DataModel model = new GenericDataModel(rawModel);
-		int totalNbItems = 0;
-		try {
-			totalNbItems = model.getNumItems();
-		} catch (TasteException ex) {;}
 		int nbAvailableItems = totalNbItems - auxItems.size();
 
 		if (nbAvailableItems >= nbItems) {
-			try {
-				TLongArrayList availableItemsIDs = new TLongArrayList(totalNbItems);
-				aux = new TLongArrayList(nbItems);
-				for (LongPrimitiveIterator it = model.getUserIDs(); it.hasNext();) {
-					long userID = it.nextLong();
-					PreferenceArray userPrefs =  model.getPreferencesFromUser(userID);
-					for (int i = 0; i != userPrefs.length(); i++) {
-						long itemID = userPrefs.getItemID(i);
-						if (!auxItems.contains(itemID) && !availableItemsIDs.contains(itemID)) {
-							availableItemsIDs.add(itemID);
-						}
-					}
+			TLongSet auxItemsSet = new TLongHashSet(auxItems);
+			TLongArrayList availableItemsIDs = new TLongArrayList(totalNbItems);
+			for (int i = 0; i < itemIDsByFirstRating.size(); i++) {
+				long itemID = itemIDsByFirstRating.getQuick(i);
+				if (!auxItemsSet.contains(itemID)) {
+					availableItemsIDs.add(itemID);
 				}
-				availableItemsIDs.shuffle(rand);
-				long itemID = 0;
-				TLongIterator it = availableItemsIDs.iterator();
-				int j = 0;
-				while (j < nbItems) {
-					itemID = it.next();
-					aux.add(itemID);
-					j++;
-				}
-			} catch (TasteException ex) {;}
+			}
+			availableItemsIDs.shuffle(rand);
+			aux = new TLongArrayList(nbItems);
+			aux.add(availableItemsIDs.toArray(0, nbItems));
 
 		} else {
 			logger.warn("Can't build sybil additional profiles: only {} available items, {} are asked", nbAvailableItems, nbItems);
@@ -606,33 +601,26 @@ public class SybilModelBuilder implements DataModelBuilder {
 		return aux;
 	}
 
-
-	private TLongArrayList getCreatedAdditionalItems(FastByIDMap<PreferenceArray> rawModel, int nbItems) {
-		TLongArrayList aux = null;
-
-		DataModel model = new GenericDataModel(rawModel);
-		long maxItemID = 0;
-		try {
-			for (LongPrimitiveIterator it = model.getItemIDs(); it.hasNext();) {
-				long itemID = it.nextLong();
-				if (itemID > maxItemID) {
-					maxItemID = itemID;
-				}
-			}
-			aux = new TLongArrayList(nbItems);
-			for (long itemID = maxItemID + 1; itemID < maxItemID + nbItems + 1; itemID++) {
-				aux.add(itemID);
-			}
-		} catch (TasteException ex) {;}
-
+	/**
+	 * Return nbItems new item IDs, greater than all item IDs in use.
+	 */
+	private TLongArrayList getCreatedAdditionalItems(int nbItems) {
+		TLongArrayList aux = new TLongArrayList(nbItems);
+		for (long itemID = maxItemID + 1; itemID < maxItemID + nbItems + 1; itemID++) {
+			aux.add(itemID);
+		}
+		if (nbItems > 0) {
+			maxItemID += nbItems;
+		}
 		return aux;
 	}
 
 
 	private TLongFloatMap createRatings(PreferenceArray originalItemRatings, TLongList itemIDs, String ratingStrategy) {
 		TLongFloatMap result = new TLongFloatHashMap(itemIDs.size());
+		TLongSet itemIDsSet = new TLongHashSet(itemIDs);
 		for(Preference pref : originalItemRatings) {
-			if(itemIDs.contains(pref.getItemID())) {
+			if(itemIDsSet.contains(pref.getItemID())) {
 				result.put(pref.getItemID(), getRatingValue(ratingStrategy, pref.getValue()));
 			}
 		}
@@ -710,28 +698,54 @@ public class SybilModelBuilder implements DataModelBuilder {
 	}
 
 	/**
-	 * Generate a new DataModel based on model with Sybil users' profile updated with recommendations.
+	 * Return a DataModel made of model with Sybil users' profile updated with recommendations.
 	 * Add item IDs from recommendations to learntItems.
+	 * If model is a MutableDataModel, it is updated in place and returned, so that the update costs the number of new ratings.
+	 * Otherwise, it is first copied into a MutableDataModel (sharing its profiles if model is a GenericDataModel),
+	 * which the next rounds then update: model itself is left unchanged.
+	 * The Sybils whose profile changed are then given by getLastUpdatedSybils().
 	 */
 	public DataModel updateSybilProfiles(DataModel model, TLongObjectMap<List<RecommendedItem>> recommendations) {
-		DataModel result = new GenericDataModel(ExceptHandler.dataModelToFastByIDMap(model));
+		MutableDataModel result;
+		if(model instanceof MutableDataModel) {
+			result = (MutableDataModel) model;
+		} else {
+			result = ExceptHandler.toMutableDataModel(model);
+		}
+		lastUpdatedSybils = new TLongHashSet();
+		List<PreferenceArray> newRatings = new ArrayList<>();
 		for(TLongIterator it=recommendations.keySet().iterator(); it.hasNext();) { // for each target user
 			long targetUser = it.next();
 			PreferenceArray targetsProfile = ExceptHandler.getPreferences(model, targetUser);
-			targetsProfile.sortByItem(); // Done once here because it is used by findByItemID() (in addItems())
+			targetsProfile.sortByItem(); // Done once here because it is used by findByItemID() (in createSybilRatings())
 			List<RecommendedItem> itemsLearnedFromTarget = recommendations.get(targetUser);
 
 			addToLearntItems(targetUser, itemsLearnedFromTarget);
 
+			if(itemsLearnedFromTarget.isEmpty()) {
+				continue;
+			}
 			TLongArrayList targetsSybils = sybils.get(targetUser);
 			for(TLongIterator iter=targetsSybils.iterator(); iter.hasNext();) { // for each Sybil user
 				long sybil = iter.next();
-				addItems(result, sybil, itemsLearnedFromTarget, sybilRatingsStrategy, targetsProfile);
+				newRatings.add(createSybilRatings(sybil, itemsLearnedFromTarget, sybilRatingsStrategy, targetsProfile));
+				lastUpdatedSybils.add(sybil);
 			}
 		}
+		// Set once all target profiles are read, so that the model merges the new ratings in one batch
+		for(PreferenceArray ratings : newRatings) {
+			result.setPreferences(ratings);
+		}
 		return result;
 	}
 
+	/**
+	 * Sybil users whose profile changed during the last call to updateSybilProfiles, empty if it has not been called yet.
+	 */
+	public TLongSet getLastUpdatedSybils() {
+		return lastUpdatedSybils;
+	}
+
 	/**
 	 * Add the item IDs found in recos in the list of targetID in learntItems.
 	 */
@@ -747,9 +761,13 @@ public class SybilModelBuilder implements DataModelBuilder {
 	}
 
 	/**
-	 * Add all the items from recos to userID's profile in model with ratings depending on strategy.
+	 * Return userID's ratings of all the items from recos, depending on strategy.
+	 * recos must not be empty.
 	 */
-	private static void addItems(DataModel model, long userID, List<RecommendedItem> recos, String strat, PreferenceArray targetsProfile) {
+	private static PreferenceArray createSybilRatings(long userID, List<RecommendedItem> recos, String strat, PreferenceArray targetsProfile) {
+		PreferenceArray result = new GenericUserPreferenceArray(recos.size());
+		result.setUserID(0, userID);
+		int i = 0;
 		for(RecommendedItem reco : recos) {
 			float rating = (float) -1.0;
 			if(targetsProfile.hasPrefWithItemID(reco.getItemID())) {
@@ -757,8 +775,11 @@ public class SybilModelBuilder implements DataModelBuilder {
 			} else {
 				logger.debug("Target user has no opinion about recommended item {}", reco.getItemID());
 			}
-			ExceptHandler.setRating(model, userID, reco.getItemID(), getRatingValue(strat, rating));
+			result.setItemID(i, reco.getItemID());
+			result.setValue(i, getRatingValue(strat, rating));
+			i++;
 		}
+		return result;
 	}
 
 	/**
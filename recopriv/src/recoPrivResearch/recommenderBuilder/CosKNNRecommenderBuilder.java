@@ -35,10 +35,11 @@ public class CosKNNRecommenderBuilder extends KNNRecommenderBuilder {
 
 	public Recommender buildRecommender(DataModel model) {
 
-		UserSimilarity similarity = getSimilarityMeasure(model);
+		UserSimilarity similarity = withCache(getSimilarityMeasure(model));
 
 		// Neighborhood consisting of the nearest n users
-		neighborhood = getKNNNeighborhood(similarity, model);
+		UserNeighborhood neighborhood = getKNNNeighborhood(similarity, model);
+		this.neighborhood = neighborhood;
 		logger.debug("neighborhood is null: {}", neighborhood == null);
 
 		UserBasedRecommender recommender = getRecommender(model, neighborhood,
@@ -39,7 +39,8 @@ public class CosKRandomRecommenderBuilder extends KRandomRecommenderBuilder {
 
 		UserSimilarity similarity = getSimilarityMeasure(model);
 
-		neighborhood = getKRandomNeighborhood(similarity, model);
+		UserNeighborhood neighborhood = getKRandomNeighborhood(similarity, model);
+		this.neighborhood = neighborhood;
 
 		UserBasedRecommender recommender = getRecommender(model, neighborhood, similarity);
 
@@ -10,6 +10,7 @@ import org.apache.mahout.cf.taste.recommender.Recommender;
 import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
 
 import org.apache.mahout.cf.taste.impl.similarity.TanimotoCoefficientSimilarity;
+import org.apache.mahout.cf.taste.impl.neighborhood.MinHashUserNeighborhood;
 import org.apache.mahout.cf.taste.impl.neighborhood.NearestNUserNeighborhood;
 import org.apache.mahout.cf.taste.impl.recommender.GenericUserBasedRecommender;
 
@@ -23,16 +24,35 @@ public class JaccardKNNRecommenderBuilder extends KNNRecommenderBuilder {
 
 	private static final Logger logger = LogManager.getLogger(JaccardKNNRecommenderBuilder.class);
 
+	private int nbHashes_ = 0;
+	private int nbBands_ = 0;
+	private int nbThreads_ = 1;
+	private long seed_ = 0L;
+
 	public JaccardKNNRecommenderBuilder(int k, boolean isPPNS, int beta) {
 		super(k, isPPNS, beta);
 	}
 
+	/**
+	 * Compute the kNN neighborhoods among the users sharing at least one of
+	 * nbBands bands of their MinHash signatures of nbHashes hash functions,
+	 * computed with nbThreads threads from hash functions drawn with seed.
+	 * nbHashes = 0 (default) computes exact neighborhoods. Ignored for PPNS.
+	 */
+	public void setMinHash(int nbHashes, int nbBands, int nbThreads, long seed) {
+		nbHashes_ = nbHashes;
+		nbBands_ = nbBands;
+		nbThreads_ = nbThreads;
+		seed_ = seed;
+	}
+
 	public Recommender buildRecommender(DataModel model) {
 
-		UserSimilarity similarity = getSimilarityMeasure(model);
+		UserSimilarity similarity = withCache(getSimilarityMeasure(model));
 
 		// Neighborhood consisting of the nearest n users
-		neighborhood = getKNNNeighborhood(similarity, model);
+		UserNeighborhood neighborhood = getKNNNeighborhood(similarity, model);
+		this.neighborhood = neighborhood;
 		logger.debug("neighborhood is null: {}", neighborhood==null);
 
 		UserBasedRecommender recommender = getRecommender(model, neighborhood, similarity);
@@ -40,6 +60,14 @@ public class JaccardKNNRecommenderBuilder extends KNNRecommenderBuilder {
 		return recommender;
 	}
 
+	@Override
+	protected UserNeighborhood getApproximateNeighborhood(int k, UserSimilarity similarity, DataModel model) throws TasteException {
+		if (nbHashes_ <= 0) {
+			return super.getApproximateNeighborhood(k, similarity, model);
+		}
+		return new MinHashUserNeighborhood(k, nbHashes_, nbBands_, nbThreads_, similarity, model, seed_);
+	}
+
 	protected UserSimilarity getSimilarityMeasure(DataModel model) {
 		return new TanimotoCoefficientSimilarity(model);
 	}
@@ -1,9 +1,6 @@
 package recoPrivResearch.recommenderBuilder;
 
 import java.util.AbstractCollection;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.Random;
 
 import org.apache.mahout.cf.taste.common.TasteException;
@@ -13,10 +10,22 @@ import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
 import org.apache.mahout.cf.taste.recommender.UserBasedRecommender;
 import org.apache.mahout.cf.taste.recommender.Recommender;
 import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
+import org.apache.mahout.cf.taste.impl.neighborhood.ApproximateNearestNUserNeighborhood;
+import org.apache.mahout.cf.taste.impl.neighborhood.CachingUserNeighborhood;
 import org.apache.mahout.cf.taste.impl.neighborhood.NearestNUserNeighborhood;
 import org.apache.mahout.cf.taste.impl.neighborhood.PPNSUserNeighborhood;
+import org.apache.mahout.cf.taste.impl.similarity.AbstractSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.BoundedCachingUserSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.SimilarityHistogram;
+import org.apache.mahout.cf.taste.impl.similarity.TanimotoCoefficientSimilarity;
 import org.apache.mahout.cf.taste.impl.similarity.TwoStepUncenteredCosineSimilarity;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.common.distance.CosineDistanceMeasure;
+import org.apache.mahout.math.neighborhood.BruteSearch;
+import org.apache.mahout.math.neighborhood.FastProjectionSearch;
+import org.apache.mahout.math.neighborhood.LocalitySensitiveHashSearch;
+import org.apache.mahout.math.neighborhood.ProjectionSearch;
+import org.apache.mahout.math.neighborhood.UpdatableSearcher;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -28,11 +37,19 @@ public abstract class KNNRecommenderBuilder implements NeighborhoodRecommenderBu
 	private static final Logger logger = LogManager
 			.getLogger(KNNRecommenderBuilder.class);
 	private Logger runTimeLogger = LogManager.getLogger(KNNRecommenderBuilder.class.getName() + "-runTime");
-	private static HashSet<Double> similarityDistro=new HashSet<Double>();
 	private static int numCalled=0;
 	private final int k_; // of kNN
 	private final boolean isPPNS_;
 	private final int beta_;
+	private int nbNeighborhoodThreads_ = 0;
+	private Long neighborhoodSeed_ = null;
+	private boolean cacheNeighborhoods_ = false;
+	private String searcherType_ = null;
+	private int searchSize_ = 0;
+	private int nbProjections_ = 0;
+	private long[] changedUsers_ = null;
+	private long similarityCacheBytes_ = 0;
+	private BoundedCachingUserSimilarity similarityCache_ = null;
 	protected UserNeighborhood neighborhood;
 
 	public KNNRecommenderBuilder(int k, boolean isPPNS, int beta) {
@@ -41,8 +58,95 @@ public abstract class KNNRecommenderBuilder implements NeighborhoodRecommenderBu
 		beta_ = beta;
 	}
 
+	/**
+	 * Precompute the kNN neighborhoods of all users with nbThreads threads
+	 * each time a recommender is built, instead of computing them on demand.
+	 * 0 (default) disables the precomputation. For PPNS, the beta * k
+	 * candidates of all users are precomputed.
+	 */
+	public void setNbNeighborhoodThreads(int nbThreads) {
+		nbNeighborhoodThreads_ = nbThreads;
+	}
+
+	/**
+	 * Seed the random draws of the PPNS neighborhoods which are not given a
+	 * Random, so that runs are reproducible. Without a seed, it is drawn from
+	 * Mahout's RandomUtils.
+	 */
+	public void setNeighborhoodSeed(long seed) {
+		neighborhoodSeed_ = seed;
+	}
+
+	/**
+	 * Cache the kNN neighborhood of each user the first time it is asked
+	 * for, with its ties, so that later queries with any neighbor choice
+	 * behavior do not scan all users again. Ignored for PPNS, approximate
+	 * neighborhoods and when neighborhoods are precomputed.
+	 */
+	public void setCacheNeighborhoods(boolean cacheNeighborhoods) {
+		cacheNeighborhoods_ = cacheNeighborhoods;
+	}
+
+	/**
+	 * Compute approximate kNN neighborhoods instead of exact ones: each user's
+	 * searchSize closest users in cosine distance are found with a searcher of
+	 * type "lsh", "projection", "fastprojection" or "brute", then the k most
+	 * similar of them are kept. nbProjections is only used by the projection
+	 * searchers. A null searcherType (default) computes exact neighborhoods.
+	 * Ignored for PPNS.
+	 */
+	public void setApproximateSearch(String searcherType, int searchSize, int nbProjections) {
+		searcherType_ = searcherType;
+		searchSize_ = searchSize;
+		nbProjections_ = nbProjections;
+	}
+
+	/**
+	 * Tell the next call to buildRecommender that its model only differs from
+	 * the one of the previous call by the preferences of changedUsers, so that
+	 * the precomputed kNN neighborhoods of the other users can be reused when
+	 * the similarity allows it. Only used with setNbNeighborhoodThreads.
+	 */
+	public void setChangedUsers(long[] changedUsers) {
+		changedUsers_ = changedUsers;
+	}
+
+	/**
+	 * Cache the user similarities of each recommender built, within
+	 * maxMemoryBytes. 0 (default) disables the cache. The two-step similarity
+	 * is never cached since its values change as thresholds are set.
+	 */
+	public void setSimilarityCacheSize(long maxMemoryBytes) {
+		similarityCacheBytes_ = maxMemoryBytes;
+	}
+
 	public abstract Recommender buildRecommender(DataModel model);
 
+	/**
+	 * Wrap similarity in a cache if enabled. The cache of the previous
+	 * recommender is reused, without the changed users' entries, when
+	 * setChangedUsers was called, i.e. when model is an update of the previous
+	 * one. Must be called before getKNNNeighborhood.
+	 */
+	protected UserSimilarity withCache(UserSimilarity similarity) {
+		if (similarityCacheBytes_ <= 0 || similarity instanceof TwoStepUncenteredCosineSimilarity) {
+			return similarity;
+		}
+		if (similarityCache_ != null) {
+			logger.info("Similarity cache of the previous recommender: {}", similarityCache_);
+		}
+		boolean symmetric = similarity instanceof TanimotoCoefficientSimilarity
+				|| (similarity instanceof AbstractSimilarity && ((AbstractSimilarity) similarity).isSymmetric());
+		BoundedCachingUserSimilarity cache;
+		if (changedUsers_ != null && similarityCache_ != null && similarityCache_.isSymmetric() == symmetric) {
+			cache = new BoundedCachingUserSimilarity(similarity, similarityCache_, changedUsers_);
+		} else {
+			cache = new BoundedCachingUserSimilarity(similarity, symmetric, similarityCacheBytes_);
+		}
+		similarityCache_ = cache;
+		return cache;
+	}
+
 	protected abstract UserSimilarity getSimilarityMeasure(DataModel model);
 
 	protected UserNeighborhood getKNNNeighborhood(UserSimilarity similarity,
@@ -55,10 +159,34 @@ public abstract class KNNRecommenderBuilder implements NeighborhoodRecommenderBu
 		try {
 
 			if (isPPNS_) {
-				neighborhood = new PPNSUserNeighborhood(k_, similarity, model, beta_);
+				PPNSUserNeighborhood ppns = neighborhoodSeed_ == null
+						? new PPNSUserNeighborhood(k_, similarity, model, beta_)
+						: new PPNSUserNeighborhood(k_, Double.NEGATIVE_INFINITY, similarity, model, 1.0, beta_, neighborhoodSeed_);
+				if (nbNeighborhoodThreads_ > 0) {
+					long start = System.nanoTime();
+					ppns.precomputeNeighborhoods(nbNeighborhoodThreads_);
+					logger.info("Precomputed PPNS candidates {} in {} ns", ppns.getNeighborhoodGraph(), System.nanoTime() - start);
+				}
+				neighborhood = ppns;
 				logger.debug("PPNSUserNeighborhood creation suceeded");
+			} else if ((neighborhood = getApproximateNeighborhood(k_, similarity, model)) != null) {
+				logger.debug("{} creation suceeded", neighborhood);
 			} else {
-				neighborhood = new NearestNUserNeighborhood(k_, similarity, model);
+				NearestNUserNeighborhood nearestN = new NearestNUserNeighborhood(k_, similarity, model);
+				if (nbNeighborhoodThreads_ > 0) {
+					long start = System.nanoTime();
+					if (changedUsers_ != null && this.neighborhood instanceof NearestNUserNeighborhood) {
+						nearestN.precomputeNeighborhoods(nbNeighborhoodThreads_, (NearestNUserNeighborhood) this.neighborhood, changedUsers_);
+					} else {
+						nearestN.precomputeNeighborhoods(nbNeighborhoodThreads_);
+					}
+					logger.info("Precomputed kNN graph {} in {} ns", nearestN.getNeighborhoodGraph(), System.nanoTime() - start);
+				}
+				if (cacheNeighborhoods_ && nbNeighborhoodThreads_ <= 0) {
+					neighborhood = new CachingUserNeighborhood(nearestN, model);
+				} else {
+					neighborhood = nearestN;
+				}
 				logger.debug("NearestNUserNeighborhood creation suceeded");
 			}
 
@@ -67,6 +195,7 @@ public abstract class KNNRecommenderBuilder implements NeighborhoodRecommenderBu
 			logger.debug("NearestNUserNeighborhood creation failed w/ TasteException");
 		}
 		logger.debug("neighborhood is null: {}", neighborhood == null);
+		changedUsers_ = null;
 
 		// if (similarity instanceof TwoStepUncenteredCosineSimilarity){
 		// 	//compute distribution
@@ -91,6 +220,66 @@ public abstract class KNNRecommenderBuilder implements NeighborhoodRecommenderBu
 		return neighborhood;
 	}
 
+	/**
+	 * Return an approximate kNN neighborhood, or null to compute exact
+	 * neighborhoods. Subclasses may override it for their similarity.
+	 */
+	protected UserNeighborhood getApproximateNeighborhood(int k,
+			UserSimilarity similarity, DataModel model) throws TasteException {
+		if (searcherType_ == null) {
+			return null;
+		}
+		return new ApproximateNearestNUserNeighborhood(k, Math.max(k, searchSize_),
+				new CosineSearcherFactory(searcherType_, searchSize_, nbProjections_), similarity, model);
+	}
+
+	/**
+	 * Create a new cosine distance searcher for each index of an
+	 * ApproximateNearestNUserNeighborhood, so that an index rebuilt after a
+	 * refresh does not clear the searcher of the former one.
+	 */
+	private static final class CosineSearcherFactory implements ApproximateNearestNUserNeighborhood.SearcherFactory {
+
+		private final String searcherType;
+		private final int searchSize;
+		private final int nbProjections;
+
+		private CosineSearcherFactory(String searcherType, int searchSize, int nbProjections) {
+			switch (searcherType) {
+			case "lsh":
+			case "projection":
+			case "fastprojection":
+			case "brute":
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown approximate kNN searcher: " + searcherType);
+			}
+			this.searcherType = searcherType;
+			this.searchSize = searchSize;
+			this.nbProjections = nbProjections;
+		}
+
+		@Override
+		public UpdatableSearcher newSearcher() {
+			CosineDistanceMeasure distance = new CosineDistanceMeasure();
+			switch (searcherType) {
+			case "lsh":
+				return new LocalitySensitiveHashSearch(distance, searchSize);
+			case "projection":
+				return new ProjectionSearch(distance, nbProjections, searchSize);
+			case "fastprojection":
+				return new FastProjectionSearch(distance, nbProjections, searchSize);
+			default:
+				return new BruteSearch(distance);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return searcherType;
+		}
+	}
+
 	protected abstract UserBasedRecommender getRecommender(DataModel model,
 			UserNeighborhood neighborhood, UserSimilarity similarity);
 
@@ -182,9 +371,10 @@ public abstract class KNNRecommenderBuilder implements NeighborhoodRecommenderBu
 				// 	e.printStackTrace();
 				// }
 
+				SimilarityHistogram allValues = new SimilarityHistogram();
 				while (it.hasNext()) {
 					long user = it.nextLong();
-					HashSet<Double> simValues = null;
+					SimilarityHistogram simValues = null;
 					try {
 						simValues = nneighborhood
 								.getSimilarityDistributionForUser(user);
@@ -194,26 +384,21 @@ public abstract class KNNRecommenderBuilder implements NeighborhoodRecommenderBu
 					avgProfileSize+=ExceptHandler.getPreferences(model, user).length();
 					numUsers++;
 					if (perUserDistro) {
-						ArrayList<Double> sortedValues = new ArrayList<Double>(simValues);
-						Collections.sort(sortedValues);
-						int maxPos = sortedValues.size() - 1;
+						int maxPos = simValues.getNumDistinctValues() - 1;
 						int position = (int) Math.round(maxPos * percentile);
-						double threshold = sortedValues.get(position);
+						double threshold = simValues.getDistinctValue(position);
 						logger.debug("User {}: {} percentile is at position {} among {} in similarity array, threshold={}", user, percentile, position, maxPos, threshold);
 						twoStep.setSimilarityThresholdForUser(user,
 								threshold);
 					} else {
-						similarityDistro.addAll(simValues);
+						allValues.merge(simValues);
 					}
 				}
 
 				if (!perUserDistro) {
-					ArrayList<Double> sortedValues = new ArrayList<Double>(
-							similarityDistro);
-					Collections.sort(sortedValues);
-					int maxPos = sortedValues.size() - 1;
+					int maxPos = allValues.getNumDistinctValues() - 1;
 					int position = (int) Math.round(maxPos * percentile);
-					double threshold = sortedValues.get(position);
+					double threshold = allValues.getDistinctValue(position);
 					logger.debug("returning {} for all pos={} of {} simValue: {}", percentile, position, maxPos, threshold);
 					twoStep.setSimilarityThresholdForAllUser(threshold);
 				}
@@ -1,7 +1,5 @@
 package recoPrivResearch.recommenderBuilder;
 
-import java.util.Random;
-
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.similarity.UserSimilarity;
@@ -39,11 +37,11 @@ public class VariousSimmRecommenderBuilder extends KNNRecommenderBuilder {
 	private final double percentIdealNbItems;
 	private final boolean randomizeIdealNbItems;
 	private final String variantIdealNbItems;
-	private final Random rand;
+	private final long seed;
 
 	private UserSimilarity sim;
 
-	public VariousSimmRecommenderBuilder(int k, String type, boolean useThreshold, int nbItems, String firstStepType, boolean isGlobal, double per, boolean randomize, Random r, String variantIdeal, boolean isPPNS, int beta) {
+	public VariousSimmRecommenderBuilder(int k, String type, boolean useThreshold, int nbItems, String firstStepType, boolean isGlobal, double per, boolean randomize, long seed, String variantIdeal, boolean isPPNS, int beta) {
 		super(k, isPPNS, beta);
 		similarityType = type;
 		twostepUseThreshold = useThreshold;
@@ -52,17 +50,18 @@ public class VariousSimmRecommenderBuilder extends KNNRecommenderBuilder {
 		isGlobalIdealNbItems = isGlobal;
 		percentIdealNbItems = per;
 		randomizeIdealNbItems = randomize;
-		rand = r;
+		this.seed = seed;
 		variantIdealNbItems = variantIdeal;
 	}
 
 	public Recommender buildRecommender(DataModel model) {
 
-		UserSimilarity similarity = getSimilarityMeasure(model);
+		UserSimilarity similarity = withCache(getSimilarityMeasure(model));
 		sim = similarity;
 
 		// Neighborhood consisting of the nearest n users
-		neighborhood = getKNNNeighborhood(similarity, model);
+		UserNeighborhood neighborhood = getKNNNeighborhood(similarity, model);
+		this.neighborhood = neighborhood;
 		logger.debug("neighborhood is null: {}", neighborhood == null);
 
 		UserBasedRecommender recommender = getRecommender(model, neighborhood,
@@ -84,7 +83,7 @@ public class VariousSimmRecommenderBuilder extends KNNRecommenderBuilder {
 				twostepSimil.setIsGlobalIdealNbItems(isGlobalIdealNbItems);
 				twostepSimil.setPercentIdealNbItems(percentIdealNbItems);
 				twostepSimil.setRandomizeIdealNbItems(randomizeIdealNbItems);
-				twostepSimil.setRand(rand);
+				twostepSimil.setSeed(seed);
 				if (twostepFirstStepType.contains("cosine-average")) {
 					similarity.setPreferenceInferrer(ExceptHandler.getAveragingPrefInferrer(model));
 					similarity.setEnableXInferrer(true);
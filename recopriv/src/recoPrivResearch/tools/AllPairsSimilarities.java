@@ -0,0 +1,302 @@
+package recoPrivResearch.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.similarity.AveragingPreferenceInferrer;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Compute the similarities of all pairs of distinct users with the measures studied by SimilarityDistribution and
+ * PerfectlySimilarCounterpartsComputer, merging the profiles of each pair only once.
+ * The values are the same as those of the corresponding Mahout UserSimilarity objects:
+ * - COS_MAHOUT: UncenteredCosineSimilarity without inferrer,
+ * - COS: UncenteredCosineSimilarity with a ZeroingPreferenceInferrer,
+ * - JACCARD: TanimotoCoefficientSimilarity,
+ * - COS_AVG: UncenteredCosineSimilarity with an AveragingPreferenceInferrer,
+ * - PEARSON: PearsonCorrelationSimilarity with a ZeroingPreferenceInferrer,
+ * - WUP_X_ONTO_Y and WUP_Y_ONTO_X: UncenteredCosineSimilarity with a ZeroingPreferenceInferrer enabled for X or Y only.
+ * The sums are accumulated in the same order as Mahout does, so that the results are identical.
+ * The lower half of the user-user matrix is split into tiles, processed by a pool of threads.
+ */
+public class AllPairsSimilarities {
+
+	private static final Logger logger = LogManager.getLogger(AllPairsSimilarities.class);
+
+	public static final int COS_MAHOUT = 0;
+	public static final int COS = 1;
+	public static final int JACCARD = 2;
+	public static final int COS_AVG = 3;
+	public static final int PEARSON = 4;
+	public static final int WUP_X_ONTO_Y = 5;
+	public static final int WUP_Y_ONTO_X = 6;
+	public static final int NB_MEASURES = 7;
+
+	private static final int TILE_SIZE = 256; // Users per side of a tile, so that a tile's profiles stay in cache
+
+	/**
+	 * Receives the similarities of pairs of users, from a single thread.
+	 */
+	public interface PairVisitor {
+		/**
+		 * similarities holds one value per measure, indexed by the constants above, for (userID1, userID2).
+		 * As the cosine is commutative, WUP_X_ONTO_Y(userID2, userID1) is similarities[WUP_Y_ONTO_X] and
+		 * WUP_Y_ONTO_X(userID2, userID1) is similarities[WUP_X_ONTO_Y].
+		 * The array is reused for the next pair.
+		 */
+		void visit(long userID1, long userID2, float[] similarities);
+	}
+
+	private final long[] userIDs;
+	private final long[][] itemIDs;
+	private final float[][] values;
+	private final float[] averages;
+
+	public AllPairsSimilarities(DataModel model) {
+		int nbUsers = ExceptHandler.getModelNumUsers(model);
+		userIDs = new long[nbUsers];
+		itemIDs = new long[nbUsers][];
+		values = new float[nbUsers][];
+		averages = new float[nbUsers];
+		AveragingPreferenceInferrer inferrer = ExceptHandler.getAveragingPrefInferrer(model);
+		int i = 0;
+		for(LongPrimitiveIterator it = ExceptHandler.getModelUserIDs(model); it.hasNext(); i++) {
+			userIDs[i] = it.nextLong();
+			PreferenceArray prefs = ExceptHandler.getPreferences(model, userIDs[i]);
+			itemIDs[i] = new long[prefs.length()];
+			values[i] = new float[prefs.length()];
+			for(int p=0; p<prefs.length(); p++) {
+				itemIDs[i][p] = prefs.getItemID(p);
+				values[i][p] = prefs.getValue(p);
+			}
+			try {
+				averages[i] = inferrer.inferPreference(userIDs[i], 0);
+			} catch(TasteException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	public long[] getUserIDs() {
+		return userIDs;
+	}
+
+	/**
+	 * Visit all pairs (userIDs[j], userIDs[k]) with k < j, using one visitor per thread.
+	 * Pairs are visited in an unspecified order.
+	 */
+	public void visitLowerHalf(final List<? extends PairVisitor> visitors) {
+		int nbBlocks = (userIDs.length + TILE_SIZE - 1) / TILE_SIZE;
+		// Tiles (rowBlock, colBlock) with colBlock <= rowBlock, biggest rows first for a better balance
+		final int[] tileRows = new int[nbBlocks * (nbBlocks + 1) / 2];
+		final int[] tileCols = new int[tileRows.length];
+		int t = 0;
+		for(int row=nbBlocks-1; row>=0; row--) {
+			for(int col=0; col<=row; col++) {
+				tileRows[t] = row;
+				tileCols[t] = col;
+				t++;
+			}
+		}
+		final AtomicInteger nextTile = new AtomicInteger();
+		final AtomicInteger nbDoneTiles = new AtomicInteger();
+
+		List<Callable<Void>> workers = new ArrayList<Callable<Void>>(visitors.size());
+		for(final PairVisitor visitor : visitors) {
+			workers.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					float[] similarities = new float[NB_MEASURES];
+					int tile;
+					while((tile = nextTile.getAndIncrement()) < tileRows.length) {
+						visitTile(tileRows[tile], tileCols[tile], visitor, similarities);
+						int done = nbDoneTiles.incrementAndGet();
+						if(done % 100 == 0 || done == tileRows.length) {
+							logger.info("Processed {}/{} tiles of {}x{} users", done, tileRows.length, TILE_SIZE, TILE_SIZE);
+						}
+					}
+					return null;
+				}
+			});
+		}
+
+		if(workers.size() == 1) {
+			try {
+				workers.get(0).call();
+			} catch(Exception e) {
+				throw new IllegalStateException(e);
+			}
+			return;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(workers.size());
+		try {
+			for(Future<Void> future : executor.invokeAll(workers)) {
+				future.get();
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch(ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private void visitTile(int rowBlock, int colBlock, PairVisitor visitor, float[] similarities) {
+		int rowEnd = Math.min((rowBlock + 1) * TILE_SIZE, userIDs.length);
+		int colEnd = Math.min((colBlock + 1) * TILE_SIZE, userIDs.length);
+		for(int j=rowBlock*TILE_SIZE; j<rowEnd; j++) {
+			int end = Math.min(colEnd, j);
+			for(int k=colBlock*TILE_SIZE; k<end; k++) {
+				computeSimilarities(j, k, similarities);
+				visitor.visit(userIDs[j], userIDs[k], similarities);
+			}
+		}
+	}
+
+	/**
+	 * Fill similarities for users x and y (indices in userIDs), from a single merge of their profiles.
+	 */
+	void computeSimilarities(int x, int y, float[] similarities) {
+		long[] xItems = itemIDs[x];
+		long[] yItems = itemIDs[y];
+		float[] xValues = values[x];
+		float[] yValues = values[y];
+		int xLength = xItems.length;
+		int yLength = yItems.length;
+
+		if(xLength == 0 || yLength == 0) {
+			for(int m=0; m<NB_MEASURES; m++) {
+				similarities[m] = Float.NaN;
+			}
+			// Tanimoto distinguishes one empty profile from two
+			similarities[JACCARD] = xLength == 0 && yLength == 0 ? Float.NaN : 0.0f;
+			return;
+		}
+
+		// Items rated by both users
+		int nbCommon = 0;
+		double commonXY = 0.0;
+		double commonX2 = 0.0;
+		double commonY2 = 0.0;
+		// Each user's items, with zeros inferred for the other's
+		double sumX = 0.0;
+		double sumY = 0.0;
+		double sumX2 = 0.0;
+		double sumY2 = 0.0;
+		// All items, with averages inferred
+		double avgXY = 0.0;
+		double avgX2 = 0.0;
+		double avgY2 = 0.0;
+		double xAverage = averages[x];
+		double yAverage = averages[y];
+
+		int xIndex = 0;
+		int yIndex = 0;
+		while(xIndex < xLength || yIndex < yLength) {
+			long xItem = xIndex < xLength ? xItems[xIndex] : Long.MAX_VALUE;
+			long yItem = yIndex < yLength ? yItems[yIndex] : Long.MAX_VALUE;
+			if(xItem == yItem) {
+				double xValue = xValues[xIndex++];
+				double yValue = yValues[yIndex++];
+				nbCommon++;
+				double product = xValue * yValue;
+				double xSquare = xValue * xValue;
+				double ySquare = yValue * yValue;
+				commonXY += product;
+				commonX2 += xSquare;
+				commonY2 += ySquare;
+				sumX += xValue;
+				sumY += yValue;
+				sumX2 += xSquare;
+				sumY2 += ySquare;
+				avgXY += product;
+				avgX2 += xSquare;
+				avgY2 += ySquare;
+			} else if(xItem < yItem) {
+				double xValue = xValues[xIndex++];
+				double xSquare = xValue * xValue;
+				sumX += xValue;
+				sumX2 += xSquare;
+				avgXY += xValue * yAverage;
+				avgX2 += xSquare;
+				avgY2 += yAverage * yAverage;
+			} else {
+				double yValue = yValues[yIndex++];
+				double ySquare = yValue * yValue;
+				sumY += yValue;
+				sumY2 += ySquare;
+				avgXY += xAverage * yValue;
+				avgX2 += xAverage * xAverage;
+				avgY2 += ySquare;
+			}
+		}
+		int nbUnion = xLength + yLength - nbCommon;
+
+		similarities[COS_MAHOUT] = (float) cosine(nbCommon, commonXY, commonX2, commonY2);
+		similarities[COS] = (float) cosine(nbUnion, commonXY, sumX2, sumY2);
+		similarities[JACCARD] = nbCommon == 0 ? Float.NaN : (float) ((double) nbCommon / (double) nbUnion);
+		similarities[COS_AVG] = (float) cosine(nbUnion, avgXY, avgX2, avgY2);
+		similarities[PEARSON] = (float) pearson(nbUnion, sumX, sumY, commonXY, sumX2, sumY2);
+		// X's preferences inferred for Y's items only, and conversely
+		similarities[WUP_X_ONTO_Y] = (float) cosine(yLength, commonXY, commonX2, sumY2);
+		similarities[WUP_Y_ONTO_X] = (float) cosine(xLength, commonXY, sumX2, commonY2);
+	}
+
+	/**
+	 * Same as UncenteredCosineSimilarity.computeResult, clamped like AbstractSimilarity.
+	 */
+	private static double cosine(int n, double sumXY, double sumX2, double sumY2) {
+		if(n == 0) {
+			return Double.NaN;
+		}
+		double denominator = Math.sqrt(sumX2) * Math.sqrt(sumY2);
+		if(denominator == 0.0) {
+			return Double.NaN;
+		}
+		double result = sumXY / denominator;
+		if((1.0 - result) <= 0.00000000000001) {
+			return 1.0;
+		}
+		return clamp(result);
+	}
+
+	/**
+	 * Same as PearsonCorrelationSimilarity, centering the sums like AbstractSimilarity.
+	 */
+	private static double pearson(int n, double sumX, double sumY, double sumXY, double sumX2, double sumY2) {
+		double meanX = sumX / n;
+		double meanY = sumY / n;
+		double centeredSumXY = sumXY - meanY * sumX;
+		double centeredSumX2 = sumX2 - meanX * sumX;
+		double centeredSumY2 = sumY2 - meanY * sumY;
+		if(n == 0) {
+			return Double.NaN;
+		}
+		double denominator = Math.sqrt(centeredSumX2) * Math.sqrt(centeredSumY2);
+		if(denominator == 0.0) {
+			return Double.NaN;
+		}
+		return clamp(centeredSumXY / denominator);
+	}
+
+	private static double clamp(double result) {
+		if(Double.isNaN(result)) {
+			return result;
+		}
+		return result < -1.0 ? -1.0 : result > 1.0 ? 1.0 : result;
+	}
+}
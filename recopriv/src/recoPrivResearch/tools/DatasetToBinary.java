@@ -0,0 +1,106 @@
+package recoPrivResearch.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Hashtable;
+import java.util.Iterator;
+
+import threadedSim.util.ScoreCount;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.model.CompactDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/**
+ * Convert datasets to the binary format of CompactDataModel, to be loaded with dataModelType "mapped".
+ * Mapping the binary file skips the parsing of the dataset at each run,
+ * and lets the JVMs running on the same machine share it through the page cache.
+ */
+public class DatasetToBinary {
+
+	private static final Logger logger = LogManager.getLogger(DatasetToBinary.class);
+
+	/**
+	 * Convert the CSV file (.csv extension) or serialized Hashtable<Int,ScoreCount> (other extensions) at path.
+	 * The binary file is written in the "binary" subdirectory of the original one's, with the last extension replaced by ".bin".
+	 */
+	public static void convert(String path) throws IOException, TasteException {
+		CompactDataModel model;
+		if(path.endsWith(".csv")) {
+			DataModel fileModel = ExceptHandler.createDataModel(path);
+			if(fileModel == null) {
+				throw new IOException("Cannot load " + path);
+			}
+			model = new CompactDataModel(fileModel);
+		} else {
+			Hashtable<Integer, ScoreCount<Integer>> dataset = SerializedDatasetToCSV.deserializeHastableIntScoreCount(path);
+			if(dataset == null) {
+				throw new IOException("Cannot deserialize " + path);
+			}
+			model = new CompactDataModel(toDataMap(dataset));
+		}
+
+		File result = new File(getResultPath(path));
+		model.write(result);
+		logger.info("{} users and {} items written to {} ({} bytes)", model.getNumUsers(), model.getNumItems(), result, result.length());
+	}
+
+	/**
+	 * Returns the user profiles of dataset, the same as the CSV file written by SerializedDatasetToCSV would give.
+	 */
+	private static FastByIDMap<PreferenceArray> toDataMap(Hashtable<Integer, ScoreCount<Integer>> dataset) {
+		FastByIDMap<PreferenceArray> result = new FastByIDMap<PreferenceArray>(dataset.size());
+		for(Iterator<Integer> it=dataset.keySet().iterator(); it.hasNext();) {
+			Integer userID = it.next();
+			ScoreCount<Integer> profile = dataset.get(userID);
+			PreferenceArray prefs = new GenericUserPreferenceArray(profile.getItems().size());
+			prefs.setUserID(0, userID);
+			int i = 0;
+			for(Iterator<Integer> iter=profile.getItems().iterator(); iter.hasNext();) {
+				Integer itemID = iter.next();
+				prefs.setItemID(i, itemID);
+				prefs.setValue(i, (float) profile.getValue(itemID));
+				i++;
+			}
+			result.put(userID, prefs);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the path of the file with the same name as the one at path, with the last extension replaced by ".bin",
+	 * in a "binary" subdirectory of its directory.
+	 * The binary file is not written next to the original one, because FileDataModel would then read it as an update
+	 * of the dataset, as any file whose name starts like the dataset's.
+	 */
+	private static String getResultPath(String path) throws IOException {
+		File original = new File(path);
+		File dir = new File(original.getAbsoluteFile().getParentFile(), "binary");
+		if(!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create " + dir);
+		}
+		String name = original.getName();
+		int extensionStart = name.lastIndexOf('.');
+		if(extensionStart > 0) {
+			name = name.substring(0, extensionStart);
+		}
+		return new File(dir, name + ".bin").getPath();
+	}
+
+	/**
+	 * Converting all files given as arguments to binary files.
+	 */
+	public static void main(String[] args) throws IOException, TasteException {
+		for(int i=0; i<args.length; i++) {
+			logger.info("Converting {}", args[i]);
+			convert(args[i]);
+		}
+	}
+
+}
@@ -23,7 +23,9 @@ import org.apache.mahout.cf.taste.similarity.UserSimilarity;
 
 import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.CompactDataModel;
 import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.MutableDataModel;
 import org.apache.mahout.cf.taste.impl.model.file.FileDataModel;
 import org.apache.mahout.cf.taste.impl.recommender.GenericUserBasedRecommender;
 import org.apache.mahout.cf.taste.impl.similarity.AveragingPreferenceInferrer;
@@ -172,6 +174,19 @@ public class ExceptHandler {
 		return result;
 	}
 
+	/**
+	 * Simple wrapper around MutableDataModel's constructor.
+	 */
+	public static MutableDataModel toMutableDataModel(DataModel model) {
+		MutableDataModel result = null;
+		try {
+			result = new MutableDataModel(model);
+		} catch(TasteException e) {
+			e.printStackTrace();
+		}
+		return result;
+	}
+
 	/**
 	 * Simple wrapper around DataModel.getPreferencesFromUser().
 	 */
@@ -209,6 +224,33 @@ public class ExceptHandler {
 		return model;
 	}
 
+	/**
+	 * Simple wrapper around the constructors of the DataModels.
+	 * Load the dataset at datasetPath in a FileDataModel, and copy it in a read-only CompactDataModel
+	 * if dataModelType is "compact".
+	 * If dataModelType is "mapped", datasetPath is a binary file written by DatasetToBinary, mapped in memory.
+	 */
+	public static DataModel createDataModel(String datasetPath, String dataModelType) {
+		if (dataModelType.equals("mapped")) {
+			DataModel model = null;
+			try {
+				model = CompactDataModel.map(new File(datasetPath));
+			} catch(IOException e) {
+				System.out.println(e);
+			}
+			return model;
+		}
+		DataModel model = createDataModel(datasetPath);
+		if (model != null && dataModelType.equals("compact")) {
+			try {
+				model = new CompactDataModel(model);
+			} catch(TasteException e) {
+				e.printStackTrace();
+			}
+		}
+		return model;
+	}
+
 	/**
 	 * Simple wrapper around Parameters.log().
 	 */
@@ -233,6 +275,19 @@ public class ExceptHandler {
 		return result;
 	}
 
+	/**
+	 * Simple wrapper around DataModel.getItemIDs().
+	 */
+	public static LongPrimitiveIterator getModelItemIDs(DataModel model) {
+		LongPrimitiveIterator result = null;
+		try {
+			result = model.getItemIDs();
+		} catch(TasteException e) {
+			e.printStackTrace();
+		}
+		return result;
+	}
+
 	/**
 	 * Simple wrapper around AveragingPreferenceInferrer's constructor.
 	 */
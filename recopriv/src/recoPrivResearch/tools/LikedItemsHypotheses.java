@@ -0,0 +1,226 @@
+package recoPrivResearch.tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Count, for every user u, the other users n whose liked items (rated at least likeThreshold) fit the
+ * theoretical hypotheses of the hypotheses evaluation:
+ * - I: n likes the same items as u,
+ * - II: n likes one item less than u, all of them liked by u,
+ * - III: n likes as many items as u, all of them but one liked by u.
+ * As before, an item u did not rate counts as liked by u only if a rating of -1 would.
+ * The liked items of each user are held once as a sorted array of dense item indices.
+ * As all the hypotheses require n to like as many items as u or one less, users are grouped by number of
+ * liked items and u is only compared with the users of these two groups: u's items are put in a bitset, then
+ * n's are looked up in it until two are missing.
+ * Users are processed in chunks by a pool of threads.
+ */
+public class LikedItemsHypotheses {
+
+	private static final Logger logger = LogManager.getLogger(LikedItemsHypotheses.class);
+
+	public static final int HYPO_I = 0;
+	public static final int HYPO_II = 1;
+	public static final int HYPO_III = 2;
+	public static final int NB_HYPOTHESES = 3;
+
+	private static final int CHUNK_SIZE = 64; // Users per chunk handed to a thread
+
+	private final boolean unratedLiked; // Whether the -1 given to unrated items passes likeThreshold
+	private final long[] userIDs;
+	private final int nbItems;
+	// Rated items of each user, as dense indices in the sorted array of item IDs, liked ones first
+	private final int[][] ratedItems;
+	private final int[] nbLiked;
+	// Indices of the users sorted by number of liked items, and start of each group in it
+	private final int[] bySize;
+	private final int[] groupStarts;
+
+	public LikedItemsHypotheses(DataModel model, double likeThreshold) {
+		unratedLiked = -1.0f >= likeThreshold;
+
+		long[] itemIDs = new long[ExceptHandler.getModelNumItems(model)];
+		int i = 0;
+		for(LongPrimitiveIterator it = ExceptHandler.getModelItemIDs(model); it.hasNext(); i++) {
+			itemIDs[i] = it.nextLong();
+		}
+		Arrays.sort(itemIDs);
+		nbItems = itemIDs.length;
+
+		int nbUsers = ExceptHandler.getModelNumUsers(model);
+		userIDs = new long[nbUsers];
+		ratedItems = new int[nbUsers][];
+		nbLiked = new int[nbUsers];
+		int maxLiked = 0;
+		int u = 0;
+		for(LongPrimitiveIterator it = ExceptHandler.getModelUserIDs(model); it.hasNext(); u++) {
+			userIDs[u] = it.nextLong();
+			PreferenceArray prefs = ExceptHandler.getPreferences(model, userIDs[u]);
+			int[] items = new int[prefs.length()];
+			int nbDisliked = 0;
+			for(int p=0; p<prefs.length(); p++) {
+				int item = Arrays.binarySearch(itemIDs, prefs.getItemID(p));
+				if(prefs.getValue(p) >= likeThreshold) {
+					items[nbLiked[u]++] = item;
+				} else {
+					items[items.length - ++nbDisliked] = item;
+				}
+			}
+			Arrays.sort(items, 0, nbLiked[u]);
+			ratedItems[u] = items;
+			maxLiked = Math.max(maxLiked, nbLiked[u]);
+		}
+
+		// Counting sort of the users by number of liked items
+		groupStarts = new int[maxLiked + 2];
+		for(u=0; u<nbUsers; u++) {
+			groupStarts[nbLiked[u] + 1]++;
+		}
+		for(int s=1; s<groupStarts.length; s++) {
+			groupStarts[s] += groupStarts[s - 1];
+		}
+		bySize = new int[nbUsers];
+		int[] next = Arrays.copyOf(groupStarts, groupStarts.length - 1);
+		for(u=0; u<nbUsers; u++) {
+			bySize[next[nbLiked[u]]++] = u;
+		}
+	}
+
+	public long[] getUserIDs() {
+		return userIDs;
+	}
+
+	/**
+	 * Number of items liked by userIDs[u].
+	 */
+	public int getNbLiked(int u) {
+		return nbLiked[u];
+	}
+
+	/**
+	 * Return, for each user of getUserIDs(), the number of other users fitting each hypothesis, indexed by the
+	 * constants above. Results do not depend on nbThreads.
+	 */
+	public int[][] countHypotheses(int nbThreads) {
+		final int[][] result = new int[userIDs.length][];
+		final int nbChunks = (userIDs.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		final AtomicInteger nextChunk = new AtomicInteger();
+		final AtomicInteger nbDoneChunks = new AtomicInteger();
+
+		List<Callable<Void>> workers = new ArrayList<Callable<Void>>(nbThreads);
+		for(int t=0; t<Math.max(1, Math.min(nbThreads, nbChunks)); t++) {
+			workers.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					long[] likedByU = new long[(nbItems + 63) >>> 6];
+					int chunk;
+					while((chunk = nextChunk.getAndIncrement()) < nbChunks) {
+						int end = Math.min((chunk + 1) * CHUNK_SIZE, userIDs.length);
+						for(int u=chunk*CHUNK_SIZE; u<end; u++) {
+							result[u] = countHypotheses(u, likedByU);
+						}
+						int done = nbDoneChunks.incrementAndGet();
+						if(done % 100 == 0 || done == nbChunks) {
+							logger.info("Processed {}/{} chunks of {} users", done, nbChunks, CHUNK_SIZE);
+						}
+					}
+					return null;
+				}
+			});
+		}
+
+		if(workers.size() == 1) {
+			try {
+				workers.get(0).call();
+			} catch(Exception e) {
+				throw new IllegalStateException(e);
+			}
+			return result;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(workers.size());
+		try {
+			for(Future<Void> future : executor.invokeAll(workers)) {
+				future.get();
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch(ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+		return result;
+	}
+
+	/**
+	 * Count the hypotheses for user u. likedByU is a cleared bitset over the items, returned cleared.
+	 */
+	private int[] countHypotheses(int u, long[] likedByU) {
+		int[] result = new int[NB_HYPOTHESES];
+		int sizeU = nbLiked[u];
+		int[] uItems = ratedItems[u];
+		if(unratedLiked) {
+			// Every item but those u rated below likeThreshold
+			Arrays.fill(likedByU, -1L);
+			for(int p=sizeU; p<uItems.length; p++) {
+				likedByU[uItems[p] >>> 6] &= ~(1L << uItems[p]);
+			}
+		} else {
+			for(int p=0; p<sizeU; p++) {
+				likedByU[uItems[p] >>> 6] |= 1L << uItems[p];
+			}
+		}
+
+		// Users liking one item less than u, then as many
+		int first = groupStarts[Math.max(sizeU - 1, 0)];
+		int last = groupStarts[sizeU + 1];
+		for(int k=first; k<last; k++) {
+			int n = bySize[k];
+			if(n == u) {
+				continue;
+			}
+			int sizeN = nbLiked[n];
+			int[] nItems = ratedItems[n];
+			int nbMissing = 0;
+			for(int p=0; p<sizeN && nbMissing<2; p++) {
+				if((likedByU[nItems[p] >>> 6] & (1L << nItems[p])) == 0) {
+					nbMissing++;
+				}
+			}
+			if(nbMissing == 0) {
+				if(sizeN == sizeU) {
+					result[HYPO_I]++;
+				} else {
+					result[HYPO_II]++;
+				}
+			} else if(nbMissing == 1 && sizeN == sizeU) {
+				result[HYPO_III]++;
+			}
+		}
+
+		if(unratedLiked) {
+			Arrays.fill(likedByU, 0L);
+		} else {
+			for(int p=0; p<sizeU; p++) {
+				likedByU[uItems[p] >>> 6] = 0L;
+			}
+		}
+		return result;
+	}
+}
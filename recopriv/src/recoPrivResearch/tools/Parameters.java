@@ -33,6 +33,7 @@ public class Parameters {
 	public String log4jConfFile_ = "$baseDir/scripts/log4j.properties";
 	public String datasetPath_ = "$baseDir/datasets/movieLens/ml-100k/ratings.csv";
 	public String testingPath_ = "$baseDir/datasets/movieLens/ml-100k/u.test"; // Unused
+	public String dataModelType_ = "file"; // "file" (FileDataModel), "compact" (read-only CompactDataModel) or "mapped" (datasetPath is a CompactDataModel binary file, see convertDatasetToBinary.sh)
 	public String outputPath_ = "$baseDir/output/";
 
 	// IDs for experiment and source code tracking
@@ -55,8 +56,15 @@ public class Parameters {
 
 	// Number of neighbours for each user
 	public int k_ = 10;
-	public String neighborhoodType_ = "knn"; // other value = "random" or "ppns"
+	public String neighborhoodType_ = "knn"; // other value = "random", "ppns", or an approximate kNN searcher: "lsh", "projection", "fastprojection" or "brute"
 	public int beta_ = 4; // security metric in PPNS method
+	public int nbNeighborhoodThreads_ = 0; // Precompute all kNN neighborhoods (PPNS candidates with ppns) with that many threads, 0 to compute them on demand
+	public boolean cacheNeighborhoods_ = false; // Cache kNN neighborhoods computed on demand, with their ties, for all neighborChoiceBehavior values
+	public int approxSearchSize_ = 50; // Number of candidate neighbors the approximate kNN searcher returns, re-ranked by the similarity
+	public int approxNbProjections_ = 3; // Number of random projections of the "projection" and "fastprojection" searchers
+	public int jaccardNbHashes_ = 0; // Length of the MinHash signatures indexing users for Jaccard kNN, 0 for exact Jaccard kNN; signatures are computed with nbNeighborhoodThreads threads, at least 1
+	public int jaccardNbBands_ = 20; // Number of bands the MinHash signatures are cut into, must divide jaccardNbHashes; more bands find more neighbors, more slowly
+	public int similarityCacheMB_ = 0; // Memory budget of the user similarity cache of kNN recommenders, in MB, 0 to disable it
 
 	// Evaluators related
 	public double likeThreshold_ = 3; // minimum rating for an item to be considered relevant/liked
@@ -71,6 +79,7 @@ public class Parameters {
 	// Information Retrieval Stats realted
 	public boolean computeIRStats_ = false;
 	public int r_ = 5;  // maximum number of recommendations per user, for precision
+	public int nbIRStatsThreads_ = 1; // How many users to evaluate in parallel for IR stats, results do not depend on it unless the similarity is randomized
 
 	// Information about users above threshold, require 2step metric
 	public boolean computeAboveThres_ = false;
@@ -86,6 +95,10 @@ public class Parameters {
 
 	// Information about theoretical hypotheses
 	public boolean computeHypotheses_ = false;
+	public int nbHypothesesThreads_ = 1; // How many users to count the hypotheses of in parallel, results do not depend on it
+
+	// Recall of approximate kNN neighborhoods
+	public boolean computeApproxRecall_ = false; // Average fraction of the exact kNN found by the approximate neighborhood
 
 	// Privacy evaluation related
 	public boolean doSybilAttack_ = false;
@@ -97,12 +110,14 @@ public class Parameters {
 	public int nbAuxiliaryItems_ = 8; // Number of items/user known to the attacker to be in their profile
 	public double percentAuxiliaryItems_ = 0.2; // Within [0,1], percentage of the target's profile given as aux. items to Sybils
 	public String auxiliaryItemsSelectionStrategy_ = "random"; // How auxiliary information is selected
+	public boolean legacyPopularityAux_ = false; // mostPopular, leastPopular and leastRated select the first items of the profile, as they did before their selection was fixed
 	public int bestWorstFrac_ = 2; // Repartition of best and worst in bestWorstRated strategy
 	public int nbSybils_ = 10;
 	public String sybilRatingsStrategy_ = "groundtruth"; // How Sybils rate auxiliary items. Can be "neutral", "max", "liked" or "groundtruth".
 	public boolean adaptiveSybils_ = false; // Do Sybil users add recommended items in their profile
 	public int adaptiveSybilsNbRounds_ = 10; // How many iterations of: get recommendations -> update profile, for Sybil users
 	public int sybilsNbRecoPerRound_ = 1; // How many recommendations for each Sybil user to produce per round
+	public int nbAttackThreads_ = 1; // How many targets to evaluate (and build Sybil profiles for) in parallel, results do not depend on it
 	public String neighborChoiceBehavior_ = "random"; // Choose between equally similar neighbors: lower IDs first ("lower"), randomly ("random"), higher IDs first ("higher")
 	public boolean doOnlyPrecomputations_ = false; // Compute everything needed for the attack (Sybils, aux. items, etc) but do not perform the attack
 
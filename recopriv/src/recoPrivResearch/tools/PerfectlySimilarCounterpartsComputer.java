@@ -4,18 +4,10 @@ import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.lang.StringBuilder;
+import java.util.ArrayList;
+import java.util.List;
 
-import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.model.DataModel;
-import org.apache.mahout.cf.taste.impl.model.file.FileDataModel;
-import org.apache.mahout.cf.taste.similarity.UserSimilarity;
-import org.apache.mahout.cf.taste.impl.similarity.AbstractSimilarity;
-import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
-import org.apache.mahout.cf.taste.impl.similarity.TanimotoCoefficientSimilarity;
-import org.apache.mahout.cf.taste.impl.similarity.UncenteredCosineSimilarity;
-import org.apache.mahout.cf.taste.impl.similarity.AveragingPreferenceInferrer;
-import org.apache.mahout.cf.taste.impl.similarity.ZeroingPreferenceInferrer;
-import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 
 // Log4J1
 import org.apache.log4j.PropertyConfigurator;
@@ -36,7 +28,7 @@ import gnu.trove.iterator.TLongIterator;
 /**
  * Compute the lower half of the user-user similarity matrix, and put the result in a file to plot the distribution of similarities.
  * The dataset used must have less than Integer.MAX_VALUE users.
- * Otherwise, modifications are required starting at [1] in the code.
+ * An optional 6th argument sets the number of threads, all available processors by default.
  */
 public class PerfectlySimilarCounterpartsComputer {
 
@@ -70,291 +62,47 @@ public class PerfectlySimilarCounterpartsComputer {
 		
 
 
-		int nbUsers = ExceptHandler.getModelNumUsers(model);
+		int nbThreads = args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+		logger.debug("Number of threads: {}", nbThreads);
 
-		TLongObjectMap<TLongArrayList> usersPSCAsCosine = new TLongObjectHashMap<TLongArrayList>(nbUsers);
-		TLongObjectMap<TLongArrayList> usersPSCAsJaccard = new TLongObjectHashMap<TLongArrayList>(nbUsers);
-		TLongObjectMap<TLongArrayList> usersPSCAsCosineMahout = new TLongObjectHashMap<TLongArrayList>(nbUsers);
-		TLongObjectMap<TLongArrayList> usersPSCAsCosineAverage = new TLongObjectHashMap<TLongArrayList>(nbUsers);
-		TLongObjectMap<TLongArrayList> usersPSCAsPearson = new TLongObjectHashMap<TLongArrayList>(nbUsers);
-		TLongObjectMap<TLongArrayList> usersPSCAsWupXontoY = new TLongObjectHashMap<TLongArrayList>(nbUsers);
-		TLongObjectMap<TLongArrayList> usersPSCAsWupYontoX = new TLongObjectHashMap<TLongArrayList>(nbUsers);
+		AllPairsSimilarities allPairs = new AllPairsSimilarities(model);
 
-		// Creating similarity computers
-		UserSimilarity cosMahout = null;
-		try {
-			cosMahout = new UncenteredCosineSimilarity(model);
-		} catch(TasteException e) {
-			e.printStackTrace();
-		}
-
-		UserSimilarity cos = null;
-		try {
-			cos = new UncenteredCosineSimilarity(model);
-		} catch(TasteException e) {
-			e.printStackTrace();
-		}
-		cos.setPreferenceInferrer(new ZeroingPreferenceInferrer());
-
-		UserSimilarity jac = null;
-		jac = new TanimotoCoefficientSimilarity(model);
-
-		UserSimilarity cosAvg = null;
-		try {
-			cosAvg = new UncenteredCosineSimilarity(model);
-		} catch(TasteException e) {
-			e.printStackTrace();
-		}
-		cosAvg.setPreferenceInferrer(ExceptHandler.getAveragingPrefInferrer(model)); 
-
-		UserSimilarity pearson = null;
-		try {
-			pearson = new PearsonCorrelationSimilarity(model);
-		} catch(TasteException e) {
-			e.printStackTrace();
-		}
-		pearson.setPreferenceInferrer(new ZeroingPreferenceInferrer());
-		
-		UserSimilarity wupXontoY = null;
-		try {
-			wupXontoY = new UncenteredCosineSimilarity(model);
-		} catch(TasteException e) {
-			e.printStackTrace();
-		}
-		wupXontoY.setPreferenceInferrer(new ZeroingPreferenceInferrer()); 
-		((AbstractSimilarity) wupXontoY).setEnableXInferrer(true);
-		((AbstractSimilarity) wupXontoY).setEnableYInferrer(false);
-
-		UserSimilarity wupYontoX = null;
-		try {
-			wupYontoX = new UncenteredCosineSimilarity(model);
-		} catch(TasteException e) {
-			e.printStackTrace();
-		}
-		wupYontoX.setPreferenceInferrer(new ZeroingPreferenceInferrer()); 
-		((AbstractSimilarity) wupYontoX).setEnableXInferrer(false);
-		((AbstractSimilarity) wupYontoX).setEnableYInferrer(true);
-
-
-
-		// For each user, compute her similarity with all the other users
-
-		// [1] Gather all user IDs in an array, to deal with non-consecutive IDs
-		long[] userIDs = new long[nbUsers];
-		int i = 0;
-		for(LongPrimitiveIterator userIter = ExceptHandler.getModelUserIDs(model); userIter.hasNext();) {
-			userIDs[i] = userIter.next(); // No need for bound checks because userIter will no return more than nbUsers
-
-			usersPSCAsCosineMahout.put(userIDs[i], new TLongArrayList());
-			usersPSCAsCosine.put(userIDs[i], new TLongArrayList());
-			usersPSCAsJaccard.put(userIDs[i], new TLongArrayList());
-			usersPSCAsCosineMahout.put(userIDs[i], new TLongArrayList());
-			usersPSCAsCosineAverage.put(userIDs[i], new TLongArrayList());
-			usersPSCAsPearson.put(userIDs[i], new TLongArrayList());
-			usersPSCAsWupXontoY.put(userIDs[i], new TLongArrayList());
-			usersPSCAsWupYontoX.put(userIDs[i], new TLongArrayList());
-
-			i++;
+		// Compute the lower half of the user-user similarity matrix w/ all measures,
+		// and the upper half w/ asymmetric measures only
+		List<PSCVisitor> visitors = new ArrayList<PSCVisitor>(nbThreads);
+		for(int t=0; t<nbThreads; t++) {
+			visitors.add(new PSCVisitor());
 		}
-
-		/*BufferedWriter cosBw = null;*/
-		//BufferedWriter cosAvgBw = null;
-		//BufferedWriter cosMahoutBw = null;
-		//BufferedWriter jacBw = null;
-		//BufferedWriter pearsBw = null;
-		//BufferedWriter wupXYBw = null;
-		//BufferedWriter wupYXBw = null;
-
-		//if(logPSCIDs) {
-			//cosBw = getBufferedWriter(path, dataset, "cos");
-			//cosAvgBw = getBufferedWriter(path, dataset, "cos-avg");
-			//cosMahoutBw = getBufferedWriter(path, dataset, "cos-mahout");
-			//jacBw = getBufferedWriter(path, dataset, "jaccard");
-			//pearsBw = getBufferedWriter(path, dataset, "pearson");
-			//wupXYBw = getBufferedWriter(path, dataset, "wupXontoY");
-			//wupYXBw = getBufferedWriter(path, dataset, "wupYontoX");
-		/*}*/
-
-		// Actual similarity computations
-		for(int j=0; j<nbUsers; j++) {
-			long uid = userIDs[j];
-			logger.info("Processing user {}/{}, ID: {}", j+1, nbUsers, uid);
-
-			for(int k=0; k<nbUsers; k++) {
-				long fid = userIDs[k];
-				
-				if(j > k) { // Compute the lower half of the user-user similarity matrix, w/ all measures
-					// Cosine-mahout
-					float similarity = (float) -1.0;
-					try {
-						similarity = (float) cosMahout.userSimilarity(uid, fid);
-					} catch(TasteException e) {
-						e.printStackTrace();
-					}
-					// UserSimilarity may return NaN, when users have no common item
-					// or when the denominator in the similarity formula is 0.
-					/*if(!Float.isNaN(similarity)) {*/
-						//usersPSCAsCosineMahout.add(similarity);
-					//}
-					//if(logPSCIDs) {
-						//writeLineTo(cosMahoutBw, uid, fid, similarity);
-					/*}*/
-					if(similarity == 1.0) {
-						recordPerfectlySimilarCounterpartsIDs(uid, fid, usersPSCAsCosineMahout);
-					}
-
-					// Cosine
-					similarity = (float) -1.0;
-					try {
-						similarity = (float) cos.userSimilarity(uid, fid);
-					} catch(TasteException e) {
-						e.printStackTrace();
-					}
-					/*if(!Float.isNaN(similarity)) {*/
-						//usersPSCAsCosine.add(similarity);
-					//}
-					//if(logPSCIDs) {
-						//writeLineTo(cosBw, uid, fid, similarity);
-					/*}*/
-					if(similarity == 1.0) {
-						recordPerfectlySimilarCounterpartsIDs(uid, fid, usersPSCAsCosine);
-					}
-					
-					// Jaccard
-					similarity = (float) -1.0;
-					try {
-						similarity = (float) jac.userSimilarity(uid, fid);
-					} catch(TasteException e) {
-						e.printStackTrace();
+		allPairs.visitLowerHalf(visitors);
+
+		// Merge the PSC found by each thread, every user being in the maps
+		long[] userIDs = allPairs.getUserIDs();
+		int nbUsers = userIDs.length;
+		List<TLongObjectMap<TLongArrayList>> maps = new ArrayList<TLongObjectMap<TLongArrayList>>(AllPairsSimilarities.NB_MEASURES);
+		for(int m=0; m<AllPairsSimilarities.NB_MEASURES; m++) {
+			TLongObjectMap<TLongArrayList> map = new TLongObjectHashMap<TLongArrayList>(nbUsers);
+			for(long userID : userIDs) {
+				TLongArrayList userPSC = new TLongArrayList();
+				for(PSCVisitor visitor : visitors) {
+					TLongArrayList found = visitor.maps.get(m).get(userID);
+					if(found != null) {
+						userPSC.addAll(found);
 					}
-					/*if(!Float.isNaN(similarity)) {*/
-						//usersPSCAsJaccard.add(similarity);
-					//}
-					//if(logPSCIDs) {
-						//writeLineTo(jacBw, uid, fid, similarity);
-					/*}*/
-					if(similarity == 1.0) {
-						recordPerfectlySimilarCounterpartsIDs(uid, fid, usersPSCAsJaccard);
-					}
-
-					// Cosine-average
-					similarity = (float) -1.0;
-					try {
-						similarity = (float) cosAvg.userSimilarity(uid, fid);
-					} catch(TasteException e) {
-						e.printStackTrace();
-					}
-					/*if(!Float.isNaN(similarity)) {*/
-						//usersPSCAsCosineAverage.add(similarity);
-					//}
-					//if(logPSCIDs) {
-						//writeLineTo(cosAvgBw, uid, fid, similarity);
-					/*}*/
-					if(similarity == 1.0) {
-						recordPerfectlySimilarCounterpartsIDs(uid, fid, usersPSCAsCosineAverage);
-					}
-
-					// Pearson
-					similarity = (float) -1.0;
-					try {
-						similarity = (float) pearson.userSimilarity(uid, fid);
-					} catch(TasteException e) {
-						e.printStackTrace();
-					}
-					/*if(!Float.isNaN(similarity)) {*/
-						//usersPSCAsPearson.add(similarity);
-					//}
-					//if(logPSCIDs) {
-						//writeLineTo(pearsBw, uid, fid, similarity);
-					/*}*/
-					if(similarity == 1.0) {
-						recordPerfectlySimilarCounterpartsIDs(uid, fid, usersPSCAsPearson);
-					}
-					
-					// WUP, X projected onto Y
-					// Above assumption is false here, but meh.
-					similarity = (float) -1.0;
-					try {
-						similarity = (float) wupXontoY.userSimilarity(uid, fid);
-					} catch(TasteException e) {
-						e.printStackTrace();
-					}
-					/*if(!Float.isNaN(similarity)) {*/
-						//usersPSCAsWupXontoY.add(similarity);
-					//}
-					//if(logPSCIDs) {
-						//writeLineTo(wupXYBw, uid, fid, similarity);
-					/*}*/
-					if(similarity == 1.0) {
-						recordPerfectlySimilarCounterpartsForFirstUser(uid, fid, usersPSCAsWupXontoY);
-					}
-
-					// WUP, Y projected onto X
-					// Above assumption is false here, but meh.
-					similarity = (float) -1.0;
-					try {
-						similarity = (float) wupYontoX.userSimilarity(uid, fid);
-					} catch(TasteException e) {
-						e.printStackTrace();
-					}
-					/*if(!Float.isNaN(similarity)) {*/
-						//usersPSCAsWupYontoX.add(similarity);
-					//}
-					//if(logPSCIDs) {
-						//writeLineTo(wupYXBw, uid, fid, similarity);
-					/*}*/
-					if(similarity == 1.0) {
-						recordPerfectlySimilarCounterpartsForFirstUser(uid, fid, usersPSCAsWupYontoX);
-					}
-
-				} else if(j < k) { // Compute the upper half of the user-user similarity matrix, w/ asymmetric measures only
-					// WUP, X projected onto Y
-					float similarity = (float) -1.0;
-					try {
-						similarity = (float) wupXontoY.userSimilarity(fid, uid);
-					} catch(TasteException e) {
-						e.printStackTrace();
-					}
-					/*if(!Float.isNaN(similarity)) {*/
-						//usersPSCAsWupXontoY.add(similarity);
-					//}
-					//if(logPSCIDs) {
-						//writeLineTo(wupXYBw, fid, uid, similarity);
-					/*}*/
-					if(similarity == 1.0) {
-						recordPerfectlySimilarCounterpartsForFirstUser(fid, uid, usersPSCAsWupXontoY);
-					}
-
-					// WUP, Y projected onto X
-					similarity = (float) -1.0;
-					try {
-						similarity = (float) wupYontoX.userSimilarity(fid, uid);
-					} catch(TasteException e) {
-						e.printStackTrace();
-					}
-					/*if(!Float.isNaN(similarity)) {*/
-						//usersPSCAsWupYontoX.add(similarity);
-					//}
-					//if(logPSCIDs) {
-						//writeLineTo(wupYXBw, fid, uid, similarity);
-					/*}*/
-					if(similarity == 1.0) {
-						recordPerfectlySimilarCounterpartsForFirstUser(fid, uid, usersPSCAsWupYontoX);
-					}
-
 				}
+				userPSC.sort();
+				map.put(userID, userPSC);
 			}
+			maps.add(map);
 		}
+		TLongObjectMap<TLongArrayList> usersPSCAsCosine = maps.get(AllPairsSimilarities.COS);
+		TLongObjectMap<TLongArrayList> usersPSCAsJaccard = maps.get(AllPairsSimilarities.JACCARD);
+		TLongObjectMap<TLongArrayList> usersPSCAsCosineMahout = maps.get(AllPairsSimilarities.COS_MAHOUT);
+		TLongObjectMap<TLongArrayList> usersPSCAsCosineAverage = maps.get(AllPairsSimilarities.COS_AVG);
+		TLongObjectMap<TLongArrayList> usersPSCAsPearson = maps.get(AllPairsSimilarities.PEARSON);
+		TLongObjectMap<TLongArrayList> usersPSCAsWupXontoY = maps.get(AllPairsSimilarities.WUP_X_ONTO_Y);
+		TLongObjectMap<TLongArrayList> usersPSCAsWupYontoX = maps.get(AllPairsSimilarities.WUP_Y_ONTO_X);
 		
 		try {
-			/*cosBw.close();*/
-			//cosAvgBw.close();
-			//cosMahoutBw.close();
-			//jacBw.close();
-			//pearsBw.close();
-			//wupXYBw.close();
-			//wupYXBw.close();
-
 			cdfInt(path+dataset+"_PSCdistribution-cos.csv", usersPSCAsCosine);
 			cdfInt(path+dataset+"_PSCdistribution-jaccard.csv", usersPSCAsJaccard);
 			cdfInt(path+dataset+"_PSCdistribution-cos-mahout.csv", usersPSCAsCosineMahout);
@@ -378,6 +126,41 @@ public class PerfectlySimilarCounterpartsComputer {
 		
 	}
 
+	/**
+	 * Records the PSC found by one thread, for each measure.
+	 * Only users with at least one PSC are in the maps.
+	 */
+	private static class PSCVisitor implements AllPairsSimilarities.PairVisitor {
+
+		private final List<TLongObjectMap<TLongArrayList>> maps = new ArrayList<TLongObjectMap<TLongArrayList>>(AllPairsSimilarities.NB_MEASURES);
+
+		private PSCVisitor() {
+			for(int m=0; m<AllPairsSimilarities.NB_MEASURES; m++) {
+				maps.add(new TLongObjectHashMap<TLongArrayList>());
+			}
+		}
+
+		@Override
+		public void visit(long uid, long fid, float[] similarities) {
+			for(int m=0; m<similarities.length; m++) {
+				if(similarities[m] == 1.0) {
+					if(m == AllPairsSimilarities.WUP_X_ONTO_Y || m == AllPairsSimilarities.WUP_Y_ONTO_X) {
+						recordPerfectlySimilarCounterpartsForFirstUser(uid, fid, maps.get(m));
+					} else {
+						recordPerfectlySimilarCounterpartsIDs(uid, fid, maps.get(m));
+					}
+				}
+			}
+			// WUP is asymmetric: X projected onto Y for (fid, uid) is Y projected onto X for (uid, fid)
+			if(similarities[AllPairsSimilarities.WUP_Y_ONTO_X] == 1.0) {
+				recordPerfectlySimilarCounterpartsForFirstUser(fid, uid, maps.get(AllPairsSimilarities.WUP_X_ONTO_Y));
+			}
+			if(similarities[AllPairsSimilarities.WUP_X_ONTO_Y] == 1.0) {
+				recordPerfectlySimilarCounterpartsForFirstUser(fid, uid, maps.get(AllPairsSimilarities.WUP_Y_ONTO_X));
+			}
+		}
+	}
+
 	/**
 	 * Add user1 and user2 to each other's list of PSC.
 	 */
@@ -393,10 +176,10 @@ public class PerfectlySimilarCounterpartsComputer {
 		TLongArrayList user1sPSC = map.get(user1);
 
 		// Create the list if necessary
-		/*if(user1sPSC == null) {*/
-			//user1sPSC = new TLongArrayList();
-			//map.put(user1, user1sPSC);
-		/*}*/
+		if(user1sPSC == null) {
+			user1sPSC = new TLongArrayList();
+			map.put(user1, user1sPSC);
+		}
 		
 		user1sPSC.add(user2);
 	}
@@ -40,7 +40,7 @@ public class SerializedDatasetToCSV {
 	/**
 	 * Deserialize a Hashtable<Int,ScoreCount> object from path.
 	 */
-	private static Hashtable<Integer, ScoreCount<Integer>> deserializeHastableIntScoreCount(String path) {
+	static Hashtable<Integer, ScoreCount<Integer>> deserializeHastableIntScoreCount(String path) {
 		Hashtable<Integer, ScoreCount<Integer>> result = null;
 
 		FileInputStream file = ExceptHandler.createFileInputStream(path);
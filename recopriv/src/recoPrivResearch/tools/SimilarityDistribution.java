@@ -1,26 +1,13 @@
 package recoPrivResearch.tools;
 
 import java.io.BufferedWriter;
-import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.lang.StringBuilder;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Hashtable;
+import java.util.List;
 
-import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.model.DataModel;
-import org.apache.mahout.cf.taste.impl.model.file.FileDataModel;
-import org.apache.mahout.cf.taste.similarity.UserSimilarity;
-import org.apache.mahout.cf.taste.impl.similarity.AbstractSimilarity;
-import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
-import org.apache.mahout.cf.taste.impl.similarity.TanimotoCoefficientSimilarity;
-import org.apache.mahout.cf.taste.impl.similarity.UncenteredCosineSimilarity;
-import org.apache.mahout.cf.taste.impl.similarity.AveragingPreferenceInferrer;
-import org.apache.mahout.cf.taste.impl.similarity.ZeroingPreferenceInferrer;
-import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 
 // Log4J1
 import org.apache.log4j.PropertyConfigurator;
@@ -35,11 +22,12 @@ import gnu.trove.iterator.TFloatIterator;
 /**
  * Compute the lower half of the user-user similarity matrix, and put the result in a file to plot the distribution of similarities.
  * The dataset used must have less than Integer.MAX_VALUE users.
- * Otherwise, modifications are required starting at [1] in the code.
+ * An optional 6th argument sets the number of threads, all available processors by default.
  */
 public class SimilarityDistribution {
 
 	private static final Logger logger = LogManager.getLogger(SimilarityDistribution.class);
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
 
 	public static TFloatArrayList listCosine;
 	public static TFloatArrayList listJaccard;
@@ -49,16 +37,9 @@ public class SimilarityDistribution {
 	public static TFloatArrayList listWupXontoY;
 	public static TFloatArrayList listWupYontoX;
 	
-	public static void main(String[] args) {
-		
-		listCosine = new TFloatArrayList();
-		listJaccard = new TFloatArrayList();
-		listCosMahout = new TFloatArrayList();
-		listCosAvg = new TFloatArrayList();
-		listPearson = new TFloatArrayList();
-		listWupXontoY = new TFloatArrayList();
-		listWupYontoX = new TFloatArrayList();
+	private static final String[] MEASURE_NAMES = {"cos-mahout", "cos", "jaccard", "cos-avg", "pearson", "wupXontoY", "wupYontoX"};
 
+	public static void main(String[] args) {
 		
 		logger.debug("Log4j1 config file path (as parsed from CLI): {}", args[0]);
 		logger.debug("Dataset path (as parsed from CLI): {}", args[1]);
@@ -75,259 +56,136 @@ public class SimilarityDistribution {
 		String dataset = args[2];
 		String path = args[3];
 		boolean logSimilarityValues = args[4].equals("true");
-		
+		int nbThreads = args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+		logger.debug("Number of threads: {}", nbThreads);
 
+		AllPairsSimilarities allPairs = new AllPairsSimilarities(model);
 
-		// Creating similarity computers
-		UserSimilarity cosMahout = null;
-		try {
-			cosMahout = new UncenteredCosineSimilarity(model);
-		} catch(TasteException e) {
-			e.printStackTrace();
-		}
-
-		UserSimilarity cos = null;
-		try {
-			cos = new UncenteredCosineSimilarity(model);
-		} catch(TasteException e) {
-			e.printStackTrace();
+		BufferedWriter[] writers = new BufferedWriter[AllPairsSimilarities.NB_MEASURES];
+		if(logSimilarityValues) {
+			for(int m=0; m<writers.length; m++) {
+				writers[m] = getBufferedWriter(path, dataset, MEASURE_NAMES[m]);
+			}
 		}
-		cos.setPreferenceInferrer(new ZeroingPreferenceInferrer());
 
-		UserSimilarity jac = null;
-		jac = new TanimotoCoefficientSimilarity(model);
-
-		UserSimilarity cosAvg = null;
-		try {
-			cosAvg = new UncenteredCosineSimilarity(model);
-		} catch(TasteException e) {
-			e.printStackTrace();
+		// Compute the lower half of the user-user similarity matrix w/ all measures,
+		// and the upper half w/ asymmetric measures only
+		List<DistributionVisitor> visitors = new ArrayList<DistributionVisitor>(nbThreads);
+		for(int t=0; t<nbThreads; t++) {
+			visitors.add(new DistributionVisitor(logSimilarityValues ? writers : null));
 		}
-		cosAvg.setPreferenceInferrer(ExceptHandler.getAveragingPrefInferrer(model)); 
+		allPairs.visitLowerHalf(visitors);
 
-		UserSimilarity pearson = null;
-		try {
-			pearson = new PearsonCorrelationSimilarity(model);
-		} catch(TasteException e) {
-			e.printStackTrace();
+		TFloatArrayList[] lists = new TFloatArrayList[AllPairsSimilarities.NB_MEASURES];
+		for(int m=0; m<lists.length; m++) {
+			int size = 0;
+			for(DistributionVisitor visitor : visitors) {
+				size += visitor.lists[m].size();
+			}
+			lists[m] = new TFloatArrayList(size);
+			for(DistributionVisitor visitor : visitors) {
+				lists[m].addAll(visitor.lists[m]);
+				visitor.lists[m] = null;
+			}
 		}
-		pearson.setPreferenceInferrer(new ZeroingPreferenceInferrer());
+		listCosMahout = lists[AllPairsSimilarities.COS_MAHOUT];
+		listCosine = lists[AllPairsSimilarities.COS];
+		listJaccard = lists[AllPairsSimilarities.JACCARD];
+		listCosAvg = lists[AllPairsSimilarities.COS_AVG];
+		listPearson = lists[AllPairsSimilarities.PEARSON];
+		listWupXontoY = lists[AllPairsSimilarities.WUP_X_ONTO_Y];
+		listWupYontoX = lists[AllPairsSimilarities.WUP_Y_ONTO_X];
 		
-		UserSimilarity wupXontoY = null;
 		try {
-			wupXontoY = new UncenteredCosineSimilarity(model);
-		} catch(TasteException e) {
-			e.printStackTrace();
-		}
-		wupXontoY.setPreferenceInferrer(new ZeroingPreferenceInferrer()); 
-		((AbstractSimilarity) wupXontoY).setEnableXInferrer(true);
-		((AbstractSimilarity) wupXontoY).setEnableYInferrer(false);
+			if(logSimilarityValues) {
+				for(DistributionVisitor visitor : visitors) {
+					visitor.flush();
+				}
+				for(BufferedWriter writer : writers) {
+					writer.close();
+				}
+			}
 
-		UserSimilarity wupYontoX = null;
-		try {
-			wupYontoX = new UncenteredCosineSimilarity(model);
-		} catch(TasteException e) {
+			cdfDouble(path+dataset+"_distribution-cos.csv", listCosine);
+			cdfDouble(path+dataset+"_distribution-jaccard.csv", listJaccard);
+			cdfDouble(path+dataset+"_distribution-cos-mahout.csv", listCosMahout);
+			cdfDouble(path+dataset+"_distribution-cos-avg.csv", listCosAvg);
+			cdfDouble(path+dataset+"_distribution-pearson.csv", listPearson);
+			cdfDouble(path+dataset+"_distribution-wupXontoY.csv", listWupXontoY);
+			cdfDouble(path+dataset+"_distribution-wupYontoX.csv", listWupYontoX);
+		} catch (IOException e) {
 			e.printStackTrace();
 		}
-		wupYontoX.setPreferenceInferrer(new ZeroingPreferenceInferrer()); 
-		((AbstractSimilarity) wupYontoX).setEnableXInferrer(false);
-		((AbstractSimilarity) wupYontoX).setEnableYInferrer(true);
+		
+	}
 
+	/**
+	 * Gathers the similarity values seen by one thread, and buffers its lines of the similarity files.
+	 */
+	private static class DistributionVisitor implements AllPairsSimilarities.PairVisitor {
 
+		private static final int FLUSH_SIZE = 1 << 20; // Characters buffered per file before writing them
 
-		// For each user, compute her similarity with all the other users
+		private final TFloatArrayList[] lists = new TFloatArrayList[AllPairsSimilarities.NB_MEASURES];
+		private final BufferedWriter[] writers;
+		private final StringBuilder[] builders;
 
-		int nbUsers = ExceptHandler.getModelNumUsers(model);
-		// [1] Gather all user IDs in an array, to deal with non-consecutive IDs
-		long[] userIDs = new long[nbUsers];
-		int i = 0;
-		for(LongPrimitiveIterator userIter = ExceptHandler.getModelUserIDs(model); userIter.hasNext();) {
-			userIDs[i] = userIter.next(); // No need for bound checks because userIter will no return more than nbUsers
-			i++;
+		private DistributionVisitor(BufferedWriter[] writers) {
+			for(int m=0; m<lists.length; m++) {
+				lists[m] = new TFloatArrayList();
+			}
+			this.writers = writers;
+			if(writers == null) {
+				builders = null;
+			} else {
+				builders = new StringBuilder[writers.length];
+				for(int m=0; m<builders.length; m++) {
+					builders[m] = new StringBuilder(FLUSH_SIZE + 100);
+				}
+			}
 		}
 
-		BufferedWriter cosBw = null;
-		BufferedWriter cosAvgBw = null;
-		BufferedWriter cosMahoutBw = null;
-		BufferedWriter jacBw = null;
-		BufferedWriter pearsBw = null;
-		BufferedWriter wupXYBw = null;
-		BufferedWriter wupYXBw = null;
-
-		if(logSimilarityValues) {
-			cosBw = getBufferedWriter(path, dataset, "cos");
-			cosAvgBw = getBufferedWriter(path, dataset, "cos-avg");
-			cosMahoutBw = getBufferedWriter(path, dataset, "cos-mahout");
-			jacBw = getBufferedWriter(path, dataset, "jaccard");
-			pearsBw = getBufferedWriter(path, dataset, "pearson");
-			wupXYBw = getBufferedWriter(path, dataset, "wupXontoY");
-			wupYXBw = getBufferedWriter(path, dataset, "wupYontoX");
+		@Override
+		public void visit(long uid, long fid, float[] similarities) {
+			for(int m=0; m<similarities.length; m++) {
+				add(m, uid, fid, similarities[m]);
+			}
+			// WUP is asymmetric: X projected onto Y for (fid, uid) is Y projected onto X for (uid, fid)
+			add(AllPairsSimilarities.WUP_X_ONTO_Y, fid, uid, similarities[AllPairsSimilarities.WUP_Y_ONTO_X]);
+			add(AllPairsSimilarities.WUP_Y_ONTO_X, fid, uid, similarities[AllPairsSimilarities.WUP_X_ONTO_Y]);
 		}
 
-		// Actual similarity computations
-		for(int j=0; j<nbUsers; j++) {
-			long uid = userIDs[j];
-			logger.info("Processing user {}/{}, ID: {}", j+1, nbUsers, uid);
-
-			for(int k=0; k<nbUsers; k++) {
-				long fid = userIDs[k];
-				
-				if(j > k) { // Compute the lower half of the user-user similarity matrix, w/ all measures
-					// Cosine-mahout
-					float similarity = (float) -1.0;
-					try {
-						similarity = (float) cosMahout.userSimilarity(uid, fid);
-					} catch(TasteException e) {
-						e.printStackTrace();
-					}
-					// UserSimilarity may return NaN, when users have no common item
-					// or when the denominator in the similarity formula is 0.
-					if(!Float.isNaN(similarity)) {
-						listCosMahout.add(similarity);
-					}
-					if(logSimilarityValues) {
-						writeLineTo(cosMahoutBw, uid, fid, similarity);
-					}
-
-					// Cosine
-					similarity = (float) -1.0;
-					try {
-						similarity = (float) cos.userSimilarity(uid, fid);
-					} catch(TasteException e) {
-						e.printStackTrace();
-					}
-					if(!Float.isNaN(similarity)) {
-						listCosine.add(similarity);
-					}
-					if(logSimilarityValues) {
-						writeLineTo(cosBw, uid, fid, similarity);
-					}
-					
-					// Jaccard
-					similarity = (float) -1.0;
-					try {
-						similarity = (float) jac.userSimilarity(uid, fid);
-					} catch(TasteException e) {
-						e.printStackTrace();
-					}
-					if(!Float.isNaN(similarity)) {
-						listJaccard.add(similarity);
-					}
-					if(logSimilarityValues) {
-						writeLineTo(jacBw, uid, fid, similarity);
-					}
-
-					// Cosine-average
-					similarity = (float) -1.0;
-					try {
-						similarity = (float) cosAvg.userSimilarity(uid, fid);
-					} catch(TasteException e) {
-						e.printStackTrace();
-					}
-					if(!Float.isNaN(similarity)) {
-						listCosAvg.add(similarity);
-					}
-					if(logSimilarityValues) {
-						writeLineTo(cosAvgBw, uid, fid, similarity);
-					}
-
-					// Pearson
-					similarity = (float) -1.0;
-					try {
-						similarity = (float) pearson.userSimilarity(uid, fid);
-					} catch(TasteException e) {
-						e.printStackTrace();
-					}
-					if(!Float.isNaN(similarity)) {
-						listPearson.add(similarity);
-					}
-					if(logSimilarityValues) {
-						writeLineTo(pearsBw, uid, fid, similarity);
-					}
-					
-					// WUP, X projected onto Y
-					// Above assumption is false here, but meh.
-					similarity = (float) -1.0;
-					try {
-						similarity = (float) wupXontoY.userSimilarity(uid, fid);
-					} catch(TasteException e) {
-						e.printStackTrace();
-					}
-					if(!Float.isNaN(similarity)) {
-						listWupXontoY.add(similarity);
-					}
-					if(logSimilarityValues) {
-						writeLineTo(wupXYBw, uid, fid, similarity);
-					}
-
-					// WUP, Y projected onto X
-					// Above assumption is false here, but meh.
-					similarity = (float) -1.0;
-					try {
-						similarity = (float) wupYontoX.userSimilarity(uid, fid);
-					} catch(TasteException e) {
-						e.printStackTrace();
-					}
-					if(!Float.isNaN(similarity)) {
-						listWupYontoX.add(similarity);
-					}
-					if(logSimilarityValues) {
-						writeLineTo(wupYXBw, uid, fid, similarity);
-					}
-
-				} else if(j < k) { // Compute the upper half of the user-user similarity matrix, w/ asymmetric measures only
-					// WUP, X projected onto Y
-					float similarity = (float) -1.0;
-					try {
-						similarity = (float) wupXontoY.userSimilarity(fid, uid);
-					} catch(TasteException e) {
-						e.printStackTrace();
-					}
-					if(!Float.isNaN(similarity)) {
-						listWupXontoY.add(similarity);
-					}
-					if(logSimilarityValues) {
-						writeLineTo(wupXYBw, fid, uid, similarity);
-					}
-
-					// WUP, Y projected onto X
-					similarity = (float) -1.0;
-					try {
-						similarity = (float) wupYontoX.userSimilarity(fid, uid);
-					} catch(TasteException e) {
-						e.printStackTrace();
-					}
-					if(!Float.isNaN(similarity)) {
-						listWupYontoX.add(similarity);
-					}
-					if(logSimilarityValues) {
-						writeLineTo(wupYXBw, fid, uid, similarity);
-					}
-
+		private void add(int measure, long uid, long fid, float similarity) {
+			// UserSimilarity may return NaN, when users have no common item
+			// or when the denominator in the similarity formula is 0.
+			if(!Float.isNaN(similarity)) {
+				lists[measure].add(similarity);
+			}
+			if(builders != null) {
+				StringBuilder builder = builders[measure];
+				builder.append(uid).append(",").append(fid).append(",").append(similarity).append(LINE_SEPARATOR);
+				if(builder.length() >= FLUSH_SIZE) {
+					write(measure);
 				}
 			}
 		}
-		
-		try {
-			cosBw.close();
-			cosAvgBw.close();
-			cosMahoutBw.close();
-			jacBw.close();
-			pearsBw.close();
-			wupXYBw.close();
-			wupYXBw.close();
 
-			cdfDouble(path+dataset+"_distribution-cos.csv", listCosine);
-			cdfDouble(path+dataset+"_distribution-jaccard.csv", listJaccard);
-			cdfDouble(path+dataset+"_distribution-cos-mahout.csv", listCosMahout);
-			cdfDouble(path+dataset+"_distribution-cos-avg.csv", listCosAvg);
-			cdfDouble(path+dataset+"_distribution-pearson.csv", listPearson);
-			cdfDouble(path+dataset+"_distribution-wupXontoY.csv", listWupXontoY);
-			cdfDouble(path+dataset+"_distribution-wupYontoX.csv", listWupYontoX);
-		} catch (IOException e) {
-			e.printStackTrace();
+		private void flush() {
+			for(int m=0; m<builders.length; m++) {
+				write(m);
+			}
+		}
+
+		private void write(int measure) {
+			try {
+				synchronized(writers[measure]) {
+					writers[measure].write(builders[measure].toString());
+				}
+			} catch(IOException e) {
+				e.printStackTrace();
+			}
+			builders[measure].setLength(0);
 		}
-		
 	}
 	
 
@@ -404,18 +262,4 @@ public class SimilarityDistribution {
 
 		return bw;
 	}
-
-	private static void writeLineTo(BufferedWriter bw, long uid, long fid, float similarity) {
-
-		StringBuilder builder = new StringBuilder();
-
-		builder.append(uid).append(",").append(fid).append(",").append(similarity);
-
-		try {
-			bw.write(builder.toString());
-			bw.newLine();
-		} catch(IOException e) {
-			e.printStackTrace();
-		}
-	}
 }